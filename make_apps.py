@@ -39,6 +39,7 @@ java_apps = {
     "BNrandomEvidence": {"class": "probcog.BNrandomEvidence", "includes": ["srldb", "swt", "bnj"]},
     "MLN2WCSP": {"class": "probcog.MLN2WCSP", "includes": ["srldb", "jython"]},
     "MLNinfer": {"class": "probcog.MLNinfer", "includes": ["srldb", "bnj", "jython","yprolog"]},
+    "inferenceBenchmark": {"class": "probcog.InferenceBenchmark", "includes": ["srldb", "weka", "jython", "swt", "bnj", "smile", "ssj", "yprolog", "choco","jdom","proximity_new"]},
     "bnj": {"class": "probcog.BNJ", "includes": ["srldb", "bnj", "swt"]},
     "genDB": {"class": "probcog.genDB", "includes": ["srldb", "jython", "proximity", "bnj", "weka"]},
     "groundABL": {"class": "probcog.groundABL", "includes": ["srldb", "bnj"]},
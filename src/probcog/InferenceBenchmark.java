@@ -0,0 +1,538 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Vector;
+
+import probcog.bayesnets.inference.SampledDistribution;
+import probcog.inference.CancellationToken;
+import probcog.srl.Database;
+import probcog.srl.directed.bln.AbstractGroundBLN;
+import probcog.srl.directed.bln.BayesianLogicNetwork;
+import probcog.srl.directed.inference.Algorithm;
+import probcog.srl.directed.inference.Sampler;
+import probcog.srl.mln.MarkovLogicNetwork;
+import probcog.srl.mln.MarkovRandomField;
+import probcog.srl.mln.inference.InferenceAlgorithm;
+import probcog.srl.mln.inference.InferenceResult;
+import probcog.srl.mln.inference.MCSAT;
+import probcog.srl.mln.inference.MaxWalkSAT;
+
+/**
+ * Benchmark harness for the inference methods, which runs them on the example models that are 
+ * bundled with ProbCog (examples/ and test/models/). For each model, the time taken to instantiate 
+ * the ground model is measured separately; for each combination of model and inference method, 
+ * the harness reports
+ * <ul>
+ * <li>the inference time and the throughput (steps per second) for a fixed number of steps,</li>
+ * <li>the number of bytes allocated per run (by all threads, including the worker threads of parallel
+ *     inference methods; allocations of worker threads that terminate before the end of a measurement
+ *     are, however, not included),</li>
+ * <li>the time-to-accuracy, i.e. the time taken by the first run (with the number of steps doubled
+ *     from run to run) whose results deviate from the reference results by at most epsilon 
+ *     (maximum absolute error). The reference results are computed by an exact method (variable 
+ *     elimination) for BLNs and by a long run of MC-SAT for MLNs. The search is abandoned once the
+ *     runs have taken more than a given amount of time in total.</li>
+ * </ul>
+ * Each measurement is preceded by warm-up runs (which are not measured), and the results are 
+ * averaged over several measurement runs. Runs exceeding a time limit are cancelled.
+ * @author Dominik Jain
+ */
+public class InferenceBenchmark {
+	
+	protected int warmupRuns = 2, measuredRuns = 5;
+	protected int steps = 1000;
+	protected double epsilon = 0.01;
+	protected int minAccuracySteps = 100, maxAccuracySteps = 102400;
+	protected double maxAccuracyTime = 10.0;
+	protected double runTimeLimit = 60.0;
+	protected int referenceSteps = 200000;
+	protected String[] algorithms = null;
+	protected String[] models = null;
+	protected boolean verbose = false;
+	protected String baseDir = ".";
+	protected PrintStream out = System.out;
+	
+	/**
+	 * a model together with evidence and queries on which the inference methods are benchmarked
+	 */
+	protected abstract class Benchmark {
+		public String name;
+		public String[] queries;
+		/**
+		 * the number of steps taken by the last inference run
+		 */
+		public int stepsTaken;
+		
+		public Benchmark(String name, String queries) {
+			this.name = name;
+			this.queries = queries.split(";");
+		}
+		
+		protected String path(String dir, String file) {
+			return baseDir + "/" + dir + "/" + file;
+		}
+		
+		/**
+		 * loads the model and the evidence database
+		 */
+		public abstract void load() throws Exception;
+		
+		/**
+		 * instantiates the ground model (and retains it for subsequent inference runs)
+		 */
+		public abstract void ground() throws Exception;
+		
+		/**
+		 * @return the names of the algorithms that are applicable to the model by default
+		 */
+		public abstract String[] getDefaultAlgorithms();
+		
+		/**
+		 * @return true if the given algorithm name refers to an algorithm that can be applied to the model
+		 */
+		public abstract boolean isApplicable(String algorithm);
+		
+		/**
+		 * runs an inference method on the ground model
+		 * @param algorithm  the name of the algorithm
+		 * @param steps  the number of steps (samples/iterations) to take
+		 * @param token  the token via which the run can be cancelled
+		 * @return the query results, mapping from "variable=value" to the probability
+		 */
+		public abstract Map<String,Double> infer(String algorithm, int steps, CancellationToken token) throws Exception;
+		
+		/**
+		 * computes the results against which approximate results are compared
+		 */
+		public abstract Map<String,Double> inferReference() throws Exception;
+	}
+	
+	protected class BLNBenchmark extends Benchmark {
+		protected String declsFile, networkFile, logicFile, dbFile;
+		protected String[] cwPreds;
+		protected BayesianLogicNetwork bln;
+		protected Database db;
+		protected AbstractGroundBLN gbln;
+		
+		public BLNBenchmark(String name, String dir, String declsFile, String networkFile, String logicFile, String dbFile, String queries, String cwPreds) {
+			super(name, queries);
+			this.declsFile = path(dir, declsFile);
+			this.networkFile = path(dir, networkFile);
+			this.logicFile = path(dir, logicFile);
+			this.dbFile = path(dir, dbFile);
+			this.cwPreds = cwPreds == null ? new String[0] : cwPreds.split(",");
+		}
+		
+		@Override
+		public void load() throws Exception {
+			bln = new BayesianLogicNetwork(declsFile, networkFile, logicFile);
+			db = new Database(bln);
+			db.readBLOGDB(dbFile);
+			for(String predName : cwPreds)
+				db.setClosedWorldPred(predName);
+		}
+		
+		@Override
+		public void ground() throws Exception {
+			gbln = bln.ground(db);
+			gbln.instantiateGroundNetwork();
+		}
+		
+		/**
+		 * all the algorithms that are available in this distribution
+		 */
+		@Override
+		public String[] getDefaultAlgorithms() {
+			Vector<String> algos = new Vector<String>();
+			for(Algorithm a : Algorithm.values())
+				if(a.isAvailable())
+					algos.add(a.toString());
+			return algos.toArray(new String[algos.size()]);
+		}
+		
+		@Override
+		public boolean isApplicable(String algorithm) {
+			try {
+				Algorithm.valueOf(algorithm);
+				return true;
+			}
+			catch(IllegalArgumentException e) {
+				return false;
+			}
+		}
+		
+		@Override
+		public Map<String,Double> infer(String algorithm, int steps, CancellationToken token) throws Exception {
+			Sampler sampler = Algorithm.valueOf(algorithm).createSampler(gbln);
+			sampler.setCancellationToken(token);
+			sampler.setQueries(Arrays.asList(queries));
+			sampler.setNumSamples(steps);
+			sampler.setVerbose(verbose);
+			SampledDistribution dist = sampler.infer();
+			stepsTaken = dist.steps;
+			Map<String,Double> results = new HashMap<String,Double>();
+			for(probcog.srl.directed.inference.InferenceResult res : sampler.getResults(dist))
+				for(int i = 0; i < res.domainElements.length; i++)
+					results.put(res.varName + "=" + res.domainElements[i], res.probabilities[i]);
+			return results;
+		}
+		
+		@Override
+		public Map<String,Double> inferReference() throws Exception {
+			return infer("VarElim", 1, new CancellationToken());
+		}
+	}
+	
+	protected class MLNBenchmark extends Benchmark {
+		protected String[] mlnFiles;
+		protected String dbFile;
+		protected MarkovLogicNetwork mln;
+		protected Database db;
+		protected MarkovRandomField mrf;
+		
+		public MLNBenchmark(String name, String dir, String mlnFile, String dbFile, String queries) {
+			super(name, queries);
+			this.mlnFiles = new String[]{path(dir, mlnFile)};
+			this.dbFile = path(dir, dbFile);
+		}
+		
+		@Override
+		public void load() throws Exception {
+			mln = new MarkovLogicNetwork(mlnFiles);
+			db = new Database(mln);
+			db.readMLNDB(dbFile);
+		}
+		
+		@Override
+		public void ground() throws Exception {
+			mrf = mln.ground(db);
+		}
+		
+		@Override
+		public String[] getDefaultAlgorithms() {
+			return new String[]{"MCSAT"};
+		}
+		
+		@Override
+		public boolean isApplicable(String algorithm) {
+			return algorithm.equals("MCSAT") || algorithm.equals("MaxWalkSAT");
+		}
+		
+		@Override
+		public Map<String,Double> infer(String algorithm, int steps, CancellationToken token) throws Exception {
+			InferenceAlgorithm infer;
+			if(algorithm.equals("MaxWalkSAT"))
+				infer = new MaxWalkSAT(mrf);
+			else
+				infer = new MCSAT(mrf);
+			infer.setVerbose(verbose);
+			infer.setCancellationToken(token);
+			infer.setMaxSteps(steps);
+			stepsTaken = steps;
+			Map<String,Double> results = new HashMap<String,Double>();
+			for(InferenceResult res : infer.infer(Arrays.asList(queries)))
+				results.put(res.ga.toString(), res.value);
+			return results;
+		}
+		
+		@Override
+		public Map<String,Double> inferReference() throws Exception {
+			return infer("MCSAT", referenceSteps, new CancellationToken());
+		}
+	}
+	
+	protected Vector<Benchmark> getBenchmarks() {
+		Vector<Benchmark> benchmarks = new Vector<Benchmark>();
+		benchmarks.add(new BLNBenchmark("alarm", "examples/alarm", "alarm.blnd", "alarm.pmml", "alarm.blnl", "query1.blogdb", "alarm;burglary", null));
+		benchmarks.add(new BLNBenchmark("grades", "examples/grades", "grades.blog", "grades.xml", "grades.blnl", "grades.blogdb", "grade(x,CS106)", "teaches,advises,takes"));
+		benchmarks.add(new BLNBenchmark("meals", "examples/meals", "meals_any_for_functional.blnd", "meals_any_for_functional.xml", "meals_any_for_functional.blnl", "query1.blogdb", "consumesAnyIn;usesAnyIn", null));
+		benchmarks.add(new MLNBenchmark("smokers", "test/models/smokers", "wts.pybpll.smoking-train-smoking.mln", "smoking-test.db", "Cancer"));
+		benchmarks.add(new MLNBenchmark("student_course", "test/models/student_course", "student_course2_simLearned.mln", "1each.db", "takes"));
+		return benchmarks;
+	}
+	
+	/**
+	 * thread which cancels an inference run once the time limit has been exceeded
+	 */
+	protected static class Watchdog extends Thread {
+		protected CancellationToken token;
+		protected long timeLimit;
+		
+		public Watchdog(CancellationToken token, double seconds) {
+			this.token = token;
+			this.timeLimit = (long)(seconds * 1000);
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				Thread.sleep(timeLimit);
+				token.cancel();
+			}
+			catch(InterruptedException e) {
+			}
+		}
+	}
+	
+	/**
+	 * runs an inference method on the given benchmark's ground model, cancelling it if the time limit is exceeded
+	 * @return the query results or null if the run was cancelled
+	 */
+	protected static Map<String,Double> infer(Benchmark b, String algo, int steps, double timeLimit) throws Exception {
+		CancellationToken token = new CancellationToken();
+		Watchdog watchdog = new Watchdog(token, timeLimit);
+		watchdog.start();
+		try {
+			Map<String,Double> results = b.infer(algo, steps, token);
+			return token.isCancelled() ? null : results;
+		}
+		finally {
+			watchdog.interrupt();
+		}
+	}
+	
+	/**
+	 * runs an inference method (as part of a measurement) with the time limit for individual runs
+	 * @return the query results
+	 */
+	protected Map<String,Double> inferLimited(Benchmark b, String algo, int steps) throws Exception {
+		Map<String,Double> results = infer(b, algo, steps, runTimeLimit);
+		if(results == null)
+			throw new Exception(String.format("run exceeded the time limit of %.0fs", runTimeLimit));
+		return results;
+	}
+	
+	/**
+	 * @return the total number of bytes allocated thus far by all the threads that are currently alive (or -1 if this cannot be determined).
+	 * NOTE: Allocations of threads that have terminated are not included, so for inference methods that use worker threads
+	 * which end before the measurement does (e.g. parallel chains), the difference of two values underestimates the allocations.
+	 */
+	protected static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+			if(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				long total = 0;
+				for(long bytes : sunBean.getThreadAllocatedBytes(sunBean.getAllThreadIds()))
+					if(bytes > 0) // -1 for threads that have terminated in the meantime
+						total += bytes;
+				return total;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return the maximum absolute difference between the probabilities in the two sets of results (entries missing in the results count as zero)
+	 */
+	protected static double getMaxAbsError(Map<String,Double> results, Map<String,Double> reference) {
+		double maxErr = 0;
+		for(Entry<String,Double> e : reference.entrySet()) {
+			Double p = results.get(e.getKey());
+			maxErr = Math.max(maxErr, Math.abs((p == null ? 0.0 : p) - e.getValue()));
+		}
+		return maxErr;
+	}
+	
+	/**
+	 * @return the given number of bytes in human-readable form
+	 */
+	protected static String formatBytes(long bytes) {
+		if(bytes < 0)
+			return "n/a";
+		if(bytes < 1024 * 1024)
+			return String.format("%.1f KB", bytes / 1024.0);
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+	
+	/**
+	 * @return the number of seconds that have passed since the given point in time (as returned by {@link System#nanoTime()})
+	 */
+	protected static double secondsSince(long startTime) {
+		return (System.nanoTime() - startTime) / 1e9;
+	}
+	
+	protected static boolean contains(String[] names, String name) {
+		for(String n : names)
+			if(n.equals(name))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * runs all the benchmarks, reporting the results to the output stream; any output of the 
+	 * inference methods themselves is suppressed (unless in verbose mode)
+	 */
+	public void run() throws Exception {
+		PrintStream stdout = System.out;
+		if(!verbose)
+			System.setOut(new PrintStream(new OutputStream() { public void write(int b) {} }));
+		try {
+			runBenchmarks();
+		}
+		finally {
+			System.setOut(stdout);
+		}
+	}
+	
+	protected void runBenchmarks() {
+		out.printf("%d warm-up run(s), %d measured run(s) of %d steps each; time-to-accuracy with epsilon=%s, %d-%d steps, at most %.0fs\n", warmupRuns, measuredRuns, steps, epsilon, minAccuracySteps, maxAccuracySteps, maxAccuracyTime);
+		for(Benchmark b : getBenchmarks()) {
+			if(models != null && !contains(models, b.name))
+				continue;
+			out.printf("\n%s\n", b.name);
+			// load and ground the model
+			Map<String,Double> reference;
+			try {
+				long startTime = System.nanoTime();
+				b.load();
+				double loadTime = secondsSince(startTime);
+				for(int i = 0; i < warmupRuns; i++)
+					b.ground();
+				long bytes = getAllocatedBytes();
+				startTime = System.nanoTime();
+				for(int i = 0; i < measuredRuns; i++)
+					b.ground();
+				double groundingTime = secondsSince(startTime) / measuredRuns;
+				bytes = (getAllocatedBytes() - bytes) / measuredRuns;
+				out.printf("  loading: %.1f ms, grounding: %.1f ms (%s allocated)\n", loadTime * 1000, groundingTime * 1000, formatBytes(bytes));
+				reference = b.inferReference();
+			}
+			catch(Exception e) {
+				out.printf("  failed: %s\n", e);
+				continue;
+			}
+			// run the inference methods
+			out.printf("  %-24s %10s %12s %12s %10s %24s\n", "algorithm", "time (ms)", "steps/s", "alloc/run", "error", "time-to-accuracy (steps)");
+			String[] algos = algorithms != null ? algorithms : b.getDefaultAlgorithms();
+			for(String algo : algos) {
+				if(!b.isApplicable(algo))
+					continue;
+				try {
+					for(int i = 0; i < warmupRuns; i++)
+						inferLimited(b, algo, steps);
+					long bytes = getAllocatedBytes();
+					long totalSteps = 0;
+					Map<String,Double> results = null;
+					long startTime = System.nanoTime();
+					for(int i = 0; i < measuredRuns; i++) {
+						results = inferLimited(b, algo, steps);
+						totalSteps += b.stepsTaken;
+					}
+					double time = secondsSince(startTime);
+					bytes = (getAllocatedBytes() - bytes) / measuredRuns;
+					String throughput = totalSteps > 0 ? String.format("%.0f", totalSteps / time) : "-";
+					out.printf("  %-24s %10.2f %12s %12s %10.4f %24s\n", algo, time * 1000 / measuredRuns, throughput, formatBytes(bytes), getMaxAbsError(results, reference), measureTimeToAccuracy(b, algo, reference));
+				}
+				catch(Exception e) {
+					out.printf("  %-24s failed: %s\n", algo, e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * runs the given algorithm with an increasing number of steps (doubling it from run to run) until 
+	 * the maximum absolute error with respect to the reference results is at most epsilon (or the maximum
+	 * number of steps or the time limit is exceeded)
+	 * @return a description of the time taken by the first sufficiently accurate run (and the number of steps taken) 
+	 */
+	protected String measureTimeToAccuracy(Benchmark b, String algo, Map<String,Double> reference) throws Exception {
+		long searchStartTime = System.nanoTime();
+		for(int n = minAccuracySteps; n <= maxAccuracySteps; n *= 2) {
+			double remainingTime = maxAccuracyTime - secondsSince(searchStartTime);
+			if(remainingTime <= 0)
+				break;
+			long startTime = System.nanoTime();
+			Map<String,Double> results = infer(b, algo, n, remainingTime);
+			double time = secondsSince(startTime);
+			if(results == null)
+				break;
+			if(getMaxAbsError(results, reference) <= epsilon)
+				return String.format("%.2f ms (%d)", time * 1000, b.stepsTaken);
+		}
+		return "not reached";
+	}
+	
+	public static void main(String[] args) {
+		Locale.setDefault(new Locale("en"));
+		try {
+			InferenceBenchmark benchmark = new InferenceBenchmark();
+			for(int i = 0; i < args.length; i++) {
+				if(args[i].equals("-d"))
+					benchmark.baseDir = args[++i];
+				else if(args[i].equals("-m"))
+					benchmark.models = args[++i].split(",");
+				else if(args[i].equals("-ia"))
+					benchmark.algorithms = args[++i].split(",");
+				else if(args[i].equals("-warmup"))
+					benchmark.warmupRuns = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-runs"))
+					benchmark.measuredRuns = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-maxSteps"))
+					benchmark.steps = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-accSteps")) {
+					String[] range = args[++i].split("-");
+					benchmark.minAccuracySteps = Integer.parseInt(range[0]);
+					benchmark.maxAccuracySteps = Integer.parseInt(range[1]);
+				}
+				else if(args[i].equals("-accTime"))
+					benchmark.maxAccuracyTime = Double.parseDouble(args[++i]);
+				else if(args[i].equals("-timeLimit"))
+					benchmark.runTimeLimit = Double.parseDouble(args[++i]);
+				else if(args[i].equals("-refSteps"))
+					benchmark.referenceSteps = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-eps"))
+					benchmark.epsilon = Double.parseDouble(args[++i]);
+				else if(args[i].equals("-v"))
+					benchmark.verbose = true;
+				else {
+					System.out.println("\n usage: InferenceBenchmark [options]\n\n" +
+							"    -d <dir>           the ProbCog base directory containing examples/ and test/ (default: .)\n" +
+							"    -m <names>         the models to benchmark (comma-separated; default: all of alarm, grades, meals, smokers, student_course)\n" +
+							"    -ia <names>        the inference algorithms to benchmark (comma-separated; default: a selection of the applicable ones)\n" +
+							"    -warmup #          the number of warm-up runs (default: 2)\n" +
+							"    -runs #            the number of measured runs (default: 5)\n" +
+							"    -maxSteps #        the number of steps per measured run (default: 1000)\n" +
+							"    -timeLimit #       the time limit in seconds for individual measured runs (default: 60)\n" +
+							"    -accSteps #-#      the range of step numbers for the time-to-accuracy measurement (default: 100-102400)\n" +
+							"    -accTime #         the time limit in seconds for the time-to-accuracy measurement (default: 10)\n" +
+							"    -refSteps #        the number of steps of sampling-based reference computations (default: 200000)\n" +
+							"    -eps #             the maximum absolute error for the time-to-accuracy measurement (default: 0.01)\n" +
+							"    -v                 verbose mode (do not suppress the output of the inference methods)\n");
+					return;
+				}
+			}
+			benchmark.run();
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -138,6 +138,17 @@ public class BeliefNetworkEx {
 		initAttributeMapping();
 	}
 	
+	/**
+	 * initializes this object with a network that was constructed directly (rather than loaded by an importer)
+	 * @param bn  the network
+	 * @param filename  the name of the file the network originates from (may be null)
+	 */
+	protected void initNetwork(BeliefNetwork bn, String filename) {
+		this.filename = filename;
+		this.bn = bn;
+		initAttributeMapping();
+	}
+	
 	/**
 	 * Initialize the attribute mapping with the basenodes' names to itself respectively.
 	 */
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.core;
+
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPF;
+import edu.ksu.cis.bnj.ver3.core.CPT;
+import edu.ksu.cis.bnj.ver3.core.Value;
+import edu.ksu.cis.bnj.ver3.core.values.ValueDouble;
+
+/**
+ * The CPT of a node whose value is a deterministic function of the values of its parents.
+ * The entries are computed on demand rather than stored, such that the size of the representation
+ * does not depend on the number of parents.
+ * <p>The entries can be read like those of any other CPT, but they cannot be modified.
+ * Operations that require the full table (e.g. {@link #getValues()}, {@link #copy()}) materialize it
+ * and should thus be avoided for nodes with many parents.</p>
+ * @author Dominik Jain
+ */
+public abstract class FunctionalCPT extends CPT {
+	/**
+	 * the identity mapping of domain product positions (see {@link #getValue(int[], int[])})
+	 */
+	protected int[] identity;
+	/**
+	 * the number of entries in the (virtual) table
+	 */
+	protected long numEntries;
+
+	public FunctionalCPT(BeliefNode[] domProd) {
+		_DomainProduct = domProd;
+		_SizeBuffer = new int[domProd.length];
+		identity = new int[domProd.length];
+		numEntries = 1;
+		for(int i = 0; i < domProd.length; i++) {
+			_SizeBuffer[i] = domProd[i].getDomain().getOrder();
+			identity[i] = i;
+			numEntries *= _SizeBuffer[i];
+		}
+		totalSize = numEntries > Integer.MAX_VALUE ? -1 : (int)numEntries;
+	}
+
+	/**
+	 * computes the value of the node given the values of its parents
+	 * @param values  an array containing the values (domain indices) of the parents
+	 * @param indices  for each element of the domain product, the index in the array of values at which its value is found
+	 *                 (the first element, which corresponds to the node itself, is not used)
+	 * @return the domain index of the node's value
+	 */
+	public abstract int getValue(int[] values, int[] indices);
+
+	/**
+	 * computes the value of the node given the values of its parents
+	 * @param addr  an address in the CPT, i.e. the domain indices of the elements of the domain product
+	 * @return the domain index of the node's value
+	 */
+	public int getValue(int[] addr) {
+		return getValue(addr, identity);
+	}
+
+	@Override
+	public double getDouble(int[] addr) {
+		return getValue(addr) == addr[0] ? 1.0 : 0.0;
+	}
+
+	@Override
+	public double getDouble(int realAddr) {
+		return getDouble(realaddr2addr(realAddr));
+	}
+
+	@Override
+	public Value get(int[] addr) {
+		return new ValueDouble(getDouble(addr));
+	}
+
+	@Override
+	public Value get(int realAddr) {
+		return get(realaddr2addr(realAddr));
+	}
+
+	@Override
+	public void put(int[] addr, Value v) {
+		throw new UnsupportedOperationException("The functional CPT of " + _DomainProduct[0].getName() + " cannot be modified");
+	}
+
+	@Override
+	public void put(int realAddr, Value v) {
+		throw new UnsupportedOperationException("The functional CPT of " + _DomainProduct[0].getName() + " cannot be modified");
+	}
+
+	@Override
+	public void setValues(Value[] values) {
+		throw new UnsupportedOperationException("The functional CPT of " + _DomainProduct[0].getName() + " cannot be modified");
+	}
+
+	@Override
+	public int size() {
+		if(totalSize < 0)
+			throw new RuntimeException("The size of the functional CPT of " + _DomainProduct[0].getName() + " exceeds int size");
+		return totalSize;
+	}
+
+	@Override
+	public int getColumnValueAddressOffset() {
+		return size() / _SizeBuffer[0];
+	}
+
+	@Override
+	public int getRowLength() {
+		return size() / _SizeBuffer[0];
+	}
+
+	/**
+	 * materializes the full table
+	 */
+	@Override
+	public Value[] getValues() {
+		Value[] values = new Value[size()];
+		int[] addr = new int[_DomainProduct.length];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = new ValueDouble(getDouble(addr));
+			addOne(addr);
+		}
+		return values;
+	}
+
+	/**
+	 * @return a regular CPT with the same (materialized) entries
+	 */
+	public CPT toCPT() {
+		CPT cpt = new CPT();
+		cpt.build(_DomainProduct, getValues());
+		return cpt;
+	}
+
+	@Override
+	public CPF copy() {
+		return toCPT();
+	}
+
+	@Override
+	public CPT hardcopy() {
+		return toCPT();
+	}
+
+	@Override
+	public CPT extract(BeliefNode[] domProd) {
+		return toCPT().extract(domProd);
+	}
+
+	@Override
+	public CPT expand(BeliefNode[] domProd) {
+		return toCPT().expand(domProd);
+	}
+
+	/**
+	 * functional CPTs are always normalized
+	 */
+	@Override
+	public void normalize() {
+	}
+
+	/**
+	 * functional CPTs are always normalized
+	 */
+	@Override
+	public void normalizeByDomain() {
+	}
+
+	/**
+	 * functional CPTs are always normalized
+	 */
+	@Override
+	public void normalizeByDomain(boolean uniformDefault) {
+	}
+
+	/**
+	 * A functional CPT that is obtained from another by fixing the values of some of the parents,
+	 * which are thus removed from the domain product
+	 */
+	public static class Restriction extends FunctionalCPT {
+		protected FunctionalCPT cpt;
+		/**
+		 * for each element of the reduced domain product, its position in the original domain product
+		 */
+		protected int[] positions;
+		/**
+		 * the values of the elements of the original domain product, in which the fixed values are set
+		 */
+		protected int[] fixedValues;
+
+		/**
+		 * @param domProd  the reduced domain product
+		 * @param cpt  the original CPT
+		 * @param positions  for each element of the reduced domain product, its position in the original domain product
+		 * @param fixedValues  for each element of the original domain product, the fixed value (arbitrary for elements that are retained)
+		 */
+		public Restriction(BeliefNode[] domProd, FunctionalCPT cpt, int[] positions, int[] fixedValues) {
+			super(domProd);
+			this.cpt = cpt;
+			this.positions = positions;
+			this.fixedValues = fixedValues;
+		}
+
+		@Override
+		public int getValue(int[] values, int[] indices) {
+			int[] addr = fixedValues.clone();
+			for(int i = 1; i < positions.length; i++)
+				addr[positions[i]] = values[indices[i]];
+			return cpt.getValue(addr);
+		}
+	}
+}
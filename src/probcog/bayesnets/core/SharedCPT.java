@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.core;
+
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPF;
+import edu.ksu.cis.bnj.ver3.core.CPT;
+import edu.ksu.cis.bnj.ver3.core.Value;
+import edu.ksu.cis.bnj.ver3.core.values.ValueDouble;
+import edu.ksu.cis.bnj.ver3.core.values.ValueZero;
+
+/**
+ * A CPT whose entries are stored in a table of primitive values that can be shared among many CPTs
+ * (flyweight), e.g. among all the ground nodes that were instantiated from the same template.
+ * A shared table is never modified; if the CPT is modified, it first obtains a private copy
+ * of the table (copy-on-write), such that the other CPTs sharing the table are unaffected.
+ * <p>The table uses the same layout as regular CPTs, i.e. the entry for an address is found at
+ * {@link #addr2realaddr(int[])}.</p>
+ * @author Dominik Jain
+ */
+public class SharedCPT extends CPT {
+	protected double[] table;
+	/**
+	 * whether the table is (potentially) shared with other CPTs and must thus be copied before it is modified
+	 */
+	protected boolean shared;
+
+	/**
+	 * constructs a CPT that references the given table
+	 * @param domProd  the domain product
+	 * @param table  the shared table, which must not be modified after it has been passed to this constructor
+	 */
+	public SharedCPT(BeliefNode[] domProd, double[] table) {
+		init(domProd);
+		if(table.length != totalSize)
+			throw new IllegalArgumentException("Table has incorrect length");
+		this.table = table;
+		this.shared = true;
+	}
+
+	/**
+	 * creates a table of primitive values containing the entries of the given CPF
+	 * @param cpf  the CPF
+	 * @return the table
+	 */
+	public static double[] createTable(CPF cpf) {
+		double[] table = new double[cpf.size()];
+		for(int i = 0; i < table.length; i++)
+			table[i] = cpf.getDouble(i);
+		return table;
+	}
+
+	/**
+	 * creates a table of primitive values from the given values
+	 * @param values  the values
+	 * @return the table
+	 */
+	public static double[] createTable(Value[] values) {
+		double[] table = new double[values.length];
+		for(int i = 0; i < table.length; i++)
+			table[i] = toDouble(values[i]);
+		return table;
+	}
+
+	protected static double toDouble(Value v) {
+		if(v instanceof ValueDouble)
+			return ((ValueDouble)v).getValue();
+		if(v instanceof ValueZero)
+			return 0.0;
+		throw new RuntimeException("Unhandled conversion of " + v.getExpr() + " to double");
+	}
+
+	/**
+	 * @return the table of entries, which may be shared with other CPTs and must therefore not be modified
+	 */
+	public double[] getTable() {
+		return table;
+	}
+
+	/**
+	 * @return whether the table is (potentially) shared with other CPTs
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * obtains a private copy of the table if it is shared
+	 */
+	protected void detach() {
+		if(shared) {
+			table = table.clone();
+			shared = false;
+		}
+	}
+
+	@Override
+	public double getDouble(int realAddr) {
+		return table[realAddr];
+	}
+
+	@Override
+	public double getDouble(int[] addr) {
+		return table[addr2realaddr(addr)];
+	}
+
+	@Override
+	public Value get(int realAddr) {
+		return new ValueDouble(table[realAddr]);
+	}
+
+	@Override
+	public Value get(int[] addr) {
+		return get(addr2realaddr(addr));
+	}
+
+	@Override
+	public void put(int realAddr, Value v) {
+		detach();
+		table[realAddr] = toDouble(v);
+	}
+
+	@Override
+	public void put(int[] addr, Value v) {
+		put(addr2realaddr(addr), v);
+	}
+
+	@Override
+	public int size() {
+		return table.length;
+	}
+
+	@Override
+	public int getColumnValueAddressOffset() {
+		return table.length / _SizeBuffer[0];
+	}
+
+	@Override
+	public int getRowLength() {
+		return table.length / _SizeBuffer[0];
+	}
+
+	/**
+	 * @return a copy of the entries (modifying the array does not affect the CPT)
+	 */
+	@Override
+	public Value[] getValues() {
+		Value[] values = new Value[table.length];
+		for(int i = 0; i < values.length; i++)
+			values[i] = new ValueDouble(table[i]);
+		return values;
+	}
+
+	@Override
+	public void setValues(Value[] values) {
+		if(values.length != totalSize)
+			throw new IllegalArgumentException("Vector of values has incorrect length");
+		table = createTable(values);
+		shared = false;
+	}
+
+	@Override
+	public void build(BeliefNode[] domProd, Value[] values) {
+		init(domProd);
+		setValues(values);
+	}
+
+	@Override
+	public void buildZero(BeliefNode[] domProd, boolean zeroValues) {
+		init(domProd);
+		table = new double[totalSize];
+		shared = false;
+	}
+
+	/**
+	 * @return a CPT that shares this CPT's table
+	 */
+	@Override
+	public CPF copy() {
+		shared = true;
+		return new SharedCPT(_DomainProduct, table);
+	}
+}
@@ -35,6 +35,7 @@ public enum Algorithm {
 	
 	LikelihoodWeighting("likelihood weighting", LikelihoodWeighting.class), 
 	GibbsSampling("Gibbs sampling (MCMC)", GibbsSampling.class), 
+	ChromaticGibbsSampling("chromatic Gibbs sampling (MCMC, parallelizable)", ChromaticGibbsSampling.class),
 	//EPIS("importance sampling based on evidence prepropagation [SMILE]", "edu.tum.cs.bayesnets.inference.SmileEPIS"), 
 	BackwardSampling("backward simulation", BackwardSampling.class),			 
 	BackwardSamplingPriors("backward simulation with prior bias", BackwardSamplingWithPriors.class), 
@@ -51,6 +52,7 @@ public enum Algorithm {
 	//SmilePearl("Pearl's algorithm for polytrees (exact) [SMILE]", "edu.tum.cs.bayesnets.inference.SmilePearl"),
 	//VarElim("variable elimination (exact)", BNJVariableElimination.class),
 	VarElim("variable elimination (exact)", VariableElimination.class),
+	JunctionTree("junction tree propagation (exact)", JunctionTree.class),
 	BackwardSampleSearch("Backward SampleSearch", BackwardSampleSearch.class),
 	BackwardSampleSearchBJ("Backward SampleSearch with backjumping", BackwardSampleSearchBJ.class),
 	//BackwardSampleSearchIB("Backward SampleSearch with intelligent backtracking","dev.BackwardSampleSearchIB"),
@@ -55,6 +55,7 @@ public class BNinfer {
 			Algorithm algo = Algorithm.LikelihoodWeighting;
 			boolean debug = false;
 			boolean skipFailedSteps = false;
+			boolean pruneNetwork = false;
 			boolean removeDeterministicCPTEntries = false;
 			double timeLimit = 10.0, infoIntervalTime = 1.0;
 			boolean timeLimitedInference = false;
@@ -73,6 +74,8 @@ public class BNinfer {
 					removeDeterministicCPTEntries = true;				
 				else if(args[i].equals("-skipFailedSteps"))
 					skipFailedSteps = true;				
+				else if(args[i].equals("-prune"))
+					pruneNetwork = true;
 				else if(args[i].equals("-maxSteps")) {
 					maxSteps = Integer.parseInt(args[++i]);
 					useMaxSteps = true;
@@ -114,7 +117,8 @@ public class BNinfer {
 									 "     -maxSteps #      the maximum number of steps to take, where applicable (default: 1000)\n" +
 									 "     -maxTrials #     the maximum number of trials per step for BN sampling algorithms (default: 5000)\n" +
 									 "     -infoInterval #  the number of steps after which to output a status message\n" +
-									 "     -skipFailedSteps failed steps (> max trials) should just be skipped\n\n" +	
+									 "     -skipFailedSteps failed steps (> max trials) should just be skipped\n" +	
+									 "     -prune           prune the network given the evidence and queries (barren nodes, evidence absorption, independent components)\n\n" +	
 									 "     -t [secs]        use time-limited inference (default: 10 seconds)\n" +
 									 "     -infoTime #      interval in secs after which to display intermediate results (time-limited inference, default: 1.0)\n" +
 									 "     -ia <name>       inference algorithm selection; valid names:");
@@ -196,7 +200,7 @@ public class BNinfer {
 			Stopwatch sw = new Stopwatch();
 			sw.start();
 			// - create sampler 
-			Sampler sampler = algo.createSampler(bn);
+			Sampler sampler = pruneNetwork ? new PrunedSampler(bn, algo.samplerClass) : algo.createSampler(bn);
 			// - set evidence and options
 			sampler.setEvidence(evidenceDomainIndices);
 			sampler.setQueryVars(queryVars);
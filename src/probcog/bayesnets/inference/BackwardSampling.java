@@ -19,6 +19,7 @@
 package probcog.bayesnets.inference;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.PriorityQueue;
@@ -45,6 +46,10 @@ public class BackwardSampling extends Sampler {
 	protected Vector<BeliefNode> backwardSampledNodes;
 	protected Vector<BeliefNode> forwardSampledNodes;
 	protected HashSet<BeliefNode> outsideSamplingOrder;
+	/**
+	 * indices of the nodes in forwardSampledNodes and outsideSamplingOrder respectively
+	 */
+	protected int[] forwardSampledNodeIndices, outsideSamplingOrderIndices;
 	protected int currentStep;
 	
 	public static class BackSamplingDistribution {
@@ -222,6 +227,8 @@ public class BackwardSampling extends Sampler {
 	@Override
 	protected void _initialize() throws Exception {
 		getOrdering(evidenceDomainIndices);
+		forwardSampledNodeIndices = getNodeIndices(forwardSampledNodes);
+		outsideSamplingOrderIndices = getNodeIndices(outsideSamplingOrder);
 		if(debug) {
 			out.println("sampling backward: " + this.backwardSampledNodes);
 			out.println("sampling forward: " + this.forwardSampledNodes);
@@ -229,6 +236,14 @@ public class BackwardSampling extends Sampler {
 		}
 	}
 	
+	protected int[] getNodeIndices(Collection<BeliefNode> nodes) {
+		int[] ret = new int[nodes.size()];
+		int i = 0;
+		for(BeliefNode node : nodes)
+			ret[i++] = getNodeIndex(node);
+		return ret;
+	}
+	
 	@Override
 	public void _infer() throws Exception {		
 		Stopwatch sw = new Stopwatch();
@@ -271,8 +286,9 @@ loop1:  for(int t = 1; t <= MAX_TRIALS || MAX_TRIALS == 0; t++) {
 			}
 			//out.println("after backward: weight = " + s.weight);
 			// forward sampling
-			for(BeliefNode node : forwardSampledNodes) {
-				if(!sampleForward(node, s)) {
+			for(int nodeIdx : forwardSampledNodeIndices) {
+				if(!sampleForward(nodeIdx, s)) {
+					BeliefNode node = nodes[nodeIdx];
 					if(debug) {/*
 						BeliefNode[] domain_product = node.getCPF().getDomainProduct();
 						StringBuffer cond = new StringBuffer();
@@ -289,10 +305,11 @@ loop1:  for(int t = 1; t <= MAX_TRIALS || MAX_TRIALS == 0; t++) {
 			}
 			//out.println("after forward: weight = " + s.weight);
 			// nodes outside the sampling order: adjust weight
-			for(BeliefNode node : outsideSamplingOrder) {
-				double p = this.getCPTProbability(node, s.nodeDomainIndices);
+			for(int nodeIdx : outsideSamplingOrderIndices) {
+				double p = this.getCPTProbability(nodeIdx, s.nodeDomainIndices);
 				s.weight *= p;
 				if(s.weight == 0.0) {
+					BeliefNode node = nodes[nodeIdx];
 					if(p != 0.0)
 						throw new Exception("Precision loss in weight calculation");
 					// error diagnosis					
@@ -329,10 +346,14 @@ loop1:  for(int t = 1; t <= MAX_TRIALS || MAX_TRIALS == 0; t++) {
 	}
 	
 	protected boolean sampleForward(BeliefNode node, WeightedSample s) {
-		int idx = super.sampleForward(node, s.nodeDomainIndices);
+		return sampleForward(getNodeIndex(node), s);
+	}
+	
+	protected boolean sampleForward(int nodeIdx, WeightedSample s) {
+		int idx = super.sampleForward(nodeIdx, s.nodeDomainIndices);
 		if(idx == -1)
 			return false;
-		s.nodeDomainIndices[this.nodeIndices.get(node)] = idx;
+		s.nodeDomainIndices[nodeIdx] = idx;
 		return true;
 	}
 	
@@ -1,462 +1,585 @@
 /*******************************************************************************
  * Copyright (C) 2010-2012 Stefan Waldherr, Dominik Jain.
- * 
+ *
  * This file is part of ProbCog.
- * 
+ *
  * ProbCog is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
  * the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- * 
+ *
  * ProbCog is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
  * GNU General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License
  * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
-import java.util.HashMap;
-import java.util.Vector;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
 
-import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.tum.cs.util.datastruct.MutableDouble;
+import edu.tum.cs.util.Stopwatch;
 
 /**
- * (iterative/loopy) belief propagation 
+ * (iterative/loopy) belief propagation, i.e. Pearl's message passing algorithm applied
+ * to networks that may contain loops.
+ * All pi and lambda messages are stored in two contiguous arrays that are indexed by edge
+ * (each edge of the network corresponds to a parent-child pair and a message
+ * over the parent's domain). Messages can be scheduled either by residuals (the node whose
+ * incoming messages changed the most is updated next) or in sweeps over all nodes,
+ * which can be carried out by several threads in parallel. Propagation stops as soon
+ * as the maximum change in any message falls below the convergence threshold or
+ * the maximum number of iterations (numSamples) is reached.
  * @author Stefan Waldherr
+ * @author Dominik Jain
  */
 public class BeliefPropagation extends Sampler {
 
-	protected BeliefNode[] nodes;
+	public enum Schedule {
+		/**
+		 * always update the node with the largest residual (the largest change in one of its incoming messages) next
+		 */
+		Residual,
+		/**
+		 * update all nodes in each iteration
+		 */
+		Sweep
+	};
+
+	protected Schedule schedule = Schedule.Residual;
+	protected double convergenceThreshold = 1e-6;
+	protected int numThreads = 1;
+
+	protected CompiledNetwork cn;
 	protected int[] topOrder;
-	protected HashMap<BeliefNode,double[]> lambda;
-	protected HashMap<BeliefNode,double[]> pi;
-	protected HashMap<BeliefNode, BeliefMessageContainer> messages; //links nodes to their message contaienr
-	protected HashMap<BeliefNode,double[]> priors;
-	
-	public class BeliefMessageContainer{
-		public HashMap<BeliefNode, double[]> lambdaMessages;
-		public HashMap<BeliefNode, double[]> piMessages;
-		protected BeliefNode node;
-		protected int nodeOrder;
-				
-		public BeliefMessageContainer(BeliefNode node){
-			// contains all pi and lambda messages that are sent from this node
-			lambdaMessages = new HashMap<BeliefNode, double[]>();
-			piMessages = new HashMap<BeliefNode, double[]>();
-			this.node = node;
-			nodeOrder = node.getDomain().getOrder();
-			//initialize empty messages
-			for (BeliefNode n : bn.bn.getChildren(node)){
-				double[] initPi = new double[nodeOrder];
-				for (int i = 0; i < nodeOrder; i++){
-					initPi[i] = 1.0/nodeOrder;
-				}
-				piMessages.put(n,initPi);
-			}
-			for(BeliefNode n : bn.bn.getParents(node)){
-				int parentOrder = n.getDomain().getOrder();
-				double[] initLambda = new double[parentOrder];
-				for (int i = 0; i < parentOrder; i++){
-					initLambda[i] = 1.0/parentOrder;
-				}
-				lambdaMessages.put(n, initLambda);
+	/**
+	 * for each node, the indices of the edges to its parents (in the order in which the parents appear in the node's CPF)
+	 */
+	protected int[][] parentEdges;
+	/**
+	 * for each node, the indices of the edges to its children
+	 */
+	protected int[][] childEdges;
+	/**
+	 * for each edge, the index of the parent and the index of the child
+	 */
+	protected int[] edgeParent, edgeChild;
+	/**
+	 * for each edge, the offset of its messages in the message arrays
+	 */
+	protected int[] msgOffset;
+	/**
+	 * pi messages (sent from parents to children) and lambda messages (sent from children to parents)
+	 */
+	protected double[] piMsgs, lambdaMsgs;
+	/**
+	 * the total number of node updates that were carried out in the last run
+	 */
+	protected int numUpdates;
+
+	/**
+	 * working memory for the computation of a node's messages (one per thread)
+	 */
+	protected class Workspace {
+		public double[] pi, lambda, nodeMsg;
+		public double[] parentVals, prefix, suffix, columnSums;
+		public int[] counter;
+		/**
+		 * domain indices of all nodes, of which the parents' entries are set while iterating over the
+		 * parent configurations of a node with a functional CPT
+		 */
+		public int[] assignment;
+		/**
+		 * new messages (over all edges) that are computed before they are written to the message arrays
+		 */
+		public double[] newMsgs;
+
+		public Workspace() {
+			int maxDomSize = cn.getMaxDomainSize();
+			int maxParents = 0, maxEdgesMsgSize = 0;
+			for(int i = 0; i < cn.numNodes; i++) {
+				maxParents = Math.max(maxParents, parentEdges[i].length);
+				maxParents = Math.max(maxParents, childEdges[i].length);
+				int size = 0;
+				for(int e : parentEdges[i])
+					size += cn.domainSizes[edgeParent[e]];
+				size += cn.domainSizes[i] * childEdges[i].length;
+				maxEdgesMsgSize = Math.max(maxEdgesMsgSize, size);
 			}
+			pi = new double[maxDomSize];
+			lambda = new double[maxDomSize];
+			nodeMsg = new double[maxDomSize];
+			columnSums = new double[maxDomSize];
+			parentVals = new double[maxParents];
+			prefix = new double[maxParents+1];
+			suffix = new double[maxParents+1];
+			counter = new int[maxParents];
+			assignment = new int[cn.numNodes];
+			newMsgs = new double[maxEdgesMsgSize];
 		}
-		
-		public void computePiMessages(BeliefNode n){
-			double normalize = 0.0;
-			for (int i = 0; i < nodeOrder; i++){
-				double prod = 1.0;
-				for (BeliefNode c : piMessages.keySet()){
-					if (c != n){
-						prod *= messages.get(c).lambdaMessages.get(node)[i];
-					}
-				}
-				double entry = prod * pi.get(node)[i];
-				piMessages.get(n)[i] = entry;
-				normalize += entry;
-			}
-			// normalize
-			if (normalize != 0.0){
-				if (normalize == 0.0)
-					return;
-				for (int i = 0; i < nodeOrder; i++){
-					piMessages.get(n)[i] /= normalize;
-				}
+	}
+
+	public BeliefPropagation(BeliefNetworkEx bn) throws Exception {
+		super(bn);
+		paramHandler.add("schedule", "setSchedule");
+		paramHandler.add("threshold", "setConvergenceThreshold");
+		paramHandler.add("numThreads", "setNumThreads");
+	}
+
+	/**
+	 * @param name  the name of the message schedule to use (one of the names in {@link Schedule})
+	 */
+	public void setSchedule(String name) {
+		schedule = Schedule.valueOf(name);
+	}
+
+	/**
+	 * @param threshold  the maximum change in any message below which the messages are considered to have converged
+	 */
+	public void setConvergenceThreshold(double threshold) {
+		convergenceThreshold = threshold;
+	}
+
+	/**
+	 * @param numThreads  the number of threads to use for sweeps (applies to the Sweep schedule only)
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public String getAlgorithmName() {
+		return String.format("Belief Propagation");
+	}
+
+	@Override
+	protected void _initialize() throws Exception {
+		cn = getCompiledNetwork();
+		topOrder = bn.getTopologicalOrder();
+		int n = cn.numNodes;
+		// index edges
+		int numEdges = 0;
+		for(int i = 0; i < n; i++)
+			numEdges += cn.getDomainProduct(i).length-1;
+		edgeParent = new int[numEdges];
+		edgeChild = new int[numEdges];
+		msgOffset = new int[numEdges];
+		parentEdges = new int[n][];
+		childEdges = new int[n][];
+		int[] numChildren = new int[n];
+		int e = 0, offset = 0;
+		for(int i = 0; i < n; i++) {
+			int[] domProd = cn.getDomainProduct(i);
+			parentEdges[i] = new int[domProd.length-1];
+			for(int j = 1; j < domProd.length; j++) {
+				edgeParent[e] = domProd[j];
+				edgeChild[e] = i;
+				msgOffset[e] = offset;
+				offset += cn.domainSizes[domProd[j]];
+				numChildren[domProd[j]]++;
+				parentEdges[i][j-1] = e++;
 			}
 		}
-		
-		public void computeLambdaMessages(BeliefNode n, int[] nodeDomainIndices) {
-			// determine the variables to sum over
-			Vector<Integer> varsToSumOver = new Vector<Integer>();
-			for (BeliefNode p : lambdaMessages.keySet()){
-				if (p != n && nodeDomainIndices[getNodeIndex(p)] == -1){ // TODO for Stefan to ack: replaced bn.getNodeIndex by this.getNodeIndex, because the former is very inefficient, since it constructs the vector of nodes each time and does a linear search
-					varsToSumOver.add(getNodeIndex(p));
-				}
-			}
-			// actual calculation of lambda message 
-			double normalize = 0.0;
-			for (int i = 0; i < lambdaMessages.get(n).length; i++){
-				nodeDomainIndices[getNodeIndex(n)] = i;
-				double sum = 0.0;
-				for (int j = 0; j < nodeOrder; j++){
-					nodeDomainIndices[getNodeIndex(node)] = j;
-					double prod = lambda.get(node)[j];
-					MutableDouble mutableSum = new MutableDouble(0.0);
-					computeLambdaMessages(n, varsToSumOver,0,nodeDomainIndices,mutableSum);
-					sum += prod * mutableSum.value;
-				}
-				lambdaMessages.get(n)[i] = sum;
-				normalize += sum;
-			}
-			if (normalize != 0.0){
-				if (normalize == 0.0)
-					return;
-				for (int i = 0; i < lambdaMessages.get(n).length; i++){
-					lambdaMessages.get(n)[i] /= normalize;
-				}
-			}
+		for(int i = 0; i < n; i++)
+			childEdges[i] = new int[numChildren[i]];
+		Arrays.fill(numChildren, 0);
+		for(e = 0; e < numEdges; e++) {
+			int p = edgeParent[e];
+			childEdges[p][numChildren[p]++] = e;
 		}
+		piMsgs = new double[offset];
+		lambdaMsgs = new double[offset];
+	}
 
-		protected void computeLambdaMessages(BeliefNode n, Vector<Integer> varsToSumOver, int i, int[] nodeDomainIndices, MutableDouble sum) {
-			if (i == varsToSumOver.size()) {
-				double result = getCPTProbability(node, nodeDomainIndices);
-				// multiply with incoming pi messages
-				for (BeliefNode p : bn.bn.getParents(node)){
-					if (n != p){
-						result *= messages.get(p).piMessages.get(node)[nodeDomainIndices[getNodeIndex(p)]];
-					}
-				}
-				sum.value += result;
-				return;
+	/**
+	 * resets all messages to uniform distributions
+	 */
+	protected void initMessages(double[] piMsgs, double[] lambdaMsgs) {
+		for(int e = 0; e < edgeParent.length; e++) {
+			int domSize = cn.domainSizes[edgeParent[e]];
+			Arrays.fill(piMsgs, msgOffset[e], msgOffset[e]+domSize, 1.0/domSize);
+			Arrays.fill(lambdaMsgs, msgOffset[e], msgOffset[e]+domSize, 1.0/domSize);
+		}
+	}
+
+	/**
+	 * computes pi(x) and lambda(x) for the given node x based on the current incoming messages
+	 * (pi(x) being the causal support and lambda(x) the diagnostic support, including the evidence);
+	 * if requested, also computes the lambda messages to all parents, which are written to ws.newMsgs
+	 * @param x  the index of the node
+	 * @param piIn  the array of pi messages to read from
+	 * @param lambdaIn  the array of lambda messages to read from
+	 * @param ws  the workspace to use
+	 * @param computeLambdaMsgs  whether to compute outgoing lambda messages
+	 */
+	protected void computeSupport(int x, double[] piIn, double[] lambdaIn, Workspace ws, boolean computeLambdaMsgs) {
+		int domSize = cn.domainSizes[x];
+		int evidence = evidenceDomainIndices[x];
+		// lambda(x)
+		double[] lambda = ws.lambda;
+		for(int i = 0; i < domSize; i++) {
+			double v = (evidence == -1 || evidence == i) ? 1.0 : 0.0;
+			for(int e : childEdges[x])
+				v *= lambdaIn[msgOffset[e] + i];
+			lambda[i] = v;
+		}
+		// pi(x) and lambda messages, iterating over all configurations of the parents
+		double[] pi = ws.pi;
+		Arrays.fill(pi, 0, domSize, 0.0);
+		int[] pe = parentEdges[x];
+		int np = pe.length;
+		double[] newMsgs = ws.newMsgs;
+		if(computeLambdaMsgs) {
+			int size = 0;
+			for(int e : pe)
+				size += cn.domainSizes[edgeParent[e]];
+			Arrays.fill(newMsgs, 0, size, 0.0);
+		}
+		// functional CPTs are evaluated for each parent configuration rather than materialized
+		boolean functional = cn.isFunctional(x);
+		double[] cpt = functional ? null : cn.getCPT(x);
+		int[] assignment = ws.assignment;
+		int[] strides = cn.getStrides(x);
+		int nodeStride = strides[0];
+		int[] counter = ws.counter;
+		double[] vals = ws.parentVals, prefix = ws.prefix, suffix = ws.suffix;
+		Arrays.fill(counter, 0, np, 0);
+		int addr = 0;
+		while(true) {
+			// product of incoming pi messages for the current parent configuration
+			prefix[0] = 1.0;
+			for(int k = 0; k < np; k++) {
+				vals[k] = piIn[msgOffset[pe[k]] + counter[k]];
+				prefix[k+1] = prefix[k] * vals[k];
 			}
-			int idxVar = varsToSumOver.get(i);
-			for (int v = 0; v < nodes[idxVar].getDomain().getOrder(); v++) {
-				nodeDomainIndices[idxVar] = v;
-				computeLambdaMessages(n, varsToSumOver, i + 1, nodeDomainIndices, sum);
+			double w = prefix[np];
+			double s = 0.0;
+			if(functional) {
+				for(int k = 0; k < np; k++)
+					assignment[edgeParent[pe[k]]] = counter[k];
+				int i = cn.getFunctionValue(x, assignment);
+				pi[i] += w;
+				s = lambda[i];
 			}
-		}
-		
-		public boolean sentPiMessageTo(BeliefNode c){
-			if (pi.containsKey(c)){
-				double sum = 0.0;
-				for (double d : pi.get(c)){
-					sum += d;
+			else {
+				for(int i = 0, a = addr; i < domSize; i++, a += nodeStride) {
+					double p = cpt[a];
+					pi[i] += p * w;
+					s += p * lambda[i];
 				}
-				return (sum != 0.0);
 			}
-			else{
-				return false;
-			}
-		}
-		
-		public boolean sentLambdaMessageTo(BeliefNode p){
-			if (lambdaMessages.containsKey(p)){
-				double sum = 0.0;
-				for (double d : lambdaMessages.get(p)){
-					sum += d;
+			if(computeLambdaMsgs && s != 0.0) {
+				suffix[np] = 1.0;
+				for(int k = np-1; k >= 0; k--)
+					suffix[k] = suffix[k+1] * vals[k];
+				for(int k = 0, o = 0; k < np; k++) {
+					newMsgs[o + counter[k]] += s * prefix[k] * suffix[k+1];
+					o += cn.domainSizes[edgeParent[pe[k]]];
 				}
-				return (sum != 0.0);
 			}
-			else{
-				return false;
+			// next parent configuration
+			int k = np-1;
+			for(; k >= 0; k--) {
+				addr += strides[k+1];
+				if(++counter[k] < cn.domainSizes[edgeParent[pe[k]]])
+					break;
+				addr -= strides[k+1] * counter[k];
+				counter[k] = 0;
 			}
+			if(k < 0)
+				break;
 		}
 	}
-	
-	public void computePi(BeliefNode n, int[] nodeDomainIndices){
-		// determine the variables to sum over
-		if (evidenceDomainIndices[getNodeIndex(n)] != -1)
-			return;
-		Vector<Integer> varsToSumOver = new Vector<Integer>(); // TODO varsToSumOver doesn't change; if need be, we can cache it 
-		for (BeliefNode p : bn.bn.getParents(n)){
-			if (nodeDomainIndices[getNodeIndex(p)] == -1){
-				varsToSumOver.add(getNodeIndex(p));
+
+	/**
+	 * recomputes all messages sent by the given node
+	 * @param x  the index of the node
+	 * @param piIn  the array of pi messages to read from
+	 * @param lambdaIn  the array of lambda messages to read from
+	 * @param piOut  the array of pi messages to write to (may be the same as piIn)
+	 * @param lambdaOut  the array of lambda messages to write to (may be the same as lambdaIn)
+	 * @param ws  the workspace to use
+	 * @param residuals  if not null, the array in which to store, for each node, the maximum change in the messages it receives from x
+	 * @return the maximum change in any of the messages
+	 */
+	protected double updateNode(int x, double[] piIn, double[] lambdaIn, double[] piOut, double[] lambdaOut, Workspace ws, double[] residuals) {
+		computeSupport(x, piIn, lambdaIn, ws, true);
+		double maxChange = 0.0;
+		// lambda messages to the parents
+		int o = 0;
+		for(int e : parentEdges[x]) {
+			int domSize = cn.domainSizes[edgeParent[e]];
+			double change = writeMessage(ws.newMsgs, o, lambdaIn, lambdaOut, msgOffset[e], domSize);
+			if(residuals != null && change > residuals[edgeParent[e]])
+				residuals[edgeParent[e]] = change;
+			maxChange = Math.max(maxChange, change);
+			o += domSize;
+		}
+		// pi messages to the children
+		int domSize = cn.domainSizes[x];
+		int evidence = evidenceDomainIndices[x];
+		int[] ce = childEdges[x];
+		int nc = ce.length;
+		double[] newMsgs = ws.newMsgs, prefix = ws.prefix;
+		for(int i = 0; i < domSize; i++) {
+			double base = evidence == -1 ? ws.pi[i] : (evidence == i ? 1.0 : 0.0);
+			prefix[0] = 1.0;
+			for(int k = 0; k < nc; k++)
+				prefix[k+1] = prefix[k] * lambdaIn[msgOffset[ce[k]] + i];
+			double suffix = 1.0;
+			for(int k = nc-1; k >= 0; k--) {
+				newMsgs[k*domSize + i] = base * prefix[k] * suffix;
+				suffix *= lambdaIn[msgOffset[ce[k]] + i];
 			}
-		}		
-		double normalize = 0.0;
-		for (int i = 0; i < pi.get(n).length; i++){
-			nodeDomainIndices[getNodeIndex(n)] = i;
-			MutableDouble mutableSum = new MutableDouble(0.0);
-			computePi(n,varsToSumOver,0,nodeDomainIndices,mutableSum);
-			pi.get(n)[i] = mutableSum.value;
-			normalize += mutableSum.value;
 		}
-		if (normalize == 0.0)
-			return;
-		for (int i = 0; i < pi.get(n).length; i++){
-			pi.get(n)[i] /= normalize;
+		for(int k = 0; k < nc; k++) {
+			int e = ce[k];
+			double change = writeMessage(newMsgs, k*domSize, piIn, piOut, msgOffset[e], domSize);
+			if(residuals != null && change > residuals[edgeChild[e]])
+				residuals[edgeChild[e]] = change;
+			maxChange = Math.max(maxChange, change);
 		}
+		return maxChange;
 	}
-	
-	protected void computePi(BeliefNode n, Vector<Integer> varsToSumOver, int i, int[] nodeDomainIndices, MutableDouble sum) {
-		if (i == varsToSumOver.size()) {
-			double result = getCPTProbability(n, nodeDomainIndices);
-			// multiply with incoming pi messages
-			for (BeliefNode p : bn.bn.getParents(n)){
-				result *= messages.get(p).piMessages.get(n)[nodeDomainIndices[getNodeIndex(p)]];
-			}
-			sum.value += result;
-			return;
-		}
-		int idxVar = varsToSumOver.get(i);
-		for (int v = 0; v < nodes[idxVar].getDomain().getOrder(); v++) {
-			nodeDomainIndices[idxVar] = v;
-			computePi(n, varsToSumOver, i + 1, nodeDomainIndices, sum);
+
+	/**
+	 * normalizes a newly computed message and writes it to the given message array
+	 * @return the maximum absolute change in the message's entries
+	 */
+	protected static double writeMessage(double[] src, int srcOffset, double[] oldMsgs, double[] newMsgs, int offset, int domSize) {
+		double sum = 0.0;
+		for(int i = 0; i < domSize; i++)
+			sum += src[srcOffset+i];
+		double change = 0.0;
+		for(int i = 0; i < domSize; i++) {
+			double v = src[srcOffset+i];
+			if(sum != 0.0)
+				v /= sum;
+			change = Math.max(change, Math.abs(v - oldMsgs[offset+i]));
+			newMsgs[offset+i] = v;
 		}
+		return change;
 	}
-	
-	public void computeLambda(BeliefNode n){
-		if (evidenceDomainIndices[getNodeIndex(n)] != -1)
-			return;
-		double normalize = 0.0;
-		for (int i = 0; i < lambda.get(n).length; i++){
-			double prod = 1.0;
-			for (BeliefNode c : bn.bn.getChildren(n)){
-				prod *= messages.get(c).lambdaMessages.get(n)[i];
-			}
-			lambda.get(n)[i] = prod;
-			normalize += prod;
+
+	protected static class Candidate implements Comparable<Candidate> {
+		public int node;
+		public double residual;
+
+		public Candidate(int node, double residual) {
+			this.node = node;
+			this.residual = residual;
 		}
-		if (normalize == 0.0)
-			return;
-		for (int i = 0; i < lambda.get(n).length; i++){
-			lambda.get(n)[i] /= normalize;
+
+		public int compareTo(Candidate o) {
+			return Double.compare(o.residual, residual);
 		}
 	}
-	
-	public BeliefPropagation(BeliefNetworkEx bn) throws Exception {
-		super(bn);
-		// Initialization of BP
-		nodes = bn.getNodes();
-		topOrder = bn.getTopologicalOrder();
-		lambda = new HashMap<BeliefNode,double[]>();
-		pi = new HashMap<BeliefNode,double[]>();
-		messages = new HashMap<BeliefNode, BeliefMessageContainer>();
-	}
-	
-	@Override
-	public String getAlgorithmName() {
-		return String.format("Belief Propagation");
-	}
 
-	@Override
-	protected void _infer() throws Exception {
-		// initialization of lambda and pi.
-		priors = bn.computePriors(evidenceDomainIndices);
-		for (BeliefNode n : nodes){
-			int domSize = n.getDomain().getOrder();
-			int domIdx = evidenceDomainIndices[getNodeIndex(n)];
-			// build message function hashmap
-			messages.put(n, new BeliefMessageContainer(n));
-			// initialize probability distribution
-			double[] init = new double[domSize];
-			for (int i = 0; i < init.length; i++){
-				init[i] = 0.0;
-			}
-			// initialize evidence variables
-			if (domIdx != -1){
-				init[domIdx] = 1.0;
-				lambda.put(n, init.clone());
-				pi.put(n, init.clone());
+	/**
+	 * runs residual belief propagation, updating the messages in place
+	 */
+	protected void runResidual() {
+		int n = cn.numNodes;
+		Workspace ws = new Workspace();
+		double[] residuals = new double[n];
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		for(int i = 0; i < n; i++) {
+			residuals[i] = Double.POSITIVE_INFINITY;
+			queue.add(new Candidate(i, residuals[i]));
+		}
+		long maxUpdates = (long)numSamples * n;
+		double[] oldResiduals = new double[n];
+		while(!queue.isEmpty() && numUpdates < maxUpdates && !isCancelled()) {
+			Candidate c = queue.poll();
+			if(c.residual != residuals[c.node])
+				continue;
+			if(c.residual < convergenceThreshold)
+				break;
+			residuals[c.node] = 0.0;
+			System.arraycopy(residuals, 0, oldResiduals, 0, n);
+			updateNode(c.node, piMsgs, lambdaMsgs, piMsgs, lambdaMsgs, ws, residuals);
+			numUpdates++;
+			if(verbose && numUpdates % (infoInterval * n) == 0)
+				out.printf("update %d, residual %f\n", numUpdates, c.residual);
+			// requeue the receivers of messages that changed
+			for(int e : parentEdges[c.node]) {
+				int p = edgeParent[e];
+				if(residuals[p] != oldResiduals[p])
+					queue.add(new Candidate(p, residuals[p]));
 			}
-					
-			else{
-				// initialize nodes without parents
-				if (bn.bn.getParents(n).length == 0){
-					double[] prior = priors.get(n);
-					pi.put(n, prior);
-				}
-				// initialize nodes without children
-				if (bn.bn.getChildren(n).length == 0){
-					double normalized = 1 / (double) domSize;
-					double[] uniform = new double[domSize];
-					for (int i = 0; i < uniform.length; i++){
-						uniform[i] = normalized;
-					}
-					lambda.put(n, uniform);
-				}
-				if (!pi.containsKey(n)){
-					pi.put(n, init.clone());
-				}
-				if (!lambda.containsKey(n)){
-					lambda.put(n, init.clone());
-				}
+			for(int e : childEdges[c.node]) {
+				int ch = edgeChild[e];
+				if(residuals[ch] != oldResiduals[ch])
+					queue.add(new Candidate(ch, residuals[ch]));
 			}
 		}
-		
-		if (debug){
-			out.println("After initialization process");
-			for (BeliefNode n : nodes){
-				out.println(" Node: " + n);
-				out.println("   Pi(x):" + n);
-				for(int i = 0; i < pi.get(n).length; i++){
-					out.println("    " + i + ": " + pi.get(n)[i]);
-				}
-				out.println("   Lambda(x):" + n);
-				for(int i = 0; i < lambda.get(n).length; i++){
-					out.println("    " + i + ": " + lambda.get(n)[i]);
-				}
-			}
+	}
+
+	/**
+	 * runs belief propagation in sweeps over all nodes using a single thread, updating the messages in place
+	 * @return the number of sweeps
+	 */
+	protected int runSweeps() {
+		Workspace ws = new Workspace();
+		int step = 1;
+		for(; step <= numSamples; step++) {
+			double maxChange = 0.0;
+			for(int x : topOrder)
+				maxChange = Math.max(maxChange, updateNode(x, piMsgs, lambdaMsgs, piMsgs, lambdaMsgs, ws, null));
+			numUpdates += topOrder.length;
+			if(verbose && step % infoInterval == 0)
+				out.printf("step %d, max. message change %f\n", step, maxChange);
+			if(maxChange < convergenceThreshold || isCancelled())
+				break;
 		}
-		
-		// Belief Propagation Steps		
-		
-		for (int step = 1; step <= this.numSamples; step++) {
-			
-			if(verbose && step % this.infoInterval == 0)
-				out.println("step " + step);
-			
-			// calculate pi(x)
-			for (BeliefNode n : nodes){
-				int[] nodeDomainIndices = evidenceDomainIndices.clone(); // TODO why do we clone each time? Isn't it enough to have one copy to work with for all nodes.
-																		 // Not cloning this lead to complications in the IJGP algo so I continued cloning here.
-				boolean receivedAll = true;
-				// check whether n has received all pi messages from its parents
-				for (BeliefNode c : bn.bn.getParents(n)){
-					double sum = 0.0;
-					for (double d : messages.get(c).piMessages.get(n)){
-						sum += d;
-					}
-					if (sum == 0.0){
-						receivedAll = false;
-					}
-				}
-				if (receivedAll){
-					computePi(n, nodeDomainIndices);
-				}
-			}
-			
-			// calculate lambda(x):
-			for (BeliefNode n : nodes){
-				boolean receivedAll = true;
-				//check whether n has received all lambda messages from its children
-				for (BeliefNode c : bn.bn.getChildren(n)){
-					double sum = 0.0;
-					for (double d : messages.get(c).lambdaMessages.get(n)){
-						sum += d;
-					}
-					if (sum == 0.0){
-						receivedAll = false;
-						break;
-					}
-				}
-				if (receivedAll && bn.bn.getChildren(n).length > 0){
-					computeLambda(n);
-				}
-			}
-			
-			// calculate outgoing pi messages for every node
-			for (BeliefNode n : nodes){
-				//if pi has been calculated...
-				double sum = 0.0;
-				for (double d : pi.get(n)){
-					sum += d;
-				}
-				if (sum != 0){
-					BeliefNode[] children = bn.bn.getChildren(n); // TODO for Stefan to ack: getChildren was called twice, should avoid because it's an expensive call (always reallocates the vector of children)
-					for (BeliefNode c : children){
-						// ... and lambda received from all children except c
-						boolean receivedAll = true;
-						for (BeliefNode c2 : children){
-							if ((c2 != c) && !messages.get(c2).sentLambdaMessageTo(n)){
-								receivedAll = false;
-								break;
-							}
-						}
-						if (receivedAll){
-							messages.get(n).computePiMessages(c);
-						}
-					}
+		return Math.min(step, numSamples);
+	}
+
+	/**
+	 * state of parallel sweeps, in which all messages of a sweep are computed from the messages of the previous sweep
+	 */
+	protected class ParallelSweeps implements Runnable {
+		public double[] piNext, lambdaNext;
+		public double[] maxChanges = new double[numThreads];
+		public int step = 1;
+		public volatile boolean done = false;
+
+		public ParallelSweeps() {
+			piNext = new double[piMsgs.length];
+			lambdaNext = new double[lambdaMsgs.length];
+		}
+
+		/**
+		 * barrier action that is executed after each sweep
+		 */
+		public void run() {
+			double[] t = piMsgs; piMsgs = piNext; piNext = t;
+			t = lambdaMsgs; lambdaMsgs = lambdaNext; lambdaNext = t;
+			double maxChange = 0.0;
+			for(double c : maxChanges)
+				maxChange = Math.max(maxChange, c);
+			numUpdates += cn.numNodes;
+			if(verbose && step % infoInterval == 0)
+				out.printf("step %d, max. message change %f\n", step, maxChange);
+			if(maxChange < convergenceThreshold || step >= numSamples || isCancelled())
+				done = true;
+			else
+				step++;
+		}
+	}
+
+	protected class SweepThread extends Thread {
+		protected int threadIdx;
+		protected ParallelSweeps state;
+		protected CyclicBarrier barrier;
+		protected Throwable exception = null;
+
+		public SweepThread(int threadIdx, ParallelSweeps state, CyclicBarrier barrier) {
+			this.threadIdx = threadIdx;
+			this.state = state;
+			this.barrier = barrier;
+		}
+
+		@Override
+		public void run() {
+			Workspace ws = new Workspace();
+			try {
+				while(!state.done) {
+					double maxChange = 0.0;
+					for(int i = threadIdx; i < topOrder.length; i += numThreads)
+						maxChange = Math.max(maxChange, updateNode(topOrder[i], piMsgs, lambdaMsgs, state.piNext, state.lambdaNext, ws, null));
+					state.maxChanges[threadIdx] = maxChange;
+					barrier.await();
 				}
 			}
-			
-			// calculate outgoing lambda messages for every node
-			for (BeliefNode n : nodes){
-				//if lambda has been calculated...
-				double sum = 0.0;
-				for (double d : lambda.get(n)){
-					sum += d;
-				}
-				if (sum != 0){
-					for (BeliefNode p : bn.bn.getParents(n)){ // TODO note: a slightly better way of getting the parents (because it doesn't allocate any memory) is to use getCPF().getDomainProduct and iterate over the elements 1 to end
-						// ... and pi received from all parents except p
-						boolean receivedAll = true;
-						for (BeliefNode p2 : bn.bn.getParents(n)){
-							if ((p2 != p) && !messages.get(p2).sentPiMessageTo(n)){
-								receivedAll = false;
-								break;
-							}
-						}
-						if (receivedAll){
-							int[] nodeDomainIndices = evidenceDomainIndices.clone();
-							messages.get(n).computeLambdaMessages(p, nodeDomainIndices);
-						}
-					}
-				}
+			catch(BrokenBarrierException e) {
+				// the barrier was broken by a thread that failed
 			}
-			
-			if(debug){
-				out.println("\n\n****After step " + step + "****");
-				out.println("\n     Pi and Lambda Functions");
-				for (BeliefNode n : nodes){
-					out.println(" Node: " + n);
-					out.println("   Pi(x):" + n);
-					for(int i = 0; i < pi.get(n).length; i++){
-						out.println("    " + i + ": " + pi.get(n)[i]);
-					}
-					out.println("   Lambda(x):" + n);
-					for(int i = 0; i < lambda.get(n).length; i++){
-						out.println("    " + i + ": " + lambda.get(n)[i]);
-					}
+			catch(Throwable e) {
+				exception = e;
+				// make the other threads stop: they either notice the flag or are released by the broken barrier
+				// (if this thread is the last to arrive, the barrier trips instead, and the flag is noticed afterwards)
+				state.done = true;
+				try {
+					barrier.await(0, TimeUnit.NANOSECONDS);
 				}
-				
-				out.println("\n     Message Functions");
-				for (BeliefNode n : nodes){
-					out.println("Node: " + n);
-					for (BeliefNode c : messages.get(n).piMessages.keySet()){
-						out.println("   Pi-Message to " + c + ":");
-						for(int i = 0; i < messages.get(n).piMessages.get(c).length; i++){
-							out.println("    " + i + ": " + messages.get(n).piMessages.get(c)[i]);
-						}
-					}
-					for (BeliefNode c : messages.get(n).lambdaMessages.keySet()){
-						out.println("   Lambda to (x):" + c);
-						for(int i = 0; i < messages.get(n).lambdaMessages.get(c).length; i++){
-							out.println("    " + i + ": " + messages.get(n).lambdaMessages.get(c)[i]);
-						}
-					}
+				catch(Exception e2) {
 				}
 			}
-			
 		}
+	}
+
+	/**
+	 * runs belief propagation in sweeps, distributing the nodes among several threads
+	 * @return the number of sweeps
+	 */
+	protected int runParallelSweeps() throws Exception {
+		ParallelSweeps state = new ParallelSweeps();
+		CyclicBarrier barrier = new CyclicBarrier(numThreads, state);
+		SweepThread[] threads = new SweepThread[numThreads];
+		for(int i = 0; i < numThreads; i++) {
+			threads[i] = new SweepThread(i, state, barrier);
+			threads[i].start();
+		}
+		for(SweepThread t : threads)
+			t.join();
+		for(SweepThread t : threads) {
+			if(t.exception instanceof Error)
+				throw (Error)t.exception;
+			if(t.exception != null)
+				throw (Exception)t.exception;
+		}
+		return state.step;
+	}
+
+	@Override
+	protected void _infer() throws Exception {
+		Stopwatch sw = new Stopwatch();
+		sw.start();
+		initMessages(piMsgs, lambdaMsgs);
+		numUpdates = 0;
+		int steps;
+		if(schedule == Schedule.Residual) {
+			runResidual();
+			steps = (numUpdates + cn.numNodes - 1) / cn.numNodes;
+		}
+		else if(numThreads > 1)
+			steps = runParallelSweeps();
+		else
+			steps = runSweeps();
+		sw.stop();
+		report(String.format("belief propagation: %d node updates (%d iterations) in %fs", numUpdates, steps, sw.getElapsedTimeSecs()));
+
 		// compute probabilities and store results in distribution
 		if(verbose) out.println("computing results....");
 		SampledDistribution dist = createDistribution();
 		dist.Z = 1.0;
-		for (BeliefNode n : nodes) {
-			int i = getNodeIndex(n);
-			if (evidenceDomainIndices[i] >= 0) {
+		dist.steps = steps;
+		Workspace ws = new Workspace();
+		for(int i = 0; i < cn.numNodes; i++) {
+			if(evidenceDomainIndices[i] >= 0) {
 				dist.values[i][evidenceDomainIndices[i]] = 1.0;
 				continue;
 			}
+			computeSupport(i, piMsgs, lambdaMsgs, ws, false);
 			int domSize = dist.values[i].length;
 			double normalize = 0.0;
-			for (int j = 0; j < domSize; j++) {
-				dist.values[i][j] = lambda.get(n)[j]*pi.get(n)[j];
-				normalize += dist.values[i][j]; 
+			for(int j = 0; j < domSize; j++) {
+				dist.values[i][j] = ws.lambda[j]*ws.pi[j];
+				normalize += dist.values[i][j];
 			}
-			for (int j = 0; j < domSize; j++) {
-				if (normalize == 0.0)
-					continue;
+			if(normalize == 0.0)
+				continue;
+			for(int j = 0; j < domSize; j++)
 				dist.values[i][j] /= normalize;
-			}
 		}
 		((ImmediateDistributionBuilder)distributionBuilder).setDistribution(dist);
 	}
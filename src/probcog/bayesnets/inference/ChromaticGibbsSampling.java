@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import probcog.bayesnets.core.BeliefNetworkEx;
+
+import edu.tum.cs.util.Stopwatch;
+
+/**
+ * Chromatic Gibbs sampling: The graph in which each (non-evidence) node is connected to the nodes
+ * in its Markov blanket is colored greedily, such that nodes of the same color are conditionally
+ * independent given all other nodes. A sweep resamples the color classes one after the other,
+ * and the nodes within a color class can be resampled in parallel (parameter "numThreads"),
+ * each thread using its own random number generator and buffer.
+ * <p>For each node, the indices of the nodes whose CPT entries make up its full conditional (the node
+ * itself and its children) are precomputed, so a sweep requires neither allocation nor hashing.</p>
+ * <p>As in {@link GibbsSampling}, the Rao-Blackwellized estimator can be used (parameter "raoBlackwellize").</p>
+ * @author Dominik Jain
+ */
+public class ChromaticGibbsSampling extends Sampler {
+	protected CompiledNetwork cn;
+	/**
+	 * the number of threads to use for resampling the nodes of a color class
+	 */
+	protected int numThreads = 1;
+	/**
+	 * the minimum size of a color class for its nodes to be resampled in parallel; smaller classes are resampled
+	 * by a single thread, because the synchronization would outweigh the gain
+	 */
+	protected int minParallelClassSize = 1000;
+	/**
+	 * whether to use the Rao-Blackwellized estimator, i.e. to count full conditional distributions rather than sampled values
+	 */
+	protected boolean raoBlackwellize = false;
+	/**
+	 * for each non-evidence node, the nodes whose CPTs depend on its value (the node itself followed by its children)
+	 */
+	protected int[][] factors;
+	/**
+	 * the color classes, i.e. for each color, the indices of the non-evidence nodes with that color
+	 */
+	protected int[][] colorClasses;
+	/**
+	 * the current state of the chain
+	 */
+	protected WeightedSample s;
+
+	public ChromaticGibbsSampling(BeliefNetworkEx bn) throws Exception {
+		super(bn);
+		paramHandler.add("numThreads", "setNumThreads");
+		paramHandler.add("minParallelClassSize", "setMinParallelClassSize");
+		paramHandler.add("raoBlackwellize", "setRaoBlackwellize");
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	public void setMinParallelClassSize(int size) {
+		this.minParallelClassSize = size;
+	}
+
+	public void setRaoBlackwellize(boolean enabled) {
+		raoBlackwellize = enabled;
+	}
+
+	@Override
+	protected void _initialize() throws Exception {
+		cn = getCompiledNetwork();
+		int n = cn.numNodes;
+		factors = new int[n][];
+		for(int i = 0; i < n; i++) {
+			if(evidenceDomainIndices[i] != -1)
+				continue;
+			int[] children = cn.getChildren(i);
+			int[] f = new int[children.length+1];
+			f[0] = i;
+			System.arraycopy(children, 0, f, 1, children.length);
+			factors[i] = f;
+		}
+		computeColorClasses();
+	}
+
+	/**
+	 * colors the Markov blanket graph of the non-evidence nodes greedily (nodes with many neighbours first)
+	 * and stores the resulting color classes
+	 */
+	protected void computeColorClasses() {
+		int n = cn.numNodes;
+		// compute the (non-evidence) Markov blanket of each non-evidence node
+		int[][] blankets = new int[n][];
+		int[] mark = new int[n];
+		Arrays.fill(mark, -1);
+		int[] buffer = new int[n];
+		for(int i = 0; i < n; i++) {
+			if(factors[i] == null)
+				continue;
+			int size = 0;
+			mark[i] = i;
+			// parents of the node and of its children as well as the children themselves
+			for(int f : factors[i])
+				for(int v : cn.getDomainProduct(f))
+					if(mark[v] != i && evidenceDomainIndices[v] == -1) {
+						mark[v] = i;
+						buffer[size++] = v;
+					}
+			blankets[i] = Arrays.copyOf(buffer, size);
+		}
+		// sort nodes by decreasing degree
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++)
+			order[i] = i;
+		final int[][] mb = blankets;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int da = mb[a] == null ? -1 : mb[a].length, db = mb[b] == null ? -1 : mb[b].length;
+				return db - da;
+			}
+		});
+		// assign to each node the smallest color not used by any of its neighbours
+		int[] color = new int[n];
+		Arrays.fill(color, -1);
+		Arrays.fill(mark, -1);
+		int numColors = 0;
+		int[] classSizes = new int[n+1];
+		for(int i : order) {
+			if(blankets[i] == null)
+				break;
+			for(int v : blankets[i])
+				if(color[v] != -1)
+					mark[color[v]] = i;
+			int c = 0;
+			while(mark[c] == i)
+				c++;
+			color[i] = c;
+			classSizes[c]++;
+			numColors = Math.max(numColors, c+1);
+		}
+		colorClasses = new int[numColors][];
+		for(int c = 0; c < numColors; c++)
+			colorClasses[c] = new int[classSizes[c]];
+		Arrays.fill(classSizes, 0);
+		for(int i = 0; i < n; i++)
+			if(color[i] != -1)
+				colorClasses[color[i]][classSizes[color[i]]++] = i;
+		if(verbose) out.printf("Markov blanket graph colored with %d colors\n", numColors);
+	}
+
+	@Override
+	public void _infer() throws Exception {
+		Stopwatch sw = new Stopwatch();
+
+		// get initial setting with non-zero evidence probability
+		out.println("initial setting...");
+		s = bn.getWeightedSample(bn.getTopologicalOrder(), evidenceDomainIndices, generator);
+		if(s == null)
+			throw new Exception("Could not find an initial state with non-zero probability in given number of trials.");
+		s.trials = 1;
+		s.weight = 1;
+		if(raoBlackwellize) {
+			s.conditionals = new double[cn.numNodes][];
+			for(int i = 0; i < cn.numNodes; i++)
+				if(factors[i] != null)
+					s.conditionals[i] = new double[cn.domainSizes[i]];
+		}
+
+		// do Gibbs sampling
+		out.println("chromatic Gibbs sampling...");
+		sw.start();
+		if(numThreads > 1 && getParallelClasses().length > 0)
+			inferParallel();
+		else
+			inferSequential();
+		sw.stop();
+		report(String.format("time taken: %.2fs (%.4fs per sample)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/numSamples));
+	}
+
+	protected void inferSequential() throws Exception {
+		double[][] distributions = newDistributionBuffers();
+		for(int i = 1; i <= numSamples && !isCancelled(); i++) {
+			if(i % infoInterval == 0)
+				out.println("  step " + i);
+			resampleClasses(0, colorClasses.length, distributions, generator);
+			addSample(s);
+		}
+	}
+
+	/**
+	 * @return the indices of the color classes whose nodes are resampled in parallel
+	 */
+	protected int[] getParallelClasses() {
+		int num = 0;
+		for(int[] colorClass : colorClasses)
+			if(colorClass.length >= minParallelClassSize)
+				num++;
+		int[] ret = new int[num];
+		num = 0;
+		for(int c = 0; c < colorClasses.length; c++)
+			if(colorClasses[c].length >= minParallelClassSize)
+				ret[num++] = c;
+		return ret;
+	}
+
+	/**
+	 * resamples the nodes of a range of color classes sequentially
+	 * @param from  the index of the first color class
+	 * @param to  the index of the color class at which to stop (exclusive)
+	 * @param distributions  buffers for the full conditionals, indexed by domain size
+	 * @param generator  the random number generator to use
+	 */
+	protected void resampleClasses(int from, int to, double[][] distributions, Random generator) {
+		for(int c = from; c < to; c++) {
+			int[] colorClass = colorClasses[c];
+			for(int j = 0; j < colorClass.length; j++)
+				resample(colorClass[j], distributions, generator);
+		}
+	}
+
+	/**
+	 * runs the sweeps using numThreads threads (the current thread being one of them), which
+	 * synchronize after each color class that is resampled in parallel; the remaining color classes
+	 * are resampled by the barrier action, which also adds the sample at the end of a sweep
+	 * @throws Exception
+	 */
+	protected void inferParallel() throws Exception {
+		out.println("using " + numThreads + " threads");
+		SweepAction action = new SweepAction(getParallelClasses());
+		CyclicBarrier barrier = new CyclicBarrier(numThreads, action);
+		action.resampleClasses(0, action.parallelClasses[0]);
+		SamplingThread[] threads = new SamplingThread[numThreads];
+		for(int i = 0; i < numThreads; i++)
+			threads[i] = new SamplingThread(i, barrier, action, generator.nextLong());
+		for(int i = 1; i < numThreads; i++)
+			threads[i].start();
+		threads[0].run();
+		for(int i = 1; i < numThreads; i++)
+			threads[i].join();
+		if(action.exception != null)
+			throw action.exception;
+		for(SamplingThread t : threads)
+			if(t.exception != null)
+				throw t.exception;
+	}
+
+	/**
+	 * the action that is carried out whenever all threads have completed a parallel color class: it resamples
+	 * the subsequent non-parallel color classes and, at the end of a sweep, adds the current state as a sample
+	 */
+	protected class SweepAction implements Runnable {
+		protected int[] parallelClasses;
+		protected double[][] distributions;
+		protected int parallelClassIdx = 0;
+		protected int step = 1;
+		protected volatile boolean done = false;
+		/**
+		 * whether one of the threads failed while resampling
+		 */
+		protected volatile boolean failed = false;
+		protected Exception exception = null;
+
+		public SweepAction(int[] parallelClasses) {
+			this.parallelClasses = parallelClasses;
+			distributions = newDistributionBuffers();
+		}
+
+		public void run() {
+			if(exception != null)
+				return;
+			try {
+				int c = parallelClasses[parallelClassIdx++];
+				if(parallelClassIdx < parallelClasses.length) {
+					resampleClasses(c+1, parallelClasses[parallelClassIdx]);
+					return;
+				}
+				parallelClassIdx = 0;
+				resampleClasses(c+1, colorClasses.length);
+				if(step % infoInterval == 0)
+					out.println("  step " + step);
+				addSample(s);
+				if(++step > numSamples || failed || isCancelled())
+					done = true;
+				else
+					resampleClasses(0, parallelClasses[0]);
+			}
+			catch(Exception e) {
+				exception = e;
+				done = true;
+			}
+		}
+
+		protected void resampleClasses(int from, int to) {
+			ChromaticGibbsSampling.this.resampleClasses(from, to, distributions, generator);
+		}
+	}
+
+	/**
+	 * a thread that resamples a fixed share of the nodes of each color class
+	 */
+	protected class SamplingThread extends Thread {
+		protected int threadIdx;
+		protected CyclicBarrier barrier;
+		protected SweepAction action;
+		protected Random generator;
+		protected double[][] distributions;
+		protected Exception exception = null;
+
+		public SamplingThread(int threadIdx, CyclicBarrier barrier, SweepAction action, long seed) {
+			this.threadIdx = threadIdx;
+			this.barrier = barrier;
+			this.action = action;
+			this.generator = new Random(seed);
+			distributions = newDistributionBuffers();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(!action.done && numSamples > 0) {
+					for(int c : action.parallelClasses) {
+						int[] colorClass = colorClasses[c];
+						// in case of failure, keep synchronizing with the other threads until the sweep is complete
+						if(exception == null) {
+							try {
+								for(int j = threadIdx; j < colorClass.length; j += numThreads)
+									resample(colorClass[j], distributions, generator);
+							}
+							catch(RuntimeException e) {
+								exception = e;
+								action.failed = true;
+							}
+						}
+						barrier.await();
+					}
+				}
+			}
+			catch(InterruptedException e) {
+				exception = e;
+			}
+			catch(BrokenBarrierException e) {
+				exception = e;
+			}
+		}
+	}
+
+	/**
+	 * @return buffers for the full conditional distributions, indexed by domain size
+	 */
+	protected double[][] newDistributionBuffers() {
+		double[][] distributions = new double[cn.getMaxDomainSize()+1][];
+		for(int domSize : cn.domainSizes)
+			if(distributions[domSize] == null)
+				distributions[domSize] = new double[domSize];
+		return distributions;
+	}
+
+	/**
+	 * samples a new value for a node from its full conditional distribution given the current state
+	 * @param nodeIdx  the index of the (non-evidence) node
+	 * @param distributions  buffers for the full conditional, indexed by domain size
+	 * @param generator  the random number generator to use
+	 */
+	protected final void resample(int nodeIdx, double[][] distributions, Random generator) {
+		int[] state = s.nodeDomainIndices;
+		int[] f = factors[nodeIdx];
+		int domSize = cn.domainSizes[nodeIdx];
+		double[] distribution = distributions[domSize];
+		double sum = 0;
+		for(int d = 0; d < domSize; d++) {
+			state[nodeIdx] = d;
+			double value = 1.0;
+			for(int k = 0; k < f.length && value != 0.0; k++)
+				value *= cn.getProbability(f[k], state);
+			distribution[d] = value;
+			sum += value;
+		}
+		state[nodeIdx] = sample(distribution, sum, generator);
+		if(s.conditionals != null)
+			GibbsSampling.storeConditional(s.conditionals[nodeIdx], distribution, sum, state[nodeIdx]);
+	}
+}
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.FunctionalCPT;
+import probcog.bayesnets.core.SharedCPT;
+
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPF;
+
+/**
+ * A compiled representation of a (ground) Bayesian network, in which the conditional
+ * probability tables of all nodes are stored as dense arrays of primitive values and
+ * the domain products of all CPFs are given as arrays of node indices.
+ * Looking up CPT entries, CPT columns and forward samples thus requires neither
+ * allocation nor hashing.
+ * <p>The tables use the same layout as BNJ's CPTs, i.e. the address of an entry is
+ * the sum of the domain indices of the domain product's nodes multiplied by the
+ * respective strides (the node itself being the first element of the domain product).</p>
+ * <p>Nodes with functional CPTs (see {@link FunctionalCPT}) are not tabulated; for these nodes,
+ * probabilities, conditional distributions and forward samples are obtained by evaluating the
+ * function directly, and the table is materialized only if it is explicitly requested via {@link #getCPT(int)}.</p>
+ * <p>The tables of nodes with shared CPTs (see {@link SharedCPT}), e.g. the ground nodes instantiated from
+ * the same template, are not copied but shared. Each distinct table is assigned an index (see {@link #getTableIndex(int)}),
+ * by which inference methods can share data they precompute for a table among all the nodes using it.</p>
+ * <p>Instances are immutable (apart from the caching of materialized tables) and can thus safely be shared among several samplers/threads.</p>
+ *
+ * @author Dominik Jain
+ */
+public class CompiledNetwork {
+	/**
+	 * the number of nodes in the network
+	 */
+	public final int numNodes;
+	/**
+	 * the domain size of each node
+	 */
+	public final int[] domainSizes;
+	/**
+	 * for each node, the CPT as a dense array (null for functional nodes; the array is not modified after construction)
+	 */
+	protected final double[][] cpts;
+	/**
+	 * for each functional node, its materialized CPT (null if it has not yet been requested via {@link #getCPT(int)});
+	 * atomic, since the tables are materialized lazily, possibly by several threads concurrently
+	 */
+	protected final AtomicReferenceArray<double[]> materializedCPTs;
+	/**
+	 * for each node, the functional CPT if the node is deterministic and its table is not stored (null otherwise)
+	 */
+	protected final FunctionalCPT[] functions;
+	/**
+	 * for each node, the index of its table (nodes with shared CPTs have the same index if they share the table); -1 for functional nodes
+	 */
+	protected final int[] tableIndices;
+	/**
+	 * the number of distinct tables
+	 */
+	protected final int numTables;
+	/**
+	 * for each node, the indices of the nodes in the domain product of its CPF (the node itself at position 0)
+	 */
+	protected final int[][] domainProducts;
+	/**
+	 * for each node, the address strides of the elements of its CPF's domain product
+	 */
+	protected final int[][] strides;
+	/**
+	 * for each node, the indices of its children
+	 */
+	protected final int[][] children;
+
+	public CompiledNetwork(BeliefNetworkEx bn) {
+		BeliefNode[] nodes = bn.bn.getNodes();
+		numNodes = nodes.length;
+		HashMap<BeliefNode, Integer> nodeIndices = new HashMap<BeliefNode, Integer>();
+		for(int i = 0; i < nodes.length; i++)
+			nodeIndices.put(nodes[i], i);
+		domainSizes = new int[numNodes];
+		cpts = new double[numNodes][];
+		functions = new FunctionalCPT[numNodes];
+		materializedCPTs = new AtomicReferenceArray<double[]>(numNodes);
+		tableIndices = new int[numNodes];
+		IdentityHashMap<double[], Integer> sharedTables = new IdentityHashMap<double[], Integer>();
+		int numTables = 0;
+		domainProducts = new int[numNodes][];
+		strides = new int[numNodes][];
+		children = new int[numNodes][];
+		for(int i = 0; i < numNodes; i++) {
+			domainSizes[i] = nodes[i].getDomain().getOrder();
+			// domain product and strides
+			CPF cpf = nodes[i].getCPF();
+			BeliefNode[] domProd = cpf.getDomainProduct();
+			int[] dp = new int[domProd.length];
+			int[] st = new int[domProd.length];
+			int stride = 1;
+			for(int j = domProd.length-1; j >= 0; j--) {
+				dp[j] = nodeIndices.get(domProd[j]);
+				st[j] = stride;
+				stride *= domProd[j].getDomain().getOrder();
+			}
+			domainProducts[i] = dp;
+			strides[i] = st;
+			// table
+			if(cpf instanceof FunctionalCPT) {
+				functions[i] = (FunctionalCPT)cpf;
+				tableIndices[i] = -1;
+			}
+			else if(cpf instanceof SharedCPT) {
+				cpts[i] = ((SharedCPT)cpf).getTable();
+				Integer tableIdx = sharedTables.get(cpts[i]);
+				if(tableIdx == null)
+					sharedTables.put(cpts[i], tableIdx = numTables++);
+				tableIndices[i] = tableIdx;
+			}
+			else {
+				cpts[i] = tabulate(cpf);
+				tableIndices[i] = numTables++;
+			}
+			// children
+			BeliefNode[] c = bn.bn.getChildren(nodes[i]);
+			int[] ci = new int[c.length];
+			for(int j = 0; j < c.length; j++)
+				ci[j] = nodeIndices.get(c[j]);
+			children[i] = ci;
+		}
+		this.numTables = numTables;
+	}
+
+	protected static double[] tabulate(CPF cpf) {
+		double[] cpt = new double[cpf.size()];
+		for(int j = 0; j < cpt.length; j++)
+			cpt[j] = cpf.getDouble(j);
+		return cpt;
+	}
+
+	/**
+	 * @param nodeIdx  the index of the node
+	 * @return true if the node is deterministic and its CPT is given as a function rather than a table
+	 */
+	public final boolean isFunctional(int nodeIdx) {
+		return functions[nodeIdx] != null;
+	}
+
+	/**
+	 * computes the value of a node with a functional CPT (see {@link #isFunctional(int)})
+	 * @param nodeIdx  the index of the node
+	 * @param nodeDomainIndices  domain indices for each node in the network (only the parents of the node are required to be set)
+	 * @return  the domain index of the node's value
+	 */
+	public final int getFunctionValue(int nodeIdx, int[] nodeDomainIndices) {
+		return functions[nodeIdx].getValue(nodeDomainIndices, domainProducts[nodeIdx]);
+	}
+
+	/**
+	 * gets the address of the first entry of the CPT column that is relevant for the
+	 * given node given the setting of its parents (i.e. the address of the entry where the node's value is 0)
+	 * @param nodeIdx  the index of the node
+	 * @param nodeDomainIndices  domain indices for each node in the network (only the parents of the node are required to be set)
+	 * @return  the address into the node's CPT
+	 */
+	public final int getColumnAddress(int nodeIdx, int[] nodeDomainIndices) {
+		int[] dp = domainProducts[nodeIdx];
+		int[] st = strides[nodeIdx];
+		int addr = 0;
+		for(int i = 1; i < dp.length; i++)
+			addr += nodeDomainIndices[dp[i]] * st[i];
+		return addr;
+	}
+
+	/**
+	 * @param nodeIdx  the index of the node
+	 * @return the address difference between two consecutive entries in a column of the node's CPT
+	 */
+	public final int getColumnStride(int nodeIdx) {
+		return strides[nodeIdx][0];
+	}
+
+	/**
+	 * gets the CPT entry of the given node for the configuration that is provided in the array of domain indices
+	 * @param nodeIdx  the index of the node
+	 * @param nodeDomainIndices  domain indices for each node in the network (only the node and its parents are required to be set)
+	 * @return  the probability value
+	 */
+	public final double getProbability(int nodeIdx, int[] nodeDomainIndices) {
+		if(functions[nodeIdx] != null)
+			return getFunctionValue(nodeIdx, nodeDomainIndices) == nodeDomainIndices[nodeIdx] ? 1.0 : 0.0;
+		return cpts[nodeIdx][getColumnAddress(nodeIdx, nodeDomainIndices) + nodeDomainIndices[nodeIdx] * strides[nodeIdx][0]];
+	}
+
+	/**
+	 * copies the CPT column that is relevant given the setting of the node's parents to the given array
+	 * @param nodeIdx  the index of the node
+	 * @param nodeDomainIndices  domain indices for each node in the network (only the parents of the node are required to be set)
+	 * @param dist  the array to write to (of length at least equal to the node's domain size)
+	 * @return  the sum of the column's entries
+	 */
+	public final double getConditionalDistribution(int nodeIdx, int[] nodeDomainIndices, double[] dist) {
+		int domSize = domainSizes[nodeIdx];
+		if(functions[nodeIdx] != null) {
+			int value = getFunctionValue(nodeIdx, nodeDomainIndices);
+			for(int i = 0; i < domSize; i++)
+				dist[i] = i == value ? 1.0 : 0.0;
+			return 1.0;
+		}
+		double[] cpt = cpts[nodeIdx];
+		int addr = getColumnAddress(nodeIdx, nodeDomainIndices);
+		int diff = strides[nodeIdx][0];
+		double sum = 0;
+		for(int i = 0; i < domSize; i++, addr += diff) {
+			dist[i] = cpt[addr];
+			sum += dist[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * samples forward, i.e. samples a value for the given node given its parents
+	 * @param nodeIdx  the index of the node for which to sample a value
+	 * @param nodeDomainIndices  array of domain indices for all nodes in the network; the values for the parents of the node must be set already
+	 * @param generator  the random number generator to use
+	 * @return  the index of the domain element that is sampled, or -1 if sampling is impossible because all entries in the relevant column are 0
+	 */
+	public final int sampleForward(int nodeIdx, int[] nodeDomainIndices, Random generator) {
+		if(functions[nodeIdx] != null)
+			return getFunctionValue(nodeIdx, nodeDomainIndices);
+		double[] cpt = cpts[nodeIdx];
+		int start = getColumnAddress(nodeIdx, nodeDomainIndices);
+		int diff = strides[nodeIdx][0];
+		int domSize = domainSizes[nodeIdx];
+		double sum = 0;
+		for(int i = 0, addr = start; i < domSize; i++, addr += diff)
+			sum += cpt[addr];
+		// if the column contains only zeros, it is an impossible case -> cannot sample
+		if(sum == 0)
+			return -1;
+		// (same procedure as in Sampler.sample)
+		double random = generator.nextDouble() * sum;
+		int ret = 0;
+		sum = 0;
+		for(int i = 0, addr = start; sum < random && i < domSize; i++, addr += diff) {
+			sum += cpt[addr];
+			ret = i;
+		}
+		return sum >= random ? ret : -1;
+	}
+
+	/**
+	 * gets the node's CPT as a dense array; for nodes with functional CPTs, the table is materialized
+	 * (see {@link #isFunctional(int)}), which should be avoided for nodes with many parents
+	 * @param nodeIdx  the index of the node
+	 * @return the node's CPT as a dense array (which must not be modified)
+	 */
+	public final double[] getCPT(int nodeIdx) {
+		double[] cpt = cpts[nodeIdx];
+		if(cpt != null)
+			return cpt;
+		cpt = materializedCPTs.get(nodeIdx);
+		if(cpt == null) {
+			// if another thread materialized the table in the meantime, use its table instead
+			if(!materializedCPTs.compareAndSet(nodeIdx, null, cpt = tabulate(functions[nodeIdx])))
+				cpt = materializedCPTs.get(nodeIdx);
+		}
+		return cpt;
+	}
+
+	/**
+	 * gets the index of the node's table; nodes with the same index share the same table (and the same layout thereof)
+	 * @param nodeIdx  the index of the node
+	 * @return the table index (in the range 0 to {@link #getNumTables()}-1) or -1 if the node is functional (see {@link #isFunctional(int)})
+	 */
+	public final int getTableIndex(int nodeIdx) {
+		return tableIndices[nodeIdx];
+	}
+
+	/**
+	 * @return the number of distinct tables
+	 */
+	public final int getNumTables() {
+		return numTables;
+	}
+
+	/**
+	 * @param nodeIdx  the index of the node
+	 * @return the indices of the nodes in the domain product of the node's CPF (which must not be modified)
+	 */
+	public final int[] getDomainProduct(int nodeIdx) {
+		return domainProducts[nodeIdx];
+	}
+
+	/**
+	 * @param nodeIdx  the index of the node
+	 * @return the strides of the nodes in the domain product of the node's CPF (which must not be modified)
+	 */
+	public final int[] getStrides(int nodeIdx) {
+		return strides[nodeIdx];
+	}
+
+	/**
+	 * @param nodeIdx  the index of the node
+	 * @return the indices of the node's children (which must not be modified)
+	 */
+	public final int[] getChildren(int nodeIdx) {
+		return children[nodeIdx];
+	}
+
+	/**
+	 * @return the largest domain size of any node in the network
+	 */
+	public int getMaxDomainSize() {
+		int max = 0;
+		for(int d : domainSizes)
+			max = Math.max(max, d);
+		return max;
+	}
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+/**
+ * Computes a variable elimination ordering for a (compiled) Bayesian network by greedily
+ * eliminating, in each step, the variable that is best according to a heuristic
+ * in the moral graph of the network.
+ *
+ * @author Dominik Jain
+ */
+public class EliminationOrdering {
+
+	public enum Heuristic {
+		/**
+		 * eliminate the variable whose elimination introduces the fewest fill-in edges
+		 */
+		MinFill,
+		/**
+		 * eliminate the variable with the fewest neighbours
+		 */
+		MinDegree,
+		/**
+		 * eliminate the variable whose elimination yields the smallest factor
+		 */
+		MinWeight
+	}
+
+	protected CompiledNetwork cn;
+	protected Heuristic heuristic;
+	/**
+	 * the adjacency sets of the moral graph
+	 */
+	protected HashSet<Integer>[] neighbours;
+	protected boolean[] eliminated;
+	/**
+	 * the current heuristic score of each variable
+	 */
+	protected long[] scores;
+	/**
+	 * for each position in the ordering, the variable eliminated at that position followed by its neighbours at the time of elimination
+	 */
+	protected int[][] eliminationCliques;
+
+	protected static class Candidate implements Comparable<Candidate> {
+		public int var;
+		public long score;
+
+		public Candidate(int var, long score) {
+			this.var = var;
+			this.score = score;
+		}
+
+		public int compareTo(Candidate o) {
+			if(score != o.score)
+				return score < o.score ? -1 : 1;
+			return var - o.var;
+		}
+	}
+
+	/**
+	 * @param cn  the compiled network
+	 * @param excluded  for each node, whether it is to be excluded from the graph (e.g. because it is an evidence variable or irrelevant); may be null
+	 * @param heuristic  the heuristic to apply
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public EliminationOrdering(CompiledNetwork cn, boolean[] excluded, Heuristic heuristic) {
+		this.cn = cn;
+		this.heuristic = heuristic;
+		int n = cn.numNodes;
+		neighbours = new HashSet[n];
+		eliminated = new boolean[n];
+		for(int i = 0; i < n; i++) {
+			neighbours[i] = new HashSet<Integer>();
+			if(excluded != null && excluded[i])
+				eliminated[i] = true;
+		}
+		// moralize: connect all (non-excluded) members of each family
+		for(int i = 0; i < n; i++) {
+			int[] family = cn.getDomainProduct(i);
+			for(int a = 0; a < family.length; a++) {
+				if(eliminated[family[a]])
+					continue;
+				for(int b = a+1; b < family.length; b++) {
+					if(eliminated[family[b]])
+						continue;
+					neighbours[family[a]].add(family[b]);
+					neighbours[family[b]].add(family[a]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * computes the elimination ordering
+	 * @return the indices of all non-excluded nodes in the order in which they are to be eliminated
+	 */
+	public int[] getOrder() {
+		int n = cn.numNodes;
+		scores = new long[n];
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		int numVars = 0;
+		for(int i = 0; i < n; i++) {
+			if(eliminated[i])
+				continue;
+			numVars++;
+			scores[i] = computeScore(i);
+			queue.add(new Candidate(i, scores[i]));
+		}
+		int[] order = new int[numVars];
+		eliminationCliques = new int[numVars][];
+		int k = 0;
+		HashSet<Integer> affected = new HashSet<Integer>();
+		while(!queue.isEmpty()) {
+			Candidate c = queue.poll();
+			// skip stale entries
+			if(eliminated[c.var] || c.score != scores[c.var])
+				continue;
+			int v = c.var;
+			eliminated[v] = true;
+			// connect the neighbours of v and remove v from the graph
+			Integer[] nb = neighbours[v].toArray(new Integer[neighbours[v].size()]);
+			int[] clique = new int[nb.length+1];
+			clique[0] = v;
+			for(int a = 0; a < nb.length; a++)
+				clique[a+1] = nb[a];
+			eliminationCliques[k] = clique;
+			order[k++] = v;
+			for(int a = 0; a < nb.length; a++) {
+				neighbours[nb[a]].remove(v);
+				for(int b = a+1; b < nb.length; b++) {
+					neighbours[nb[a]].add(nb[b]);
+					neighbours[nb[b]].add(nb[a]);
+				}
+			}
+			// update the scores of all variables whose score may have changed
+			affected.clear();
+			for(Integer u : nb) {
+				affected.add(u);
+				if(heuristic == Heuristic.MinFill)
+					affected.addAll(neighbours[u]);
+			}
+			for(Integer u : affected) {
+				long score = computeScore(u);
+				if(score != scores[u]) {
+					scores[u] = score;
+					queue.add(new Candidate(u, score));
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * gets the cliques of the triangulated graph that are induced by the ordering (requires {@link #getOrder()} to have been called)
+	 * @return for each position in the ordering, the variable eliminated at that position followed by its neighbours at the time of elimination
+	 */
+	public int[][] getEliminationCliques() {
+		return eliminationCliques;
+	}
+
+	protected long computeScore(int v) {
+		switch(heuristic) {
+		case MinDegree:
+			return neighbours[v].size();
+		case MinWeight:
+			long weight = cn.domainSizes[v];
+			for(Integer u : neighbours[v]) {
+				weight *= cn.domainSizes[u];
+				if(weight > Integer.MAX_VALUE)
+					return Integer.MAX_VALUE;
+			}
+			return weight;
+		default: // MinFill
+			Integer[] nb = neighbours[v].toArray(new Integer[neighbours[v].size()]);
+			long fill = 0;
+			for(int a = 0; a < nb.length; a++)
+				for(int b = a+1; b < nb.length; b++)
+					if(!neighbours[nb[a]].contains(nb[b]))
+						fill++;
+			return fill;
+		}
+	}
+}
@@ -57,6 +57,9 @@ public class EnumerationAsk extends Sampler {
 	}
 	
 	public void enumerateWorlds(WeightedSample s, int[] nodeOrder, int[] evidenceDomainIndices, int i, double combinationsHandled) throws Exception {
+		// if cancelled, the worlds enumerated thus far constitute the result
+		if(isCancelled())
+			return;
 		//out.printf("enum %s, domain size = %d\n", nodes[nodeOrder[i]].getName(), nodes[nodeOrder[i]].getDomain().getOrder());
 		// status messages
 		if(timer.getElapsedTimeSecs() > 1) {
@@ -18,31 +18,58 @@
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
-import java.util.HashMap;
-
 import probcog.bayesnets.core.BeliefNetworkEx;
 
-import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.Discrete;
 import edu.tum.cs.util.Stopwatch;
 
 /**
  * Gibbs Sampling MCMC inference.
+ * <p>If Rao-Blackwellization is enabled (parameter "raoBlackwellize"), the full conditional distribution
+ * of each non-evidence node, which is computed anyway in order to resample the node, is counted 
+ * instead of the sampled value, which reduces the variance of the estimates.</p>
  * @author Dominik Jain
  */
 public class GibbsSampling extends Sampler {
 	int[] nodeOrder;	
-	HashMap<BeliefNode, BeliefNode[]> children;
+	CompiledNetwork cn;
+	/**
+	 * buffers for the full conditional distributions, indexed by domain size
+	 */
+	double[][] distributions;
+	/**
+	 * whether to use the Rao-Blackwellized estimator, i.e. to count full conditional distributions rather than sampled values
+	 */
+	protected boolean raoBlackwellize = false;
 	
 	public GibbsSampling(BeliefNetworkEx bn) throws Exception {
 		super(bn);
-		children = new HashMap<BeliefNode, BeliefNode[]>();
-		for(int i = 0; i < nodes.length; i++) {
-			children.put(nodes[i], bn.bn.getChildren(nodes[i]));
-		}
+		paramHandler.add("raoBlackwellize", "setRaoBlackwellize");
+		cn = getCompiledNetwork();
+		distributions = new double[cn.getMaxDomainSize()+1][];
+		for(int domSize : cn.domainSizes)
+			if(distributions[domSize] == null)
+				distributions[domSize] = new double[domSize];
 		nodeOrder = bn.getTopologicalOrder();
 	}
 	
+	public void setRaoBlackwellize(boolean enabled) {
+		raoBlackwellize = enabled;
+	}
+	
+	/**
+	 * creates buffers for the full conditional distributions of the non-evidence nodes, which, if set as 
+	 * a sample's conditionals (see {@link WeightedSample#conditionals}), are filled by {@link #gibbsStep(int[], WeightedSample)}
+	 * @param evidenceDomainIndices  the evidence
+	 * @return an array with a buffer for each non-evidence node and null for each evidence node
+	 */
+	public double[][] createConditionals(int[] evidenceDomainIndices) {
+		double[][] conditionals = new double[nodes.length][];
+		for(int i = 0; i < nodes.length; i++)
+			if(evidenceDomainIndices[i] == -1)
+				conditionals[i] = new double[cn.domainSizes[i]];
+		return conditionals;
+	}
+	
 	public void _infer() throws Exception {
 		Stopwatch sw = new Stopwatch();
 
@@ -51,12 +78,14 @@ public class GibbsSampling extends Sampler {
 		WeightedSample s = bn.getWeightedSample(nodeOrder, evidenceDomainIndices, generator);
 		if(s == null)
 			throw new Exception("Could not find an initial state with non-zero probability in given number of trials.");
+		if(raoBlackwellize)
+			s.conditionals = createConditionals(evidenceDomainIndices);
 		
 		// do Gibbs sampling
 		out.println("Gibbs sampling...");
 		sw.start();		
 		// - get a bunch of samples
-		for(int i = 1; i <= numSamples; i++) {
+		for(int i = 1; i <= numSamples && !isCancelled(); i++) {
 			if(i % infoInterval == 0)
 				out.println("  step " + i);
 			gibbsStep(evidenceDomainIndices, s);
@@ -69,6 +98,13 @@ public class GibbsSampling extends Sampler {
 		report(String.format("time taken: %.2fs (%.4fs per sample)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/numSamples));
 	}
 	
+	/**
+	 * resamples all non-evidence nodes given the current values of all other nodes; if the sample has
+	 * conditionals, the full conditional distributions of the nodes are stored in them
+	 * @param evidenceDomainIndices  the evidence
+	 * @param s  the sample to modify
+	 * @return the probability with which the value of the last node was sampled
+	 */
 	public double gibbsStep(int[] evidenceDomainIndices, WeightedSample s) {
 		double p = 1.0;
 		// resample all of the (non-evidence) nodes
@@ -77,18 +113,17 @@ public class GibbsSampling extends Sampler {
 			if(evidenceDomainIndices[j] != -1)
 				continue;
 			// initialize
-			BeliefNode n = nodes[j];
-			Discrete dom = (Discrete)n.getDomain();
-			int domSize = dom.getOrder();
-			double[] distribution = new double[domSize];
+			int domSize = cn.domainSizes[j];
+			double[] distribution = distributions[domSize];
+			int[] children = cn.getChildren(j);
 			// for the current node, calculate a value for each setting
 			for(int d = 0; d < domSize; d++) {
 				s.nodeDomainIndices[j] = d;
 				// consider the probability of the setting given the node's parents
-				double value = getCPTProbability(n, s.nodeDomainIndices);
+				double value = cn.getProbability(j, s.nodeDomainIndices);
 				// consider the probability of the children's settings given the respective parents					
-				for(BeliefNode child : children.get(n)) {
-					value *= getCPTProbability(child, s.nodeDomainIndices);
+				for(int child : children) {
+					value *= cn.getProbability(child, s.nodeDomainIndices);
 				}			
 				distribution[d] = value;
 			}		
@@ -97,7 +132,23 @@ public class GibbsSampling extends Sampler {
 				sum += distribution[i];
 			s.nodeDomainIndices[j] = sample(distribution, sum, generator);
 			p = distribution[s.nodeDomainIndices[j]] / sum;
+			if(s.conditionals != null)
+				storeConditional(s.conditionals[j], distribution, sum, s.nodeDomainIndices[j]);
 		}
 		return p;
 	}
+	
+	/**
+	 * stores a normalized full conditional distribution (for Rao-Blackwellized estimation)
+	 * @param conditional  the array to write to (may be null, in which case nothing is done)
+	 * @param distribution  the unnormalized full conditional
+	 * @param sum  the sum of the values in distribution
+	 * @param sampledValue  the value that was sampled (which is counted with probability 1 if the distribution is all zeros)
+	 */
+	public static void storeConditional(double[] conditional, double[] distribution, double sum, int sampledValue) {
+		if(conditional == null)
+			return;
+		for(int d = 0; d < conditional.length; d++)
+			conditional[d] = sum > 0 ? distribution[d] / sum : (d == sampledValue ? 1.0 : 0.0);
+	}
 }
@@ -25,31 +25,67 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
-import probcog.bayesnets.inference.IJGP.JoinGraph.Arc;
 
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
 import edu.ksu.cis.bnj.ver3.core.CPF;
 import edu.tum.cs.util.StringTool;
-import edu.tum.cs.util.datastruct.MutableDouble;
 
 /**
- * The Iterative Join-Graph Propagation algorithm as described by Dechter, Kask and Mateescu (2002)
+ * The Iterative Join-Graph Propagation algorithm as described by Dechter, Kask and Mateescu (2002).
+ * Messages are represented as dense tables ({@link TableFactor}) over the non-evidence variables of
+ * the respective separators and are computed iteratively from the clusters' (evidence-reduced) CPTs
+ * and incoming messages.
  * @author Stefan Waldherr
  * @author Dominik Jain
  */
 public class IJGP extends Sampler {
 
 	protected JoinGraph jg;
-	Vector<JoinGraph.Node> jgNodes;
-	protected BeliefNode[] nodes;
 	protected final boolean debug = false;
 	protected int ibound;
 	protected boolean verbose = true;
+	protected int numThreads = 1;
+
+	protected CompiledNetwork cn;
+	/**
+	 * for each cluster (join graph node in topological order), the indices of its non-evidence variables
+	 */
+	protected int[][] clusterVars;
+	/**
+	 * for each cluster, the product of its CPTs (reduced by the evidence)
+	 */
+	protected TableFactor[] clusterBase;
+	/**
+	 * for each cluster, the indices of its neighbours and of the corresponding outgoing edges
+	 */
+	protected int[][] neighbours, outEdges;
+	/**
+	 * for each cluster, the indices of its incoming edges
+	 */
+	protected int[][] inEdges;
+	/**
+	 * for each directed edge, the sending and receiving cluster
+	 */
+	protected int[] edgeFrom, edgeTo;
+	/**
+	 * for each directed edge, the non-evidence variables in the separator
+	 */
+	protected int[][] separatorVars;
+	/**
+	 * for each directed edge, the current message
+	 */
+	protected TableFactor[] messages;
 
 	public IJGP(BeliefNetworkEx bn) throws Exception {
 		super(bn);
+		paramHandler.add("numThreads", "setNumThreads");
 	}
 	
 	@Override
@@ -83,445 +119,242 @@ public class IJGP extends Sampler {
 		return new ImmediateDistributionBuilder();
 	}
 
-	@Override
-	public void _infer() throws Exception {
-		// Create topological order
-		if(verbose) out.println("determining order...");
-		jgNodes = jg.getTopologicalorder();
-		if(debug) {
-			out.println("Topological Order: ");
-			for (int i = 0; i < jgNodes.size(); i++) {
-				out.println(jgNodes.get(i).getShortName());
-			}
-		}
-		// process observed variables
-		if(verbose) out.println("processing observed variables...");
-		for (JoinGraph.Node n : jgNodes) {
-			Vector<BeliefNode> nodes = new Vector<BeliefNode>(n.getNodes());
-			for (BeliefNode belNode : nodes) {
-				int nodeIdx = bn.getNodeIndex(belNode);
-				int domainIdx = evidenceDomainIndices[nodeIdx];
-				if (domainIdx > -1)
-					n.nodes.remove(belNode);
-			}
-		}
-		out.printf("running propagation (%d steps)...\n", this.numSamples);
-		for (int step = 1; step <= this.numSamples; step++) {
-			out.printf("step %d\n", step);
-			// for every node in JG in topological order and back:
-			int s = jgNodes.size();
-			boolean direction = true;
-			for (int j = 0; j < 2 * s; j++) {
-				int i;
-				if (j < s)
-					i = j;
-				else {
-					i = 2 * s - j - 1;
-					direction = false;
-				}
-				JoinGraph.Node u = jgNodes.get(i);
-				//out.printf("step %d, %d/%d: %-60s\r", step, j, 2*s, u.getShortName());
-				int topIndex = jgNodes.indexOf(u);
-				for (JoinGraph.Node v : u.getNeighbors()) {
-					if ((direction && jgNodes.indexOf(v) < topIndex)
-							|| (!direction && jgNodes.indexOf(v) > topIndex)) {
-						continue;
-					}					
-					Arc arc = u.getArcToNode(v);
-					arc.clearOutMessages(u);
-					// construct cluster_v(u)
-					Cluster cluster_u = new Cluster(u, v);
-					// Include in cluster_H each function in cluster_u which
-					// scope does not contain variables in elim(u,v)
-					HashSet<BeliefNode> elim = new HashSet<BeliefNode>(u.nodes);
-					// out.println(" Node " + u.getShortName() +
-					// " and node " +v.getShortName() + " have separator " +
-					// StringTool.join(", ", arc.separator));
-					elim.removeAll(arc.separator);
-					Cluster cluster_H = cluster_u.getReducedCluster(elim);
-					// denote by cluster_A the remaining functions
-					Cluster cluster_A = cluster_u.copy();
-					cluster_A.subtractCluster(cluster_H);
-					// DEBUG OUTPUT
-					if (debug) {
-						out.println("  cluster_v(u): \n" + cluster_u);
-						out.println("  A: \n" + cluster_A);
-						out.println("  H_(u,v): \n" + cluster_H);
-					}
-					// convert eliminator into varsToSumOver
-					int[] varsToSumOver = new int[elim.size()];
-					int k = 0;
-					for (BeliefNode n : elim)
-						varsToSumOver[k++] = bn.getNodeIndex(n);
-					// create message function and send to v
-					MessageFunction m = new MessageFunction(arc.separator,
-							varsToSumOver, cluster_A);
-					m.calcuSave(evidenceDomainIndices.clone());
-					arc.addOutMessage(u, m);
-					for (MessageFunction mf : cluster_H.functions) {
-						mf.calcuSave(evidenceDomainIndices.clone());
-						arc.addOutMessage(u, mf);
-					}
-					for (BeliefNode n : cluster_H.cpts) {
-						arc.addCPTOutMessage(u, n);
-					}
-				}
-			}
-		}
+	/**
+	 * sets the number of threads with which messages are computed; if greater than 1, all messages
+	 * of an iteration are computed (in parallel) from the messages of the previous iteration
+	 * @param numThreads
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
 
-		// compute probabilities and store results in distribution
-		out.println("computing results...");
-		SampledDistribution dist = createDistribution();
-		dist.Z = 1.0;
-		for (int i = 0; i < nodes.length; i++) {
-			//out.println("Computing: " + nodes[i].getName() + "\n");
-			if (evidenceDomainIndices[i] >= 0) {
-				dist.values[i][evidenceDomainIndices[i]] = 1.0;
-				continue;
-			}
-			// For every node X let u be a vertex in the join graph such that X
-			// is in u
-			// out.println(nodes[i]);
-			JoinGraph.Node u = null;
-			for (JoinGraph.Node node : jgNodes) {
-				if (node.nodes.contains(nodes[i])) {
-					u = node;
-					break;
-				}
-			}
-			if (u == null)
-				throw new Exception(
-						"Could not find vertex in join graph containing variable "
-								+ nodes[i].getName());
-			// out.println("\nCalculating results for " + nodes[i]);
-			// out.println(u);
-			// compute sum for each domain value of i-th node
-			int domSize = dist.values[i].length;
-			double Z = 0.0;
-			int[] nodeDomainIndices = evidenceDomainIndices.clone();
-			for (int j = 0; j < domSize; j++) {
-				nodeDomainIndices[i] = j;
-				MutableDouble sum = new MutableDouble(0.0);
-				BeliefNode[] nodesToSumOver = u.nodes
-						.toArray(new BeliefNode[u.nodes.size()]);
-				computeSum(0, nodesToSumOver, nodes[i], new Cluster(u),
-						nodeDomainIndices, sum);
-				Z += (dist.values[i][j] = sum.value);
-			}
-			// normalize
-			for (int j = 0; j < domSize; j++)
-				dist.values[i][j] /= Z;
+	/**
+	 * sets up the data structures for message passing, which depend on the evidence:
+	 * clusters are reduced to their non-evidence variables and the CPTs are reduced accordingly
+	 */
+	protected void initMessagePassing() {
+		cn = getCompiledNetwork();
+		Vector<JoinGraph.Node> order = jg.getTopologicalorder();
+		int s = order.size();
+		HashMap<JoinGraph.Node, Integer> jgIndices = new HashMap<JoinGraph.Node, Integer>();
+		for(int i = 0; i < s; i++)
+			jgIndices.put(order.get(i), i);
+		clusterVars = new int[s][];
+		clusterBase = new TableFactor[s];
+		neighbours = new int[s][];
+		inEdges = new int[s][];
+		outEdges = new int[s][];
+		// clusters
+		for(int i = 0; i < s; i++) {
+			JoinGraph.Node u = order.get(i);
+			Vector<Integer> vars = new Vector<Integer>();
+			for(BeliefNode n : u.nodes) {
+				int nodeIdx = getNodeIndex(n);
+				if(evidenceDomainIndices[nodeIdx] == -1)
+					vars.add(nodeIdx);
+			}
+			clusterVars[i] = toArray(vars);
+			TableFactor base = new TableFactor(clusterVars[i], cn);
+			base.setUniform();
+			for(CPF cpf : u.functions)
+				base.multiplyIn(TableFactor.fromCPT(cn, getNodeIndex(cpf.getDomainProduct()[0]), evidenceDomainIndices));
+			clusterBase[i] = base;
+		}
+		// directed edges
+		Vector<Integer> from = new Vector<Integer>(), to = new Vector<Integer>();
+		for(int i = 0; i < s; i++) {
+			JoinGraph.Node u = order.get(i);
+			for(JoinGraph.Node v : u.getNeighbors()) {
+				from.add(i);
+				to.add(jgIndices.get(v));
+			}
+		}
+		int numEdges = from.size();
+		edgeFrom = toArray(from);
+		edgeTo = toArray(to);
+		separatorVars = new int[numEdges][];
+		messages = new TableFactor[numEdges];
+		int[] numIn = new int[s], numOut = new int[s];
+		for(int e = 0; e < numEdges; e++) {
+			numIn[edgeTo[e]]++;
+			numOut[edgeFrom[e]]++;
+		}
+		for(int i = 0; i < s; i++) {
+			inEdges[i] = new int[numIn[i]];
+			outEdges[i] = new int[numOut[i]];
+			neighbours[i] = new int[numOut[i]];
+			numIn[i] = numOut[i] = 0;
+		}
+		for(int e = 0; e < numEdges; e++) {
+			int u = edgeFrom[e], v = edgeTo[e];
+			inEdges[v][numIn[v]++] = e;
+			neighbours[u][numOut[u]] = v;
+			outEdges[u][numOut[u]++] = e;
+			// separator (non-evidence variables only)
+			JoinGraph.Arc arc = order.get(u).getArcToNode(order.get(v));
+			Vector<Integer> sep = new Vector<Integer>();
+			for(int var : clusterVars[u])
+				if(arc.separator.contains(nodes[var]))
+					sep.add(var);
+			separatorVars[e] = toArray(sep);
+			messages[e] = new TableFactor(separatorVars[e], cn);
+			messages[e].setUniform();
 		}
-		// dist.print(out);
-		((ImmediateDistributionBuilder)distributionBuilder).setDistribution(dist);
 	}
 
-	protected void computeSum(int i, BeliefNode[] varsToSumOver,
-			BeliefNode excludedNode, Cluster u, int[] nodeDomainIndices,
-			MutableDouble result) {
-		if (i == varsToSumOver.length) {
-			result.value += u.product(nodeDomainIndices);
-			return;
-		}
-		if (varsToSumOver[i] == excludedNode)
-			computeSum(i + 1, varsToSumOver, excludedNode, u,
-					nodeDomainIndices, result);
-		else {
-			for (int j = 0; j < varsToSumOver[i].getDomain().getOrder(); j++) {
-				nodeDomainIndices[this.getNodeIndex(varsToSumOver[i])] = j;
-				computeSum(i + 1, varsToSumOver, excludedNode, u,
-						nodeDomainIndices, result);
-			}
-		}
+	protected static int[] toArray(Vector<Integer> v) {
+		int[] a = new int[v.size()];
+		for(int i = 0; i < a.length; i++)
+			a[i] = v.get(i);
+		return a;
 	}
 
-	protected class Cluster {
-		HashSet<BeliefNode> cpts = new HashSet<BeliefNode>();
-		HashSet<MessageFunction> functions = new HashSet<MessageFunction>();
-		JoinGraph.Node node;
-
-		public Cluster(JoinGraph.Node u) {
-			// Constructor for cluster(u)
-			this.node = u;
-			// add to the cluster all CPTs of the given node
-			for (CPF cpf : u.functions)
-				cpts.add(cpf.getDomainProduct()[0]);
-			// add all incoming messages of n
-			for (JoinGraph.Node nb : u.getNeighbors()) {
-				JoinGraph.Arc arc = u.arcs.get(nb);
-				HashSet<MessageFunction> m = arc.getInMessage(u);
-				if (!m.isEmpty())
-					functions.addAll(m);
-				HashSet<BeliefNode> bn = arc.getCPTInMessage(u);
-				if (!bn.isEmpty())
-					cpts.addAll(bn);
-			}
-		}
+	/**
+	 * computes the product of the functions in a cluster, i.e. its reduced CPTs and its incoming messages
+	 * @param u  the index of the cluster
+	 * @param msgs  the messages to use
+	 * @param excludedEdge  the index of a directed edge whose message is not to be included (or -1)
+	 * @return the product over the cluster's non-evidence variables
+	 */
+	protected TableFactor computeClusterProduct(int u, TableFactor[] msgs, int excludedEdge) {
+		TableFactor base = clusterBase[u];
+		TableFactor product = new TableFactor(base.vars, base.domSizes);
+		System.arraycopy(base.values, 0, product.values, 0, base.values.length);
+		for(int e : inEdges[u])
+			if(e != excludedEdge)
+				product.multiplyIn(msgs[e]);
+		return product;
+	}
 
-		public Cluster(JoinGraph.Node u, JoinGraph.Node v) {
-			// Constructor for cluster_v(u)
-			this.node = u;
-			// add to the cluster all CPTs of the given node
-			for (CPF cpf : u.functions)
-				cpts.add(cpf.getDomainProduct()[0]);
-			// add all incoming messages of n
-			for (JoinGraph.Node nb : u.getNeighbors()) {
-				if (!nb.equals(v)) {
-					JoinGraph.Arc arc = u.arcs.get(nb);
-					HashSet<MessageFunction> m = arc.getInMessage(u);
-					if (!m.isEmpty())
-						functions.addAll(m);
-					HashSet<BeliefNode> bn = arc.getCPTInMessage(u);
-					if (!bn.isEmpty())
-						cpts.addAll(bn);
-				}
-			}
-		}
+	/**
+	 * computes the message that is sent along the given directed edge, i.e. the product of the
+	 * sending cluster's functions (except the message from the receiving cluster) summed over the variables
+	 * that are not in the separator
+	 * @param e  the index of the directed edge
+	 * @param msgs  the current messages
+	 * @return the new (normalized) message
+	 */
+	protected TableFactor computeMessage(int e, TableFactor[] msgs) {
+		int reverse = -1;
+		for(int e2 : inEdges[edgeFrom[e]])
+			if(edgeFrom[e2] == edgeTo[e])
+				reverse = e2;
+		TableFactor product = computeClusterProduct(edgeFrom[e], msgs, reverse);
+		TableFactor msg = product.marginalize(separatorVars[e]);
+		msg.normalize();
+		return msg;
+	}
+
+	/**
+	 * computes every numThreads-th message (starting with the given offset) from the messages of the previous iteration
+	 */
+	protected class MessageTask implements Callable<Void> {
+		protected int threadIdx;
+		protected TableFactor[] newMessages;
 
-		public Cluster() {
+		public MessageTask(int threadIdx, TableFactor[] newMessages) {
+			this.threadIdx = threadIdx;
+			this.newMessages = newMessages;
 		}
 
-		public String toString() {
-			StringBuffer sb = new StringBuffer();
-			sb.append(StringTool.join(", ", this.cpts));
-			sb.append("; ");
-			sb.append(StringTool.join(", ", this.functions));
-			return sb.toString();
-		}
-
-		public void excludeMessagesFrom(JoinGraph.Node n) {
-			JoinGraph.Arc arc = node.arcs.get(n);
-			for (MessageFunction mf : arc.getInMessage(node)) {
-				if (functions.contains(mf))
-					functions.remove(mf);
-			}
-			for (BeliefNode bn : arc.getCPTInMessage(node)) {
-				if (cpts.contains(bn))
-					functions.remove(bn);
-			}
+		public Void call() {
+			for(int e = threadIdx; e < messages.length; e += numThreads)
+				newMessages[e] = computeMessage(e, messages);
+			return null;
 		}
+	}
 
-		public Cluster copy() {
-			Cluster copyCluster = new Cluster();
-			for (BeliefNode cpt : cpts) {
-				copyCluster.cpts.add(cpt);
-			}
-			for (MessageFunction f : functions) {
-				copyCluster.functions.add(f);
-			}
-			return copyCluster;
-		}
-
-		public Cluster getReducedCluster(HashSet<BeliefNode> nodes)
-				throws CloneNotSupportedException {
-			// deletes all functions and arcs in the cluster whose scope
-			// contains the given nodes
-			Cluster redCluster = this.copy();
-			for (BeliefNode bn : nodes) {
-				HashSet<BeliefNode> foo = (HashSet<BeliefNode>) cpts.clone();
-				for (BeliefNode n : foo) {
-					BeliefNode[] domProd = n.getCPF().getDomainProduct();
-					/*
-					 * if (bn.equals(n)){ redCluster.cpts.remove(n); }
-					 */
-					for (int i = 0; i < domProd.length; i++) {
-						if (bn.equals(domProd[i])) {
-							redCluster.cpts.remove(n);
-							break;
-						}
+	/**
+	 * runs the message propagation steps
+	 * @param pool  the thread pool in which to compute the messages of each iteration in parallel (null to compute them sequentially)
+	 * @throws Exception  if the computation of a message fails
+	 */
+	protected void propagate(ExecutorService pool) throws Exception {
+		int s = clusterVars.length;
+		for (int step = 1; step <= this.numSamples && !isCancelled(); step++) {
+			out.printf("step %d\n", step);
+			if(pool != null) {
+				// compute all messages from the messages of the previous iteration
+				TableFactor[] newMessages = new TableFactor[messages.length];
+				Vector<Future<Void>> tasks = new Vector<Future<Void>>(numThreads);
+				for(int i = 0; i < numThreads; i++)
+					tasks.add(pool.submit(new MessageTask(i, newMessages)));
+				for(Future<Void> task : tasks) {
+					try {
+						task.get();
+					}
+					catch(ExecutionException e) {
+						Throwable cause = e.getCause();
+						if(cause instanceof Error)
+							throw (Error)cause;
+						throw (Exception)cause;
 					}
 				}
-				for (MessageFunction m : ((HashSet<MessageFunction>) functions
-						.clone())) {
-					if (m.scope.contains(bn))
-						redCluster.functions.remove(m);
+				messages = newMessages;
+			}
+			else {
+				// for every node in JG in topological order and back:
+				for (int j = 0; j < 2 * s; j++) {
+					boolean forward = j < s;
+					int u = forward ? j : 2 * s - j - 1;
+					for(int k = 0; k < neighbours[u].length; k++) {
+						int v = neighbours[u][k];
+						if((forward && v < u) || (!forward && v > u))
+							continue;
+						int e = outEdges[u][k];
+						messages[e] = computeMessage(e, messages);
+					}
 				}
 			}
-			return redCluster;
-		}
-
-		public void subtractCluster(Cluster c2) {
-			// deletes all functions and arcs of the cluster that are also in
-			// cluster c2
-			for (BeliefNode n : ((HashSet<BeliefNode>) c2.cpts.clone())) { // TODO
-				// nonsense
-				cpts.remove(n);
-			}
-			for (MessageFunction m : ((HashSet<MessageFunction>) c2.functions
-					.clone())) {
-				functions.remove(m);
-			}
-		}
-
-		public double product(int[] nodeDomainIndices) {
-			double ret = 1.0;
-			for (BeliefNode n : cpts) {
-				// out.println("  " + n.getCPF().toString());
-				ret *= getCPTProbability(n, nodeDomainIndices);
-			}
-			for (MessageFunction f : this.functions) {
-				// out.println("  " + f);
-				ret *= f.compute(nodeDomainIndices);
-			}
-			return ret;
 		}
 	}
 
-	protected class MessageFunction {
-
-		protected int[] varsToSumOver;
-		protected MessageTable table;
-		HashSet<BeliefNode> cpts;
-		Iterable<MessageFunction> childFunctions;
-		HashSet<BeliefNode> scope;
-
-		public MessageFunction(HashSet<BeliefNode> scope, int[] varsToSumOver,
-				Cluster cluster) {
-			this.scope = scope;
-			this.varsToSumOver = varsToSumOver;
-			this.cpts = cluster.cpts;
-			this.childFunctions = cluster.functions;
-			this.table = null;
-		}
-
-		public void calcuSave(int[] nodeDomainIndices) {
-			table = new MessageTable(new Vector<BeliefNode>(scope), 0);
-			int[] scopeToSumOver = new int[scope.size()];
-			int k = 0;
-			for (BeliefNode n : scope)
-				scopeToSumOver[k++] = bn.getNodeIndex(n);
-			calcuSave(scopeToSumOver, 0, nodeDomainIndices.clone());
-		}
-
-		public void calcuSave(int[] scopeToSumOver, int i, int[] nodeDomainIndices) {
-			if (i == scope.size()) {
-				table.addEntry(nodeDomainIndices, compute(nodeDomainIndices));
-				return;
-			} else {
-				int idxVar = scopeToSumOver[i];
-				for (int v = 0; v < nodes[idxVar].getDomain().getOrder(); v++) {
-					nodeDomainIndices[idxVar] = v;
-					calcuSave(scopeToSumOver, i + 1, nodeDomainIndices);
-				}
-			}
+	@Override
+	public void _infer() throws Exception {
+		if(verbose) out.println("initializing message passing...");
+		initMessagePassing();
+		int s = clusterVars.length;
+		out.printf("running propagation (%d steps)...\n", this.numSamples);
+		ExecutorService pool = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+		try {
+			propagate(pool);
 		}
-
-		public double compute(int[] nodeDomainIndices) {
-			if (!table.containsEntry(nodeDomainIndices)) {
-				MutableDouble sum = new MutableDouble(0.0);
-				compute(varsToSumOver, 0, nodeDomainIndices, sum);
-				return sum.value;
-			} else {
-				return table.getEntry(nodeDomainIndices);
-			}
+		finally {
+			if(pool != null)
+				pool.shutdownNow();
 		}
 
-		protected void compute(int[] varsToSumOver, int i,
-				int[] nodeDomainIndices, MutableDouble sum) {
-			if (i == varsToSumOver.length) {
-				double result = 1.0;
-				for (BeliefNode node : cpts)
-					result *= getCPTProbability(node, nodeDomainIndices);
-				for (MessageFunction h : childFunctions)
-					result *= h.compute(nodeDomainIndices);
-				sum.value += result;
-				return;
-			}
-			int idxVar = varsToSumOver[i];
-			for (int v = 0; v < nodes[idxVar].getDomain().getOrder(); v++) {
-				nodeDomainIndices[idxVar] = v;
-				compute(varsToSumOver, i + 1, nodeDomainIndices, sum);
-			}
-		}
-
-		public String toString() {
-			StringBuffer sb = new StringBuffer("MF[");
-			sb.append("scope: " + StringTool.join(", ", scope));
-			sb.append("; CPFs:");
-			int i = 0;
-			for (BeliefNode n : this.cpts) {
-				if (i++ > 0)
-					sb.append("; ");
-				sb.append(n.getCPF().toString());
-			}
-			sb.append("; children: ");
-			sb.append(StringTool.join("; ", this.childFunctions));
-			sb.append("]");
-			return sb.toString();
-		}
-
-		protected class MessageTable {
-
-			protected Vector<BeliefNode> scope;
-			protected boolean leaf;
-			protected MessageTable[] map;
-			protected Double[] result;
-
-			public MessageTable(Vector<BeliefNode> scope, int i) {
-				int domSize = scope.get(i).getDomain().getOrder();
-				this.map = new MessageTable[domSize];
-				this.scope = scope;
-				if (i == scope.size() - 1) {
-					leaf = true;
-					result = new Double[domSize];
-				} else {
-					leaf = false;
-					result = null;
-					for (int j = 0; j < scope.get(i).getDomain().getOrder(); j++) {
-						map[j] = new MessageTable(scope, i + 1);
-					}
-				}
-			}
-
-			public void addEntry(int[] domainIndices, double entry) {
-				addEntry(domainIndices, 0, entry);
-			}
-
-			public void addEntry(int[] domainIndices, int i, double entry) {
-				if (i != scope.size() - 1) {
-					int idx = domainIndices[bn.getNodeIndex(scope.get(i))];
-					map[idx].addEntry(domainIndices, i + 1, entry);
-				} else {
-					int idx = domainIndices[bn.getNodeIndex(scope.get(i))];
-					result[idx] = entry;
-				}
-			}
-
-			public double getEntry(int[] domainIndices) {
-				return getEntry(domainIndices, 0);
-			}
-
-			public double getEntry(int[] domainIndices, int i) {
-				if (i != scope.size() - 1) {
-					int idx = domainIndices[bn.getNodeIndex(scope.get(i))];
-					return map[idx].getEntry(domainIndices, i + 1);
-				} 
-				else {
-					int idx = domainIndices[bn.getNodeIndex(scope.get(i))];
-					return result[idx];
-				}
-			}
-			
-			public boolean containsEntry(int[] domainIndices){
-				return containsEntry(domainIndices, 0);
+		// compute probabilities and store results in distribution
+		out.println("computing results...");
+		SampledDistribution dist = createDistribution();
+		dist.Z = 1.0;
+		TableFactor[] beliefs = new TableFactor[s];
+		for (int i = 0; i < nodes.length; i++) {
+			if (evidenceDomainIndices[i] >= 0) {
+				dist.values[i][evidenceDomainIndices[i]] = 1.0;
+				continue;
 			}
-			
-			public boolean containsEntry(int[] domainIndices, int i){
-				if (i != scope.size() - 1){
-					int idx = domainIndices[bn.getNodeIndex(scope.get(i))];
-					if (map[idx] == null){
-						return false;
+			// For every node X let u be a vertex in the join graph such that X is in u
+			int u = -1;
+			for(int k = 0; k < s && u == -1; k++)
+				for(int var : clusterVars[k])
+					if(var == i) {
+						u = k;
+						break;
 					}
-					else{
-						return map[idx].containsEntry(domainIndices, i+1);
-					}
-				}
-				else{
-					int idx = domainIndices[bn.getNodeIndex(scope.get(i))];
-					return (result[idx] != null);
-				}
-			}
+			if (u == -1)
+				throw new Exception("Could not find vertex in join graph containing variable " + nodes[i].getName());
+			if(beliefs[u] == null)
+				beliefs[u] = computeClusterProduct(u, messages, -1);
+			double[] marginal = beliefs[u].getMarginal(i);
+			double Z = 0.0;
+			for(int j = 0; j < marginal.length; j++)
+				Z += marginal[j];
+			// normalize
+			for (int j = 0; j < marginal.length; j++)
+				dist.values[i][j] = marginal[j] / Z;
 		}
+		((ImmediateDistributionBuilder)distributionBuilder).setDistribution(dist);
 	}
 
 	protected static class BucketVar {
@@ -838,10 +671,7 @@ public class IJGP extends Sampler {
 
 		public static class Arc {
 			HashSet<BeliefNode> separator = new HashSet<BeliefNode>();
-			// messages between Nodes
 			Vector<Node> nodes = new Vector<Node>();
-			HashMap<Node, HashSet<MessageFunction>> outMessage = new HashMap<Node, HashSet<MessageFunction>>();
-			HashMap<Node, HashSet<BeliefNode>> outCPTMessage = new HashMap<Node, HashSet<BeliefNode>>();
 
 			public Arc(Node n0, Node n1) {
 				if (n0 != n1) {
@@ -858,10 +688,6 @@ public class IJGP extends Sampler {
 					nodes.add(n1);
 					n0.addArc(n1, this);
 					n1.addArc(n0, this);
-					outMessage.put(n0, new HashSet<MessageFunction>());
-					outMessage.put(n1, new HashSet<MessageFunction>());
-					outCPTMessage.put(n0, new HashSet<BeliefNode>());
-					outCPTMessage.put(n1, new HashSet<BeliefNode>());
 				} else
 					throw new RuntimeException("1-node loop in graph");
 			}
@@ -870,35 +696,6 @@ public class IJGP extends Sampler {
 				// needs to throw exception when n not in nodes
 				return nodes.get((nodes.indexOf(n) + 1) % 2);
 			}
-
-			public void addOutMessage(Node n, MessageFunction m) {
-				outMessage.get(n).add(m);
-			}
-
-			public HashSet<MessageFunction> getOutMessages(Node n) {
-				return outMessage.get(n);
-			}
-
-			public HashSet<MessageFunction> getInMessage(Node n) {
-				return this.getOutMessages(this.getNeighbor(n));
-			}
-
-			public void addCPTOutMessage(Node n, BeliefNode bn) {
-				outCPTMessage.get(n).add(bn);
-			}
-
-			public HashSet<BeliefNode> getCPTOutMessages(Node n) {
-				return outCPTMessage.get(n);
-			}
-
-			public HashSet<BeliefNode> getCPTInMessage(Node n) {
-				return this.getCPTOutMessages(this.getNeighbor(n));
-			}
-			
-			public void clearOutMessages(Node n) {
-				outMessage.get(n).clear();
-				outCPTMessage.get(n).clear();
-			}
 		}
 
 		public static class Node {
@@ -18,6 +18,8 @@
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
+import probcog.inference.IntermediateResults;
+
 /**
  * Interface for inference methods that support time-limited inference.
  * @author Dominik Jain
@@ -26,4 +28,13 @@ public interface ITimeLimitedInference {
 	public void initialize() throws Exception;
 	public SampledDistribution infer() throws Exception;
 	public SampledDistribution pollResults() throws Exception;
+	/**
+	 * @return the object via which snapshots of the intermediate results are published, which can be used to
+	 * set the interval at which snapshots are created and to register listeners
+	 */
+	public IntermediateResults<SampledDistribution> getIntermediateResults();
+	/**
+	 * requests that inference be stopped as soon as possible; {@link #infer()} then returns the results obtained thus far
+	 */
+	public void cancel();
 }
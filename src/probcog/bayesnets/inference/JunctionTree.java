@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Vector;
+
+import probcog.bayesnets.core.BeliefNetworkEx;
+
+import edu.tum.cs.util.Stopwatch;
+
+/**
+ * Exact inference using the junction tree (clique tree) algorithm with Hugin-style propagation.
+ * As in {@link VariableElimination}, barren nodes (nodes that are not ancestors of query or evidence
+ * variables) are disregarded and the evidence is absorbed into the CPTs, such that only the moral graph
+ * of the relevant unobserved variables is triangulated. The triangulation is reused for as long as the
+ * set of observed variables and the set of query variables remain the same; if merely the evidence values
+ * change, the initial clique potentials are recomputed and the tree is recalibrated by a collect and
+ * a distribute pass. If the tree would exceed a maximum size (parameter maxTableSize), compilation fails
+ * with an exception.
+ *
+ * @author Dominik Jain
+ */
+public class JunctionTree extends Sampler {
+	protected EliminationOrdering.Heuristic heuristic = EliminationOrdering.Heuristic.MinFill;
+	protected CompiledNetwork cn;
+	/**
+	 * the cliques of the tree in post-order (i.e. each clique precedes its parent)
+	 */
+	protected Clique[] cliques;
+	/**
+	 * for each node, the index of a clique that contains the node's family
+	 */
+	protected int[] nodeClique;
+	protected boolean compiled = false;
+	/**
+	 * the maximum total number of entries in the clique and separator potentials
+	 */
+	protected long maxTableSize = 100000000;
+	/**
+	 * the observed variables and the query variables for which the tree was compiled
+	 */
+	protected boolean[] compiledObserved;
+	protected HashSet<Integer> compiledQueries;
+	/**
+	 * the evidence that is absorbed in the initial potentials
+	 */
+	protected int[] potentialEvidence;
+	/**
+	 * the nodes whose CPTs (reduced by the evidence) contain no unobserved variables, and the product of these constant factors
+	 */
+	protected Vector<Integer> constantNodes;
+	protected double constantFactor;
+
+	protected class Clique {
+		public int[] vars;
+		public Clique parent = null;
+		public ArrayList<Clique> children = new ArrayList<Clique>();
+		/**
+		 * the nodes whose CPTs are multiplied into the clique's initial potential
+		 */
+		public Vector<Integer> cptNodes = new Vector<Integer>();
+		/**
+		 * the initial potential (product of the assigned CPTs), which is never modified after compilation
+		 */
+		public TableFactor initialPotential;
+		/**
+		 * the current potential
+		 */
+		public TableFactor potential;
+		/**
+		 * the potential of the separator between this clique and its parent
+		 */
+		public TableFactor separator;
+
+		public Clique(int[] vars) {
+			this.vars = vars;
+		}
+
+		public boolean contains(int var) {
+			for(int v : vars)
+				if(v == var)
+					return true;
+			return false;
+		}
+
+		public boolean isSubsetOf(Clique c) {
+			for(int v : vars)
+				if(!c.contains(v))
+					return false;
+			return true;
+		}
+	}
+
+	public JunctionTree(BeliefNetworkEx bn) throws Exception {
+		super(bn);
+		paramHandler.add("heuristic", "setHeuristic");
+		paramHandler.add("maxTableSize", "setMaxTableSize");
+	}
+
+	/**
+	 * sets the heuristic with which the triangulation is computed
+	 * @param name  one of the names in {@link EliminationOrdering.Heuristic}
+	 */
+	public void setHeuristic(String name) {
+		heuristic = EliminationOrdering.Heuristic.valueOf(name);
+		compiled = false;
+	}
+
+	/**
+	 * sets the maximum total number of entries in the clique and separator potentials;
+	 * compilation fails with an exception if the junction tree would be larger
+	 * @param maxTableSize  the maximum number of entries
+	 */
+	public void setMaxTableSize(int maxTableSize) {
+		this.maxTableSize = maxTableSize;
+	}
+
+	@Override
+	protected void _initialize() throws Exception {
+		boolean[] observed = new boolean[nodes.length];
+		for(int i = 0; i < observed.length; i++)
+			observed[i] = evidenceDomainIndices[i] != -1;
+		HashSet<Integer> queries = queryVars == null ? null : new HashSet<Integer>(queryVars);
+		if(!compiled || !Arrays.equals(observed, compiledObserved) || (queries == null ? compiledQueries != null : !queries.equals(compiledQueries)))
+			compile(observed, queries);
+		if(!Arrays.equals(evidenceDomainIndices, potentialEvidence))
+			computeInitialPotentials();
+	}
+
+	/**
+	 * simplifies the network given the observed and query variables (removing barren nodes and absorbing the evidence),
+	 * triangulates it and builds the junction tree
+	 * @param observed  for each node, whether it is an evidence variable
+	 * @param queries  the indices of the query variables (null if all variables are queried)
+	 * @throws Exception  if the junction tree exceeds the maximum size
+	 */
+	protected void compile(boolean[] observed, HashSet<Integer> queries) throws Exception {
+		Stopwatch sw = new Stopwatch();
+		sw.start();
+		cn = getCompiledNetwork();
+		int n = cn.numNodes;
+		// determine relevant nodes (ancestors of query and evidence variables); all other nodes are barren
+		boolean[] relevant = new boolean[n];
+		Vector<Integer> stack = new Vector<Integer>();
+		for(int i = 0; i < n; i++)
+			if(observed[i] || queries == null || queries.contains(i))
+				stack.add(i);
+		while(!stack.isEmpty()) {
+			int i = stack.remove(stack.size()-1);
+			if(relevant[i])
+				continue;
+			relevant[i] = true;
+			int[] domProd = cn.getDomainProduct(i);
+			for(int j = 1; j < domProd.length; j++)
+				stack.add(domProd[j]);
+		}
+		// triangulate the graph of the relevant unobserved variables (the evidence is absorbed into the CPTs)
+		boolean[] excluded = new boolean[n];
+		for(int i = 0; i < n; i++)
+			excluded[i] = !relevant[i] || observed[i];
+		EliminationOrdering eo = new EliminationOrdering(cn, excluded, heuristic);
+		int[] order = eo.getOrder();
+		int[][] elimCliques = eo.getEliminationCliques();
+		int m = order.length;
+		int[] position = new int[n];
+		Arrays.fill(position, -1);
+		for(int i = 0; i < m; i++)
+			position[order[i]] = i;
+		// build the elimination tree: the parent of the clique of a variable is the clique of
+		// the variable that is eliminated first among the clique's other members
+		Clique[] tree = new Clique[m];
+		for(int i = 0; i < m; i++)
+			tree[i] = new Clique(elimCliques[i]);
+		for(int i = 0; i < m; i++) {
+			int[] vars = elimCliques[i];
+			int p = -1;
+			for(int j = 1; j < vars.length; j++)
+				if(p == -1 || position[vars[j]] < p)
+					p = position[vars[j]];
+			if(p != -1) {
+				tree[i].parent = tree[p];
+				tree[p].children.add(tree[i]);
+			}
+		}
+		// assign each relevant CPT (reduced by the evidence) to the clique of the unobserved family member that is eliminated first;
+		// CPTs without unobserved family members are constant factors
+		constantNodes = new Vector<Integer>();
+		for(int i = 0; i < n; i++) {
+			if(!relevant[i])
+				continue;
+			int p = -1;
+			for(int v : cn.getDomainProduct(i))
+				if(position[v] != -1 && (p == -1 || position[v] < p))
+					p = position[v];
+			if(p == -1)
+				constantNodes.add(i);
+			else
+				tree[p].cptNodes.add(i);
+		}
+		// remove non-maximal cliques: a clique can only be contained in one of its children,
+		// in which case the child takes its place
+		boolean[] removed = new boolean[m];
+		for(int i = 0; i < m; i++) {
+			if(removed[i])
+				continue;
+			Clique c = tree[i];
+			while(c.parent != null && c.parent.isSubsetOf(c)) {
+				Clique p = c.parent;
+				c.parent = p.parent;
+				if(p.parent != null) {
+					p.parent.children.remove(p);
+					p.parent.children.add(c);
+				}
+				for(Clique sibling : p.children) {
+					if(sibling != c) {
+						sibling.parent = c;
+						c.children.add(sibling);
+					}
+				}
+				c.cptNodes.addAll(p.cptNodes);
+				removed[position[p.vars[0]]] = true;
+			}
+		}
+		// order the remaining cliques such that children precede their parents
+		Vector<Clique> postOrder = new Vector<Clique>();
+		for(int i = 0; i < m; i++) {
+			if(removed[i] || tree[i].parent != null)
+				continue;
+			Vector<Clique> cliqueStack = new Vector<Clique>();
+			cliqueStack.add(tree[i]);
+			while(!cliqueStack.isEmpty()) {
+				Clique c = cliqueStack.remove(cliqueStack.size()-1);
+				postOrder.add(c);
+				cliqueStack.addAll(c.children);
+			}
+		}
+		cliques = new Clique[postOrder.size()];
+		for(int i = 0; i < cliques.length; i++)
+			cliques[i] = postOrder.get(cliques.length-1-i);
+		// check the size of the tree before allocating the potentials
+		long totalSize = 0;
+		for(Clique c : cliques) {
+			totalSize += getTableSize(c.vars);
+			if(c.parent != null)
+				totalSize += getTableSize(getSeparatorVars(c));
+			if(totalSize > maxTableSize)
+				throw new Exception(String.format("The junction tree is too large: The potentials require more than %d entries (see parameter maxTableSize)", maxTableSize));
+		}
+		// allocate the potentials
+		nodeClique = new int[n];
+		Arrays.fill(nodeClique, -1);
+		int maxSize = 0;
+		for(int i = 0; i < cliques.length; i++) {
+			Clique c = cliques[i];
+			for(Integer nodeIdx : c.cptNodes)
+				nodeClique[nodeIdx] = i;
+			c.potential = new TableFactor(c.vars, cn);
+			if(c.parent != null)
+				c.separator = new TableFactor(getSeparatorVars(c), cn);
+			maxSize = Math.max(maxSize, c.potential.values.length);
+		}
+		compiled = true;
+		compiledObserved = observed;
+		compiledQueries = queries;
+		potentialEvidence = null;
+		sw.stop();
+		if(verbose) out.printf("junction tree: %d cliques over %d variables, largest clique potential size %d, %d entries in total, compiled in %fs\n", cliques.length, m, maxSize, totalSize, sw.getElapsedTimeSecs());
+	}
+
+	/**
+	 * @param vars  a set of variables
+	 * @return the number of entries in a table over the given variables (or a number larger than the maximum table size if the table is too large)
+	 */
+	protected long getTableSize(int[] vars) {
+		long size = 1;
+		for(int v : vars) {
+			size *= cn.domainSizes[v];
+			if(size > maxTableSize)
+				return maxTableSize + 1;
+		}
+		return size;
+	}
+
+	/**
+	 * computes the initial clique potentials as the products of the assigned CPTs, in which the current evidence is absorbed
+	 */
+	protected void computeInitialPotentials() {
+		for(Clique c : cliques) {
+			c.initialPotential = new TableFactor(c.vars, cn);
+			c.initialPotential.setUniform();
+			for(Integer nodeIdx : c.cptNodes)
+				c.initialPotential.multiplyIn(TableFactor.fromCPT(cn, nodeIdx, evidenceDomainIndices));
+		}
+		constantFactor = 1.0;
+		for(Integer nodeIdx : constantNodes)
+			constantFactor *= TableFactor.fromCPT(cn, nodeIdx, evidenceDomainIndices).values[0];
+		potentialEvidence = evidenceDomainIndices.clone();
+	}
+
+	protected int[] getSeparatorVars(Clique c) {
+		HashSet<Integer> sep = new HashSet<Integer>();
+		for(int v : c.vars)
+			if(c.parent.contains(v))
+				sep.add(v);
+		int[] vars = new int[sep.size()];
+		int i = 0;
+		for(int v : c.vars)
+			if(sep.contains(v))
+				vars[i++] = v;
+		return vars;
+	}
+
+	/**
+	 * passes a message from one clique to an adjacent clique across the given separator
+	 * @param from  the sending clique
+	 * @param to  the receiving clique
+	 * @param separator  the separator potential, which is updated
+	 */
+	protected void passMessage(Clique from, Clique to, TableFactor separator) {
+		TableFactor msg = from.potential.marginalize(separator.vars);
+		msg.normalize();
+		to.potential.multiplyIn(msg);
+		to.potential.divideBy(separator);
+		System.arraycopy(msg.values, 0, separator.values, 0, msg.values.length);
+	}
+
+	/**
+	 * resets the clique potentials, enters the evidence and calibrates the tree
+	 */
+	protected void calibrate() throws Exception {
+		// reset potentials
+		for(Clique c : cliques) {
+			System.arraycopy(c.initialPotential.values, 0, c.potential.values, 0, c.potential.values.length);
+			if(c.separator != null)
+				c.separator.setUniform();
+		}
+		if(constantFactor == 0.0)
+			throw new Exception("The evidence has probability 0");
+		// collect
+		for(Clique c : cliques) {
+			if(c.parent != null)
+				passMessage(c, c.parent, c.separator);
+			else if(c.potential.normalize() == 0.0)
+				throw new Exception("The evidence has probability 0");
+		}
+		// distribute
+		for(int i = cliques.length-1; i >= 0; i--) {
+			Clique c = cliques[i];
+			for(Clique child : c.children)
+				passMessage(c, child, child.separator);
+		}
+	}
+
+	@Override
+	protected void _infer() throws Exception {
+		calibrate();
+		SampledDistribution dist = createDistribution();
+		dist.Z = 1.0;
+		for(Integer nodeIdx : getQueryVarsOrAll()) {
+			double[] marginal;
+			if(evidenceDomainIndices[nodeIdx] != -1) {
+				marginal = new double[cn.domainSizes[nodeIdx]];
+				marginal[evidenceDomainIndices[nodeIdx]] = 1.0;
+			}
+			else {
+				marginal = cliques[nodeClique[nodeIdx]].potential.getMarginal(nodeIdx);
+				double Z = 0.0;
+				for(int i = 0; i < marginal.length; i++)
+					Z += marginal[i];
+				for(int i = 0; i < marginal.length; i++)
+					marginal[i] /= Z;
+			}
+			dist.values[nodeIdx] = marginal;
+		}
+		((ImmediateDistributionBuilder)distributionBuilder).setDistribution(dist);
+	}
+
+	protected IDistributionBuilder createDistributionBuilder() {
+		return new ImmediateDistributionBuilder();
+	}
+}
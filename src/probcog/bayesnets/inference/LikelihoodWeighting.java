@@ -18,22 +18,49 @@
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import probcog.bayesnets.core.BeliefNetworkEx;
 import edu.tum.cs.util.Stopwatch;
 
 /**
+ * Likelihood weighting.
+ * <p>If the number of threads is set to a value greater than 1 (parameter "numThreads"), 
+ * samples are drawn in parallel, each thread using its own random number generator and 
+ * accumulating its samples in a private distribution, which is merged into the overall 
+ * distribution every mergeInterval samples and when the thread terminates.</p> 
  * @author Dominik Jain
  */
 public class LikelihoodWeighting extends Sampler {
 	int[] nodeOrder;
+	/**
+	 * the number of threads to use for sampling
+	 */
+	protected int numThreads = 1;
+	/**
+	 * the number of samples after which a sampling thread merges its partial results into the overall distribution
+	 */
+	protected int mergeInterval = 100;
 	
 	public LikelihoodWeighting(BeliefNetworkEx bn) throws Exception {
-		super(bn);		
+		super(bn);
+		this.paramHandler.add("numThreads", "setNumThreads");
+		this.paramHandler.add("mergeInterval", "setMergeInterval");
+	}
+	
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	
+	public void setMergeInterval(int mergeInterval) {
+		this.mergeInterval = mergeInterval;
 	}
 	
 	@Override
 	protected void _initialize() {
 		nodeOrder = bn.getTopologicalOrder();
+		getCompiledNetwork();
 	}
 	
 	@Override
@@ -42,6 +69,20 @@ public class LikelihoodWeighting extends Sampler {
 		Stopwatch sw = new Stopwatch();
 		out.println("sampling...");
 		sw.start();
+		if(numThreads > 1)
+			inferParallel();
+		else
+			inferSequential();
+		sw.stop();
+		SampledDistribution dist = distributionBuilder.getDistribution();
+		out.println(String.format("time taken: %.2fs (%.4fs per sample, %.1f trials/sample, %d samples)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/numSamples, dist.getTrialsPerStep(), dist.steps));
+	}
+	
+	/**
+	 * draws the samples sequentially
+	 * @throws Exception
+	 */
+	protected void inferSequential() throws Exception {
 		WeightedSample s = new WeightedSample(bn);
 		for(int i = 1; i <= numSamples; i++) {
 			if(i % infoInterval == 0)
@@ -65,12 +106,112 @@ public class LikelihoodWeighting extends Sampler {
 			if(converged())
 				break;
 		}
-		sw.stop();
-		SampledDistribution dist = distributionBuilder.getDistribution();
-		out.println(String.format("time taken: %.2fs (%.4fs per sample, %.1f trials/sample, %d samples)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/numSamples, dist.getTrialsPerStep(), dist.steps));
+	}
+	
+	/**
+	 * draws the samples using numThreads sampling threads, waiting for all of them to terminate
+	 * @throws Exception
+	 */
+	protected void inferParallel() throws Exception {
+		out.println("using " + numThreads + " threads");
+		AtomicInteger step = new AtomicInteger(0);
+		SamplingThread[] threads = new SamplingThread[numThreads];
+		for(int i = 0; i < numThreads; i++)
+			threads[i] = new SamplingThread(step, generator.nextLong());
+		for(SamplingThread t : threads)
+			t.start();
+		for(SamplingThread t : threads)
+			t.join();
+		for(SamplingThread t : threads)
+			if(t.exception != null)
+				throw t.exception;
+	}
+	
+	/**
+	 * a thread that draws samples with its own random number generator, collecting
+	 * them in a private distribution which is periodically merged into the overall distribution
+	 */
+	protected class SamplingThread extends Thread {
+		protected AtomicInteger step;
+		protected Random generator;
+		protected WeightedSample s;
+		protected SampledDistribution partialDist;
+		protected Exception exception = null;
+		
+		/**
+		 * @param step  the step counter shared by all threads
+		 * @param seed  the seed for this thread's random number generator
+		 */
+		public SamplingThread(AtomicInteger step, long seed) throws Exception {
+			this.step = step;
+			generator = new Random(seed);
+			s = new WeightedSample(bn);
+			partialDist = newPartialDistribution();
+		}
+		
+		@Override
+		public void run() {
+			try {
+				for(int i = step.incrementAndGet(); i <= numSamples && !isCancelled(); i = step.incrementAndGet()) {
+					if(i % infoInterval == 0)
+						out.println("  step " + i);
+					WeightedSample ret = getWeightedSample(s, nodeOrder, evidenceDomainIndices, generator);
+					if(ret != null) {
+						partialDist.addSample(ret);
+						if(partialDist.steps >= mergeInterval && merge())
+							step.set(numSamples); // converged, make all threads stop
+					}
+				}
+				merge();
+			}
+			catch(Exception e) {
+				exception = e;
+				step.set(numSamples);
+			}
+		}
+		
+		/**
+		 * merges the partial distribution into the overall distribution
+		 * @return true if the overall distribution has converged
+		 * @throws Exception
+		 */
+		protected boolean merge() throws Exception {
+			if(partialDist.steps == 0)
+				return false;
+			SampledDistribution dist = distributionBuilder.getDistribution();
+			boolean converged;
+			synchronized(dist) {
+				dist.addDistribution(partialDist);
+				converged = step.get() < numSamples && converged(dist);
+				if(intermediateResults.isDue())
+					publishIntermediateResults();
+			}
+			partialDist = newPartialDistribution();
+			return converged;
+		}
+		
+		protected SampledDistribution newPartialDistribution() throws Exception {
+			SampledDistribution dist = new SampledDistribution(bn);
+			dist.setDebugMode(debug);
+			return dist;
+		}
 	}
 	
 	public WeightedSample getWeightedSample(WeightedSample s, int[] nodeOrder, int[] evidenceDomainIndices) throws Exception {
+		return getWeightedSample(s, nodeOrder, evidenceDomainIndices, generator);
+	}
+	
+	/**
+	 * gets a weighted sample
+	 * @param s  the sample to write to
+	 * @param nodeOrder  the order in which to instantiate the nodes (a topological order)
+	 * @param evidenceDomainIndices  the evidence
+	 * @param generator  the random number generator to use
+	 * @return the sample (s) or null if no sample could be obtained in the maximum number of trials and failed steps are to be skipped 
+	 * @throws Exception
+	 */
+	public WeightedSample getWeightedSample(WeightedSample s, int[] nodeOrder, int[] evidenceDomainIndices, Random generator) throws Exception {
+		CompiledNetwork cn = getCompiledNetwork();
 		s.trials = 0;
 		boolean successful = false;
 loop:	while(!successful) {
@@ -89,7 +230,7 @@ loop:	while(!successful) {
 				// for evidence nodes, adjust the weight
 				if(domainIdx >= 0) { 
 					s.nodeDomainIndices[nodeIdx] = domainIdx;
-					double prob = getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+					double prob = cn.getProbability(nodeIdx, s.nodeDomainIndices);
 					if(prob == 0.0) {
 						if(debug)
 							out.println("!!! evidence probability was 0 at node " + nodes[nodeIdx]);
@@ -99,7 +240,7 @@ loop:	while(!successful) {
 				} 
 				// for non-evidence nodes, do forward sampling
 				else {
-					domainIdx = sampleForward(nodes[nodeIdx], s.nodeDomainIndices);
+					domainIdx = cn.sampleForward(nodeIdx, s.nodeDomainIndices, generator);
 					if(domainIdx < 0) {
 						if(debug)
 							out.println("!!! could not sample forward because of column with only 0s in CPT of " + nodes[nodeIdx].getName());
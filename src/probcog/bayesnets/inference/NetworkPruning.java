@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Vector;
+
+import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.FunctionalCPT;
+import edu.ksu.cis.bnj.ver3.core.BeliefNetwork;
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPT;
+import edu.ksu.cis.bnj.ver3.core.Value;
+import edu.ksu.cis.bnj.ver3.core.values.ValueDouble;
+
+/**
+ * Simplifies a Bayesian network for a particular inference task (i.e. given evidence and query variables):
+ * <ul>
+ * <li>barren nodes, i.e. nodes that are neither queried nor observed and have no queried or observed descendants, are removed,</li>
+ * <li>evidence is absorbed into the CPTs of the children of evidence nodes, i.e. the edges emanating from evidence nodes are removed
+ *     (evidence nodes without unobserved parents thus contribute only a constant factor and are removed as well), and</li>
+ * <li>the remaining network is split into its connected components; components without unobserved query variables are
+ *     independent of the queries given the evidence and are dropped.</li>
+ * </ul>
+ * Each of the resulting components is a Bayesian network of its own, in which inference can be carried out separately.
+ * The results obtained for the components can be mapped back to the original network using {@link #mapResults(SampledDistribution[])}.
+ *
+ * @author Dominik Jain
+ */
+public class NetworkPruning {
+	/**
+	 * the original network
+	 */
+	protected BeliefNetworkEx bn;
+	/**
+	 * the evidence (domain indices of all nodes in the original network, -1 for unobserved nodes)
+	 */
+	protected int[] evidenceDomainIndices;
+	protected Vector<Component> components = new Vector<Component>();
+	protected int numRetainedNodes = 0;
+
+	/**
+	 * a connected component of the pruned network
+	 */
+	public static class Component {
+		/**
+		 * the network of the component, in which evidence has been absorbed
+		 */
+		public BeliefNetworkEx bn;
+		/**
+		 * maps the index of each of the component's nodes to the index of the corresponding node in the original network
+		 */
+		public int[] nodeMap;
+		/**
+		 * the evidence for the component's nodes
+		 */
+		public int[] evidenceDomainIndices;
+		/**
+		 * the indices of the component's (unobserved) query variables
+		 */
+		public Vector<Integer> queryVars = new Vector<Integer>();
+	}
+
+	/**
+	 * prunes the given network
+	 * @param bn  the network
+	 * @param cn  the compiled representation of the network
+	 * @param evidenceDomainIndices  the evidence (domain indices of all nodes in the network, -1 for unobserved nodes)
+	 * @param queryVars  the indices of the query variables; if null, all variables are considered to be queried
+	 */
+	public NetworkPruning(BeliefNetworkEx bn, CompiledNetwork cn, int[] evidenceDomainIndices, Collection<Integer> queryVars) {
+		this.bn = bn;
+		this.evidenceDomainIndices = evidenceDomainIndices;
+		int n = cn.numNodes;
+		boolean[] isQuery = new boolean[n];
+		if(queryVars == null)
+			Arrays.fill(isQuery, true);
+		else
+			for(Integer i : queryVars)
+				isQuery[i] = true;
+
+		// determine the ancestors of query and evidence nodes (all other nodes are barren)
+		boolean[] relevant = new boolean[n];
+		int[] stack = new int[n];
+		int top = 0;
+		for(int i = 0; i < n; i++)
+			if(isQuery[i] || isEvidence(i)) {
+				relevant[i] = true;
+				stack[top++] = i;
+			}
+		while(top > 0) {
+			int[] domProd = cn.domainProducts[stack[--top]];
+			for(int j = 1; j < domProd.length; j++)
+				if(!relevant[domProd[j]]) {
+					relevant[domProd[j]] = true;
+					stack[top++] = domProd[j];
+				}
+		}
+
+		// absorb evidence, i.e. disregard the edges emanating from evidence nodes, and determine the connected
+		// components of the remaining graph
+		int[] parent = new int[n];
+		for(int i = 0; i < n; i++)
+			parent[i] = i;
+		boolean[] retained = new boolean[n];
+		for(int i = 0; i < n; i++) {
+			if(!relevant[i])
+				continue;
+			boolean hasUnobservedParents = false;
+			int[] domProd = cn.domainProducts[i];
+			for(int j = 1; j < domProd.length; j++)
+				if(!isEvidence(domProd[j])) {
+					union(parent, i, domProd[j]);
+					hasUnobservedParents = true;
+				}
+			retained[i] = !isEvidence(i) || hasUnobservedParents;
+		}
+
+		// collect the components containing unobserved query variables
+		boolean[] queried = new boolean[n];
+		for(int i = 0; i < n; i++)
+			if(retained[i] && isQuery[i] && !isEvidence(i))
+				queried[find(parent, i)] = true;
+		HashMap<Integer, Vector<Integer>> members = new HashMap<Integer, Vector<Integer>>();
+		Vector<Vector<Integer>> componentNodes = new Vector<Vector<Integer>>();
+		for(int i = 0; i < n; i++) {
+			if(!retained[i])
+				continue;
+			int root = find(parent, i);
+			if(!queried[root])
+				continue;
+			Vector<Integer> m = members.get(root);
+			if(m == null) {
+				members.put(root, m = new Vector<Integer>());
+				componentNodes.add(m);
+			}
+			m.add(i);
+			numRetainedNodes++;
+		}
+
+		// create the components' networks
+		BeliefNode[] nodes = bn.bn.getNodes();
+		int[] localIndices = new int[n];
+		for(Vector<Integer> m : componentNodes)
+			components.add(createComponent(cn, nodes, m, isQuery, localIndices));
+	}
+
+	protected final boolean isEvidence(int nodeIdx) {
+		return evidenceDomainIndices[nodeIdx] >= 0;
+	}
+
+	protected static int find(int[] parent, int i) {
+		while(parent[i] != i)
+			i = parent[i] = parent[parent[i]];
+		return i;
+	}
+
+	protected static void union(int[] parent, int i, int j) {
+		parent[find(parent, i)] = find(parent, j);
+	}
+
+	/**
+	 * creates the network for a component of the pruned network
+	 * @param cn  the compiled representation of the original network
+	 * @param nodes  the nodes of the original network
+	 * @param members  the indices of the nodes belonging to the component
+	 * @param isQuery  for each node of the original network, whether it is queried
+	 * @param localIndices  an array with an entry for each node in the original network, in which to store the component's node indices
+	 * @return the component
+	 */
+	protected Component createComponent(CompiledNetwork cn, BeliefNode[] nodes, Vector<Integer> members, boolean[] isQuery, int[] localIndices) {
+		BeliefNetwork net = new BeliefNetwork();
+		BeliefNode[] compNodes = new BeliefNode[members.size()];
+		for(int k = 0; k < compNodes.length; k++) {
+			BeliefNode node = nodes[members.get(k)];
+			compNodes[k] = new BeliefNode(node.getName(), node.getDomain());
+			compNodes[k].setType(node.getType());
+			net.addBeliefNode(compNodes[k]);
+			localIndices[members.get(k)] = k;
+		}
+		for(int k = 0; k < compNodes.length; k++) {
+			int nodeIdx = members.get(k);
+			int[] domProd = cn.domainProducts[nodeIdx];
+			int[] strides = cn.strides[nodeIdx];
+			// the reduced domain product contains the node itself and its unobserved parents;
+			// the observed parents' values determine a fixed offset into the original CPT
+			int[] positions = new int[domProd.length];
+			int[] fixedValues = new int[domProd.length];
+			int numPositions = 0, offset = 0;
+			for(int j = 0; j < domProd.length; j++) {
+				if(j > 0 && isEvidence(domProd[j])) {
+					offset += evidenceDomainIndices[domProd[j]] * strides[j];
+					fixedValues[j] = evidenceDomainIndices[domProd[j]];
+				}
+				else
+					positions[numPositions++] = j;
+			}
+			BeliefNode[] reducedDomProd = new BeliefNode[numPositions];
+			int size = 1;
+			for(int q = 0; q < numPositions; q++) {
+				reducedDomProd[q] = compNodes[localIndices[domProd[positions[q]]]];
+				if(q > 0)
+					net.getGraph().addDirectedEdge(reducedDomProd[q].getOwner(), compNodes[k].getOwner());
+				size *= cn.domainSizes[domProd[positions[q]]];
+			}
+			// functional CPTs are restricted to the evidence without being materialized
+			if(cn.isFunctional(nodeIdx)) {
+				compNodes[k].setCPF(new FunctionalCPT.Restriction(reducedDomProd, cn.functions[nodeIdx], Arrays.copyOf(positions, numPositions), fixedValues));
+				continue;
+			}
+			// copy the CPT entries (iterating over the reduced domain product with the last element varying fastest)
+			double[] cpt = cn.cpts[nodeIdx];
+			Value[] values = new Value[size];
+			int[] counter = new int[numPositions];
+			for(int a = 0; a < size; a++) {
+				int addr = offset;
+				for(int q = 0; q < numPositions; q++)
+					addr += counter[q] * strides[positions[q]];
+				values[a] = new ValueDouble(cpt[addr]);
+				for(int q = numPositions-1; q >= 0; q--) {
+					if(++counter[q] < cn.domainSizes[domProd[positions[q]]])
+						break;
+					counter[q] = 0;
+				}
+			}
+			CPT cpf = new CPT();
+			cpf.build(reducedDomProd, values);
+			compNodes[k].setCPF(cpf);
+		}
+		// create the component, mapping indices to the indices of the component network
+		Component c = new Component();
+		c.bn = new BeliefNetworkEx(net);
+		BeliefNode[] netNodes = net.getNodes();
+		HashMap<BeliefNode, Integer> compIndices = new HashMap<BeliefNode, Integer>();
+		for(int k = 0; k < compNodes.length; k++)
+			compIndices.put(compNodes[k], members.get(k));
+		c.nodeMap = new int[netNodes.length];
+		c.evidenceDomainIndices = new int[netNodes.length];
+		for(int i = 0; i < netNodes.length; i++) {
+			int nodeIdx = compIndices.get(netNodes[i]);
+			c.nodeMap[i] = nodeIdx;
+			c.evidenceDomainIndices[i] = evidenceDomainIndices[nodeIdx];
+			if(isQuery[nodeIdx] && !isEvidence(nodeIdx))
+				c.queryVars.add(i);
+		}
+		return c;
+	}
+
+	/**
+	 * @return the connected components of the pruned network, each of which contains at least one unobserved query variable
+	 */
+	public Vector<Component> getComponents() {
+		return components;
+	}
+
+	/**
+	 * @return the total number of nodes retained in the components
+	 */
+	public int getNumRetainedNodes() {
+		return numRetainedNodes;
+	}
+
+	/**
+	 * maps the results obtained for the components back to the original network. Evidence variables are assigned their
+	 * observed values; the distributions of variables that were pruned (and are thus not queried) are not computed (all entries zero).
+	 * @param results  the results for each of the components (in the order of {@link #getComponents()}); the results for a component without
+	 *                 query variables may be null
+	 * @return the (normalized) distribution over the variables of the original network
+	 * @throws Exception if there are no results for a component with query variables
+	 */
+	public SampledDistribution mapResults(SampledDistribution[] results) throws Exception {
+		SampledDistribution dist = new SampledDistribution(bn);
+		dist.setDebugMode(false);
+		dist.Z = 1.0;
+		for(int i = 0; i < evidenceDomainIndices.length; i++)
+			if(isEvidence(i))
+				dist.values[i][evidenceDomainIndices[i]] = 1.0;
+		for(int c = 0; c < results.length; c++) {
+			SampledDistribution r = results[c];
+			if(!hasResults(r)) {
+				Component comp = components.get(c);
+				if(comp.queryVars.isEmpty())
+					continue;
+				throw new Exception("No results were obtained for the component of the pruned network that contains the query variable " + comp.bn.bn.getNodes()[comp.queryVars.get(0)].getName() + " (all samples may have been rejected)");
+			}
+			int[] nodeMap = components.get(c).nodeMap;
+			for(int k = 0; k < nodeMap.length; k++) {
+				double[] v = dist.values[nodeMap[k]], rv = r.values[k];
+				for(int j = 0; j < v.length; j++)
+					v[j] = rv[j] / r.Z;
+			}
+			dist.steps = Math.max(dist.steps, r.steps);
+			dist.trials += r.trials;
+			dist.operations += r.operations;
+		}
+		return dist;
+	}
+
+	/**
+	 * @param results  the results for each of the components (in the order of {@link #getComponents()})
+	 * @return true if there are results for all the components with query variables, such that they can be mapped using {@link #mapResults(SampledDistribution[])}
+	 */
+	public boolean isComplete(SampledDistribution[] results) {
+		for(int c = 0; c < results.length; c++)
+			if(!hasResults(results[c]) && !components.get(c).queryVars.isEmpty())
+				return false;
+		return true;
+	}
+
+	protected static boolean hasResults(SampledDistribution r) {
+		return r != null && r.Z != null && r.Z != 0.0;
+	}
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.Vector;
+
+import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.inference.NetworkPruning.Component;
+import probcog.inference.Metrics;
+
+/**
+ * Wraps another Bayesian network inference method, which is applied to the simplified networks
+ * that are obtained by pruning the network given the evidence and the queries (see {@link NetworkPruning}).
+ * Each connected component of the pruned network is handled by a separate instance of the
+ * inference method, and the components can be processed in parallel (parameter "componentThreads").
+ * <p>Intermediate results are available via {@link #pollResults()} (once each component has published results);
+ * in time-limited inference, the components should be processed in parallel, as all components share the same
+ * cancellation token.</p>
+ * @author Dominik Jain
+ */
+public class PrunedSampler extends Sampler {
+	protected Class<? extends Sampler> samplerClass;
+	protected NetworkPruning pruning;
+	/**
+	 * the inference methods for each of the components
+	 */
+	protected Sampler[] samplers = null;
+	/**
+	 * the number of threads in which to process the components
+	 */
+	protected int componentThreads = 1;
+
+	public PrunedSampler(BeliefNetworkEx bn, Class<? extends Sampler> samplerClass) throws Exception {
+		super(bn);
+		this.samplerClass = samplerClass;
+		paramHandler.add("componentThreads", "setComponentThreads");
+	}
+
+	public void setComponentThreads(int componentThreads) {
+		this.componentThreads = componentThreads;
+	}
+
+	@Override
+	protected void _initialize() throws Exception {
+		pruning = new NetworkPruning(bn, getCompiledNetwork(), evidenceDomainIndices, queryVars);
+		Vector<Component> components = pruning.getComponents();
+		out.printf("pruned network: %d of %d nodes retained in %d component(s)\n", pruning.getNumRetainedNodes(), nodes.length, components.size());
+		Metrics.record("pruning.retainedNodes", pruning.getNumRetainedNodes());
+		Metrics.record("pruning.components", components.size());
+		samplers = new Sampler[components.size()];
+		for(int i = 0; i < samplers.length; i++) {
+			Component c = components.get(i);
+			Sampler sampler = samplerClass.getConstructor(BeliefNetworkEx.class).newInstance(c.bn);
+			sampler.setVerbose(debug);
+			paramHandler.addSubhandler(sampler.getParameterHandler());
+			sampler.setEvidence(c.evidenceDomainIndices);
+			sampler.setQueryVars(c.queryVars);
+			sampler.setDebugMode(debug);
+			sampler.setNumSamples(numSamples);
+			sampler.setInfoInterval(infoInterval);
+			sampler.setMaxTrials(maxTrials);
+			sampler.setSkipFailedSteps(skipFailedSteps);
+			sampler.setCancellationToken(cancellationToken);
+			sampler.initialize();
+			samplers[i] = sampler;
+		}
+	}
+
+	@Override
+	protected void _infer() throws Exception {
+		SampledDistribution[] results = new SampledDistribution[samplers.length];
+		int numThreads = Math.min(componentThreads, samplers.length);
+		if(numThreads <= 1) {
+			for(int i = 0; i < samplers.length; i++)
+				results[i] = samplers[i].infer();
+		}
+		else {
+			ComponentThread[] threads = new ComponentThread[numThreads];
+			for(int t = 0; t < numThreads; t++) {
+				threads[t] = new ComponentThread(t, numThreads, results);
+				threads[t].start();
+			}
+			for(ComponentThread thread : threads)
+				thread.join();
+			for(ComponentThread thread : threads) {
+				if(thread.exception instanceof Error)
+					throw (Error)thread.exception;
+				if(thread.exception != null)
+					throw (Exception)thread.exception;
+			}
+		}
+		distributionBuilder = new DirectDistributionBuilder(pruning.mapResults(results));
+	}
+
+	/**
+	 * combines the most recent intermediate results of all components
+	 * @return the combined results or null if not all components have published results yet
+	 */
+	@Override
+	public SampledDistribution pollResults() throws Exception {
+		if(samplers == null)
+			return null;
+		SampledDistribution[] results = new SampledDistribution[samplers.length];
+		for(int i = 0; i < samplers.length; i++)
+			results[i] = samplers[i].pollResults();
+		if(!pruning.isComplete(results))
+			return null;
+		return pruning.mapResults(results);
+	}
+
+	@Override
+	public String getAlgorithmName() {
+		return "Pruned:" + samplerClass.getSimpleName();
+	}
+
+	/**
+	 * a thread that runs inference for every numThreads-th component (starting with the given offset)
+	 */
+	protected class ComponentThread extends Thread {
+		protected int offset, numThreads;
+		protected SampledDistribution[] results;
+		protected Throwable exception = null;
+
+		public ComponentThread(int offset, int numThreads, SampledDistribution[] results) {
+			this.offset = offset;
+			this.numThreads = numThreads;
+			this.results = results;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for(int i = offset; i < samplers.length; i += numThreads)
+					results[i] = samplers[i].infer();
+			}
+			catch(Throwable e) {
+				exception = e;
+			}
+		}
+	}
+}
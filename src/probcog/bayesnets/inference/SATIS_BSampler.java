@@ -126,6 +126,10 @@ public class SATIS_BSampler extends BackwardSampling {
 		}
 		// pass on parameters
 		sat.setDebugMode(this.debug);
+		// determine the sampling order
+		getOrdering(evidenceDomainIndices);
+		forwardSampledNodeIndices = getNodeIndices(forwardSampledNodes);
+		outsideSamplingOrderIndices = getNodeIndices(outsideSamplingOrder);
 	}
 	
 	/**
@@ -19,13 +19,13 @@
 package probcog.bayesnets.inference;
 
 import java.math.BigInteger;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Vector;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.inference.Metrics;
 
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
 import edu.tum.cs.util.Stopwatch;
 import edu.tum.cs.util.datastruct.Map2D;
 
@@ -42,6 +42,24 @@ public class SampleSearch extends Sampler {
 
 	protected double[] samplingProb;
 	protected boolean useProperWeighting = false;
+	
+	protected CompiledNetwork cn;
+	/**
+	 * domain exclusions for each node (reset whenever a node is assigned anew)
+	 */
+	protected boolean[][] domExclusions;
+	/**
+	 * buffers for sampling distributions, indexed by domain size
+	 */
+	protected double[][] distBuffers;
+	/**
+	 * buffer for the relevant CPT column of the node being sampled (when sampling from an importance function)
+	 */
+	protected double[] columnBuffer;
+	/**
+	 * the assignment object that is returned by the forward sampling methods (reused to avoid allocation)
+	 */
+	protected SampledAssignment sampledAssignment = new SampledAssignment(-1, 0.0);
 
 	protected boolean usingTopologicalOrdering = true;
 
@@ -66,9 +84,18 @@ public class SampleSearch extends Sampler {
 	
 	@Override
 	protected void _initialize() throws Exception {
-		// TODO could help to guarantee for BLNs that formula nodes appear as early as possible
+		cn = getCompiledNetwork();
 		nodeOrder = computeNodeOrdering();
 		samplingProb = new double[nodes.length];
+		domExclusions = new boolean[nodes.length][];
+		distBuffers = new double[cn.getMaxDomainSize()+1][];
+		columnBuffer = new double[cn.getMaxDomainSize()];
+		for(int i = 0; i < nodes.length; i++) {
+			int domSize = cn.domainSizes[i];
+			domExclusions[i] = new boolean[domSize];
+			if(distBuffers[domSize] == null)
+				distBuffers[domSize] = new double[domSize];
+		}
 		
 		if(importanceFunction != ImportanceFunction.Prior) {
 			if(verbose) System.out.println("computing importance function with " + importanceFunction + "...");
@@ -92,8 +119,38 @@ public class SampleSearch extends Sampler {
 		this.importanceFunctionSteps = steps;
 	}
 	
+	/**
+	 * computes the order in which nodes are sampled: a topological ordering in which each evidence node is placed
+	 * immediately after its last parent, such that the evidence (in particular deterministic constraints, e.g. the
+	 * formulaic nodes of BLNs) is checked as early as possible and inconsistent partial assignments are backtracked
+	 * from before further nodes are sampled 
+	 * @return the node ordering (array of node indices)
+	 * @throws Exception
+	 */
 	protected int[] computeNodeOrdering() throws Exception {
-		return bn.getTopologicalOrder();
+		int[] topOrder = bn.getTopologicalOrder();
+		int[] order = new int[topOrder.length];
+		int[] numUnplacedParents = new int[topOrder.length];
+		for(int i = 0; i < numUnplacedParents.length; i++)
+			numUnplacedParents[i] = cn.getDomainProduct(i).length-1;
+		boolean[] placed = new boolean[topOrder.length];
+		int[] readyEvidence = new int[topOrder.length];
+		int k = 0;
+		for(int nodeIdx : topOrder) {
+			if(placed[nodeIdx])
+				continue;
+			int numReady = 0;
+			readyEvidence[numReady++] = nodeIdx;
+			while(numReady > 0) {
+				int idx = readyEvidence[--numReady];
+				placed[idx] = true;
+				order[k++] = idx;
+				for(int child : cn.getChildren(idx))
+					if(--numUnplacedParents[child] == 0 && evidenceDomainIndices[child] != -1 && !placed[child])
+						readyEvidence[numReady++] = child;
+			}
+		}
+		return order;
 	}
 	
 	public void setUseProperWeighting(boolean enabled){
@@ -146,22 +203,30 @@ public class SampleSearch extends Sampler {
 		report(String.format("time taken: %.2fs (%.4fs per sample, %.1f trials/sample, %.4f*N assignments/sample, %d samples)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/numSamples, dist.getTrialsPerStep(), (float)dist.operations/nodes.length/numSamples, dist.steps));
 	}
 	
+	@Override
+	protected void recordMetrics(SampledDistribution dist) {
+		super.recordMetrics(dist);
+		// every trial beyond the first one of a sample is due to a backtracking step
+		if(dist != null && dist.steps > 0) {
+			String prefix = "inference." + getClass().getSimpleName() + ".";
+			Metrics.increment(prefix + "backtracks", dist.trials - dist.steps);
+			Metrics.record(prefix + "assignmentsPerSample", (double)dist.operations / dist.steps);
+		}
+	}
+	
 	public WeightedSample getWeightedSample(WeightedSample s, int[] nodeOrder, int[] evidenceDomainIndices) throws Exception {
 		s.trials = 1;
 		s.operations = 0;	
 		s.weight = 1.0;		
 		// assign values to the nodes in order
-		HashMap<Integer, boolean[]> domExclusions = new HashMap<Integer, boolean[]>();
+		if(nodeOrder.length > 0)
+			Arrays.fill(domExclusions[nodeOrder[0]], false);
 		for(int i=0; i < nodeOrder.length;) {
 			s.operations++;
 			int nodeIdx = nodeOrder[i];
 			int domainIdx = evidenceDomainIndices[nodeIdx];
 			// get domain exclusions
-			boolean[] excluded = domExclusions.get(nodeIdx);
-			if(excluded == null) {
-				excluded = new boolean[nodes[nodeIdx].getDomain().getOrder()];
-				domExclusions.put(nodeIdx, excluded);
-			}
+			boolean[] excluded = domExclusions[nodeIdx];
 			// debug info
 			if(debug) {					
 				int numex = 0;
@@ -174,9 +239,10 @@ public class SampleSearch extends Sampler {
 			if(domainIdx >= 0) { 
 				s.nodeDomainIndices[nodeIdx] = domainIdx;
 				samplingProb[nodeIdx] = 1.0;
-				double prob = getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+				double prob = cn.getProbability(nodeIdx, s.nodeDomainIndices);
 				if(prob != 0.0) {
-					++i;
+					if(++i < nodeOrder.length)
+						Arrays.fill(domExclusions[nodeOrder[i]], false);
 					continue;
 				}
 				else {
@@ -186,12 +252,13 @@ public class SampleSearch extends Sampler {
 			} 
 			// for non-evidence nodes, do forward sampling
 			else {
-				SampledAssignment sa = sampleForward(nodes[nodeIdx], s.nodeDomainIndices, excluded);
+				SampledAssignment sa = sampleForward(nodeIdx, s.nodeDomainIndices, excluded);
 				if(sa != null) {
 					domainIdx = sa.domIdx;
 					samplingProb[nodeIdx] = sa.probability;				
 					s.nodeDomainIndices[nodeIdx] = domainIdx;
-					++i;
+					if(++i < nodeOrder.length)
+						Arrays.fill(domExclusions[nodeOrder[i]], false);
 					continue;
 				}
 				else if(debug)
@@ -200,15 +267,13 @@ public class SampleSearch extends Sampler {
 			// if we get here, we need to backtrack to the last non-evidence node
 			s.trials++;
 			do {
-				// kill the current node's exclusions
-				domExclusions.remove(nodeIdx); 
 				// add the previous node's setting as an exclusion
+				// (the current node's exclusions are reset when it is reached again)
 				--i;
 				if(i < 0)
 					throw new Exception("Could not find a sample with non-zero probability. Most likely, the evidence specified has 0 probability.");
 				nodeIdx = nodeOrder[i];
-				boolean[] prevExcl = domExclusions.get(nodeIdx);
-				prevExcl[s.nodeDomainIndices[nodeIdx]] = true;
+				domExclusions[nodeIdx][s.nodeDomainIndices[nodeIdx]] = true;
 				// proceed with previous node...				
 			} while(evidenceDomainIndices[nodeIdx] != -1);
 		}
@@ -222,6 +287,12 @@ public class SampleSearch extends Sampler {
 			domIdx = domainIdx;
 			probability = p;
 		}
+		
+		public SampledAssignment set(int domainIdx, double p) {
+			domIdx = domainIdx;
+			probability = p;
+			return this;
+		}
 	}
 	
 	/**
@@ -231,69 +302,74 @@ public class SampleSearch extends Sampler {
 	 * @return  the index of the domain element of 'node' that is sampled, or -1 if sampling is impossible because all entries in the relevant column are 0
 	 */
 	protected SampledAssignment sampleForwardPrior(BeliefNode node, int[] nodeDomainIndices, boolean[] excluded) {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		// get the addresses of the first two relevant fields and the difference between them
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];		
-		addr[0] = 0; // (the first element in the index into the domain of the node we are sampling)
-		int realAddr = cpf.addr2realaddr(addr);
-		addr[0] = 1;
-		int diff = cpf.addr2realaddr(addr) - realAddr; // diff is the address difference between two consecutive entries in the relevant column
-		// get probabilities for outcomes
-		double[] cpt_entries = new double[domProd[0].getDomain().getOrder()];
+		return sampleForwardPrior(getNodeIndex(node), nodeDomainIndices, excluded);
+	}
+	
+	/**
+	 * samples forward from the prior, i.e. samples a value for the node with the given index given its parents
+	 * @param nodeIdx  the index of the node for which to sample a value
+	 * @param nodeDomainIndices  array of domain indices for all nodes in the network; the values for the parents of the node must be set already
+	 * @param excluded  flags indicating the values that are excluded
+	 * @return  the sampled assignment (which is reused by subsequent calls), or null if sampling is impossible because all entries in the relevant column are 0 or excluded
+	 */
+	protected SampledAssignment sampleForwardPrior(int nodeIdx, int[] nodeDomainIndices, boolean[] excluded) {
+		CompiledNetwork cn = getCompiledNetwork();
+		double[] cpt_entries = getDistBuffer(cn.domainSizes[nodeIdx]);
+		cn.getConditionalDistribution(nodeIdx, nodeDomainIndices, cpt_entries);
 		double sum = 0;
 		for(int i = 0; i < cpt_entries.length; i++) {
-			double value;
 			if(excluded[i])
-				value = 0.0;
-			else
-				value = cpf.getDouble(realAddr); 
-			cpt_entries[i] = value;
-			sum += value;
-			realAddr += diff;
+				cpt_entries[i] = 0.0;
+			sum += cpt_entries[i];
 		}
 		// if the column contains only zeros, it is an impossible case -> cannot sample
 		if(sum == 0)
 			return null;
 		int domIdx = sample(cpt_entries, sum, generator);
-		return new SampledAssignment(domIdx, cpt_entries[domIdx]/sum);
+		return sampledAssignment.set(domIdx, cpt_entries[domIdx]/sum);
 	}
 	
 	protected SampledAssignment sampleForward(BeliefNode node, int[] nodeDomainIndices, boolean[] excluded) {
+		return sampleForward(getNodeIndex(node), nodeDomainIndices, excluded);
+	}
+	
+	protected SampledAssignment sampleForward(int nodeIdx, int[] nodeDomainIndices, boolean[] excluded) {
 		if(this.importanceDist == null)
-			return sampleForwardPrior(node, nodeDomainIndices, excluded);
+			return sampleForwardPrior(nodeIdx, nodeDomainIndices, excluded);
 		
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		// get the addresses of the first two relevant fields and the difference between them
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];		
-		addr[0] = 0; // (the first element in the index into the domain of the node we are sampling)
-		int realAddr = cpf.addr2realaddr(addr);
-		addr[0] = 1;
-		int diff = cpf.addr2realaddr(addr) - realAddr; // diff is the address difference between two consecutive entries in the relevant column
+		CompiledNetwork cn = getCompiledNetwork();
+		cn.getConditionalDistribution(nodeIdx, nodeDomainIndices, columnBuffer);
 		// get probabilities for outcomes
 		// If we are sampling in top. order, we always additionally filter
 		// values that are zero given the parents
-		double[] samplingDist = importanceDist.getDistribution(getNodeIndex(node));
+		double[] importanceValues = importanceDist.values[nodeIdx];
+		double[] samplingDist = getDistBuffer(importanceValues.length);
 		double sum = 0;
 		for(int i = 0; i < samplingDist.length; i++) {
-			Double cptValue = null;
-			if(usingTopologicalOrdering)
-				cptValue = cpf.getDouble(realAddr);
-			if(excluded[i] || (cptValue != null && cptValue.equals(0.0)))
+			if(excluded[i] || (usingTopologicalOrdering && columnBuffer[i] == 0.0))
 				samplingDist[i] = 0.0;
+			else
+				samplingDist[i] = importanceValues[i] / importanceDist.Z;
 			sum += samplingDist[i];
-			realAddr += diff;
 		}
 		// if the column contains only zeros, it is an impossible case -> cannot sample
 		if(sum == 0)
 			return null;
 		int domIdx = sample(samplingDist, sum, generator);
-		return new SampledAssignment(domIdx, samplingDist[domIdx]/sum);
+		return sampledAssignment.set(domIdx, samplingDist[domIdx]/sum);
+	}
+	
+	/**
+	 * @param domSize  a domain size
+	 * @return a buffer for a sampling distribution over a domain of the given size
+	 */
+	protected double[] getDistBuffer(int domSize) {
+		if(distBuffers == null || domSize >= distBuffers.length)
+			return new double[domSize];
+		double[] buf = distBuffers[domSize];
+		if(buf == null)
+			buf = distBuffers[domSize] = new double[domSize];
+		return buf;
 	}
 
 	@Override
@@ -323,7 +399,7 @@ public class SampleSearch extends Sampler {
 			// do weighting
 			s.weight = 1.0;
 			for(int i = 0; i < nodes.length; i++) {
-				s.weight *= getCPTProbability(nodes[i], s.nodeDomainIndices) / samplingProb[i];
+				s.weight *= getCPTProbability(i, s.nodeDomainIndices) / samplingProb[i];
 			}
 			// directly add to distribution
 			super.addSample(s);
@@ -378,10 +454,10 @@ public class SampleSearch extends Sampler {
 					if(evidenceDomainIndices[nodeIdx] < 0) {
 						partAssign = partAssign.multiply(BigInteger.valueOf(nodes[nodeIdx].getDomain().getOrder()));
 						partAssign = partAssign.add(BigInteger.valueOf(s.nodeDomainIndices[nodeIdx]));
-						s.weight *= getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices) / maxQ.get(i, partAssign);
+						s.weight *= getCPTProbability(nodeIdx, s.nodeDomainIndices) / maxQ.get(i, partAssign);
 					}
 					else
-						s.weight *= getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+						s.weight *= getCPTProbability(nodeIdx, s.nodeDomainIndices);
 				}					
 				dist.addSample(s);
 			}
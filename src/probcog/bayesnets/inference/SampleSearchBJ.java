@@ -146,7 +146,7 @@ public class SampleSearchBJ extends SampleSearch {
 			if(domainIdx >= 0) {
 				s.nodeDomainIndices[nodeIdx] = domainIdx;
 				samplingProb[nodeIdx] = 1.0;
-				double prob = getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+				double prob = getCPTProbability(nodeIdx, s.nodeDomainIndices);
 				if(prob != 0.0) {
 					valueSuccessfullyAssigned = true;
 				}
@@ -154,7 +154,7 @@ public class SampleSearchBJ extends SampleSearch {
 			
 			// for non-evidence nodes, do forward sampling
 			else {
-				SampledAssignment sa = sampleForward(nodes[nodeIdx], s.nodeDomainIndices, excluded);
+				SampledAssignment sa = sampleForward(nodeIdx, s.nodeDomainIndices, excluded);
 				if(sa != null) {
 					domainIdx = sa.domIdx;
 					samplingProb[nodeIdx] = sa.probability;
@@ -175,6 +175,7 @@ public class SampleSearchBJ extends SampleSearch {
 					throw new Exception("Backtracking past first level. Most likely, the evidence that was specified is contradictory");
 				
 				backtracking = true;
+				s.trials++;
 				
 				PrioritySet<Integer> backtrackQueue = backtrackQueues.get(orderIdx);
 				if(backtrackQueue == null)
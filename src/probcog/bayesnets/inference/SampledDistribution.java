@@ -75,6 +75,14 @@ public class SampledDistribution extends BasicSampledDistribution implements Clo
 		
 		// update distribution values
 		for(int i = 0; 	i < s.nodeIndices.length; i++) {
+			// Rao-Blackwellized estimation: count the node's conditional distribution
+			double[] conditional = s.conditionals == null ? null : s.conditionals[s.nodeIndices[i]];
+			if(conditional != null) {
+				double[] v = values[s.nodeIndices[i]];
+				for(int j = 0; j < v.length; j++)
+					v[j] += s.weight * conditional[j];
+				continue;
+			}
 			try {
 				values[s.nodeIndices[i]][s.nodeDomainIndices[i]] += s.weight;
 			}
@@ -90,6 +98,26 @@ public class SampledDistribution extends BasicSampledDistribution implements Clo
 		steps++;
 	}
 	
+	/**
+	 * adds the samples that were collected in another distribution (over the same network) to this distribution
+	 * @param d  the distribution whose samples to add 
+	 */
+	public synchronized void addDistribution(SampledDistribution d) {
+		synchronized(d) {
+			Z += d.Z;
+			if(maxWeight < d.maxWeight)
+				maxWeight = d.maxWeight;
+			for(int i = 0; i < values.length; i++) {
+				double[] v = values[i], dv = d.values[i];
+				for(int j = 0; j < v.length; j++)
+					v[j] += dv[j];
+			}
+			trials += d.trials;
+			operations += d.operations;
+			steps += d.steps;
+		}
+	}
+	
 	@Override
 	public void printVariableDistribution(PrintStream out, int index) {
 		BeliefNode node = nodes[index];
@@ -105,9 +133,16 @@ public class SampledDistribution extends BasicSampledDistribution implements Clo
 		return (double)trials/steps;
 	}
 	
+	/**
+	 * creates a copy of this distribution whose values are independent of this distribution's values
+	 */
 	@Override
 	public synchronized SampledDistribution clone() throws CloneNotSupportedException {
-		return (SampledDistribution)super.clone();
+		SampledDistribution ret = (SampledDistribution)super.clone();
+		ret.values = new double[values.length][];
+		for(int i = 0; i < values.length; i++)
+			ret.values[i] = values[i].clone();
+		return ret;
 	}
 
 	@Override
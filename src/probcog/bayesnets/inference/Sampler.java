@@ -22,14 +22,17 @@ import java.io.PrintStream;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Random;
+import java.util.Vector;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
+import probcog.inference.IntermediateResults;
+import probcog.inference.Metrics;
 import probcog.inference.ParameterHandler;
 import probcog.inference.BasicSampledDistribution.ConfidenceInterval;
 
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
 import edu.tum.cs.util.Stopwatch;
 
 public abstract class Sampler implements ITimeLimitedInference, IParameterHandler {
@@ -45,6 +48,18 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	protected PrintStream out;
 	protected boolean initialized = false;
 	protected IDistributionBuilder distributionBuilder;
+	/**
+	 * compiled representation of the network's CPTs (created on demand, see {@link #getCompiledNetwork()})
+	 */
+	private CompiledNetwork compiledNet = null;
+	/**
+	 * the token via which inference can be cancelled; sampling loops must check {@link #isCancelled()} regularly
+	 */
+	protected CancellationToken cancellationToken = new CancellationToken();
+	/**
+	 * snapshots of the intermediate results, which are published by {@link #addSample(WeightedSample)} whenever one is due
+	 */
+	protected IntermediateResults<SampledDistribution> intermediateResults = new IntermediateResults<SampledDistribution>();
 	
 	/**
 	 * general sampler setting: how many samples to pull from the distribution
@@ -86,7 +101,7 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		return dist;
 	}
 	
-	protected synchronized void addSample(WeightedSample s) throws Exception {
+	protected void addSample(WeightedSample s) throws Exception {
 		// security check: in debug mode, check if sample respects evidence
 		if(debug) {
 			for(int i = 0; i < evidenceDomainIndices.length; i++)
@@ -95,6 +110,23 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		}
 		// add to distribution builder
 		distributionBuilder.addSample(s);
+		if(intermediateResults.isDue())
+			publishIntermediateResults();
+	}
+	
+	/**
+	 * publishes a snapshot of the current distribution (to be called from the inference thread only)
+	 * @throws Exception
+	 */
+	protected void publishIntermediateResults() throws Exception {
+		SampledDistribution dist = distributionBuilder.getDistribution();
+		if(dist == null)
+			return;
+		SampledDistribution snapshot;
+		synchronized(dist) {
+			snapshot = dist.clone();
+		}
+		intermediateResults.publish(snapshot);
 	}
 	
 	public void setQueryVars(Collection<Integer> queryVars) {
@@ -102,12 +134,36 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		initialized = false;
 	}
 	
+	/**
+	 * @return the indices of the query variables or, if no query variables were set, the indices of all the variables in the network
+	 */
+	protected Collection<Integer> getQueryVarsOrAll() {
+		if(queryVars != null)
+			return queryVars;
+		Vector<Integer> all = new Vector<Integer>(nodes.length);
+		for(int i = 0; i < nodes.length; i++)
+			all.add(i);
+		return all;
+	}
+	
 	protected boolean converged() throws Exception {
+		if(isCancelled())
+			return true;
 		if(!(this.distributionBuilder instanceof DirectDistributionBuilder))
 			return false;
 		SampledDistribution dist = distributionBuilder.getDistribution();
 		if(dist.getNumSamples() % this.convergenceCheckInterval != 0)
 			return false; // TODO assumes that all algorithms call this method after each step
+		return converged(dist);
+	}
+	
+	/**
+	 * checks whether the given distribution satisfies the convergence criterion (if any)
+	 * @param dist  the distribution to check
+	 * @return true if the criterion is satisfied
+	 * @throws Exception
+	 */
+	protected boolean converged(SampledDistribution dist) throws Exception {
 		// determine convergence based on confidence interval sizes
 		if(confidenceIntervalSizeThreshold != null) {
 			if(!dist.usesConfidenceComputation())
@@ -130,17 +186,44 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	}
 	
 	/**
-	 * polls the results during time-limited inference
-	 * @return
+	 * polls the results during time-limited inference; this never blocks the sampler, as it returns the most
+	 * recent snapshot of the intermediate results (and requests a fresh one)
+	 * @return the snapshot or null if none has been published yet
 	 * @throws Exception 
 	 */
-	public synchronized SampledDistribution pollResults() throws Exception {
-		if(distributionBuilder == null)
-			return null;
-		SampledDistribution dist = distributionBuilder.getDistribution();
-		if(dist == null)
-			return null;
-		return dist.clone();
+	public SampledDistribution pollResults() throws Exception {
+		return intermediateResults.poll();
+	}
+	
+	public IntermediateResults<SampledDistribution> getIntermediateResults() {
+		return intermediateResults;
+	}
+	
+	/**
+	 * replaces the object via which intermediate results are published (e.g. in order to share it with a wrapping inference method)
+	 * @param intermediateResults
+	 */
+	public void setIntermediateResults(IntermediateResults<SampledDistribution> intermediateResults) {
+		this.intermediateResults = intermediateResults;
+	}
+	
+	/**
+	 * sets the token via which inference can be cancelled
+	 * @param token
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+	}
+	
+	/**
+	 * requests that inference be stopped as soon as possible; {@link #infer()} then returns the results obtained thus far
+	 */
+	public void cancel() {
+		cancellationToken.cancel();
+	}
+	
+	public boolean isCancelled() {
+		return cancellationToken.isCancelled();
 	}
 	
 	/**
@@ -209,6 +292,16 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		return -1;		
 	}
 
+	/**
+	 * gets the compiled (array-based) representation of the network, creating it if necessary
+	 * @return the compiled network
+	 */
+	public CompiledNetwork getCompiledNetwork() {
+		if(compiledNet == null)
+			compiledNet = new CompiledNetwork(bn);
+		return compiledNet;
+	}
+	
 	/**
 	 * gets the CPT entry of the given node for the configuration of parents that is provided in the array of domain indices
 	 * @param node
@@ -216,12 +309,17 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	 * @return the probability value
 	 */
 	protected double getCPTProbability(BeliefNode node, int[] nodeDomainIndices) {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		for(int i = 0; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];
-		return cpf.getDouble(addr);
+		return getCPTProbability(nodeIndices.get(node), nodeDomainIndices);
+	}
+	
+	/**
+	 * gets the CPT entry of the node with the given index for the configuration of parents that is provided in the array of domain indices
+	 * @param nodeIdx the index of the node
+	 * @param nodeDomainIndices domain indices for each node in the network (only the parents of the node are required to be set) 
+	 * @return the probability value
+	 */
+	protected double getCPTProbability(int nodeIdx, int[] nodeDomainIndices) {
+		return getCompiledNetwork().getProbability(nodeIdx, nodeDomainIndices);
 	}
 	
 	public void setNumSamples(int numSamples) {
@@ -276,13 +374,37 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		// run inference
 		Stopwatch sw = new Stopwatch();
 		sw.start();
+		intermediateResults.reset();
 		_infer();
 		inferenceTime = sw.getElapsedTimeSecs();
 		
 		report(String.format("total inference time: %fs (initialization: %fs; core %fs)\n", getTotalInferenceTime(), getInitTime(), getInferenceTime()));
 		if(verbose) out.print(report.toString());
 		
-		return distributionBuilder.getDistribution();
+		SampledDistribution dist = distributionBuilder.getDistribution();
+		recordMetrics(dist);
+		intermediateResults.publish(dist);
+		return dist;
+	}
+	
+	/**
+	 * records the metrics of the inference run that was just completed (see {@link Metrics}) 
+	 * @param dist  the distribution that was computed
+	 */
+	protected void recordMetrics(SampledDistribution dist) {
+		String prefix = "inference." + getClass().getSimpleName() + ".";
+		Metrics.record(prefix + "initTime", getInitTime());
+		Metrics.record(prefix + "time", getInferenceTime());
+		Metrics.record(prefix + "networkSize", nodes.length);
+		if(dist != null && dist.steps > 0) {
+			Metrics.increment(prefix + "samples", dist.steps);
+			if(getInferenceTime() > 0)
+				Metrics.record(prefix + "samplesPerSecond", dist.steps / getInferenceTime());
+			if(dist.trials > 0) {
+				Metrics.record(prefix + "trialsPerSample", dist.getTrialsPerStep());
+				Metrics.record(prefix + "rejectionRate", 1.0 - (double)dist.steps / dist.trials);
+			}
+		}
 	}
 	
 	/**
@@ -316,47 +438,24 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	 * @return  the index of the domain element of 'node' that is sampled, or -1 if sampling is impossible because all entries in the relevant column are 0 
 	 */
 	protected int sampleForward(BeliefNode node, int[] nodeDomainIndices) {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		// get the addresses of the first two relevant fields and the difference between them
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];		
-		addr[0] = 0; // (the first element in the index into the domain of the node we are sampling)
-		int realAddr = cpf.addr2realaddr(addr);
-		addr[0] = 1;
-		int diff = cpf.addr2realaddr(addr) - realAddr; // diff is the address difference between two consecutive entries in the relevant column
-		// get probabilities for outcomes
-		double[] cpt_entries = new double[domProd[0].getDomain().getOrder()];
-		double sum = 0;
-		for(int i = 0; i < cpt_entries.length; i++){
-			cpt_entries[i] = cpf.getDouble(realAddr);
-			sum += cpt_entries[i];
-			realAddr += diff;
-		}
-		// if the column contains only zeros, it is an impossible case -> cannot sample
-		if(sum == 0)
-			return -1;
-		return sample(cpt_entries, sum, generator);
+		return sampleForward(nodeIndices.get(node), nodeDomainIndices);
+	}
+	
+	/**
+	 * samples forward, i.e. samples a value for the node with the given index given its parents
+	 * @param nodeIdx  the index of the node for which to sample a value
+	 * @param nodeDomainIndices  array of domain indices for all nodes in the network; the values for the parents of the node must be set already
+	 * @return  the index of the domain element that is sampled, or -1 if sampling is impossible because all entries in the relevant column are 0 
+	 */
+	protected int sampleForward(int nodeIdx, int[] nodeDomainIndices) {
+		return getCompiledNetwork().sampleForward(nodeIdx, nodeDomainIndices, generator);
 	}
 	
 	public double[] getConditionalDistribution(BeliefNode node, int[] nodeDomainIndices) {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		// get the addresses of the first two relevant fields and the difference between them
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];		
-		addr[0] = 0; // (the first element in the index into the domain of the node we are sampling)
-		int realAddr = cpf.addr2realaddr(addr);
-		addr[0] = 1;
-		int diff = cpf.addr2realaddr(addr) - realAddr; // diff is the address difference between two consecutive entries in the relevant column
-		// get probabilities for outcomes
-		double[] cpt_entries = new double[domProd[0].getDomain().getOrder()];
-		for(int i = 0; i < cpt_entries.length; i++){
-			cpt_entries[i] = cpf.getDouble(realAddr);
-			realAddr += diff;
-		}
+		int nodeIdx = nodeIndices.get(node);
+		CompiledNetwork cn = getCompiledNetwork();
+		double[] cpt_entries = new double[cn.domainSizes[nodeIdx]];
+		cn.getConditionalDistribution(nodeIdx, nodeDomainIndices, cpt_entries);
 		return cpt_entries;
 	}
 	
@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.Arrays;
+
+/**
+ * A factor over a set of discrete variables (identified by node indices) whose values
+ * are stored in a dense array.
+ * The layout is row-major, i.e. the last variable in the scope varies fastest.
+ * All operations are carried out iteratively, using index counters.
+ *
+ * @author Dominik Jain
+ */
+public class TableFactor {
+	/**
+	 * the indices of the variables in the factor's scope
+	 */
+	public final int[] vars;
+	/**
+	 * the domain size of each variable in the scope
+	 */
+	public final int[] domSizes;
+	/**
+	 * the address stride of each variable in the scope
+	 */
+	public final int[] strides;
+	public final double[] values;
+
+	/**
+	 * constructs a factor with all values set to 0
+	 * @param vars  the indices of the variables in the scope
+	 * @param domSizes  the domain sizes of the variables
+	 */
+	public TableFactor(int[] vars, int[] domSizes) {
+		this.vars = vars;
+		this.domSizes = domSizes;
+		strides = new int[vars.length];
+		long size = 1;
+		for(int i = vars.length-1; i >= 0; i--) {
+			strides[i] = (int)size;
+			size *= domSizes[i];
+			if(size > Integer.MAX_VALUE)
+				throw new RuntimeException("Factor over " + vars.length + " variables is too large to be represented (" + size + " entries and more)");
+		}
+		values = new double[(int)size];
+	}
+
+	/**
+	 * constructs a factor with all values set to 0
+	 * @param vars  the indices of the variables in the scope
+	 * @param cn  the network from which to obtain the variables' domain sizes
+	 */
+	public TableFactor(int[] vars, CompiledNetwork cn) {
+		this(vars, getDomainSizes(vars, cn));
+	}
+
+	protected static int[] getDomainSizes(int[] vars, CompiledNetwork cn) {
+		int[] domSizes = new int[vars.length];
+		for(int i = 0; i < vars.length; i++)
+			domSizes[i] = cn.domainSizes[vars[i]];
+		return domSizes;
+	}
+
+	/**
+	 * creates a factor from the CPT of the given node, reducing it by the evidence,
+	 * i.e. the factor's scope comprises the non-evidence variables of the CPT's domain product only
+	 * @param cn  the compiled network
+	 * @param nodeIdx  the index of the node whose CPT to use
+	 * @param evidenceDomainIndices  the evidence (-1 for non-evidence variables); may be null
+	 * @return the factor
+	 */
+	public static TableFactor fromCPT(CompiledNetwork cn, int nodeIdx, int[] evidenceDomainIndices) {
+		int[] domProd = cn.getDomainProduct(nodeIdx);
+		int[] cptStrides = cn.getStrides(nodeIdx);
+		double[] cpt = cn.getCPT(nodeIdx);
+		// determine scope and offset
+		int n = 0;
+		int offset = 0;
+		for(int i = 0; i < domProd.length; i++) {
+			int e = evidenceDomainIndices == null ? -1 : evidenceDomainIndices[domProd[i]];
+			if(e == -1)
+				n++;
+			else
+				offset += e * cptStrides[i];
+		}
+		int[] vars = new int[n];
+		int[] srcStrides = new int[n];
+		for(int i = 0, j = 0; i < domProd.length; i++) {
+			if(evidenceDomainIndices == null || evidenceDomainIndices[domProd[i]] == -1) {
+				vars[j] = domProd[i];
+				srcStrides[j++] = cptStrides[i];
+			}
+		}
+		TableFactor f = new TableFactor(vars, cn);
+		// copy values
+		int[] counter = new int[n];
+		int src = offset;
+		for(int i = 0; i < f.values.length; i++) {
+			f.values[i] = cpt[src];
+			for(int d = n-1; d >= 0; d--) {
+				src += srcStrides[d];
+				if(++counter[d] < f.domSizes[d])
+					break;
+				src -= srcStrides[d] * f.domSizes[d];
+				counter[d] = 0;
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * @param var  a variable index
+	 * @return the position of the variable in the factor's scope or -1 if the variable is not in the scope
+	 */
+	public int indexOf(int var) {
+		for(int i = 0; i < vars.length; i++)
+			if(vars[i] == var)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @param f  another factor
+	 * @return for each variable in this factor's scope, the stride of the variable in the other factor (0 if it is not in the other factor's scope)
+	 */
+	protected int[] getMappedStrides(TableFactor f) {
+		int[] ms = new int[vars.length];
+		for(int i = 0; i < vars.length; i++) {
+			int j = f.indexOf(vars[i]);
+			ms[i] = j == -1 ? 0 : f.strides[j];
+		}
+		return ms;
+	}
+
+	/**
+	 * multiplies the values of the given factor into this factor
+	 * @param f  a factor whose scope is a subset of this factor's scope
+	 */
+	public void multiplyIn(TableFactor f) {
+		int[] ms = getMappedStrides(f);
+		int n = vars.length;
+		int[] counter = new int[n];
+		int j = 0;
+		for(int i = 0; i < values.length; i++) {
+			values[i] *= f.values[j];
+			for(int d = n-1; d >= 0; d--) {
+				j += ms[d];
+				if(++counter[d] < domSizes[d])
+					break;
+				j -= ms[d] * domSizes[d];
+				counter[d] = 0;
+			}
+		}
+	}
+
+	/**
+	 * divides this factor by the given factor, where 0/0 is defined as 0
+	 * @param f  a factor whose scope is a subset of this factor's scope
+	 */
+	public void divideBy(TableFactor f) {
+		int[] ms = getMappedStrides(f);
+		int n = vars.length;
+		int[] counter = new int[n];
+		int j = 0;
+		for(int i = 0; i < values.length; i++) {
+			double d = f.values[j];
+			if(d != 0.0)
+				values[i] /= d;
+			else
+				values[i] = 0.0;
+			for(int k = n-1; k >= 0; k--) {
+				j += ms[k];
+				if(++counter[k] < domSizes[k])
+					break;
+				j -= ms[k] * domSizes[k];
+				counter[k] = 0;
+			}
+		}
+	}
+
+	/**
+	 * sums out all variables that are not in the given scope
+	 * @param keepVars  the scope of the resulting factor (a subset of this factor's scope)
+	 * @return the marginal factor
+	 */
+	public TableFactor marginalize(int[] keepVars) {
+		int[] keepDomSizes = new int[keepVars.length];
+		for(int i = 0; i < keepVars.length; i++)
+			keepDomSizes[i] = domSizes[indexOf(keepVars[i])];
+		TableFactor f = new TableFactor(keepVars, keepDomSizes);
+		int[] ms = getMappedStrides(f);
+		int n = vars.length;
+		int[] counter = new int[n];
+		int j = 0;
+		for(int i = 0; i < values.length; i++) {
+			f.values[j] += values[i];
+			for(int d = n-1; d >= 0; d--) {
+				j += ms[d];
+				if(++counter[d] < domSizes[d])
+					break;
+				j -= ms[d] * domSizes[d];
+				counter[d] = 0;
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * sums out a single variable
+	 * @param var  the variable to sum out
+	 * @return the resulting factor
+	 */
+	public TableFactor sumOut(int var) {
+		int[] keepVars = new int[vars.length-1];
+		for(int i = 0, j = 0; i < vars.length; i++)
+			if(vars[i] != var)
+				keepVars[j++] = vars[i];
+		return marginalize(keepVars);
+	}
+
+	/**
+	 * @param var  a variable in the factor's scope
+	 * @return the (unnormalized) marginal distribution over the variable
+	 */
+	public double[] getMarginal(int var) {
+		return marginalize(new int[]{var}).values;
+	}
+
+	/**
+	 * sets all values to 1
+	 */
+	public void setUniform() {
+		Arrays.fill(values, 1.0);
+	}
+
+	/**
+	 * normalizes the values such that they sum to 1 (unless they sum to 0)
+	 * @return the sum of the values prior to normalization
+	 */
+	public double normalize() {
+		double sum = 0;
+		for(double v : values)
+			sum += v;
+		if(sum != 0.0 && sum != 1.0)
+			for(int i = 0; i < values.length; i++)
+				values[i] /= sum;
+		return sum;
+	}
+
+	/**
+	 * sets all entries that are inconsistent with the given value of the given variable to 0
+	 * @param var  a variable in the factor's scope
+	 * @param domIdx  the value of the variable
+	 */
+	public void applyEvidence(int var, int domIdx) {
+		int k = indexOf(var);
+		int stride = strides[k], domSize = domSizes[k];
+		for(int i = 0; i < values.length; i++)
+			if((i / stride) % domSize != domIdx)
+				values[i] = 0.0;
+	}
+
+	public String toString() {
+		return "F" + Arrays.toString(vars);
+	}
+}
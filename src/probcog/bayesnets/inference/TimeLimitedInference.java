@@ -22,6 +22,8 @@ import java.util.Vector;
 
 import probcog.inference.BasicSampledDistribution;
 import probcog.inference.IParameterHandler;
+import probcog.inference.IResultListener;
+import probcog.inference.IntermediateResults;
 import probcog.inference.ParameterHandler;
 import probcog.inference.BasicSampledDistribution.DistributionComparison;
 import probcog.inference.BasicSampledDistribution.DistributionEntryComparison;
@@ -29,7 +31,13 @@ import probcog.inference.BasicSampledDistribution.MeanSquaredError;
 
 import edu.tum.cs.util.Stopwatch;
 
-public class TimeLimitedInference implements IParameterHandler {
+/**
+ * Runs an inference method for a limited amount of time, processing the intermediate results
+ * that the method publishes at regular intervals. When the time limit is reached, the method is
+ * cancelled cooperatively, i.e. it is asked to stop and return the results obtained thus far.
+ * @author Dominik Jain
+ */
+public class TimeLimitedInference implements IParameterHandler, IResultListener<SampledDistribution> {
 
 	protected ITimeLimitedInference inference;
 	protected double time, interval;
@@ -43,6 +51,8 @@ public class TimeLimitedInference implements IParameterHandler {
 	protected ParameterHandler paramHandler;
 	protected boolean verbose = true;
 	protected int[] evidenceDomainIndices = null;
+	protected Stopwatch sw;
+	protected int numIntermediateResults;
 
 	public TimeLimitedInference(ITimeLimitedInference inference, double time, double interval) throws Exception {
 		this.inference = inference;
@@ -65,39 +75,46 @@ public class TimeLimitedInference implements IParameterHandler {
 	}
 	
 	public SampledDistribution run() throws Exception {
-		// start the inference thread
-		thread = new InferenceThread();
-		thread.start();
-		// wait, repeatedly polling intermediate results
-		Stopwatch sw = new Stopwatch();
+		// have the inference method publish intermediate results at the given interval
+		IntermediateResults<SampledDistribution> intermediateResults = inference.getIntermediateResults();
+		intermediateResults.setInterval(interval);
+		intermediateResults.addListener(this);
+		numIntermediateResults = 0;
+		sw = new Stopwatch();
 		sw.start();
-		boolean useIntervals = true;
-		if(!useIntervals) 
-			Thread.sleep((int)(1000*time));
-		else {
-			int numSteps = (int)(time / interval);
-			for(int i = 1; i <= numSteps && thread.isAlive(); i++) {							
-				Thread.sleep((int)(1000*interval));
-				if(verbose) System.out.printf("polling results after %fs (interval %d)...\n", sw.getElapsedTimeSecs(), i);
-				SampledDistribution dist = pollResults(true);
-				if(verbose && dist != null) System.out.printf("%d samples taken\n", dist.steps);
-				if(referenceDistribution != null) {
-					double mse;
-					if(dist == null)
-						mse = Double.POSITIVE_INFINITY;
-					else {						
-						DistributionComparison dc = doComparison(dist);
-						mse = dc.getResult(MeanSquaredError.class);
-					}
-					MSEs.add(mse);					
-				}
+		try {
+			// run the inference thread until it terminates or the time limit is reached
+			thread = new InferenceThread();
+			thread.start();
+			thread.join((long)(1000*time));
+			if(thread.isAlive()) {
+				if(verbose) System.out.printf("time limit reached after %fs, stopping inference...\n", sw.getElapsedTimeSecs());
+				inference.cancel();
+				thread.join();
 			}
 		}
-		// get final results, terminating the inference thread if it is still running
-		SampledDistribution results = pollResults(false);
-		if(thread.isAlive())
-			thread.stop();
-		return results;
+		finally {
+			intermediateResults.removeListener(this);
+			intermediateResults.setInterval(0);
+		}
+		if(thread.exception != null)
+			throw thread.exception;
+		return thread.results;
+	}
+	
+	/**
+	 * processes the intermediate results published by the inference method (called in the inference thread)
+	 */
+	public void intermediateResults(SampledDistribution dist) throws Exception {
+		++numIntermediateResults;
+		if(verbose) {
+			System.out.printf("results after %fs (interval %d): %d samples taken\n", sw.getElapsedTimeSecs(), numIntermediateResults, dist.steps);
+			printResults(dist);
+		}
+		if(referenceDistribution != null) {
+			DistributionComparison dc = doComparison(dist);
+			MSEs.add(dc.getResult(MeanSquaredError.class));
+		}
 	}
 	
 	/**
@@ -118,8 +135,14 @@ public class TimeLimitedInference implements IParameterHandler {
 		return dc;
 	}
 	
+	/**
+	 * gets the most recent intermediate results without interrupting the inference method
+	 * @param allowPrint  whether to print the results (if verbose)
+	 * @return the results or null if none are available yet
+	 * @throws Exception
+	 */
 	public SampledDistribution pollResults(boolean allowPrint) throws Exception {
-		SampledDistribution dist = thread.pollResults();
+		SampledDistribution dist = inference.pollResults();
 		if(allowPrint && verbose && dist != null)
 			printResults(dist);
 		return dist;
@@ -138,19 +161,17 @@ public class TimeLimitedInference implements IParameterHandler {
 	}
 
 	protected class InferenceThread extends Thread {
+		protected SampledDistribution results = null;
+		protected Exception exception = null;
 		
 		public void run() {
 			try {
-				inference.infer();			
+				results = inference.infer();
 			}
 			catch(Exception e) {
-				throw new RuntimeException(e);
+				exception = e;
 			}			
 		}
-		
-		public SampledDistribution pollResults() throws Exception {
-			return inference.pollResults();
-		}
 	}
 
 	@Override
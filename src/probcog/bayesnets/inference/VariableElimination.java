@@ -1,283 +1,262 @@
 /*******************************************************************************
  * Copyright (C) 2010-2012 Dominik Jain.
- * 
+ *
  * This file is part of ProbCog.
- * 
+ *
  * ProbCog is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
  * the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- * 
+ *
  * ProbCog is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
  * GNU General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License
  * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.Vector;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
 
-import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
-import edu.ksu.cis.bnj.ver3.core.CPT;
-import edu.ksu.cis.bnj.ver3.core.values.ValueDouble;
 import edu.tum.cs.util.Stopwatch;
 import edu.tum.cs.util.StringTool;
 
 /**
- * The variable elimination algorithm for exact inference in Bayesian networks (see, e.g., AIMA ch. 14)
+ * The variable elimination algorithm for exact inference in Bayesian networks (see, e.g., AIMA ch. 14).
+ * Rather than running a separate elimination for each query variable, the factors are
+ * arranged in a bucket tree (according to an elimination ordering that is computed using
+ * a greedy heuristic), such that the marginals of all query variables are obtained
+ * by a single upward (elimination) pass and a single downward (distribution) pass.
+ * Only nodes that are ancestors of query or evidence variables are considered (the
+ * CPTs of all other nodes sum out to 1).
  * @author Dominik Jain
  */
 public class VariableElimination extends Sampler {
-	protected int[] nodeOrder;
-	protected Stopwatch timer;
-	protected int[] nodeDomainIndices;
 	protected SampledDistribution dist;
-	
+	protected EliminationOrdering.Heuristic heuristic = EliminationOrdering.Heuristic.MinFill;
+	protected CompiledNetwork cn;
+	/**
+	 * the elimination ordering (containing the relevant non-evidence variables only)
+	 */
+	protected int[] order;
+	/**
+	 * for each node, its position in the elimination ordering (-1 if it is not eliminated)
+	 */
+	protected int[] position;
+	/**
+	 * for each bucket, the factors (reduced CPTs) that are initially assigned to it
+	 */
+	protected Vector<Vector<TableFactor>> bucketFactors;
+	/**
+	 * factors without any non-evidence variables
+	 */
+	protected Vector<TableFactor> constantFactors;
+
 	public VariableElimination(BeliefNetworkEx bn) throws Exception {
 		super(bn);
-		nodeOrder = bn.getTopologicalOrder();
+		paramHandler.add("heuristic", "setHeuristic");
 	}
 
-	protected class Factor {
-		CPF cpf;
-		
-		public Factor(BeliefNode n) {
-			cpf = n.getCPF();
-			BeliefNode[] domprod = cpf.getDomainProduct();
-			for(int i = 0; i < domprod.length; i++) {
-				if(evidenceDomainIndices[getNodeIndex(domprod[i])] != 0) {
-					cpf = removeEvidence(cpf);
-					break;	
-				}
-			}
-		}
-		
-		protected CPF removeEvidence(CPF cpf) {
-			BeliefNode[] domprod = cpf.getDomainProduct();
-			Vector<BeliefNode> domprod2 = new Vector<BeliefNode>();
-			for(int i = 0; i < domprod.length; i++)
-				if(evidenceDomainIndices[getNodeIndex(domprod[i])] == -1)
-					domprod2.add(domprod[i]);
-			CPF cpf2 = new CPT(domprod2.toArray(new BeliefNode[domprod2.size()]));
-			int[] addr = new int[domprod.length];
-			int[] addr2 = new int[domprod2.size()];
-			removeEvidence(cpf, cpf2, 0, addr, 0, addr2);
-			return cpf2;
-		}
-		
-		protected void removeEvidence(CPF cpf, CPF cpf2, int i, int[] addr, int j, int[] addr2) {
-			if(i == addr.length) {
-				cpf2.put(addr2, cpf.get(addr));
-				return;
-			}
-			
-			BeliefNode[] domprod = cpf.getDomainProduct();
-			BeliefNode[] domprod2 = cpf2.getDomainProduct();			
-			BeliefNode node = domprod[i];
-			boolean transfer = false;
-			if(j < domprod2.length) 
-				transfer = domprod2[j] == domprod[i];
-			int evidence = evidenceDomainIndices[getNodeIndex(node)];
-			if(evidence != -1) { // this should never happen
-				addr[i] = evidence;
-				if(transfer)
-					addr2[j] = evidence; 
-				removeEvidence(cpf, cpf2, i+1, addr, transfer ? j+1 : j, addr2);
-			}
-			else {
-				int domSize = node.getDomain().getOrder();
-				for(int domIdx = 0; domIdx < domSize; domIdx++) {
-					addr[i] = domIdx;
-					if(transfer)
-						addr2[j] = domIdx; 
-					removeEvidence(cpf, cpf2, i+1, addr, transfer ? j+1 : j, addr2);
-				}
-			}
-		}
-		
-		public Factor(CPF cpf) {
-			this.cpf = cpf;
-		}
-		
-		public double getValue(int[] nodeDomainIndices) {
-			BeliefNode[] domProd = cpf.getDomainProduct();
-			int[] addr = new int[domProd.length];
-			for(int i = 0; i < addr.length; i++)
-				addr[i] = nodeDomainIndices[getNodeIndex(domProd[i])];
-			return cpf.getDouble(addr);
-		}
-		
-		public Factor sumOut(BeliefNode n) {			
-			BeliefNode[] domprod = cpf.getDomainProduct();
-			BeliefNode[] domprod2 = new BeliefNode[domprod.length-1];
-			int j = 0;
-			for(int i = 0; i < domprod.length; i++)
-				if(domprod[i] != n)
-					domprod2[j++] = domprod[i];
-			CPF cpf2 = new CPT(domprod2);
-			int[] addr = new int[domprod.length];
-			int[] addr2 = new int[domprod2.length];
-			sumOut(cpf2, n, 0, addr, 0, addr2);
-			return new Factor(cpf2);
-		}
-		
-		protected void sumOut(CPF cpf2, BeliefNode n, int i, int[] addr, int j, int[] addr2) {
-			if(i == addr.length) {
-				int realaddr2 = cpf2.addr2realaddr(addr2);
-				double v = cpf2.getDouble(realaddr2);
-				v += cpf.getDouble(addr);
-				cpf2.put(realaddr2, new ValueDouble(v));
-				return;
-			}
-						
-			BeliefNode node = this.cpf.getDomainProduct()[i];
-			int evidence = evidenceDomainIndices[getNodeIndex(node)];
-			if(evidence != -1) { // this should never happen
-				addr[i] = evidence;
-				if(node != n)
-					addr2[j] = evidence; 
-				sumOut(cpf2, n, i+1, addr, node == n ? j : j+1, addr2);
-			}
-			else {
-				int domSize = node.getDomain().getOrder();
-				for(int domIdx = 0; domIdx < domSize; domIdx++) {
-					addr[i] = domIdx;
-					if(node != n)
-						addr2[j] = domIdx; 
-					sumOut(cpf2, n, i+1, addr, node == n ? j : j+1, addr2);
-				}
-			}
-		}
-		
-		public String toString() {
-			return "F(" + StringTool.join(",", cpf.getDomainProduct()) + ")";
-		}
+	/**
+	 * sets the heuristic with which the elimination ordering is computed
+	 * @param name  one of the names in {@link EliminationOrdering.Heuristic}
+	 */
+	public void setHeuristic(String name) {
+		heuristic = EliminationOrdering.Heuristic.valueOf(name);
 	}
 
-	protected Factor join(Iterable<Factor> factors) {	
-		HashSet<BeliefNode> domain = new HashSet<BeliefNode>();
-		for(Factor f : factors) {
-			for(BeliefNode n : f.cpf.getDomainProduct())
-				domain.add(n);
-		}
-		BeliefNode[] domProd = domain.toArray(new BeliefNode[domain.size()]);
-		CPF cpf;
-		try {
-			cpf = new CPT(domProd);
-		} catch (OutOfMemoryError e) {
-			e.printStackTrace();
-			double size = 1;
-			for(int i = 0; i < domProd.length; i++)
-				size *= domProd[i].getDomain().getOrder();
-			throw new RuntimeException("Out of memory: Needed at least " + size*8 + " bytes to represent function");
+	/**
+	 * a node of the bucket tree
+	 */
+	protected class Bucket {
+		public int index;
+		/**
+		 * the product of all factors in the bucket (and, after the downward pass, the belief)
+		 */
+		public TableFactor product;
+		/**
+		 * the message sent to the parent bucket
+		 */
+		public TableFactor upMessage;
+		public Bucket parent;
+		public ArrayList<Bucket> children = new ArrayList<Bucket>();
+		/**
+		 * whether the belief of this bucket is required
+		 */
+		public boolean needed = false;
+
+		public Bucket(int index) {
+			this.index = index;
 		}
-		int[] addr = new int[domProd.length];
-		fillCPF(factors, cpf, 0, addr);
-		return new Factor(cpf);
 	}
-	
-	protected void fillCPF(Iterable<Factor> factors, CPF cpf, int i, int[] addr) {
-		if(i == addr.length) {
-			double value = 1.0;
-			for(Factor f : factors) {
-				value *= f.getValue(nodeDomainIndices);
-			}
-			try {
-				cpf.put(addr, new ValueDouble(value));
-			}
-			catch(Exception e) {
-				System.err.println(StringTool.join(", ", cpf.getDomainProduct()));
-				throw new RuntimeException(e);
-			}
-			return;
-		}
-		BeliefNode[] domProd = cpf.getDomainProduct(); 
-		int domSize = domProd[i].getDomain().getOrder();
-		for(int j = 0; j < domSize; j++) {
-			addr[i] = j;
-			nodeDomainIndices[getNodeIndex(domProd[i])] = j;
-			fillCPF(factors, cpf, i+1, addr);
+
+	@Override
+	protected void _initialize() throws Exception {
+		cn = getCompiledNetwork();
+		int n = cn.numNodes;
+		// determine relevant nodes (ancestors of query and evidence variables)
+		boolean[] relevant = new boolean[n];
+		Vector<Integer> stack = new Vector<Integer>();
+		for(int i = 0; i < n; i++)
+			if(evidenceDomainIndices[i] != -1)
+				stack.add(i);
+		stack.addAll(getQueryVarsOrAll());
+		while(!stack.isEmpty()) {
+			int i = stack.remove(stack.size()-1);
+			if(relevant[i])
+				continue;
+			relevant[i] = true;
+			int[] domProd = cn.getDomainProduct(i);
+			for(int j = 1; j < domProd.length; j++)
+				stack.add(domProd[j]);
 		}
-	}
-	
-	protected Vector<Factor> sumout(Vector<Factor> factors, BeliefNode n) {
-		Vector<Factor> newFacs = new Vector<Factor>();
-		Vector<Factor> joinFacs = new Vector<Factor>();
-		for(Factor f : factors) {
-			BeliefNode[] domProd = f.cpf.getDomainProduct();
-			boolean sumover = false;
-			for(int i = 0; i < domProd.length; i++)
-				if(domProd[i] == n)
-					sumover = true;
-			if(sumover)
-				joinFacs.add(f);
+		// compute elimination ordering
+		boolean[] excluded = new boolean[n];
+		for(int i = 0; i < n; i++)
+			excluded[i] = !relevant[i] || evidenceDomainIndices[i] != -1;
+		order = new EliminationOrdering(cn, excluded, heuristic).getOrder();
+		position = new int[n];
+		for(int i = 0; i < n; i++)
+			position[i] = -1;
+		for(int i = 0; i < order.length; i++)
+			position[order[i]] = i;
+		// assign the reduced CPTs to buckets
+		bucketFactors = new Vector<Vector<TableFactor>>(order.length);
+		for(int i = 0; i < order.length; i++)
+			bucketFactors.add(new Vector<TableFactor>());
+		constantFactors = new Vector<TableFactor>();
+		for(int i = 0; i < n; i++) {
+			if(!relevant[i])
+				continue;
+			TableFactor f = TableFactor.fromCPT(cn, i, evidenceDomainIndices);
+			int b = getBucketIndex(f.vars);
+			if(b == -1)
+				constantFactors.add(f);
 			else
-				newFacs.add(f);
+				bucketFactors.get(b).add(f);
 		}
-		Factor joinedFac = join(joinFacs);
-		if(debug) out.println("Summing out " + n + " from " + joinedFac);
-		newFacs.add(joinedFac.sumOut(n));
-		return newFacs;
+		if(verbose) out.printf("eliminating %d variables (heuristic: %s)\n", order.length, heuristic.toString());
 	}
-	
-	protected void computeMarginal(BeliefNode Q) {
-		Vector<Factor> factors = new Vector<Factor>();
-		for(int i = nodeOrder.length-1; i >= 0; i--) {
-			if(!debug) out.printf("  %s  %d \r", Q.getName(), i);
-			int nodeIdx = nodeOrder[i];
-			BeliefNode node = nodes[nodeIdx];
-			if(debug) out.println("Current node: " + node);			
-			
-			factors.add(new Factor(node));
-			if(debug) out.println(factors);
-			
-			if(evidenceDomainIndices[nodeIdx] == -1 && node != Q)				
-				factors = sumout(factors, node);			
-		}
-		if(!debug) out.println();
-		
-		if(debug) out.printf("%d final factors: %s\n", factors.size(), StringTool.join(", ", factors));
-		
-		// save results to distribution
-		int nodeIdx = getNodeIndex(Q);
-		double[] marginal = new double[Q.getDomain().getOrder()];
-		double Z = 0.0;
-		for(int i = 0; i < marginal.length; i++) {
-			nodeDomainIndices[nodeIdx] = i;
-			marginal[i] = 1.0;
-			for(Factor f : factors) {			
-				marginal[i] *= f.getValue(nodeDomainIndices);
-			}
-			//out.println(factors.get(0).getValue(nodeDomainIndices));
-			Z += marginal[i];
-		}
-		for(int i = 0; i < marginal.length; i++)
-			marginal[i] /= Z;
-		dist.values[nodeIdx] = marginal;
+
+	/**
+	 * @param vars  a factor's scope
+	 * @return the index of the bucket of the variable that is eliminated first among the given variables (or -1 if there are no variables)
+	 */
+	protected int getBucketIndex(int[] vars) {
+		int b = -1;
+		for(int v : vars)
+			if(b == -1 || position[v] < b)
+				b = position[v];
+		return b;
 	}
-	
+
+	protected TableFactor computeProduct(Vector<TableFactor> factors) {
+		LinkedHashSet<Integer> scope = new LinkedHashSet<Integer>();
+		for(TableFactor f : factors)
+			for(int v : f.vars)
+				scope.add(v);
+		int[] vars = new int[scope.size()];
+		int i = 0;
+		for(Integer v : scope)
+			vars[i++] = v;
+		TableFactor product = new TableFactor(vars, cn);
+		product.setUniform();
+		for(TableFactor f : factors)
+			product.multiplyIn(f);
+		return product;
+	}
+
+	@Override
 	public void _infer() throws Exception {
 		Stopwatch sw = new Stopwatch();
-		
 		sw.start();
 
+		// upward pass: eliminate the variables in order, sending messages to parent buckets
+		Bucket[] buckets = new Bucket[order.length];
+		for(int b = 0; b < order.length; b++)
+			buckets[b] = new Bucket(b);
+		double logZ = 0;
+		int maxFactorSize = 0;
+		for(TableFactor f : constantFactors)
+			logZ += Math.log(f.values[0]);
+		for(int b = 0; b < order.length; b++) {
+			Bucket bucket = buckets[b];
+			Vector<TableFactor> factors = new Vector<TableFactor>(bucketFactors.get(b));
+			for(Bucket child : bucket.children)
+				factors.add(child.upMessage);
+			bucket.product = computeProduct(factors);
+			maxFactorSize = Math.max(maxFactorSize, bucket.product.values.length);
+			if(debug) out.println("Summing out " + nodes[order[b]] + " from " + StringTool.join(", ", factors));
+			TableFactor msg = bucket.product.sumOut(order[b]);
+			logZ += Math.log(msg.normalize());
+			bucket.upMessage = msg;
+			int parent = getBucketIndex(msg.vars);
+			if(parent != -1) {
+				bucket.parent = buckets[parent];
+				buckets[parent].children.add(bucket);
+			}
+		}
+		if(Double.isInfinite(logZ) || Double.isNaN(logZ))
+			throw new Exception("The evidence has probability 0");
+
+		// determine the buckets whose beliefs are required
+		Collection<Integer> queries = getQueryVarsOrAll();
+		for(Integer q : queries) {
+			if(position[q] == -1)
+				continue;
+			for(Bucket b = buckets[position[q]]; b != null && !b.needed; b = b.parent)
+				b.needed = true;
+		}
+
+		// downward pass: roots first, distributing messages to the buckets that are needed
+		for(int b = order.length-1; b >= 0; b--) {
+			Bucket bucket = buckets[b];
+			if(!bucket.needed)
+				continue;
+			bucket.product.normalize();
+			for(Bucket child : bucket.children) {
+				if(!child.needed)
+					continue;
+				TableFactor msg = bucket.product.marginalize(child.upMessage.vars);
+				msg.divideBy(child.upMessage);
+				msg.normalize();
+				child.product.multiplyIn(msg);
+			}
+		}
+
+		// save results to distribution
 		dist = createDistribution();
 		dist.Z = 1.0;
-		nodeDomainIndices = evidenceDomainIndices.clone();
-		for(Integer nodeIdx : queryVars)
-			computeMarginal(nodes[nodeIdx]);		
+		for(Integer q : queries) {
+			int nodeIdx = q;
+			double[] marginal;
+			if(position[nodeIdx] == -1) {
+				marginal = new double[cn.domainSizes[nodeIdx]];
+				marginal[evidenceDomainIndices[nodeIdx]] = 1.0;
+			}
+			else {
+				marginal = buckets[position[nodeIdx]].product.getMarginal(nodeIdx);
+				double Z = 0.0;
+				for(int i = 0; i < marginal.length; i++)
+					Z += marginal[i];
+				for(int i = 0; i < marginal.length; i++)
+					marginal[i] /= Z;
+			}
+			dist.values[nodeIdx] = marginal;
+		}
 		((ImmediateDistributionBuilder)distributionBuilder).setDistribution(dist);
-		
+
 		sw.stop();
+		report(String.format("variable elimination: %d buckets, largest factor size %d, log P(evidence) = %f\n", order.length, maxFactorSize, logZ));
 	}
-	
+
 	protected IDistributionBuilder createDistributionBuilder() {
 		return new ImmediateDistributionBuilder();
 	}
@@ -60,6 +60,12 @@ public class WeightedSample implements Cloneable{
 	 * the number of operations used to obtain the sample
 	 */
 	public int operations;	
+	/**
+	 * optional Rao-Blackwellization data: for each node (indexed as in the network), the (normalized) conditional 
+	 * distribution over its domain which is to be counted instead of the sampled value; may be null, and entries for 
+	 * which the sampled value is to be counted may be null
+	 */
+	public double[][] conditionals = null;
 
 	/**
 	 * Constructs a weighted sample from given node value mapping and
@@ -201,6 +207,12 @@ public class WeightedSample implements Cloneable{
 	public synchronized WeightedSample clone() throws CloneNotSupportedException {
 		WeightedSample clone = (WeightedSample)super.clone();
 		clone.nodeDomainIndices = this.nodeDomainIndices.clone();
+		if(conditionals != null) {
+			clone.conditionals = new double[conditionals.length][];
+			for(int i = 0; i < conditionals.length; i++)
+				if(conditionals[i] != null)
+					clone.conditionals[i] = conditionals[i].clone();
+		}
 		return clone;
 	}
 
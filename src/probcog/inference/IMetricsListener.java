@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.inference;
+
+/**
+ * Listener that is notified whenever a value is recorded for a metric (see {@link Metrics}).
+ * @author Dominik Jain
+ */
+public interface IMetricsListener {
+	/**
+	 * is called (in the thread that recorded the value) whenever a counter is incremented or a value is added to a histogram;
+	 * implementations must be thread-safe and should return quickly
+	 * @param metric  the metric that was updated
+	 * @param value  the amount by which the counter was incremented or the value that was added to the histogram
+	 */
+	public void metricRecorded(Metrics.Metric metric, double value);
+}
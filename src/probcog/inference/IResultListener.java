@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.inference;
+
+/**
+ * Listener for the intermediate results of an anytime inference procedure.
+ * @author Dominik Jain
+ */
+public interface IResultListener<T> {
+	/**
+	 * is called (in the inference thread) whenever new intermediate results have been published
+	 * @param results  the results, which are not modified afterwards by the inference procedure and must not be modified by the listener
+	 */
+	public void intermediateResults(T results) throws Exception;
+}
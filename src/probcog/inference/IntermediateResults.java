@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.inference;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Manages the intermediate results of an anytime inference procedure, which are made available
+ * to other threads as snapshots. A snapshot is created by the inference thread itself (whenever
+ * {@link #isDue()} indicates that one is due) and then published by replacing a volatile reference,
+ * so neither polling for results nor publishing them ever requires the inference procedure to
+ * be locked.
+ * Snapshots are due at regular intervals (if an interval is set) and after each poll, i.e. a poll
+ * returns the most recent snapshot and requests a fresh one. Listeners are notified of each
+ * snapshot as it is published.
+ * @author Dominik Jain
+ */
+public class IntermediateResults<T> {
+	protected volatile T snapshot = null;
+	protected volatile boolean requested = false;
+	/**
+	 * the interval in nanoseconds between two snapshots (0 = snapshots on request only)
+	 */
+	protected volatile long interval = 0;
+	protected long nextSnapshotTime = 0;
+	protected CopyOnWriteArrayList<IResultListener<T>> listeners = new CopyOnWriteArrayList<IResultListener<T>>();
+	
+	/**
+	 * @param seconds  the time in seconds between two snapshots (0 = snapshots are created only when results are polled)
+	 */
+	public void setInterval(double seconds) {
+		interval = (long)(seconds * 1e9);
+		nextSnapshotTime = System.nanoTime() + interval;
+	}
+	
+	public void addListener(IResultListener<T> l) {
+		listeners.add(l);
+	}
+	
+	public void removeListener(IResultListener<T> l) {
+		listeners.remove(l);
+	}
+	
+	/**
+	 * @return true if the inference thread should publish a snapshot of its current results
+	 */
+	public boolean isDue() {
+		return requested || (interval > 0 && System.nanoTime() >= nextSnapshotTime);
+	}
+	
+	/**
+	 * publishes a snapshot of the current results, notifying all listeners (to be called by the inference thread);
+	 * publishing the current snapshot again has no effect
+	 * @param results  the snapshot, which must not be modified afterwards
+	 * @throws Exception  if a listener fails
+	 */
+	public void publish(T results) throws Exception {
+		if(results == snapshot)
+			return;
+		requested = false;
+		nextSnapshotTime = System.nanoTime() + interval;
+		snapshot = results;
+		for(IResultListener<T> l : listeners)
+			l.intermediateResults(results);
+	}
+	
+	/**
+	 * gets the most recently published snapshot and requests a fresh one
+	 * @return the snapshot or null if none has been published yet
+	 */
+	public T poll() {
+		requested = true;
+		return snapshot;
+	}
+	
+	/**
+	 * discards the current snapshot (e.g. when inference is restarted)
+	 */
+	public void reset() {
+		snapshot = null;
+		requested = false;
+		nextSnapshotTime = System.nanoTime() + interval;
+	}
+}
@@ -0,0 +1,384 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.inference;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Registry of the runtime metrics of grounding and inference procedures (e.g. grounding times, network sizes,
+ * sampling rates), which are collected as counters and histograms. The metrics can be observed by registering
+ * a listener and, if enabled, via JMX (as MBeans with object names of the form 
+ * <code>probcog:type=Histogram,scope=&lt;scope&gt;,name=&lt;name&gt;</code>).
+ * <p>Metrics are recorded in the scope of the current thread (e.g. the name of the model that is being
+ * queried in the service), which is inherited by threads the current thread starts, such that the same metric
+ * (e.g. the grounding time) can be analyzed separately for each model.</p>
+ * @author Dominik Jain
+ */
+public class Metrics {
+	protected static final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+	protected static final CopyOnWriteArrayList<IMetricsListener> listeners = new CopyOnWriteArrayList<IMetricsListener>();
+	protected static final InheritableThreadLocal<String> scope = new InheritableThreadLocal<String>();
+	protected static boolean jmxEnabled = false;
+	protected static final Pattern plainObjectNameValue = Pattern.compile("[\\w.\\-]*");
+	
+	/**
+	 * base class for metrics
+	 */
+	public static abstract class Metric {
+		protected String scope, name;
+		
+		protected Metric(String scope, String name) {
+			this.scope = scope;
+			this.name = name;
+		}
+		
+		/**
+		 * @return the scope in which the metric was recorded (or null if it was recorded outside of any scope)
+		 */
+		public String getScope() {
+			return scope;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		protected abstract Object getMBean();
+		
+		protected abstract String getType();
+		
+		@Override
+		public String toString() {
+			return scope == null ? name : scope + "/" + name;
+		}
+	}
+	
+	public interface CounterMBean {
+		public long getValue();
+		public void reset();
+	}
+	
+	/**
+	 * a metric that counts events (e.g. the number of samples drawn)
+	 */
+	public static class Counter extends Metric implements CounterMBean {
+		protected AtomicLong value = new AtomicLong();
+		
+		protected Counter(String scope, String name) {
+			super(scope, name);
+		}
+		
+		public void increment(long amount) {
+			value.addAndGet(amount);
+			notifyListeners(this, amount);
+		}
+		
+		public long getValue() {
+			return value.get();
+		}
+		
+		public void reset() {
+			value.set(0);
+		}
+		
+		@Override
+		protected Object getMBean() {
+			return new StandardMBean(this, CounterMBean.class, false);
+		}
+		
+		@Override
+		protected String getType() {
+			return "Counter";
+		}
+	}
+	
+	public interface HistogramMBean {
+		public long getCount();
+		public double getTotal();
+		public double getMean();
+		public double getMin();
+		public double getMax();
+		public double getLast();
+		public double getMedian();
+		public double getPercentile95();
+		public void reset();
+	}
+	
+	/**
+	 * a metric that collects the distribution of recorded values (e.g. times or sizes); 
+	 * apart from summary statistics, the values are counted in buckets whose bounds are powers of two, 
+	 * from which quantiles are approximated
+	 */
+	public static class Histogram extends Metric implements HistogramMBean {
+		protected static final int EXPONENT_OFFSET = 64;
+		protected long count;
+		protected double total, min, max, last;
+		/**
+		 * bucket i counts the values in [2^(i-1-EXPONENT_OFFSET), 2^(i-EXPONENT_OFFSET)); bucket 0 counts all values below 2^-EXPONENT_OFFSET (including zero and negative values)
+		 */
+		protected long[] buckets = new long[2 * EXPONENT_OFFSET];
+		
+		protected Histogram(String scope, String name) {
+			super(scope, name);
+			reset();
+		}
+		
+		public void record(double value) {
+			synchronized(this) {
+				count++;
+				total += value;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+				last = value;
+				buckets[getBucket(value)]++;
+			}
+			notifyListeners(this, value);
+		}
+		
+		protected static int getBucket(double value) {
+			if(!(value > 0))
+				return 0;
+			int i = Math.getExponent(value) + 1 + EXPONENT_OFFSET;
+			return Math.max(0, Math.min(i, 2 * EXPONENT_OFFSET - 1));
+		}
+		
+		/**
+		 * approximates a quantile of the recorded values by the upper bound of the bucket that contains it
+		 * @param q  the quantile (between 0 and 1)
+		 * @return the approximate quantile (which never exceeds the maximum recorded value) or NaN if no values were recorded
+		 */
+		public synchronized double getQuantile(double q) {
+			if(count == 0)
+				return Double.NaN;
+			long rank = (long)Math.ceil(q * count);
+			long n = 0;
+			for(int i = 0; i < buckets.length; i++) {
+				n += buckets[i];
+				if(n >= rank && n > 0)
+					return Math.max(min, Math.min(max, Math.scalb(1.0, i - EXPONENT_OFFSET)));
+			}
+			return max;
+		}
+		
+		public synchronized long getCount() {
+			return count;
+		}
+		
+		public synchronized double getTotal() {
+			return total;
+		}
+		
+		public synchronized double getMean() {
+			return count == 0 ? Double.NaN : total / count;
+		}
+		
+		public synchronized double getMin() {
+			return count == 0 ? Double.NaN : min;
+		}
+		
+		public synchronized double getMax() {
+			return count == 0 ? Double.NaN : max;
+		}
+		
+		public synchronized double getLast() {
+			return count == 0 ? Double.NaN : last;
+		}
+		
+		public double getMedian() {
+			return getQuantile(0.5);
+		}
+		
+		public double getPercentile95() {
+			return getQuantile(0.95);
+		}
+		
+		public synchronized void reset() {
+			count = 0;
+			total = 0;
+			min = Double.POSITIVE_INFINITY;
+			max = Double.NEGATIVE_INFINITY;
+			last = 0;
+			Arrays.fill(buckets, 0);
+		}
+		
+		@Override
+		protected Object getMBean() {
+			return new StandardMBean(this, HistogramMBean.class, false);
+		}
+		
+		@Override
+		protected String getType() {
+			return "Histogram";
+		}
+	}
+	
+	/**
+	 * sets the scope in which the current thread (and any threads it subsequently starts) records metrics
+	 * @param newScope  the scope (e.g. a model name) or null for no scope
+	 * @return the previous scope (which should be restored once the current task has been completed)
+	 */
+	public static String setScope(String newScope) {
+		String prev = scope.get();
+		scope.set(newScope);
+		return prev;
+	}
+	
+	public static String getScope() {
+		return scope.get();
+	}
+	
+	/**
+	 * gets the counter with the given name in the current thread's scope, creating it if necessary
+	 * @param name
+	 * @return the counter
+	 */
+	public static Counter getCounter(String name) {
+		String s = scope.get();
+		String key = "Counter:" + (s == null ? name : s + "/" + name);
+		Metric m = metrics.get(key);
+		if(m == null)
+			m = register(key, new Counter(s, name));
+		return (Counter)m;
+	}
+	
+	/**
+	 * gets the histogram with the given name in the current thread's scope, creating it if necessary
+	 * @param name
+	 * @return the histogram
+	 */
+	public static Histogram getHistogram(String name) {
+		String s = scope.get();
+		String key = "Histogram:" + (s == null ? name : s + "/" + name);
+		Metric m = metrics.get(key);
+		if(m == null)
+			m = register(key, new Histogram(s, name));
+		return (Histogram)m;
+	}
+	
+	/**
+	 * increments the counter with the given name (in the current thread's scope)
+	 * @param name
+	 * @param amount
+	 */
+	public static void increment(String name, long amount) {
+		getCounter(name).increment(amount);
+	}
+	
+	/**
+	 * adds a value to the histogram with the given name (in the current thread's scope)
+	 * @param name
+	 * @param value
+	 */
+	public static void record(String name, double value) {
+		getHistogram(name).record(value);
+	}
+	
+	protected static Metric register(String key, Metric m) {
+		Metric prev = metrics.putIfAbsent(key, m);
+		if(prev != null)
+			return prev;
+		synchronized(Metrics.class) {
+			if(jmxEnabled)
+				registerMBean(m);
+		}
+		return m;
+	}
+	
+	/**
+	 * @return all the metrics that have been recorded thus far
+	 */
+	public static Collection<Metric> getMetrics() {
+		return metrics.values();
+	}
+	
+	public static void addListener(IMetricsListener l) {
+		listeners.add(l);
+	}
+	
+	public static void removeListener(IMetricsListener l) {
+		listeners.remove(l);
+	}
+	
+	protected static void notifyListeners(Metric m, double value) {
+		for(IMetricsListener l : listeners)
+			l.metricRecorded(m, value);
+	}
+	
+	/**
+	 * enables or disables the publication of the metrics via JMX, i.e. the registration of all (present and future) metrics with the platform MBean server 
+	 * @param enabled
+	 */
+	public static synchronized void setJMXEnabled(boolean enabled) {
+		if(enabled == jmxEnabled)
+			return;
+		jmxEnabled = enabled;
+		for(Metric m : metrics.values()) {
+			if(enabled)
+				registerMBean(m);
+			else
+				unregisterMBean(m);
+		}
+	}
+	
+	protected static ObjectName getObjectName(Metric m) throws Exception {
+		StringBuffer sb = new StringBuffer("probcog:type=").append(m.getType());
+		if(m.scope != null)
+			sb.append(",scope=").append(quote(m.scope));
+		sb.append(",name=").append(quote(m.name));
+		return new ObjectName(sb.toString());
+	}
+	
+	protected static String quote(String value) {
+		return plainObjectNameValue.matcher(value).matches() ? value : ObjectName.quote(value);
+	}
+	
+	protected static void registerMBean(Metric m) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getObjectName(m);
+			if(!server.isRegistered(name))
+				server.registerMBean(m.getMBean(), name);
+		}
+		catch(Exception e) {
+			System.err.println("Warning: could not register metric " + m + " with JMX: " + e);
+		}
+	}
+	
+	protected static void unregisterMBean(Metric m) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getObjectName(m);
+			if(server.isRegistered(name))
+				server.unregisterMBean(name);
+		}
+		catch(Exception e) {
+			System.err.println("Warning: could not unregister metric " + m + " from JMX: " + e);
+		}
+	}
+}
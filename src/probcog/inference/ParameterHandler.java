@@ -85,6 +85,20 @@ public class ParameterHandler {
 		addSubhandler(h.getParameterHandler());
 	}
 	
+	/**
+	 * removes a subhandler that was previously added, such that the subhandler no longer references this handler
+	 * (which is necessary if the subhandler's owner outlives this handler's owner, e.g. a cached model)
+	 * @param h
+	 */
+	public void removeSubhandler(ParameterHandler h) {
+		subhandlers.remove(h);
+		h.parenthandlers.remove(this);
+	}
+	
+	public void removeSubhandler(IParameterHandler h) {
+		removeSubhandler(h.getParameterHandler());
+	}
+	
 	/**
 	 * handles all of the parameters given in a parameter mapping
 	 * @param paramMapping a mapping from parameter names to values
@@ -92,7 +106,6 @@ public class ParameterHandler {
 	 * @throws Exception
 	 */
 	public void handle(Map<String, Object> paramMapping, boolean exceptionIfUnhandledParam) throws Exception {		
-		submittedParams = paramMapping;
 		for(Entry<String,Object> param : paramMapping.entrySet()) {
 			handle(param.getKey(), param.getValue());
 		}
@@ -104,7 +117,18 @@ public class ParameterHandler {
 		return unhandledParams; 
 	}
 	
+	/**
+	 * @return a mapping from parameter names to values of all the parameters that were submitted to this handler (either directly or via a parent handler), or null if no parameters were submitted
+	 */
+	public Map<String,Object> getSubmittedParams() {
+		return submittedParams;
+	}
+	
 	protected boolean handle(String paramName, Object value) throws Exception {
+		// remember the parameter, such that it can be passed on to subhandlers that are added later on
+		if(submittedParams == null)
+			submittedParams = new HashMap<String,Object>();
+		submittedParams.put(paramName, value);
 		// try to handle here
 		ParameterMapping m = mappings.get(paramName);
 		boolean handled = false;
@@ -104,24 +104,20 @@ public class Atom extends UngroundedFormula {
 
 	@Override
 	public Formula ground(Map<String, String> binding, WorldVariables vars, GenericDatabase<?, ?> db) throws Exception {
-		StringBuffer sb = new StringBuffer(predName + "(");
+		String[] args = new String[params.size()];
 		int i = 0;
 		for(String param : params) {
-			if(i++ > 0)
-				sb.append(',');
 			String value = binding.get(param);
 			if(value == null) { // if the binding contains no value for a parameter, it must be a constant
 				if(isVariable(param))
 					throw new Exception("Cannot ground " + toString() + " with binding "  + binding + " - variable " + param + " unbound.");
 				value = param;
 			}
-			sb.append(value);
+			args[i++] = value;
 		}
-		sb.append(')');
-		String strGA = sb.toString();
-		GroundAtom ga = vars.get(strGA);
+		GroundAtom ga = vars.get(predName, args);
 		if(ga == null)
-			throw new Exception("Could not find ground atom '" + strGA + "' in set of world variables.");
+			throw new Exception("Could not find ground atom '" + predName + "(" + StringTool.join(",", args) + ")' in set of world variables.");
 		return ga;
 	}
 
@@ -0,0 +1,705 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.logic;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import probcog.logic.Formula.FormulaSimplification;
+import probcog.srl.GenericDatabase;
+import probcog.srl.Signature;
+
+/**
+ * Grounds formulas with respect to a set of world variables, treating each formula as a query over
+ * the evidence database: the formula's variables are bound one at a time (in an order that fully
+ * binds atoms as early as possible), and as soon as the variables of an atom are bound, the atom is
+ * evaluated against the evidence. If, given the evidence, a partial binding already makes the
+ * formula true or false, all of its extensions are pruned (which is only done when ground formulas
+ * are to be simplified, since only then would these groundings be discarded anyway).
+ * Ground atoms are resolved via integer tuple indices rather than string lookups.
+ *
+ * <p>The groundings that are generated are the same as the ones generated by
+ * {@link Formula#addAllGroundingsTo(Collection, probcog.srl.Database, WorldVariables, FormulaSimplification)}
+ * (up to their order). A grounder is meant to be reused for all the formulas that are grounded
+ * with respect to the same database and world variables.</p>
+ *
+ * @author Dominik Jain
+ */
+public class FormulaGrounder {
+	protected GenericDatabase<?,?> db;
+	protected WorldVariables worldVars;
+	/**
+	 * dense tuple indices for the ground atoms of each predicate (if applicable)
+	 */
+	protected HashMap<String, PredicateIndex> predicateIndices = new HashMap<String, PredicateIndex>();
+	/**
+	 * for each domain, a mapping from elements to their indices
+	 */
+	protected HashMap<String, HashMap<String,Integer>> domainIndices = new HashMap<String, HashMap<String,Integer>>();
+	/**
+	 * for each ground atom (index), its truth value according to the evidence (1 = true, 0 = false, -1 = unknown, -2 = not yet looked up)
+	 */
+	protected byte[] evidenceValues;
+
+	protected static final int UNKNOWN = -1;
+
+	public FormulaGrounder(GenericDatabase<?,?> db, WorldVariables worldVars) throws Exception {
+		this.db = db;
+		this.worldVars = worldVars;
+		evidenceValues = new byte[worldVars.size()];
+		for(int i = 0; i < evidenceValues.length; i++)
+			evidenceValues[i] = -2;
+		buildPredicateIndices();
+	}
+
+	/**
+	 * the ground atoms of a predicate, stored in a dense array that is indexed by the (row-major)
+	 * tuple of the indices of the arguments within their respective domains
+	 */
+	protected static class PredicateIndex {
+		public String[] argDomains;
+		public int[] strides;
+		public GroundAtom[] atoms;
+	}
+
+	protected HashMap<String,Integer> getDomainIndex(String domName) throws Exception {
+		HashMap<String,Integer> index = domainIndices.get(domName);
+		if(index == null) {
+			Iterable<String> dom = db.getDomain(domName);
+			if(dom == null)
+				return null;
+			index = new HashMap<String,Integer>();
+			for(String e : dom)
+				if(!index.containsKey(e))
+					index.put(e, index.size());
+			domainIndices.put(domName, index);
+		}
+		return index;
+	}
+
+	protected void buildPredicateIndices() throws Exception {
+		// group the ground atoms by predicate
+		HashMap<String, Vector<GroundAtom>> atomsByPred = new HashMap<String, Vector<GroundAtom>>();
+		for(GroundAtom ga : worldVars) {
+			Vector<GroundAtom> v = atomsByPred.get(ga.predicate);
+			if(v == null)
+				atomsByPred.put(ga.predicate, v = new Vector<GroundAtom>());
+			v.add(ga);
+		}
+		// build a dense index for each predicate whose atoms are consistent with its signature
+		for(Map.Entry<String, Vector<GroundAtom>> e : atomsByPred.entrySet()) {
+			Signature sig = db.getSignature(e.getKey());
+			if(sig == null)
+				continue;
+			Vector<GroundAtom> atoms = e.getValue();
+			int arity = atoms.get(0).args.length;
+			if(arity > sig.argTypes.length + 1)
+				continue;
+			PredicateIndex pi = new PredicateIndex();
+			pi.argDomains = new String[arity];
+			pi.strides = new int[arity];
+			HashMap<String,Integer>[] argIndices = getArgIndices(sig, arity, pi.argDomains);
+			if(argIndices == null)
+				continue;
+			long size = 1;
+			for(int i = arity-1; i >= 0; i--) {
+				pi.strides[i] = (int)size;
+				size *= argIndices[i].size();
+				if(size > Integer.MAX_VALUE)
+					break;
+			}
+			// only use a dense index if it is not considerably larger than the set of atoms
+			if(size > 8L * atoms.size() + 1024)
+				continue;
+			pi.atoms = new GroundAtom[(int)size];
+			boolean consistent = true;
+			for(GroundAtom ga : atoms) {
+				if(ga.args.length != arity) {
+					consistent = false;
+					break;
+				}
+				int idx = 0;
+				for(int i = 0; i < arity && idx >= 0; i++) {
+					Integer argIdx = argIndices[i].get(ga.args[i]);
+					idx = argIdx == null ? -1 : idx + argIdx * pi.strides[i];
+				}
+				if(idx < 0) {
+					consistent = false;
+					break;
+				}
+				pi.atoms[idx] = ga;
+			}
+			if(consistent)
+				predicateIndices.put(e.getKey(), pi);
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	protected HashMap<String,Integer>[] getArgIndices(Signature sig, int arity, String[] argDomains) throws Exception {
+		HashMap<String,Integer>[] ret = new HashMap[arity];
+		for(int i = 0; i < arity; i++) {
+			argDomains[i] = i < sig.argTypes.length ? sig.argTypes[i] : sig.returnType;
+			ret[i] = getDomainIndex(argDomains[i]);
+			if(ret[i] == null)
+				return null;
+		}
+		return ret;
+	}
+
+	/**
+	 * @param ga a ground atom
+	 * @return the truth value of the ground atom according to the evidence (1 = true, 0 = false, -1 = unknown)
+	 */
+	protected int getEvidenceValue(GroundAtom ga) {
+		byte v = evidenceValues[ga.index];
+		if(v == -2) {
+			Formula f = ga.simplify(db);
+			v = (byte)(f instanceof TrueFalse ? (((TrueFalse)f).isTrue() ? 1 : 0) : UNKNOWN);
+			evidenceValues[ga.index] = v;
+		}
+		return v;
+	}
+
+	/**
+	 * gets a list of all groundings of the formula
+	 * @param f the formula to ground
+	 * @param simplify whether to use the evidence in the database to simplify ground formulas
+	 * @return
+	 * @throws Exception
+	 */
+	public Vector<Formula> getAllGroundings(Formula f, FormulaSimplification simplify) throws Exception {
+		Vector<Formula> ret = new Vector<Formula>();
+		addAllGroundingsTo(f, ret, simplify);
+		return ret;
+	}
+
+	/**
+	 * generates all groundings of a formula and adds them to the given collection
+	 * @param f the formula to ground
+	 * @param collection
+	 * @param simplify whether to use the evidence in the database to simplify ground formulas
+	 * @throws Exception
+	 */
+	public void addAllGroundingsTo(Formula f, Collection<Formula> collection, FormulaSimplification simplify) throws Exception {
+		new Grounding(f, simplify).run(collection);
+	}
+
+	/**
+	 * a node of a compiled formula
+	 */
+	protected static class Node {
+		public enum Type {Atom, Literal, Not, And, Or, Implies, Iff, Equals, Constant, Other};
+		public Type type;
+		public Formula formula;
+		public Node[] children;
+		/**
+		 * for atoms/literals: the index of the predicate's atoms (null if the atom must be grounded via a string lookup)
+		 */
+		public PredicateIndex predIndex;
+		/**
+		 * for atoms/literals/equalities: for each argument, the position of its variable in the binding order (or -1 for constants)
+		 */
+		public int[] argVars;
+		/**
+		 * for atoms/literals: for each argument that is a variable, a mapping from the indices of the variable's domain elements to the indices in the argument's domain (-1 if not contained)
+		 */
+		public int[][] argMaps;
+		/**
+		 * for atoms/literals: the part of the tuple index that is contributed by constant arguments (-1 if a constant is not in the domain)
+		 */
+		public int constOffset;
+		/**
+		 * for equalities: the constant arguments
+		 */
+		public String[] constArgs;
+		/**
+		 * the highest binding position of any variable appearing in the node (-1 if there are none)
+		 */
+		public int maxVar = -1;
+	}
+
+	/**
+	 * the grounding of a single formula
+	 */
+	protected class Grounding {
+		protected Formula formula;
+		protected FormulaSimplification simplify;
+		protected Node root;
+		protected String[] varNames;
+		protected String[][] domains;
+		/**
+		 * for each variable position, the index of the bound element in the variable's domain
+		 */
+		protected int[] binding;
+		/**
+		 * the binding as a map from variable names to constants, which is only maintained if the formula contains parts that must be grounded by the formula itself
+		 */
+		protected HashMap<String,String> bindingMap = new HashMap<String,String>();
+		protected boolean needBindingMap = false;
+		/**
+		 * for each variable position, whether binding the variable at that position completes an atom or equality (such that pruning can be attempted)
+		 */
+		protected boolean[] completesAtom;
+
+		public Grounding(Formula f, FormulaSimplification simplify) throws Exception {
+			this.formula = f;
+			this.simplify = simplify;
+			HashMap<String,String> var2domName = new HashMap<String,String>();
+			f.getVariables(db, var2domName);
+			// determine the order in which to bind the variables: bind first the variable that
+			// completes the largest number of atoms (preferring small domains)
+			Vector<Vector<String>> atomVars = new Vector<Vector<String>>();
+			collectAtomVariables(f, atomVars);
+			Vector<String> remaining = new Vector<String>(var2domName.keySet());
+			Vector<String> order = new Vector<String>();
+			HashMap<String,Integer> domSizes = new HashMap<String,Integer>();
+			for(String var : remaining) {
+				String domName = var2domName.get(var);
+				Iterable<String> dom = db.getDomain(domName);
+				if(dom == null)
+					throw new Exception("Domain named '" + domName + "' (of variable " + var + " in formula " + f.toString() + ") not found in the database!");
+				int size = 0;
+				for(@SuppressWarnings("unused") String e : dom)
+					size++;
+				domSizes.put(var, size);
+			}
+			while(!remaining.isEmpty()) {
+				String best = null;
+				int bestCompleted = -1;
+				for(String var : remaining) {
+					int completed = 0;
+					for(Vector<String> vars : atomVars) {
+						if(!vars.contains(var))
+							continue;
+						boolean complete = true;
+						for(String v : vars)
+							if(!v.equals(var) && !order.contains(v))
+								complete = false;
+						if(complete)
+							completed++;
+					}
+					if(completed > bestCompleted || (completed == bestCompleted && domSizes.get(var) < domSizes.get(best))) {
+						best = var;
+						bestCompleted = completed;
+					}
+				}
+				order.add(best);
+				remaining.remove(best);
+			}
+			varNames = order.toArray(new String[order.size()]);
+			domains = new String[varNames.length][];
+			for(int i = 0; i < varNames.length; i++) {
+				Vector<String> dom = new Vector<String>();
+				for(String e : db.getDomain(var2domName.get(varNames[i])))
+					dom.add(e);
+				domains[i] = dom.toArray(new String[dom.size()]);
+			}
+			binding = new int[varNames.length];
+			completesAtom = new boolean[varNames.length];
+			root = compile(f);
+		}
+
+		protected void collectAtomVariables(Formula f, Vector<Vector<String>> ret) {
+			Collection<String> params = null;
+			if(f instanceof Atom)
+				params = ((Atom)f).params;
+			else if(f instanceof Literal)
+				params = ((Literal)f).atom.params;
+			else if(f instanceof Equality) {
+				params = new Vector<String>();
+				params.add(((Equality)f).left);
+				params.add(((Equality)f).right);
+			}
+			else if(f instanceof ComplexFormula)
+				for(Formula child : ((ComplexFormula)f).children)
+					collectAtomVariables(child, ret);
+			if(params != null) {
+				Vector<String> vars = new Vector<String>();
+				for(String p : params)
+					if(Atom.isVariable(p))
+						vars.add(p);
+				ret.add(vars);
+			}
+		}
+
+		protected int getVarPos(String name) {
+			for(int i = 0; i < varNames.length; i++)
+				if(varNames[i].equals(name))
+					return i;
+			return -1;
+		}
+
+		protected Node compile(Formula f) throws Exception {
+			Node n = new Node();
+			n.formula = f;
+			Class<?> c = f.getClass();
+			if(c == Atom.class || c == Literal.class) {
+				n.type = c == Atom.class ? Node.Type.Atom : Node.Type.Literal;
+				Atom atom = c == Atom.class ? (Atom)f : ((Literal)f).atom;
+				compileAtom(n, atom);
+			}
+			else if(c == Equality.class) {
+				n.type = Node.Type.Equals;
+				Equality eq = (Equality)f;
+				String[] args = new String[]{eq.left, eq.right};
+				n.argVars = new int[2];
+				n.constArgs = new String[2];
+				for(int i = 0; i < 2; i++) {
+					n.argVars[i] = getVarPos(args[i]);
+					n.constArgs[i] = args[i];
+					n.maxVar = Math.max(n.maxVar, n.argVars[i]);
+				}
+				if(n.maxVar >= 0)
+					completesAtom[n.maxVar] = true;
+			}
+			else if(c == TrueFalse.class)
+				n.type = Node.Type.Constant;
+			else if(c == Negation.class || c == Conjunction.class || c == Disjunction.class || c == Implication.class || c == Biimplication.class) {
+				if(c == Negation.class)
+					n.type = Node.Type.Not;
+				else if(c == Conjunction.class)
+					n.type = Node.Type.And;
+				else if(c == Disjunction.class)
+					n.type = Node.Type.Or;
+				else if(c == Implication.class)
+					n.type = Node.Type.Implies;
+				else
+					n.type = Node.Type.Iff;
+				Formula[] children = ((ComplexFormula)f).children;
+				n.children = new Node[children.length];
+				for(int i = 0; i < children.length; i++) {
+					n.children[i] = compile(children[i]);
+					n.maxVar = Math.max(n.maxVar, n.children[i].maxVar);
+				}
+			}
+			else {
+				n.type = Node.Type.Other;
+				needBindingMap = true;
+			}
+			return n;
+		}
+
+		protected void compileAtom(Node n, Atom atom) throws Exception {
+			String[] params = atom.params.toArray(new String[atom.params.size()]);
+			n.argVars = new int[params.length];
+			for(int i = 0; i < params.length; i++) {
+				n.argVars[i] = Atom.isVariable(params[i]) ? getVarPos(params[i]) : -1;
+				n.maxVar = Math.max(n.maxVar, n.argVars[i]);
+			}
+			if(n.maxVar >= 0)
+				completesAtom[n.maxVar] = true;
+			PredicateIndex pi = predicateIndices.get(atom.predName);
+			if(pi == null || pi.argDomains.length != params.length) {
+				needBindingMap = true;
+				return;
+			}
+			n.predIndex = pi;
+			n.argMaps = new int[params.length][];
+			for(int i = 0; i < params.length; i++) {
+				HashMap<String,Integer> argIndex = getDomainIndex(pi.argDomains[i]);
+				if(n.argVars[i] == -1) { // constant
+					Integer idx = argIndex.get(params[i]);
+					if(idx == null || n.constOffset == -1)
+						n.constOffset = -1;
+					else
+						n.constOffset += idx * pi.strides[i];
+				}
+				else {
+					String[] dom = domains[n.argVars[i]];
+					int[] map = new int[dom.length];
+					for(int j = 0; j < dom.length; j++) {
+						Integer idx = argIndex.get(dom[j]);
+						map[j] = idx == null ? -1 : idx * pi.strides[i];
+					}
+					n.argMaps[i] = map;
+				}
+			}
+		}
+
+		/**
+		 * @return the ground atom for an atom/literal node under the current (complete) binding
+		 * @throws Exception
+		 */
+		protected GroundAtom getGroundAtom(Node n) throws Exception {
+			if(n.predIndex != null && n.constOffset != -1) {
+				int idx = n.constOffset;
+				for(int i = 0; i < n.argVars.length; i++) {
+					if(n.argVars[i] == -1)
+						continue;
+					int offset = n.argMaps[i][binding[n.argVars[i]]];
+					if(offset == -1) {
+						idx = -1;
+						break;
+					}
+					idx += offset;
+				}
+				if(idx != -1 && n.predIndex.atoms[idx] != null)
+					return n.predIndex.atoms[idx];
+			}
+			// fall back to grounding the atom itself (which yields an appropriate error if the atom does not exist)
+			Atom atom = n.type == Node.Type.Atom ? (Atom)n.formula : ((Literal)n.formula).atom;
+			return (GroundAtom)atom.ground(getBindingMap(), worldVars, db);
+		}
+
+		protected Map<String,String> getBindingMap() {
+			if(!needBindingMap) { // the map was not maintained, so construct it
+				bindingMap.clear();
+				for(int i = 0; i < varNames.length; i++)
+					bindingMap.put(varNames[i], domains[i][binding[i]]);
+			}
+			return bindingMap;
+		}
+
+		protected String getEqualityArg(Node n, int i) {
+			return n.argVars[i] == -1 ? n.constArgs[i] : domains[n.argVars[i]][binding[n.argVars[i]]];
+		}
+
+		/**
+		 * evaluates a node (three-valued) given the evidence and the variables bound so far,
+		 * consistent with the semantics of {@link Formula#simplify(GenericDatabase)}
+		 * @param n the node
+		 * @param numBound the number of variables that are bound
+		 * @return 1 if the node is true, 0 if it is false and -1 if its truth value is unknown
+		 * @throws Exception
+		 */
+		protected int evaluate(Node n, int numBound) throws Exception {
+			switch(n.type) {
+			case Atom:
+			case Literal:
+				if(n.maxVar >= numBound)
+					return UNKNOWN;
+				int v = getEvidenceValue(getGroundAtom(n));
+				if(v == UNKNOWN || n.type == Node.Type.Atom || ((Literal)n.formula).isPositive)
+					return v;
+				return 1 - v;
+			case Equals:
+				if(n.maxVar >= numBound)
+					return UNKNOWN;
+				return getEqualityArg(n, 0).equals(getEqualityArg(n, 1)) ? 1 : 0;
+			case Constant:
+				return ((TrueFalse)n.formula).isTrue() ? 1 : 0;
+			case Not:
+				v = evaluate(n.children[0], numBound);
+				return v == UNKNOWN ? UNKNOWN : 1 - v;
+			case And:
+			case Or:
+				int absorbing = n.type == Node.Type.And ? 0 : 1;
+				int ret = 1 - absorbing;
+				for(Node child : n.children) {
+					v = evaluate(child, numBound);
+					if(v == absorbing)
+						return absorbing;
+					if(v == UNKNOWN)
+						ret = UNKNOWN;
+				}
+				return ret;
+			case Implies:
+				int a = evaluate(n.children[0], numBound);
+				if(a == 0)
+					return 1;
+				int b = evaluate(n.children[1], numBound);
+				if(b == 1)
+					return 1;
+				if(a == 1 && b == 0)
+					return 0;
+				return UNKNOWN;
+			case Iff:
+				a = evaluate(n.children[0], numBound);
+				b = evaluate(n.children[1], numBound);
+				if(a == UNKNOWN || b == UNKNOWN)
+					return UNKNOWN;
+				return a == b ? 1 : 0;
+			default:
+				return UNKNOWN;
+			}
+		}
+
+		/**
+		 * grounds a node under the current (complete) binding without simplification (as {@link Formula#ground(Map, WorldVariables, GenericDatabase)})
+		 */
+		protected Formula ground(Node n) throws Exception {
+			switch(n.type) {
+			case Atom:
+				return getGroundAtom(n);
+			case Literal:
+				return new GroundLiteral(((Literal)n.formula).isPositive, getGroundAtom(n));
+			case Equals:
+				return TrueFalse.getInstance(getEqualityArg(n, 0).equals(getEqualityArg(n, 1)));
+			case Constant:
+				return n.formula;
+			case Not:
+				return new Negation(ground(n.children[0]));
+			case And:
+			case Or:
+			case Implies:
+			case Iff:
+				Vector<Formula> children = new Vector<Formula>(n.children.length);
+				for(Node child : n.children)
+					children.add(ground(child));
+				switch(n.type) {
+				case And: return new Conjunction(children);
+				case Or: return new Disjunction(children);
+				case Implies: return new Implication(children);
+				default: return new Biimplication(children);
+				}
+			default:
+				return n.formula.ground(getBindingMap(), worldVars, db);
+			}
+		}
+
+		/**
+		 * grounds and simplifies a node under the current (complete) binding, yielding the same result as grounding the node and then applying {@link Formula#simplify(GenericDatabase)}
+		 */
+		protected Formula groundSimplified(Node n) throws Exception {
+			switch(n.type) {
+			case Atom:
+			case Literal:
+				GroundAtom ga = getGroundAtom(n);
+				int v = getEvidenceValue(ga);
+				boolean isPositive = n.type == Node.Type.Atom || ((Literal)n.formula).isPositive;
+				if(v != UNKNOWN)
+					return TrueFalse.getInstance((v == 1) == isPositive);
+				return n.type == Node.Type.Atom ? ga : new GroundLiteral(isPositive, ga);
+			case Equals:
+			case Constant:
+				return ground(n);
+			case Not:
+				return negate(groundSimplified(n.children[0]));
+			case And:
+			case Or:
+				Vector<Formula> children = new Vector<Formula>(n.children.length);
+				for(Node child : n.children)
+					children.add(groundSimplified(child));
+				return n.type == Node.Type.And ? conjoin(children) : disjoin(children);
+			case Implies: // simplified as (!a v b)
+				children = new Vector<Formula>(2);
+				children.add(negate(groundSimplified(n.children[0])));
+				children.add(groundSimplified(n.children[1]));
+				return disjoin(children);
+			case Iff: // simplified as (!a v b) ^ (a v !b)
+				Vector<Formula> c1 = new Vector<Formula>(2), c2 = new Vector<Formula>(2);
+				c1.add(negate(groundSimplified(n.children[0])));
+				c1.add(groundSimplified(n.children[1]));
+				c2.add(groundSimplified(n.children[0]));
+				c2.add(negate(groundSimplified(n.children[1])));
+				Vector<Formula> conjuncts = new Vector<Formula>(2);
+				conjuncts.add(disjoin(c1));
+				conjuncts.add(disjoin(c2));
+				return conjoin(conjuncts);
+			default:
+				return ground(n).simplify(db);
+			}
+		}
+
+		protected Formula negate(Formula f) {
+			if(f instanceof TrueFalse)
+				return ((TrueFalse)f).opposite();
+			return new Negation(f);
+		}
+
+		protected Formula conjoin(Vector<Formula> children) {
+			Vector<Formula> remaining = new Vector<Formula>(children.size());
+			for(Formula child : children) {
+				if(child instanceof TrueFalse) {
+					if(!((TrueFalse)child).isTrue())
+						return TrueFalse.FALSE;
+				}
+				else
+					remaining.add(child);
+			}
+			return remaining.isEmpty() ? TrueFalse.TRUE : new Conjunction(remaining);
+		}
+
+		protected Formula disjoin(Vector<Formula> children) {
+			Vector<Formula> remaining = new Vector<Formula>(children.size());
+			for(Formula child : children) {
+				if(child instanceof TrueFalse) {
+					if(((TrueFalse)child).isTrue())
+						return TrueFalse.TRUE;
+				}
+				else
+					remaining.add(child);
+			}
+			return remaining.isEmpty() ? TrueFalse.FALSE : new Disjunction(remaining);
+		}
+
+		public void run(Collection<Formula> ret) throws Exception {
+			generate(ret, 0);
+		}
+
+		protected void generate(Collection<Formula> ret, int i) throws Exception {
+			// if we have the full set of parameters, add the ground formula to the collection
+			if(i == varNames.length) {
+				Formula f;
+				if(simplify == FormulaSimplification.None)
+					f = ground(root);
+				else
+					f = groundSimplified(root);
+				if(f instanceof TrueFalse) {
+					if(!((TrueFalse)f).isTrue() && simplify == FormulaSimplification.OnDisallowFalse)
+						throw new Exception("Unsatisfiable hard formula encountered: " + formula.toString() + " with binding " + getBindingMap().toString() + " cannot be satisfied (given the evidence).");
+					return;
+				}
+				ret.add(f);
+				return;
+			}
+			// otherwise consider all the elements the next variable can be bound to
+			String[] domain = domains[i];
+			for(int j = 0; j < domain.length; j++) {
+				binding[i] = j;
+				if(needBindingMap)
+					bindingMap.put(varNames[i], domain[j]);
+				// if the formula's truth value is already determined by the evidence, prune
+				if(simplify != FormulaSimplification.None && completesAtom[i] && i+1 < varNames.length) {
+					int v = evaluate(root, i+1);
+					if(v == 1)
+						continue;
+					if(v == 0) {
+						// the formula is false for all completions of the binding; if any of the remaining variables
+						// has an empty domain, however, there are no such completions and thus no groundings to reject
+						if(simplify == FormulaSimplification.OnDisallowFalse && hasNonEmptyDomains(i+1)) {
+							// bind the remaining variables arbitrarily to report a complete grounding
+							for(int k = i+1; k < varNames.length; k++) {
+								binding[k] = 0;
+								if(needBindingMap)
+									bindingMap.put(varNames[k], domains[k][0]);
+							}
+							throw new Exception("Unsatisfiable hard formula encountered: " + formula.toString() + " with binding " + getBindingMap().toString() + " cannot be satisfied (given the evidence).");
+						}
+						continue;
+					}
+				}
+				generate(ret, i+1);
+			}
+		}
+		
+		/**
+		 * @param from  the index of the first variable to consider
+		 * @return true if the domains of all variables from the given index onwards are non-empty
+		 */
+		protected boolean hasNonEmptyDomains(int from) {
+			for(int k = from; k < varNames.length; k++)
+				if(domains[k].length == 0)
+					return false;
+			return true;
+		}
+	}
+}
@@ -104,9 +104,10 @@ public class KnowledgeBase implements Iterable<Formula> {
 	public KnowledgeBase ground(Database db, WorldVariables worldVars, FormulaSimplification simplify) throws Exception {
 		KnowledgeBase ret = new KnowledgeBase();
 		Integer formulaID = 0;
+		FormulaGrounder grounder = new FormulaGrounder(db, worldVars);
 		for(Formula f : formulas) {
 			int i = ret.formulas.size();
-			f.addAllGroundingsTo(ret.formulas, db, worldVars, simplify);
+			grounder.addAllGroundingsTo(f, ret.formulas, simplify);
 			for(; i < ret.formulas.size(); i++) {
 				ret.templateIDs.put(ret.formulas.get(i), formulaID);
 			}
@@ -25,50 +25,82 @@ import probcog.srl.Database;
 
 /**
  * Represents a possible world for a given set of world variables (ground atoms).
+ * The truth values are stored as a bit set; copies share the underlying storage 
+ * until either of them is modified (copy-on-write), so taking a snapshot is cheap.
  * @author Dominik Jain
  */
 public class PossibleWorld implements IPossibleWorld {
 	
 	protected WorldVariables worldVars;
-	protected boolean[] state;
+	/**
+	 * the truth values of the ground atoms (one bit per atom, indexed by the atoms' indices)
+	 */
+	protected long[] bits;
+	/**
+	 * whether the bit array may be shared with another world, in which case it must be copied before it is modified
+	 */
+	protected boolean shared;
 
 	public PossibleWorld(WorldVariables worldVars) {
 		this.worldVars = worldVars;
-		this.state = new boolean[worldVars.size()];
+		this.bits = new long[(worldVars.size() + 63) >> 6];
+		this.shared = false;
 	}
 	
 	public PossibleWorld(WorldVariables worldVars, boolean[] state) {
-		if(state.length != worldVars.size())
-			throw new IllegalArgumentException("Size of state array does not much number of variables");
+		this(worldVars);
+		setState(state);
+	}
+	
+	protected PossibleWorld(WorldVariables worldVars, long[] bits) {
 		this.worldVars = worldVars;
-		this.state = state;
+		this.bits = bits;
+		this.shared = true;
 	}
 
 	public boolean isTrue(GroundAtom ga) {
-		return state[ga.index];
+		return get(ga.index);
 	}
 
 	public void set(String gndAtom, boolean value) {
-		state[worldVars.get(gndAtom).index] = value;
+		set(worldVars.get(gndAtom).index, value);
 	}
 	
 	public void set(GroundAtom gndAtom, boolean value) {
-		state[gndAtom.index] = value;
+		set(gndAtom.index, value);
 	}
 
 	public void set(int idxGndAtom, boolean value) {
-		state[idxGndAtom] = value;
+		if(shared) {
+			bits = bits.clone();
+			shared = false;
+		}
+		if(value)
+			bits[idxGndAtom >> 6] |= 1L << idxGndAtom;
+		else
+			bits[idxGndAtom >> 6] &= ~(1L << idxGndAtom);
 	}
 
 	public boolean get(int idxGndAtom) {
-		return state[idxGndAtom];
+		return (bits[idxGndAtom >> 6] & (1L << idxGndAtom)) != 0;
 	}
 
+	/**
+	 * creates a copy of this world; the copy is created in constant time, as the state is only 
+	 * copied once either world is modified
+	 */
 	public PossibleWorld clone() {
-		return new PossibleWorld(worldVars, state.clone());
+		shared = true;
+		return new PossibleWorld(worldVars, bits);
 	}
 	
+	/**
+	 * @return the state of the world as an array of booleans (which is a copy, i.e. modifications do not affect the world)
+	 */
 	public boolean[] getState() {
+		boolean[] state = new boolean[worldVars.size()];
+		for(int i = 0; i < state.length; i++)
+			state[i] = get(i);
 		return state;
 	}
 	
@@ -89,10 +121,14 @@ public class PossibleWorld implements IPossibleWorld {
 	}
 
     public void setState(boolean[] state){
-        if (state.length == this.state.length)
-            this.state = state;
-        else 
+        if (state.length != worldVars.size())
             throw new IllegalArgumentException("Size of state array does not match number of variables!");        
+        long[] bits = new long[(state.length + 63) >> 6];
+        for(int i = 0; i < state.length; i++)
+        	if(state[i])
+        		bits[i >> 6] |= 1L << i;
+        this.bits = bits;
+        this.shared = false;
     }
     
     public void setEvidence(Database db) throws Exception {
@@ -20,6 +20,8 @@ package probcog.logic;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Vector;
 
@@ -30,23 +32,48 @@ import edu.tum.cs.util.StringTool;
  * i.e. a set of ground atoms, where each is assigned a unique index 
  * (which can be used to represent a possible world as an array of booleans) 
  * 
+ * <p>The ground atoms are stored in a dense array that is indexed by the atoms' indices.
+ * For lookups by name, each atom's predicate and arguments are represented as a tuple of
+ * integer symbol IDs, which is stored in a shared pool and indexed by an open-addressing hash 
+ * table, such that no per-atom strings or boxed keys need to be kept.</p>
+ * 
  * @author Dominik Jain
  */
 public class WorldVariables implements Iterable<GroundAtom> {
-	protected HashMap<String, GroundAtom> vars;
+	protected GroundAtom[] atoms;
+	protected int size;
+	/**
+	 * maps indices of ground atoms to indices of blocks (or -1 if var not in block)
+	 */
+	protected int[] var2block;
+	protected Vector<Block> blocks;
 	/**
-	 * maps indices of ground atoms to Blocks (or null if var not in block)
+	 * maps predicate names and constants to symbol IDs
 	 */
-	protected HashMap<Integer, Block> var2block;
-	protected HashMap<Integer, GroundAtom> varsByIndex;
+	protected HashMap<String, Integer> symbols;
+	/**
+	 * the pool of symbol tuples (predicate followed by arguments); the tuple of the i-th atom 
+	 * is stored from tupleOffsets[i] (inclusive) to tupleOffsets[i+1] (exclusive)
+	 */
+	protected int[] tuples;
+	protected int[] tupleOffsets;
+	/**
+	 * open-addressing hash table mapping symbol tuples to atoms (stores atom index + 1, 0 = empty)
+	 */
+	protected int[] table;
 
 	/**
 	 * constructs an empty set of variables
 	 */
 	public WorldVariables() {
-		vars = new HashMap<String, GroundAtom>();
-		var2block = new HashMap<Integer, Block>();
-		varsByIndex = new HashMap<Integer, GroundAtom>();
+		atoms = new GroundAtom[16];
+		var2block = new int[16];
+		blocks = new Vector<Block>();
+		symbols = new HashMap<String, Integer>();
+		tuples = new int[64];
+		tupleOffsets = new int[17];
+		table = new int[32];
+		size = 0;
 	}
 
 	/**
@@ -54,9 +81,91 @@ public class WorldVariables implements Iterable<GroundAtom> {
 	 * @param gndAtom
 	 */
 	public void add(GroundAtom gndAtom) {
-		gndAtom.setIndex(vars.size());
-		vars.put(gndAtom.toString(), gndAtom);
-		varsByIndex.put(gndAtom.index, gndAtom);
+		gndAtom.setIndex(size);
+		if(size == atoms.length) {
+			int capacity = 2 * atoms.length;
+			GroundAtom[] newAtoms = new GroundAtom[capacity];
+			System.arraycopy(atoms, 0, newAtoms, 0, size);
+			atoms = newAtoms;
+			int[] newVar2block = new int[capacity];
+			System.arraycopy(var2block, 0, newVar2block, 0, size);
+			var2block = newVar2block;
+			int[] newOffsets = new int[capacity+1];
+			System.arraycopy(tupleOffsets, 0, newOffsets, 0, size+1);
+			tupleOffsets = newOffsets;
+		}
+		atoms[size] = gndAtom;
+		var2block[size] = -1;
+		// store the symbol tuple
+		int start = tupleOffsets[size];
+		int end = start + 1 + gndAtom.args.length;
+		if(end > tuples.length) {
+			int[] newTuples = new int[Math.max(2 * tuples.length, end)];
+			System.arraycopy(tuples, 0, newTuples, 0, start);
+			tuples = newTuples;
+		}
+		tuples[start] = getSymbol(gndAtom.predicate);
+		for(int i = 0; i < gndAtom.args.length; i++)
+			tuples[start+1+i] = getSymbol(gndAtom.args[i]);
+		tupleOffsets[size+1] = end;
+		size++;
+		// index the tuple
+		if(2 * size > table.length)
+			rehash(2 * table.length);
+		else
+			insert(size-1);
+	}
+
+	protected int getSymbol(String s) {
+		Integer id = symbols.get(s);
+		if(id == null) {
+			id = symbols.size();
+			symbols.put(s, id);
+		}
+		return id;
+	}
+
+	protected static int hash(int[] tuple, int start, int end) {
+		// symbol IDs are small consecutive integers, so each one is mixed in (Murmur3-style) to avoid clustering
+		int h = 0;
+		for(int i = start; i < end; i++) {
+			int k = tuple[i] * 0xcc9e2d51;
+			k = (k << 15) | (k >>> 17);
+			h ^= k * 0x1b873593;
+			h = ((h << 13) | (h >>> 19)) * 5 + 0xe6546b64;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	protected void insert(int atomIdx) {
+		int mask = table.length - 1;
+		int start = tupleOffsets[atomIdx], end = tupleOffsets[atomIdx+1];
+		int slot = hash(tuples, start, end) & mask;
+		while(table[slot] != 0) {
+			if(tupleEquals(table[slot]-1, tuples, start, end)) // replace an existing atom with the same name
+				break;
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = atomIdx + 1;
+	}
+
+	protected void rehash(int capacity) {
+		table = new int[capacity];
+		for(int i = 0; i < size; i++)
+			insert(i);
+	}
+
+	protected boolean tupleEquals(int atomIdx, int[] tuple, int start, int end) {
+		int s = tupleOffsets[atomIdx], e = tupleOffsets[atomIdx+1];
+		if(e - s != end - start)
+			return false;
+		for(int i = 0; s < e; s++, i++)
+			if(tuples[s] != tuple[start+i])
+				return false;
+		return true;
 	}
 
 	/**
@@ -66,10 +175,15 @@ public class WorldVariables implements Iterable<GroundAtom> {
 	 */
 	public Block addBlock(Vector<GroundAtom> block) {
 		Block b = new Block(block);
+		int blockIdx = blocks.size();
+		blocks.add(b);
 		for(GroundAtom ga : block) {
-            if(!vars.containsKey(ga.toString()))
+			GroundAtom existing = get(ga.predicate, ga.args);
+            if(existing == null)
             	add(ga);
-            var2block.put(ga.index, b);
+            else
+            	ga.setIndex(existing.index);
+            var2block[ga.index] = blockIdx;
 		}
 		return b;
 	}
@@ -77,30 +191,106 @@ public class WorldVariables implements Iterable<GroundAtom> {
 	/**
 	 * retrieves the variable (ground atom) that corresponds to the given string representation
 	 * @param gndAtom
-	 * @return
+	 * @return the ground atom or null if there is no such atom
 	 */
 	public GroundAtom get(String gndAtom) {
-		return vars.get(gndAtom);
+		int p = gndAtom.indexOf('(');
+		int len = gndAtom.length();
+		if(p == -1 || gndAtom.charAt(len-1) != ')')
+			return null;
+		int arity = 0;
+		if(p+1 < len-1) {
+			arity = 1;
+			for(int i = p+1; i < len-1; i++)
+				if(gndAtom.charAt(i) == ',')
+					arity++;
+		}
+		int[] tuple = new int[arity+1];
+		Integer id = symbols.get(gndAtom.substring(0, p));
+		if(id == null)
+			return null;
+		tuple[0] = id;
+		for(int i = p+1, start = i, j = 1; j <= arity; i++) {
+			if(i == len-1 || gndAtom.charAt(i) == ',') {
+				id = symbols.get(gndAtom.substring(start, i));
+				if(id == null)
+					return null;
+				tuple[j++] = id;
+				start = i+1;
+			}
+		}
+		return lookup(tuple);
 	}
 
-	public GroundAtom get(Integer index) {
-		return varsByIndex.get(index);
+	/**
+	 * retrieves the variable (ground atom) with the given predicate and arguments
+	 * @param predicate
+	 * @param args
+	 * @return the ground atom or null if there is no such atom
+	 */
+	public GroundAtom get(String predicate, String[] args) {
+		int[] tuple = new int[args.length+1];
+		Integer id = symbols.get(predicate);
+		if(id == null)
+			return null;
+		tuple[0] = id;
+		for(int i = 0; i < args.length; i++) {
+			id = symbols.get(args[i]);
+			if(id == null)
+				return null;
+			tuple[i+1] = id;
+		}
+		return lookup(tuple);
 	}
 
-	public Block getBlock(Integer idxGA) {
-		return var2block.get(idxGA);
+	/**
+	 * @param tuple a tuple of symbol IDs (predicate followed by arguments)
+	 * @return the ground atom with the given tuple or null if there is no such atom
+	 */
+	protected GroundAtom lookup(int[] tuple) {
+		int mask = table.length - 1;
+		int slot = hash(tuple, 0, tuple.length) & mask;
+		while(table[slot] != 0) {
+			if(tupleEquals(table[slot]-1, tuple, 0, tuple.length))
+				return atoms[table[slot]-1];
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	public GroundAtom get(int index) {
+		return index < size ? atoms[index] : null;
+	}
+
+	/**
+	 * @return all the blocks of mutually exclusive and exhaustive ground atoms
+	 */
+	public Iterable<Block> getBlocks() {
+		return blocks;
+	}
+
+	public Block getBlock(int idxGA) {
+		if(idxGA >= size || var2block[idxGA] == -1)
+			return null;
+		return blocks.get(var2block[idxGA]);
 	}
 
 	public int size() {
-		return vars.size();
+		return size;
 	}
 	
+	/**
+	 * @return the string representations of all ground atoms (which are constructed on demand)
+	 */
 	public Set<String> getVariableStrings() {
-		return vars.keySet();
+		Set<String> ret = new LinkedHashSet<String>();
+		for(int i = 0; i < size; i++)
+			ret.add(atoms[i].toString());
+		return ret;
 	}
 
 	public String toString() {
-		return "<" + StringTool.join(" \n", vars.keySet()) + ">";
+		return "<" + StringTool.join(" \n", getVariableStrings()) + ">";
 	}
 
 	public static class Block implements Iterable<GroundAtom> {
@@ -150,6 +340,22 @@ public class WorldVariables implements Iterable<GroundAtom> {
 	}
 
 	public Iterator<GroundAtom> iterator() {		
-		return this.vars.values().iterator();
+		return new Iterator<GroundAtom>() {
+			int i = 0;
+
+			public boolean hasNext() {
+				return i < size;
+			}
+
+			public GroundAtom next() {
+				if(i >= size)
+					throw new NoSuchElementException();
+				return atoms[i++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 }
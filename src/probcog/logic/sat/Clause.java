@@ -18,6 +18,8 @@
  ******************************************************************************/
 package probcog.logic.sat;
 
+import java.util.Set;
+
 import probcog.logic.ComplexFormula;
 import probcog.logic.Disjunction;
 import probcog.logic.Formula;
@@ -76,6 +78,12 @@ public class Clause extends ComplexFormula {
 		}
 	}
 
+	@Override
+	public void getGroundAtoms(Set<GroundAtom> ret) {
+		for(GroundLiteral lit : lits)
+			ret.add(lit.gndAtom);
+	}
+
 	@Override
 	public boolean isTrue(IPossibleWorld w) {
 		for(GroundLiteral lit : lits) 
@@ -18,8 +18,9 @@
  ******************************************************************************/
 package probcog.logic.sat;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Random;
 import java.util.Vector;
@@ -37,20 +38,70 @@ import probcog.srl.directed.bln.BayesianLogicNetwork;
 import probcog.srl.directed.bln.GroundBLN;
 
 import edu.tum.cs.util.Stopwatch;
-import edu.tum.cs.util.StringTool;
 
 /**
  * Implementation of the stochastic SAT sampling algorithm SampleSAT by Wei et al.
  * It near-uniformly samples a solution from the set of solutions
  * 
+ * <p>The clauses are compiled into a compact, integer-indexed representation: literals are
+ * stored as int arrays, each clause keeps track of its number of true literals, the
+ * unsatisfied clauses are kept in an indexed array (allowing constant-time insertion and 
+ * removal), and the make and break scores of all ground atoms are cached and updated
+ * incrementally whenever a ground atom is flipped.</p>
+ * 
  * @author Dominik Jain
  */
 public class SampleSAT implements IParameterHandler {
-	protected HashMap<Integer,Vector<Constraint>> bottlenecks;
-	protected HashMap<Integer,Vector<Constraint>> GAOccurrences;
+	/**
+	 * the clauses from which the constraints were built
+	 */
+	protected probcog.logic.sat.Clause[] clauses;
+	/**
+	 * for each clause, its literals, where a literal is encoded as 2*i for a positive and 2*i+1 for
+	 * a negative literal of the ground atom with index i
+	 */
+	protected int[][] clauseLits;
+	protected double[] clauseWeights;
+	/**
+	 * for each ground atom (index), its occurrences in clauses, each encoded as 2*c for a positive
+	 * and 2*c+1 for a negative literal in clause c
+	 */
+	protected int[][] occurrences;
+	/**
+	 * the indices of the clauses that are currently to be satisfied
+	 */
+	protected BitSet activeConstraints;
+	/**
+	 * for each clause, the number of true literals
+	 */
+	protected int[] numTrueLits;
+	/**
+	 * for each clause, the XOR of the ground atom indices of its true literals, which, if there
+	 * is exactly one true literal, is the index of the clause's bottleneck atom
+	 */
+	protected int[] trueAtomsXor;
+	/**
+	 * the (active) clauses that are currently unsatisfied (the first numUnsatisfied entries)
+	 */
+	protected int[] unsatisfied;
+	protected int numUnsatisfied;
+	/**
+	 * for each unsatisfied clause, its position in the array of unsatisfied clauses
+	 */
+	protected int[] unsatisfiedPos;
+	/**
+	 * for each ground atom, the total weight of the unsatisfied clauses that would become satisfied if the atom were flipped
+	 */
+	protected double[] makeScores;
+	/**
+	 * for each ground atom, the total weight of the clauses that would become unsatisfied if the atom were flipped (i.e. the clauses in which it is the only true literal)
+	 */
+	protected double[] breakScores;
+	/**
+	 * for each ground atom, whether its truth value is given by the evidence
+	 */
+	protected boolean[] isEvidence;
 	protected PossibleWorld state;
-	protected Vector<Constraint> unsatisfiedConstraints;
-	protected Vector<Constraint> constraints;
 	protected Random rand;
 	protected WorldVariables vars;	
 	protected boolean debug = false;
@@ -69,6 +120,10 @@ public class SampleSAT implements IParameterHandler {
 	 * According to the WalkSAT paper, optimal values were always between 0.5 and 0.6
 	 */
 	protected double pWalkSAT = 0.5; // 0.5
+	/**
+	 * the total number of ground atoms flipped (over all runs)
+	 */
+	protected long numFlips = 0;
 	
 	
 	/**
@@ -83,7 +138,7 @@ public class SampleSAT implements IParameterHandler {
 		this.vars = vars;
 		this.kb = kb;
 		rand = new Random();
-		constraints = null;		
+		clauseLits = null;		
 		
 		// parameter handling
 		paramHandler = new ParameterHandler(this);
@@ -124,124 +179,206 @@ public class SampleSAT implements IParameterHandler {
 	 */
 	public void initConstraints(Iterable<? extends probcog.logic.sat.Clause> kb) throws Exception {
 		// if constraints were previously instantiated, check whether a reinstantiation is allowed
-		if(constraints != null && useUnitPropagation)
+		if(clauseLits != null && useUnitPropagation)
 			throw new Exception("Resetting the set of constraints is not allowed when using unit propagation, because unit propagation extends the evidence database, which currently cannot be reversed.");
 		this.kb = kb;
 		
-		// initialize data structures for constraints (used during algorithm) 
-		unsatisfiedConstraints = new Vector<Constraint>();
-		bottlenecks = new HashMap<Integer,Vector<Constraint>>();		
+		// build clause data
+		Vector<probcog.logic.sat.Clause> clauseList = new Vector<probcog.logic.sat.Clause>();
+		for(probcog.logic.sat.Clause c : kb)
+			clauseList.add(c);
+		int numClauses = clauseList.size();
+		int numAtoms = vars.size();
+		clauses = clauseList.toArray(new probcog.logic.sat.Clause[numClauses]);
+		clauseLits = new int[numClauses][];
+		clauseWeights = new double[numClauses];
+		int[] numOccurrences = new int[numAtoms];
+		for(int c = 0; c < numClauses; c++) {
+			GroundLiteral[] lits = clauses[c].lits;
+			int[] l = new int[lits.length];
+			for(int i = 0; i < lits.length; i++) {
+				l[i] = 2*lits[i].gndAtom.index + (lits[i].isPositive ? 0 : 1);
+				numOccurrences[lits[i].gndAtom.index]++;
+			}
+			clauseLits[c] = l;
+			clauseWeights[c] = getClauseWeight(clauses[c]);
+		}
 		
-		// build constraint data
-		constraints = new Vector<Constraint>();
-		GAOccurrences = new HashMap<Integer,Vector<Constraint>>();
-		for(probcog.logic.sat.Clause c : kb) 
-			constraints.add(makeConstraint(c));
+		// build occurrence lists
+		occurrences = new int[numAtoms][];
+		for(int i = 0; i < numAtoms; i++) {
+			occurrences[i] = new int[numOccurrences[i]];
+			numOccurrences[i] = 0;
+		}
+		for(int c = 0; c < numClauses; c++)
+			for(int lit : clauseLits[c]) {
+				int idxGA = lit >> 1;
+				occurrences[idxGA][numOccurrences[idxGA]++] = 2*c + (lit & 1);
+			}
+		
+		// initialize data structures used during the algorithm
+		numTrueLits = new int[numClauses];
+		trueAtomsXor = new int[numClauses];
+		unsatisfied = new int[numClauses];
+		unsatisfiedPos = new int[numClauses];
+		makeScores = new double[numAtoms];
+		breakScores = new double[numAtoms];
+		activeConstraints = new BitSet(numClauses);
+		activeConstraints.set(0, numClauses);
 		
 		// preprocessing
 		if(useUnitPropagation)
 			unitPropagation(); // may extend evidence
 		
 		// set evidence in state
+		isEvidence = new boolean[numAtoms];
+		for(Integer idxGA : evidence.keySet())
+			isEvidence[idxGA] = true;
 		evidenceHandler.setEvidenceInState(state);
 	}
 	
-	protected Constraint makeConstraint(probcog.logic.sat.Clause c) {
-		return new Clause(c.lits);
+	/**
+	 * @param c a clause
+	 * @return the weight with which the clause is to be considered in make and break scores 
+	 */
+	protected double getClauseWeight(probcog.logic.sat.Clause c) {
+		return 1.0;
+	}
+	
+	/**
+	 * restricts the set of constraints to be satisfied by subsequent calls to {@link #run()} to a subset of 
+	 * the constraints that were passed to {@link #initConstraints(Iterable)}. This allows a sampler that 
+	 * repeatedly needs to satisfy different subsets of a fixed set of clauses (e.g. MC-SAT) to reuse the 
+	 * constraint data structures rather than rebuilding them.
+	 * <p>This cannot be combined with unit propagation: Unit propagation is performed on all the constraints when they are
+	 * initialized, permanently turning the literals of unit clauses into evidence, which would be wrong for constraints
+	 * that are not always active.</p>
+	 * @param active  the indices of the constraints to satisfy (in the order in which the clauses were passed to initConstraints); the set is not copied and must not be modified during a call to run()
+	 * @throws IllegalStateException if unit propagation is enabled
+	 */
+	public void setActiveConstraints(BitSet active) {
+		if(useUnitPropagation)
+			throw new IllegalStateException("Restricting the set of active constraints is not supported when using unit propagation");
+		activeConstraints = active;
 	}
 	
 	/**
 	 * performs unit propagation on clauses to simplify the set of constraints
 	 */
 	protected void unitPropagation() {
-		int oldSize = constraints.size();
-		LinkedList<Clause> unitClauses = new LinkedList<Clause>();
-		for(Constraint c : constraints) {
-			if(c instanceof Clause) {
-				Clause cl = (Clause)c;
-				if(cl.size() == 1)
-					unitClauses.add(cl);
-			}
-		}
+		int numRemoved = 0;
+		LinkedList<Integer> unitClauses = new LinkedList<Integer>();
+		for(int c = 0; c < clauseLits.length; c++)
+			if(clauseLits[c].length == 1)
+				unitClauses.add(c);
 		while(!unitClauses.isEmpty()) {
-			Clause cl = unitClauses.remove();
-			GroundLiteral lit = cl.getLiterals()[0]; 
-			evidence.put(lit.gndAtom.index, lit.isPositive);
-			Vector<Constraint> affected = GAOccurrences.get(lit.gndAtom.index);
-			if(affected != null) {
-				Vector<Clause> scheduledForRemoval = new Vector<Clause>();
-				for(Constraint c : affected) {
-					if(c instanceof Clause) {
-						Clause acl = (Clause)c;
-						for(GroundLiteral l : acl.getLiterals()) {
-							if(l.gndAtom.index == lit.gndAtom.index) {
-								if(l.isPositive == lit.isPositive) // the affected clause is always true because the unit clause appears as a subset
-									scheduledForRemoval.add(acl); // schedule for removal to avoid ConcurrentModificationExceptions
-								else { // otherwise the literal in the clause is false and we can remove it
-									acl.removeLiteral(lit.gndAtom.index);
-									if(acl.size() == 1)
-										unitClauses.add(acl);
-									if(acl.size() == 0)
-										constraints.remove(acl);
-								}
-							}
-						}
+			int cl = unitClauses.remove();
+			if(!activeConstraints.get(cl))
+				continue;
+			int lit = clauseLits[cl][0];
+			int idxGA = lit >> 1;
+			evidence.put(idxGA, (lit & 1) == 0);
+			for(int occ : occurrences[idxGA]) {
+				int c = occ >> 1;
+				if(!activeConstraints.get(c))
+					continue;
+				if((occ & 1) == (lit & 1)) { // the affected clause is always true because the unit clause appears as a subset (this includes the unit clause itself)
+					activeConstraints.clear(c);
+					numRemoved++;
+				}
+				else { // otherwise the literal in the clause is false and we can remove it
+					clauseLits[c] = removeLiteral(clauseLits[c], idxGA);
+					if(clauseLits[c].length == 1)
+						unitClauses.add(c);
+					else if(clauseLits[c].length == 0) {
+						activeConstraints.clear(c);
+						numRemoved++;
 					}
 				}
-				for(Clause acl : scheduledForRemoval)
-					removeClause(acl);
 			}
-			// remove the unit clause from the set of constraints
-			constraints.remove(cl);
 			// we no longer need the occurrences entry
-			GAOccurrences.remove(lit.gndAtom.index);
+			occurrences[idxGA] = new int[0];
 		}
-		int newSize = constraints.size();
-		if(debug || true) System.out.println("unit propagation removed " + (oldSize-newSize) + " constraints");
+		if(debug || true) System.out.println("unit propagation removed " + numRemoved + " constraints");
 	}
 	
-	protected void removeClause(Clause c) {
-		constraints.remove(c);
-		// remove dangling references
-		for(GroundLiteral lit : c.getLiterals()) 
-			GAOccurrences.get(lit.gndAtom.index).remove(c);
+	protected static int[] removeLiteral(int[] lits, int idxGndAtom) {
+		int[] newLits = new int[lits.length-1];
+		for(int i = 0, j = 0; i < lits.length; i++)
+			if(lits[i] >> 1 != idxGndAtom)
+				newLits[j++] = lits[i];
+		return newLits;
 	}
 	
-	protected void addUnsatisfiedConstraint(Constraint c) {
-		unsatisfiedConstraints.add(c);
+	protected final boolean isTrue(int lit) {
+		return state.get(lit >> 1) == ((lit & 1) == 0);
 	}
 	
-	protected void addBottleneck(GroundAtom a, Constraint c) {
-		Vector<Constraint> v = bottlenecks.get(a.index);
-		if(v == null) {
-			v = new Vector<Constraint>();
-			bottlenecks.put(a.index, v);
-		}
-		v.add(c);
+	/**
+	 * @param c the index of a clause
+	 * @param w a possible world
+	 * @return true if the clause is satisfied in the given world
+	 */
+	protected boolean isSatisfied(int c, PossibleWorld w) {
+		for(int lit : clauseLits[c])
+			if(w.get(lit >> 1) == ((lit & 1) == 0))
+				return true;
+		return false;
 	}
 	
-	protected void addGAOccurrence(GroundAtom a, Constraint c) {
-		Vector<Constraint> v = GAOccurrences.get(a.index);
-		if(v == null) {
-			v = new Vector<Constraint>();
-			GAOccurrences.put(a.index, v);
+	protected void addUnsatisfied(int c) {
+		unsatisfiedPos[c] = numUnsatisfied;
+		unsatisfied[numUnsatisfied++] = c;
+	}
+	
+	protected void removeUnsatisfied(int c) {
+		int pos = unsatisfiedPos[c];
+		int last = unsatisfied[--numUnsatisfied];
+		unsatisfied[pos] = last;
+		unsatisfiedPos[last] = pos;
+	}
+	
+	/**
+	 * computes the number of true literals of a clause (for the current state) and updates the make/break scores accordingly
+	 * @param c the index of the clause
+	 */
+	protected void initClauseState(int c) {
+		int numTrue = 0, xor = 0;
+		for(int lit : clauseLits[c])
+			if(isTrue(lit)) {
+				numTrue++;
+				xor ^= lit >> 1;
+			}
+		numTrueLits[c] = numTrue;
+		trueAtomsXor[c] = xor;
+		double w = clauseWeights[c];
+		// if there are no true ones, this constraint is unsatisfied
+		if(numTrue == 0) {
+			addUnsatisfied(c);
+			for(int lit : clauseLits[c])
+				makeScores[lit >> 1] += w;
 		}
-		v.add(c);
+		// if there is exactly one true literal, it is a bottleneck
+		// (unless the clause also contains the negated literal, 
+		// but a sat.Clause guarantees that this cannot be the case)
+		else if(numTrue == 1)
+			breakScores[xor] += w;
 	}
 	
 	protected void initialize() throws Exception {
 		// instantiate constraints
-		if(constraints == null)
+		if(clauseLits == null)
 			initConstraints(kb);
 
 		// gather constraint data
-		bottlenecks.clear();
-		unsatisfiedConstraints.clear();
 		if(debug) System.out.println("setting random state...");
 		setRandomState();
 		if(debug) state.print();
-		for(Constraint c : constraints)
-			c.initState();
+		numUnsatisfied = 0;
+		Arrays.fill(makeScores, 0.0);
+		Arrays.fill(breakScores, 0.0);
+		for(int c = activeConstraints.nextSetBit(0); c >= 0; c = activeConstraints.nextSetBit(c+1))
+			initClauseState(c);
 	}
 	
 	/**
@@ -251,17 +388,14 @@ public class SampleSAT implements IParameterHandler {
 	public void run() throws Exception {		
 		initialize();		
 		int step = 1;
-		while(unsatisfiedConstraints.size() > 0) {
+		while(numUnsatisfied > 0) {
 			// debug code
 			if(debug) {				
-				System.out.println("SAT step " + step + ", " + unsatisfiedConstraints.size() + " constraints unsatisfied");
-				if(true) {
-					//state.print();
-					if(unsatisfiedConstraints.size() < 30)
-						for(Constraint c : unsatisfiedConstraints) {
-							System.out.println("  unsatisfied: " + c);
-						}
-				}
+				System.out.println("SAT step " + step + ", " + numUnsatisfied + " constraints unsatisfied");
+				if(numUnsatisfied < 30)
+					for(int i = 0; i < numUnsatisfied; i++) {
+						System.out.println("  unsatisfied: " + clauseToString(unsatisfied[i]));
+					}
 				checkIntegrity();
 			}
 			
@@ -274,53 +408,62 @@ public class SampleSAT implements IParameterHandler {
 	 * checks the integrity of internal data structures
 	 * @throws Exception 
 	 */
-	protected void checkIntegrity() throws Exception {		
-		// - are unsatisfied constraints really unsatisfied?
-		for(Constraint c : this.constraints) {
-			if(c instanceof Clause) {
-				Clause cl = (Clause)c;						
-				int numTrue = 0;
-				for(GroundLiteral lit : cl.lits)
-					if(lit.isTrue(state)) {
-						numTrue++;
-						if(!cl.trueOnes.contains(lit.gndAtom))
-							throw new Exception("Clause.trueOnes corrupted (1)");
-					}
-				if(numTrue != cl.trueOnes.size())
-					throw new Exception("Clause.trueOnes corrupted (2)");
-				boolean isTrue = numTrue > 0;
-				boolean contained = unsatisfiedConstraints.contains(c);
-				if(contained != !isTrue)
-					throw new Exception("Unsatisfied constraints corrupted");
-			}
-		}
-		// - are bottlenecks really bottlenecks?
-		for(java.util.Map.Entry<Integer,Vector<Constraint>> entry : bottlenecks.entrySet()) {
-			GroundAtom ga = this.vars.get(entry.getKey());
-			for(Constraint c : entry.getValue()) {
-				if(c instanceof Clause) {
-					Clause cl = (Clause)c;
-					boolean haveTrueOne = false;
-					for(GroundLiteral lit : cl.lits) {
-						if(lit.isTrue(state)) {
-							if(haveTrueOne) 
-								throw new Exception("Bottlenecks corrupted: Clause " + cl + " contains a second true literal.");
-							if(lit.gndAtom != ga)
-								throw new Exception("Bottlenecks corrupted: Clause " + cl + " contains a true literal that isn't the bottleneck.");							
-							haveTrueOne = true;
-						}
-						if(lit.gndAtom == ga && !lit.isTrue(state))
-							throw new Exception("Bottlenecks corrupted: Clause " + cl + " has " + ga + " as a bottleneck but contains a literal with " + ga + " that is false; it is likely that the clause is a tautology which should never have bottlenecks.");
-					}
+	protected void checkIntegrity() throws Exception {
+		double[] make = new double[makeScores.length], brk = new double[breakScores.length];
+		for(int c = activeConstraints.nextSetBit(0); c >= 0; c = activeConstraints.nextSetBit(c+1)) {
+			// - are the true literal counts correct?
+			int numTrue = 0, xor = 0;
+			for(int lit : clauseLits[c])
+				if(isTrue(lit)) {
+					numTrue++;
+					xor ^= lit >> 1;
 				}
-			}
+			if(numTrue != numTrueLits[c] || xor != trueAtomsXor[c])
+				throw new Exception("True literals of clause " + clauseToString(c) + " corrupted");
+			// - are unsatisfied constraints really unsatisfied?
+			boolean contained = false;
+			for(int i = 0; i < numUnsatisfied; i++)
+				if(unsatisfied[i] == c) {
+					contained = true;
+					if(unsatisfiedPos[c] != i)
+						throw new Exception("Position of unsatisfied clause corrupted");
+				}
+			if(contained != (numTrue == 0))
+				throw new Exception("Unsatisfied constraints corrupted");
+			if(numTrue == 0)
+				for(int lit : clauseLits[c])
+					make[lit >> 1] += clauseWeights[c];
+			else if(numTrue == 1)
+				brk[xor] += clauseWeights[c];
 		}
+		// - are the make and break scores correct?
+		for(int i = 0; i < make.length; i++) {
+			if(Math.abs(make[i] - makeScores[i]) > 1e-6)
+				throw new Exception("Make score of " + vars.get(i) + " corrupted");
+			if(Math.abs(brk[i] - breakScores[i]) > 1e-6)
+				throw new Exception("Break score of " + vars.get(i) + " corrupted");
+		}
+	}
+	
+	/**
+	 * @return the total number of ground atoms that were flipped in all runs thus far
+	 */
+	public long getNumFlips() {
+		return numFlips;
 	}
 	
 	public PossibleWorld getState() {
 		return state;
 	}
 	
+	/**
+	 * @param idxGA  the index of a ground atom
+	 * @return true if the truth value of the ground atom is given by the evidence
+	 */
+	public boolean hasEvidence(int idxGA) {
+		return evidence.containsKey(idxGA);
+	}
+	
 	/**
 	 * sets a random state for non-evidence atoms
 	 * @throws Exception 
@@ -342,13 +485,31 @@ public class SampleSAT implements IParameterHandler {
 	
 	protected void walkSATMove() {
 		// pick an unsatisfied constraint
-		Constraint c = unsatisfiedConstraints.get(rand.nextInt(unsatisfiedConstraints.size()));
+		int c = unsatisfied[rand.nextInt(numUnsatisfied)];
 		// with probability p, satisfy the constraint randomly		
 		if(rand.nextDouble() < this.pWalkSAT)
-			c.satisfyRandomly(); 
+			satisfyRandomly(c); 
 		// with probability 1-p, satisfy it greedily
 		else
-			c.satisfyGreedily();
+			pickAndFlipVar(clauseLits[c]);
+	}
+	
+	/**
+	 * satisfies a clause by flipping a randomly chosen one of its (non-evidence) ground atoms
+	 * @param c the index of the clause
+	 */
+	protected void satisfyRandomly(int c) {
+		int[] lits = clauseLits[c];
+		boolean done = false;
+		while(!done) {
+			// randomly pick a ground atom from the clause to flip
+			int idxGA = lits[rand.nextInt(lits.length)] >> 1;
+			// if it has evidence, skip it
+			if(isEvidence[idxGA])
+				continue;
+			// try to flip it (along with a second one, where appropriate)
+			done = pickSecondAtRandomAndFlip(idxGA);
+		}
 	}
 	
 	protected void SAMove() {
@@ -356,81 +517,85 @@ public class SampleSAT implements IParameterHandler {
 		while(!done) {
 			// randomly pick a ground atom to flip
 			int idxGA = rand.nextInt(vars.size());
-			GroundAtom gndAtom = vars.get(idxGA);
 			// if it has evidence, skip it
-			if(evidence.containsKey(idxGA))
+			if(isEvidence[idxGA])
 				continue;
 			// try to flip it (along with a second one, where appropriate)
-			done = pickSecondAtRandomAndFlip(gndAtom);
+			done = pickSecondAtRandomAndFlip(idxGA);
 		}	
 	}
 	
 	/**
 	 * attempts to flip the variable that is given, choosing an appropriate second variable (at random where applicable) if the variable is in a block
-	 * @param gndAtom
+	 * @param idxGA the index of the ground atom to flip
 	 * @return true if the variable could be flipped
 	 */
-	protected boolean pickSecondAtRandomAndFlip(GroundAtom gndAtom) {
+	protected boolean pickSecondAtRandomAndFlip(int idxGA) {
 		// if it's in a block, must choose a second to flip
-		GroundAtom gndAtom2 = null;
-		Block block = vars.getBlock(gndAtom.index);
+		int idxGA2 = -1;
+		Block block = vars.getBlock(idxGA);
 		if(block != null) {				
 			GroundAtom trueOne = block.getTrueOne(state);
-			if(gndAtom == trueOne) { // if we are flipping the true one, pick the second at random among the others
+			if(idxGA == trueOne.index) { // if we are flipping the true one, pick the second at random among the others
 				Vector<GroundAtom> others = new Vector<GroundAtom>();
 				for(GroundAtom ga : block) {
-					if(ga != trueOne && !evidence.containsKey(ga.index))
+					if(ga != trueOne && !isEvidence[ga.index])
 						others.add(ga);
 				}
 				if(others.isEmpty())
 					return false;
-				gndAtom2 = others.get(rand.nextInt(others.size()));
+				idxGA2 = others.get(rand.nextInt(others.size())).index;
 			}
 			else { // second to flip must be true one
-				if(evidence.containsKey(trueOne.index))
+				if(isEvidence[trueOne.index])
 					return false;
-				gndAtom2 = trueOne;
+				idxGA2 = trueOne.index;
 			}
 		}
 		// flip
-		flipGndAtom(gndAtom);
-		if(gndAtom2 != null)
-			flipGndAtom(gndAtom2);
+		flipGndAtom(idxGA);
+		if(idxGA2 != -1)
+			flipGndAtom(idxGA2);
 		return true;		
 	}
 	
-	protected void pickAndFlipVar(Iterable<GroundAtom> candidates) {
+	/**
+	 * greedily flips one of the ground atoms of the given literals (choosing the one with the best delta-cost)
+	 * @param lits encoded literals (as in {@link #clauseLits})
+	 */
+	protected void pickAndFlipVar(int[] lits) {
 		// find the best candidate
-		GroundAtom bestGA = null, bestGASecond = null;
+		int bestGA = -1, bestGASecond = -1;
 		double bestDelta = Double.NEGATIVE_INFINITY;
-		for(GroundAtom gndAtom : candidates) {
+		for(int lit : lits) {
+			int idxGA = lit >> 1;
 			// if we have evidence, skip this ground atom
-			if(evidence.containsKey(gndAtom.index))
+			if(isEvidence[idxGA])
 				continue;
 			// calculate delta-cost
-			double delta = deltaCost(gndAtom);
+			double delta = deltaCost(idxGA);
 			// - if the atom is in a block, we must consider the cost of flipping the second atom
-			Block block = vars.getBlock(gndAtom.index);
-			GroundAtom secondGA = null;
+			Block block = vars.getBlock(idxGA);
+			int secondGA = -1;
 			if(block != null) {
 				GroundAtom trueOne = block.getTrueOne(state);
 				double delta2 = Double.NEGATIVE_INFINITY;
-				if(gndAtom != trueOne) { // the second one to flip must be the true one
-					secondGA = trueOne;
+				if(idxGA != trueOne.index) { // the second one to flip must be the true one
+					secondGA = trueOne.index;
 					delta2 = deltaCost(secondGA);
 				}
 				else { // as the second flip any one of the others (that has no evidence)
 					for(GroundAtom ga2 : block) {
-						if(evidence.containsKey(ga2.index) || ga2 == gndAtom)
+						if(isEvidence[ga2.index] || ga2.index == idxGA)
 							continue;
-						double d = deltaCost(ga2);
+						double d = deltaCost(ga2.index);
 						if(d > delta2) {
 							delta2 = d;
-							secondGA = ga2;
+							secondGA = ga2.index;
 						}
 					}
 				}
-				if(secondGA == null)
+				if(secondGA == -1)
 					continue;
 				delta += delta2; // TODO additivity ignores possibility of first and second GA appearing in same formula (make temporary change!)
 			}
@@ -441,48 +606,68 @@ public class SampleSAT implements IParameterHandler {
 			else if(delta == bestDelta && rand.nextInt(2) == 1)
 				newBest = true;
 			if(newBest) {
-				bestGA = gndAtom;
+				bestGA = idxGA;
 				bestGASecond = secondGA;
 				bestDelta = delta;
 			}
 		}
 		// perform the flip
+		if(bestGA == -1)
+			return;
 		flipGndAtom(bestGA);
-		if(bestGASecond != null)
+		if(bestGASecond != -1)
 			flipGndAtom(bestGASecond);
 	}
 	
-	protected void flipGndAtom(GroundAtom gndAtom) {
-		if(debug) System.out.println("  flipping " + gndAtom);
+	/**
+	 * flips the truth value of a ground atom, updating the true literal counts, the set of unsatisfied clauses and the make/break scores
+	 * @param idxGA the index of the ground atom
+	 */
+	protected void flipGndAtom(int idxGA) {
+		if(debug) System.out.println("  flipping " + vars.get(idxGA));
+		numFlips++;
 		// modify state
-		boolean value = state.isTrue(gndAtom);
-		state.set(gndAtom, !value);
-		// the constraints where the literal was a bottleneck are now unsatisfied
-		Vector<Constraint> bn = this.bottlenecks.get(gndAtom.index);
-		if(bn != null) {
-			this.unsatisfiedConstraints.addAll(bn);
-			bn.clear();
+		boolean value = !state.get(idxGA);
+		state.set(idxGA, value);
+		// update the (active) clauses the atom appears in
+		for(int occ : occurrences[idxGA]) {
+			int c = occ >> 1;
+			if(!activeConstraints.get(c))
+				continue;
+			double w = clauseWeights[c];
+			if(value == ((occ & 1) == 0)) { // the literal was false and is now true
+				int numTrue = numTrueLits[c]++;
+				if(numTrue == 0) { // the clause was previously unsatisfied, it is now satisfied
+					removeUnsatisfied(c);
+					for(int lit : clauseLits[c])
+						makeScores[lit >> 1] -= w;
+					breakScores[idxGA] += w;
+				}
+				else if(numTrue == 1) // we are adding a second true lit, so the first one is no longer a bottleneck of this clause
+					breakScores[trueAtomsXor[c]] -= w;
+				trueAtomsXor[c] ^= idxGA;
+			}
+			else { // the literal was true and is now false
+				int numTrue = --numTrueLits[c];
+				trueAtomsXor[c] ^= idxGA;
+				if(numTrue == 0) { // the atom was a bottleneck, so the clause is now unsatisfied
+					addUnsatisfied(c);
+					for(int lit : clauseLits[c])
+						makeScores[lit >> 1] += w;
+					breakScores[idxGA] -= w;
+				}
+				else if(numTrue == 1) // the remaining true literal is now a bottleneck
+					breakScores[trueAtomsXor[c]] += w;
+			}
 		}
-		// other stuff is handled by the constraints themselves
-		Vector<Constraint> occ = this.GAOccurrences.get(gndAtom.index);
-		if(occ != null)
-			for(Constraint c : occ)
-				c.handleFlip(gndAtom);
 	}
 	
-	protected double deltaCost(GroundAtom gndAtom) {
-		double delta = 0;
-		// consider newly unsatisfied constraints (negative)
-		Vector<Constraint> bn = this.bottlenecks.get(gndAtom.index);
-		if(bn != null) 
-			delta -= bn.size();
-		// consider newly satisfied constraints (positive)
-		Vector<Constraint> occs = this.GAOccurrences.get(gndAtom.index);
-		if(occs != null)
-			for(Constraint c : occs)
-				if(c.flipSatisfies(gndAtom))
-					delta++; 
-		return delta;
+	/**
+	 * @param idxGA the index of a ground atom
+	 * @return the change in the (weighted) number of satisfied clauses that results from flipping the ground atom
+	 */
+	protected double deltaCost(int idxGA) {
+		return makeScores[idxGA] - breakScores[idxGA];
 	}
 	
 	/**
@@ -501,123 +686,25 @@ public class SampleSAT implements IParameterHandler {
 		this.pWalkSAT = p;
 	}
 	
-	protected abstract class Constraint {
-		public abstract void satisfyGreedily();
-		public abstract void satisfyRandomly();
-		public abstract boolean flipSatisfies(GroundAtom gndAtom);
-		public abstract void handleFlip(GroundAtom gndAtom);
-		public abstract void initState();
-		public abstract boolean isTrue(PossibleWorld w);
+	public double getPSampleSAT() {
+		return pSampleSAT;
 	}
 	
-	protected class Clause extends Constraint {
-		protected GroundLiteral[] lits;
-		protected Vector<GroundAtom> gndAtoms;
-		protected HashSet<GroundAtom> trueOnes;
-		
-		public Clause(GroundLiteral[] lits) {	
-			this.lits = lits;
-			// collect ground atom occurrences 
-			gndAtoms = new Vector<GroundAtom>(lits.length);
-			trueOnes = new HashSet<GroundAtom>((lits.length+1)/2);
-			for(GroundLiteral lit : lits) {
-				GroundAtom gndAtom = lit.gndAtom;
-				gndAtoms.add(gndAtom);
-				addGAOccurrence(gndAtom, this);
-			}
-		}
-		
-		public boolean isTrue(PossibleWorld w) {
-			for(GroundLiteral lit : lits)
-				if(lit.isTrue(w))
-					return true;
-			return false;
-		}
-		
-		@Override
-		public void satisfyGreedily() {
-			pickAndFlipVar(gndAtoms);
-		}
-		
-		public void satisfyRandomly() {
-			boolean done = false;
-			while(!done) {
-				// randomly pick a ground atom from the clause to flip
-				GroundAtom gndAtom = this.gndAtoms.get(rand.nextInt(this.gndAtoms.size()));
-				// if it has evidence, skip it
-				if(evidence.containsKey(gndAtom.index))
-					continue;
-				// try to flip it (along with a second one, where appropriate)
-				done = pickSecondAtRandomAndFlip(gndAtom);
-			}
-		}
-
-		@Override
-		public boolean flipSatisfies(GroundAtom gndAtom) {
-			return trueOnes.size() == 0;
-		}
-
-		@Override
-		public void handleFlip(GroundAtom gndAtom) {
-            int numTrueLits = trueOnes.size();
-            if(trueOnes.contains(gndAtom)) { // the lit was true and is now false, remove it from the clause's list of true lits
-                trueOnes.remove(gndAtom);
-                numTrueLits--;
-                // if no more true lits are left, the clause is now unsatisfied; this is handled in flipGndAtom
-			}
-            else { // the lit was false and is now true, add it to the clause's list of true lits
-                if(numTrueLits == 0) // the clause was previously unsatisfied, it is now satisfied
-                    unsatisfiedConstraints.remove(this);
-                else if(numTrueLits == 1) // we are adding a second true lit, so the first one is no longer a bottleneck of this clause
-                    bottlenecks.get(trueOnes.iterator().next().index).remove(this);
-                trueOnes.add(gndAtom);
-                numTrueLits++;
-            }
-            if(numTrueLits == 1)
-                addBottleneck(trueOnes.iterator().next(), this);
-		}
-		
-		@Override
-		public String toString() {
-			return StringTool.join(" v ", lits);
-		}
-
-		@Override
-		public void initState() {
-			trueOnes.clear();
-			// find out which lits are true
-			for(GroundLiteral lit : lits)
-				if(lit.isTrue(state))
-					trueOnes.add(lit.gndAtom);
-			// if there are no true ones, this constraint is unsatisfied
-			if(trueOnes.size() == 0)
-				addUnsatisfiedConstraint(this);
-			// if there is exactly one true literal, it is a bottleneck
-			// (unless the clause also contains the negated literal, 
-			// but a sat.Clause guarantees that this cannot be the case)
-			else if(trueOnes.size() == 1) 
-				addBottleneck(trueOnes.iterator().next(), this);			
-		}
-		
-		public int size() {
-			return this.lits.length;
-		}
-
-		public GroundLiteral[] getLiterals() {
-			return lits;
-		}
-		
-		public void removeLiteral(int idxGndAtom) {
-			GroundLiteral[] newlits = new GroundLiteral[this.lits.length-1];
-			gndAtoms.clear();
-			for(int i = 0, j = 0; i < lits.length; i++)
-				if(lits[i].gndAtom.index != idxGndAtom) {
-					newlits[j++] = lits[i];
-					gndAtoms.add(lits[i].gndAtom);
-				}
-			lits = newlits;
+	public double getPWalkSAT() {
+		return pWalkSAT;
+	}
+	
+	protected String clauseToString(int c) {
+		StringBuffer sb = new StringBuffer();
+		for(int lit : clauseLits[c]) {
+			if(sb.length() > 0)
+				sb.append(" v ");
+			if((lit & 1) == 1)
+				sb.append('!');
+			sb.append(vars.get(lit >> 1));
 		}
-	}	
+		return sb.toString();
+	}
 	
 	public static void main(String[] args) throws Exception {
 		/*
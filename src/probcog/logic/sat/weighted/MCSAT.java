@@ -18,17 +18,28 @@
  ******************************************************************************/
 package probcog.logic.sat.weighted;
 
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeSet;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
+import probcog.inference.IntermediateResults;
+import probcog.inference.Metrics;
 import probcog.inference.ParameterHandler;
 import probcog.logic.Formula;
 import probcog.logic.GroundAtom;
 import probcog.logic.GroundLiteral;
 import probcog.logic.PossibleWorld;
 import probcog.logic.WorldVariables;
+import probcog.logic.WorldVariables.Block;
 import probcog.logic.sat.SampleSAT;
 import probcog.srl.Database;
 
@@ -36,6 +47,13 @@ import probcog.srl.Database;
 /**
  * Implementatoin of the MC-SAT inference algorithm (Poon and Domingos 2006).
  * Also includes extensions for soft evidence, MC-SAT-PC (Jain and Beetz 2010).
+ * Multiple independent chains can be run in parallel (parameter "numChains"), in which case
+ * convergence is assessed using the Gelman-Rubin statistic and sampling can be stopped early 
+ * (parameter "maxRHat").
+ * With Rao-Blackwellization (parameter "raoBlackwellize"), each step contributes, for each non-evidence ground atom,
+ * its probability given the current values of all other atoms (outside of its block) rather than its truth value.
+ * Sampling can be cancelled via a {@link CancellationToken}, and snapshots of the intermediate results
+ * are published via {@link #getIntermediateResults()}.
  * @author Dominik Jain
  */
 public class MCSAT implements IParameterHandler {
@@ -50,13 +68,52 @@ public class MCSAT implements IParameterHandler {
 	protected ParameterHandler paramHandler;
 	protected SampleSAT sat;
 	protected Vector<SoftEvidence> softEvidence;
+	protected int numChains = 1;
+	protected double maxRHat = 0.0;
+	protected double lastMaxRHat = Double.NaN;
+	/**
+	 * whether the chains of the multi-chain mode were found to have converged
+	 */
+	protected boolean converged;
+	/**
+	 * whether a chain of the multi-chain mode has stopped prematurely (because it failed or was cancelled), such that the other chains must stop, too
+	 */
+	protected volatile boolean chainsStopped;
+	/**
+	 * all clauses that may need to be satisfied (the clauses of the KB followed by the soft evidence clauses);
+	 * the SAT sampler's constraints are built for this set only once and merely activated/deactivated in each step
+	 */
+	protected Vector<WeightedClause> allClauses;
+	protected WeightedFormula[] formulas;
+	/**
+	 * for each formula, the indices (in allClauses) of its clauses
+	 */
+	protected int[][] formulaClauses;
+	/**
+	 * the index (in allClauses) of the first soft evidence clause
+	 */
+	protected int softEvidenceOffset;
+	protected boolean raoBlackwellize = false;
+	/**
+	 * for Rao-Blackwellized estimation, the groups of non-evidence ground atoms whose conditional distributions are computed
+	 * (each group being either a single atom or the non-evidence atoms of a block); null if not applicable
+	 */
+	protected int[][] rbGroups;
+	/**
+	 * for each group in rbGroups, whether it is (part of) a block, i.e. whether exactly one of its atoms is true
+	 */
+	protected boolean[] rbGroupIsBlock;
+	/**
+	 * for each group in rbGroups, the indices of the formulas that contain any of its atoms
+	 */
+	protected int[][] rbGroupFormulas;
+	protected CancellationToken cancellationToken = new CancellationToken();
+	protected IntermediateResults<GroundAtomDistribution> intermediateResults = new IntermediateResults<GroundAtomDistribution>();
 	
 	public class SoftEvidence {
 		public WeightedClause wc;
 		public double p;
-		public double count;
 		public SoftEvidence(WeightedClause wc, double p) {
-			count = 0;
 			this.wc = wc;
 			this.p = p;
 		}
@@ -70,11 +127,13 @@ public class MCSAT implements IParameterHandler {
 		this.dist = new GroundAtomDistribution(vars);
 		this.paramHandler = new ParameterHandler(this);
 		this.softEvidence = new Vector<SoftEvidence>();
-		PossibleWorld state = new PossibleWorld(vars);
-		sat = new SampleSAT(state, vars, db.getEntries());				
+		sat = createSampleSAT();
 		paramHandler.addSubhandler(sat.getParameterHandler());
 		paramHandler.add("infoInterval", "setInfoInterval");
 		paramHandler.add("verbose", "setVerbose");
+		paramHandler.add("numChains", "setNumChains");
+		paramHandler.add("maxRHat", "setMaxRHat");
+		paramHandler.add("raoBlackwellize", "setRaoBlackwellize");
 		
 		/*
 		0.95 similarPos(Square1,SquareN1)
@@ -129,6 +188,67 @@ public class MCSAT implements IParameterHandler {
 		this.infoInterval = interval;
 	}
 
+	/**
+	 * sets the number of independent Markov chains to run in parallel (one thread per chain);
+	 * with more than one chain, the convergence of the chains is monitored using the Gelman-Rubin statistic
+	 * @param numChains
+	 */
+	public void setNumChains(int numChains) {
+		this.numChains = numChains;
+	}
+	
+	/**
+	 * sets the threshold for the Gelman-Rubin statistic (R-hat) below which sampling is stopped early
+	 * (applies to the multi-chain mode only); the check is made every infoInterval steps
+	 * @param maxRHat  the threshold (e.g. 1.05); values &lt;= 0 disable early stopping
+	 */
+	public void setMaxRHat(double maxRHat) {
+		this.maxRHat = maxRHat;
+	}
+	
+	/**
+	 * sets whether to use the Rao-Blackwellized estimator, i.e. to count, for each ground atom, its conditional
+	 * probability given the rest of the current state rather than its truth value (not applicable with soft evidence)
+	 * @param enabled
+	 */
+	public void setRaoBlackwellize(boolean enabled) {
+		this.raoBlackwellize = enabled;
+	}
+	
+	/**
+	 * @return the largest R-hat value (over all ground atoms) computed in the most recent convergence check of the multi-chain mode
+	 */
+	public double getLastMaxRHat() {
+		return lastMaxRHat;
+	}
+	
+	/**
+	 * sets the token via which sampling can be cancelled; once cancelled, {@link #run(int)} returns the distribution obtained thus far
+	 * @param token
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+	}
+	
+	/**
+	 * requests that sampling be stopped as soon as possible
+	 */
+	public void cancel() {
+		cancellationToken.cancel();
+	}
+	
+	public IntermediateResults<GroundAtomDistribution> getIntermediateResults() {
+		return intermediateResults;
+	}
+	
+	/**
+	 * replaces the object via which intermediate results are published (e.g. in order to forward them to a wrapping inference method)
+	 * @param intermediateResults
+	 */
+	public void setIntermediateResults(IntermediateResults<GroundAtomDistribution> intermediateResults) {
+		this.intermediateResults = intermediateResults;
+	}
+
 	public GroundAtomDistribution run(int steps) throws Exception {
 		if(debug) {
 			System.out.println("\nMC-SAT constraints:");
@@ -138,64 +258,512 @@ public class MCSAT implements IParameterHandler {
 		}
 		verbose = verbose || debug;
 		if(verbose) 
-			System.out.printf("%s sampling (%d weighted formulas)...\n", this.getAlgorithmName(), this.kb.size());		
+			System.out.printf("%s sampling (%d weighted formulas, %d chain(s))...\n", this.getAlgorithmName(), this.kb.size(), Math.max(numChains, 1));		
 		
-		// find initial state satisfying all hard constraints
-		if(verbose) System.out.println("finding initial state...");
-		Vector<WeightedClause> M = new Vector<WeightedClause>();
+		long startTime = System.nanoTime();
+		buildClauseIndex();
+		if(numChains <= 1) {
+			Chain chain = new Chain(sat, rand, dist);
+			if(verbose) System.out.println("finding initial state...");
+			chain.findInitialState();
+			for(int i = 0; i < steps && !cancellationToken.isCancelled(); i++) {
+				chain.step(i, verbose);
+				if(intermediateResults.isDue())
+					publishIntermediateResults();
+			}
+		}
+		else
+			runChains(steps);
+		
+		synchronized(dist) {
+			dist.normalize();
+		}
+		
+		double time = (System.nanoTime() - startTime) / 1e9;
+		String prefix = "inference." + getClass().getSimpleName() + ".";
+		Metrics.record(prefix + "time", time);
+		Metrics.increment(prefix + "samples", dist.numSamples);
+		if(time > 0)
+			Metrics.record(prefix + "samplesPerSecond", dist.numSamples / time);
+		return dist;
+	}
+	
+	/**
+	 * publishes a snapshot of the current distribution
+	 * @throws Exception
+	 */
+	protected void publishIntermediateResults() throws Exception {
+		GroundAtomDistribution snapshot;
+		synchronized(dist) {
+			snapshot = dist.clone();
+		}
+		intermediateResults.publish(snapshot);
+	}
+	
+	/**
+	 * builds the index of all clauses that may be activated during sampling
+	 */
+	protected void buildClauseIndex() {
+		allClauses = new Vector<WeightedClause>();
+		int numFormulas = kb.getFormulasAndClauses().size();
+		formulas = new WeightedFormula[numFormulas];
+		formulaClauses = new int[numFormulas][];
+		int i = 0;
 		for(Entry<WeightedFormula, Vector<WeightedClause>> e : kb.getFormulasAndClauses()) {
-			WeightedFormula wf = e.getKey();
-			if(wf.isHard) {
-				M.addAll(e.getValue());
+			formulas[i] = e.getKey();
+			Vector<WeightedClause> clauses = e.getValue();
+			formulaClauses[i] = new int[clauses.size()];
+			for(int j = 0; j < clauses.size(); j++) {
+				formulaClauses[i][j] = allClauses.size();
+				allClauses.add(clauses.get(j));
+			}
+			i++;
+		}
+		softEvidenceOffset = allClauses.size();
+		for(SoftEvidence se : softEvidence)
+			allClauses.add(se.wc);
+		rbGroups = null;
+		if(raoBlackwellize) {
+			if(softEvidence.isEmpty())
+				buildConditionalsIndex();
+			else if(verbose)
+				System.out.println("Rao-Blackwellization is not applicable with soft evidence; counting truth values instead");
+		}
+	}
+	
+	/**
+	 * builds the groups of ground atoms for Rao-Blackwellized estimation along with the indices of the formulas
+	 * that are relevant to their conditional distributions
+	 */
+	protected void buildConditionalsIndex() {
+		// for each ground atom, the formulas it appears in
+		Vector<Vector<Integer>> atomFormulas = new Vector<Vector<Integer>>(vars.size());
+		for(int i = 0; i < vars.size(); i++)
+			atomFormulas.add(null);
+		HashSet<GroundAtom> atoms = new HashSet<GroundAtom>();
+		for(int f = 0; f < formulas.length; f++) {
+			atoms.clear();
+			formulas[f].formula.getGroundAtoms(atoms);
+			for(GroundAtom ga : atoms) {
+				Vector<Integer> v = atomFormulas.get(ga.index);
+				if(v == null)
+					atomFormulas.set(ga.index, v = new Vector<Integer>());
+				v.add(f);
+			}
+		}
+		// groups
+		Vector<int[]> groups = new Vector<int[]>();
+		Vector<Boolean> isBlock = new Vector<Boolean>();
+		HashSet<Block> handledBlocks = new HashSet<Block>();
+		for(int i = 0; i < vars.size(); i++) {
+			if(sat.hasEvidence(i))
+				continue;
+			Block block = vars.getBlock(i);
+			if(block == null) {
+				groups.add(new int[]{i});
+				isBlock.add(false);
+			}
+			else if(handledBlocks.add(block)) {
+				Vector<Integer> members = new Vector<Integer>();
+				for(GroundAtom ga : block)
+					if(!sat.hasEvidence(ga.index))
+						members.add(ga.index);
+				int[] group = new int[members.size()];
+				for(int j = 0; j < group.length; j++)
+					group[j] = members.get(j);
+				groups.add(group);
+				isBlock.add(true);
 			}
-		}		
-		sat.setDebugMode(debug);
-		sat.initConstraints(M);
-		sat.run();
+		}
+		rbGroups = groups.toArray(new int[groups.size()][]);
+		rbGroupIsBlock = new boolean[rbGroups.length];
+		rbGroupFormulas = new int[rbGroups.length][];
+		for(int g = 0; g < rbGroups.length; g++) {
+			rbGroupIsBlock[g] = isBlock.get(g);
+			TreeSet<Integer> fs = new TreeSet<Integer>();
+			for(int idxGA : rbGroups[g])
+				if(atomFormulas.get(idxGA) != null)
+					fs.addAll(atomFormulas.get(idxGA));
+			rbGroupFormulas[g] = new int[fs.size()];
+			int j = 0;
+			for(Integer f : fs)
+				rbGroupFormulas[g][j++] = f;
+		}
+	}
+	
+	/**
+	 * creates a SampleSAT instance operating on a new possible world
+	 * @return the SampleSAT instance
+	 * @throws Exception
+	 */
+	protected SampleSAT createSampleSAT() throws Exception {
+		return new SampleSAT(new PossibleWorld(vars), vars, db.getEntries());
+	}
+	
+	/**
+	 * creates the SampleSAT instance for an additional chain, which is configured exactly like the primary instance
+	 * @return the SampleSAT instance
+	 * @throws Exception
+	 */
+	protected SampleSAT createChainSampleSAT() throws Exception {
+		SampleSAT chainSAT = createSampleSAT();
+		// apply the parameters that were submitted to us (and thus to the primary instance)
+		Map<String,Object> params = paramHandler.getSubmittedParams();
+		if(params != null)
+			chainSAT.getParameterHandler().handle(params, false);
+		// adopt settings that may have been applied to the primary instance directly
+		chainSAT.setPSampleSAT(sat.getPSampleSAT());
+		chainSAT.setPWalkSAT(sat.getPWalkSAT());
+		// (unit propagation is not forwarded, as it cannot be used with the active constraint sets of MC-SAT)
+		chainSAT.setDebugMode(debug);
+		return chainSAT;
+	}
+	
+	/**
+	 * runs numChains chains in parallel, merging their counts into the distribution and checking
+	 * for convergence every infoInterval steps
+	 * @param steps  the maximum number of steps per chain
+	 * @throws Exception
+	 */
+	protected void runChains(int steps) throws Exception {
+		Chain[] chains = new Chain[numChains];
+		for(int i = 0; i < numChains; i++) {
+			SampleSAT chainSAT = sat;
+			if(i > 0)
+				chainSAT = createChainSampleSAT();
+			chains[i] = new Chain(chainSAT, new Random(rand.nextLong()), new GroundAtomDistribution(vars));
+		}
+		converged = false;
+		chainsStopped = false;
+		CyclicBarrier barrier = new CyclicBarrier(numChains, new ConvergenceCheck(chains));
+		for(Chain c : chains) {
+			c.steps = steps;
+			c.barrier = barrier;
+			c.start();
+		}
+		for(Chain c : chains) {
+			c.join();
+			if(c.exception != null)
+				throw c.exception;
+		}
+		// if sampling was cancelled, the chains stopped at different steps, so merge their final counts
+		if(cancellationToken.isCancelled()) {
+			synchronized(dist) {
+				dist.clear();
+				for(Chain c : chains)
+					dist.addDistribution(c.dist);
+			}
+		}
+	}
+	
+	/**
+	 * computes, for each ground atom, the Gelman-Rubin potential scale reduction factor (R-hat) of its 
+	 * truth value (or, with Rao-Blackwellization, its conditional probability of being true) across a set of chains;
+	 * the within-chain variances are the empirical variances of the values that were added to the chains
+	 * @param chains  the (unnormalized) distributions of the chains, which must all contain the same number of samples (of weight 1)
+	 * @return the largest R-hat value over all ground atoms
+	 */
+	public static double computeMaxRHat(GroundAtomDistribution[] chains) {
+		int m = chains.length;
+		double n = chains[0].numSamples;
+		if(m < 2 || n < 2)
+			return Double.POSITIVE_INFINITY;
+		double maxRHat = 1.0;
+		for(int a = 0; a < chains[0].sums.length; a++) {
+			double meanOfMeans = 0.0, W = 0.0;
+			for(GroundAtomDistribution d : chains) {
+				double mean = d.sums[a] / n;
+				meanOfMeans += mean;
+				// (for truth values, i.e. indicators, this is mean * (1 - mean) * n / (n - 1))
+				W += Math.max(0.0, d.sumsSq[a] / n - mean * mean) * n / (n - 1);
+			}
+			meanOfMeans /= m;
+			W /= m;
+			double B = 0.0;
+			for(GroundAtomDistribution d : chains) {
+				double diff = d.sums[a] / n - meanOfMeans;
+				B += diff * diff;
+			}
+			B *= n / (m - 1);
+			double rHat;
+			if(W == 0.0) // all chains have been constant
+				rHat = B == 0.0 ? 1.0 : Double.POSITIVE_INFINITY;
+			else
+				rHat = Math.sqrt(((n - 1) / n * W + B / n) / W);
+			if(rHat > maxRHat)
+				maxRHat = rHat;
+		}
+		return maxRHat;
+	}
+	
+	/**
+	 * an MC-SAT Markov chain with its own SAT sampler (and thus its own state) and random number generator
+	 */
+	protected class Chain extends Thread {
+		protected SampleSAT sat;
+		protected Random rand;
+		/**
+		 * the distribution to which the chain's samples are added
+		 */
+		protected GroundAtomDistribution dist;
+		/**
+		 * for each soft evidence clause, the number of samples in which it was satisfied
+		 */
+		protected double[] softEvidenceCounts;
+		/**
+		 * the indices (in allClauses) of the clauses to be satisfied in the current step
+		 */
+		protected BitSet M;
+		protected int steps;
+		protected CyclicBarrier barrier;
+		protected Exception exception = null;
+		/**
+		 * the distribution of the number of SAT flips per step (metric)
+		 */
+		protected Metrics.Histogram flipsPerStep;
+		/**
+		 * for Rao-Blackwellized estimation, the conditional probabilities of the ground atoms being true given the current state
+		 */
+		protected double[] conditionals = null;
+		/**
+		 * buffers for the computation of the conditionals (for each value of a group, the score and the number of violated hard formulas)
+		 */
+		protected double[] scores;
+		protected int[] violations;
+		protected boolean[] savedValues;
 		
-		// actual MC-SAT sampling
-		for(int i = 0; i < steps; i++) {
-			
+		public Chain(SampleSAT sat, Random rand, GroundAtomDistribution dist) {
+			this.sat = sat;
+			this.rand = rand;
+			this.dist = dist;
+			flipsPerStep = Metrics.getHistogram("inference." + MCSAT.this.getClass().getSimpleName() + ".flipsPerStep");
+			softEvidenceCounts = new double[softEvidence.size()];
+			M = new BitSet(allClauses.size());
+			if(rbGroups != null) {
+				conditionals = new double[vars.size()];
+				int maxSize = 2;
+				for(int[] group : rbGroups)
+					maxSize = Math.max(maxSize, group.length);
+				scores = new double[maxSize];
+				violations = new int[maxSize];
+				savedValues = new boolean[maxSize];
+			}
+		}
+		
+		/**
+		 * finds an initial state satisfying all hard constraints
+		 * @throws Exception
+		 */
+		public void findInitialState() throws Exception {
+			sat.setDebugMode(debug);
+			sat.initConstraints(allClauses);
+			M.clear();
+			for(int f = 0; f < formulas.length; f++)
+				if(formulas[f].isHard)
+					for(int c : formulaClauses[f])
+						M.set(c);
+			sat.setActiveConstraints(M);
+			sat.run();
+		}
+		
+		/**
+		 * performs an MC-SAT step, adding the resulting sample to the chain's distribution
+		 * @param i  the index of the step
+		 * @param report  whether to print progress information
+		 * @throws Exception
+		 */
+		public void step(int i, boolean report) throws Exception {
 			M.clear();
 			
-			for(Entry<WeightedFormula, Vector<WeightedClause>> e : kb.getFormulasAndClauses()) {
-				WeightedFormula wf = e.getKey();
+			for(int f = 0; f < formulas.length; f++) {
+				WeightedFormula wf = formulas[f];
 				if(wf.formula.isTrue(sat.getState())){
 					boolean satisfy = wf.isHard || rand.nextDouble() * Math.exp(wf.weight) > 1.0;
 					if(satisfy)
-						M.addAll(e.getValue());					
+						for(int c : formulaClauses[f])
+							M.set(c);
 				}				
 			}
 			
 			// soft evidence clauses
 			if(i > 0)
-				for(SoftEvidence se : this.softEvidence) {
+				for(int j = 0; j < softEvidence.size(); j++) {
+					SoftEvidence se = softEvidence.get(j);
 					if(se.wc.isTrue(sat.getState())) {
-						se.count += 1;
-						if(se.count/i < se.p)
-							M.add(se.wc);							
+						softEvidenceCounts[j] += 1;
+						if(softEvidenceCounts[j]/i < se.p)
+							M.set(softEvidenceOffset + j);
 					}
 				}			
 			
-			if(verbose && (i+1) % infoInterval == 0) {
-				System.out.printf("MC-SAT step %d: %d constraints to be satisfied\n", i+1, M.size());
+			if(report && (i+1) % infoInterval == 0) {
+				System.out.printf("MC-SAT step %d: %d constraints to be satisfied\n", i+1, M.cardinality());
 				if(debug) {
-					for(WeightedClause wc : M)
-						System.out.println("    " + wc);
+					for(int c = M.nextSetBit(0); c >= 0; c = M.nextSetBit(c+1))
+						System.out.println("    " + allClauses.get(c));
 				}
 			}
-			sat.initConstraints(M);
+			long flips = sat.getNumFlips();
 			sat.run();
+			flipsPerStep.record(sat.getNumFlips() - flips);
 			
-			synchronized(dist) {
-				dist.addSample(sat.getState(), 1.0);
+			if(conditionals != null) {
+				computeConditionals(sat.getState());
+				synchronized(dist) {
+					dist.addSample(conditionals, 1.0);
+				}
+			}
+			else {
+				synchronized(dist) {
+					dist.addSample(sat.getState(), 1.0);
+				}
 			}
 		}
-		synchronized(dist) {
-			dist.normalize();
+		
+		/**
+		 * computes, for each ground atom, the probability of it being true given the values of all other ground atoms 
+		 * (outside of its block) in the given state, using the hard and soft formulas it appears in; for evidence atoms, 
+		 * the probability is given by the evidence
+		 * @param state  the current state, which is temporarily modified but ultimately restored
+		 */
+		protected void computeConditionals(PossibleWorld state) {
+			for(int i = 0; i < conditionals.length; i++)
+				conditionals[i] = state.get(i) ? 1.0 : 0.0;
+			for(int g = 0; g < rbGroups.length; g++) {
+				int[] atoms = rbGroups[g];
+				int[] fs = rbGroupFormulas[g];
+				boolean isBlock = rbGroupIsBlock[g];
+				int numValues = isBlock ? atoms.length : 2;
+				for(int k = 0; k < atoms.length; k++)
+					savedValues[k] = state.get(atoms[k]);
+				// compute the score of each value, only the values that violate the fewest hard formulas being possible
+				int minViolations = Integer.MAX_VALUE;
+				double maxScore = Double.NEGATIVE_INFINITY;
+				for(int v = 0; v < numValues; v++) {
+					if(isBlock)
+						for(int k = 0; k < atoms.length; k++)
+							state.set(atoms[k], k == v);
+					else
+						state.set(atoms[0], v == 1);
+					int numViolated = 0;
+					double score = 0.0;
+					for(int f : fs) {
+						WeightedFormula wf = formulas[f];
+						if(wf.formula.isTrue(state)) {
+							if(!wf.isHard)
+								score += wf.weight;
+						}
+						else if(wf.isHard)
+							numViolated++;
+					}
+					scores[v] = score;
+					violations[v] = numViolated;
+					if(numViolated < minViolations || (numViolated == minViolations && score > maxScore)) {
+						minViolations = numViolated;
+						maxScore = score;
+					}
+				}
+				for(int k = 0; k < atoms.length; k++)
+					state.set(atoms[k], savedValues[k]);
+				double Z = 0.0;
+				for(int v = 0; v < numValues; v++) {
+					scores[v] = violations[v] == minViolations ? Math.exp(scores[v] - maxScore) : 0.0;
+					Z += scores[v];
+				}
+				if(isBlock)
+					for(int k = 0; k < atoms.length; k++)
+						conditionals[atoms[k]] = scores[k] / Z;
+				else
+					conditionals[atoms[0]] = scores[1] / Z;
+			}
 		}
 		
-		return dist;
+		@Override
+		public void run() {
+			try {
+				findInitialState();
+				for(int i = 0; i < steps; i++) {
+					if(mustStop()) {
+						stopChains();
+						return;
+					}
+					step(i, false);
+					if((i+1) % infoInterval == 0 || i+1 == steps) {
+						// never wait for chains that may have stopped
+						if(mustStop()) {
+							stopChains();
+							return;
+						}
+						barrier.await();
+						if(converged)
+							break;
+					}
+				}
+			}
+			catch(BrokenBarrierException e) {
+				// the barrier was broken by a chain that failed or was cancelled
+			}
+			catch(Throwable e) {
+				exception = e instanceof Exception ? (Exception)e : new Exception(e);
+				stopChains();
+			}
+		}
+		
+		protected boolean mustStop() {
+			return chainsStopped || cancellationToken.isCancelled();
+		}
+		
+		/**
+		 * makes all the chains stop after this chain has stopped prematurely
+		 */
+		protected void stopChains() {
+			chainsStopped = true;
+			// break the barrier, which (unlike a reset) releases both the chains that are currently waiting and the ones that 
+			// arrive later on; if this chain is the last to arrive, the barrier trips instead, and the released chains will
+			// notice the flag before waiting again 
+			try {
+				barrier.await(0, TimeUnit.NANOSECONDS);
+			}
+			catch(Exception e) {
+			}
+		}
+	}
+	
+	/**
+	 * barrier action of the multi-chain mode: merges the chains' counts into the overall distribution 
+	 * and checks for convergence
+	 */
+	protected class ConvergenceCheck implements Runnable {
+		protected Chain[] chains;
+		
+		public ConvergenceCheck(Chain[] chains) {
+			this.chains = chains;
+		}
+		
+		public void run() {
+			GroundAtomDistribution[] dists = new GroundAtomDistribution[chains.length];
+			for(int i = 0; i < chains.length; i++)
+				dists[i] = chains[i].dist;
+			synchronized(dist) {
+				dist.clear();
+				for(GroundAtomDistribution d : dists)
+					dist.addDistribution(d);
+			}
+			lastMaxRHat = computeMaxRHat(dists);
+			if(verbose)
+				System.out.printf("MC-SAT step %d: max. R-hat over %d chains = %f\n", dists[0].numSamples, chains.length, lastMaxRHat);
+			if(maxRHat > 0 && lastMaxRHat < maxRHat) {
+				converged = true;
+				if(verbose) System.out.println("chains have converged");
+			}
+			try {
+				if(intermediateResults.isDue())
+					publishIntermediateResults();
+			}
+			catch(Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
 	}
 	
 	public void setP(double p) {
@@ -204,6 +772,11 @@ public class MCSAT implements IParameterHandler {
 	
 	public static class GroundAtomDistribution implements Cloneable {
 		public double[] sums;
+		/**
+		 * for each ground atom, the (weighted) sum of the squares of the values that were added for it, from which the
+		 * variance of the samples can be computed (for Rao-Blackwellized samples, the values are not just 0 and 1)
+		 */
+		public double[] sumsSq;
 		public double Z;
 		public int numSamples;
 		
@@ -211,12 +784,50 @@ public class MCSAT implements IParameterHandler {
 			this.Z = 0.0;
 			this.numSamples = 0;
 			this.sums = new double[vars.size()];
+			this.sumsSq = new double[vars.size()];
+		}
+		
+		public void clear() {
+			for(int i = 0; i < sums.length; i++) {
+				sums[i] = 0.0;
+				sumsSq[i] = 0.0;
+			}
+			Z = 0.0;
+			numSamples = 0;
+		}
+		
+		/**
+		 * adds the (unnormalized) counts of another distribution over the same variables to this distribution
+		 * @param d
+		 */
+		public void addDistribution(GroundAtomDistribution d) {
+			for(int i = 0; i < sums.length; i++) {
+				sums[i] += d.sums[i];
+				sumsSq[i] += d.sumsSq[i];
+			}
+			Z += d.Z;
+			numSamples += d.numSamples;
+		}
+		
+		/**
+		 * adds a sample that is given as, for each ground atom, the probability of it being true (Rao-Blackwellized estimation)
+		 * @param probabilities
+		 * @param weight
+		 */
+		public void addSample(double[] probabilities, double weight) {
+			for(int i = 0; i < sums.length; i++) {
+				sums[i] += weight * probabilities[i];
+				sumsSq[i] += weight * probabilities[i] * probabilities[i];
+			}
+			Z += weight;
+			numSamples++;
 		}
 		
 		public void addSample(PossibleWorld w, double weight){
 			for(GroundAtom ga : w.getVariables()){
 				if(w.isTrue(ga)){
 					sums[ga.index] += weight;
+					sumsSq[ga.index] += weight;
 				}
 			}
 			Z += weight;
@@ -227,6 +838,7 @@ public class MCSAT implements IParameterHandler {
 			if(Z != 1.0) {
 				for(int i = 0; i < sums.length; i++){
 					sums[i] /= Z;
+					sumsSq[i] /= Z;
 				}
 				Z = 1.0;
 			}
@@ -237,7 +849,10 @@ public class MCSAT implements IParameterHandler {
 		}
 		
 		public GroundAtomDistribution clone() throws CloneNotSupportedException {
-			return (GroundAtomDistribution)super.clone();
+			GroundAtomDistribution ret = (GroundAtomDistribution)super.clone();
+			ret.sums = sums.clone();
+			ret.sumsSq = sumsSq.clone();
+			return ret;
 		}
 	}
 
@@ -245,12 +860,12 @@ public class MCSAT implements IParameterHandler {
 		return dist.getResult(ga.index);
 	}
 	
-	public GroundAtomDistribution pollResults() throws CloneNotSupportedException {
-		GroundAtomDistribution ret = null;
-		synchronized(dist) {
-			ret = this.dist.clone();
-		}
-		return ret;
+	/**
+	 * gets the most recent snapshot of the intermediate results (without blocking the sampler), requesting a fresh one
+	 * @return the snapshot (unnormalized) or null if none has been published yet
+	 */
+	public GroundAtomDistribution pollResults() {
+		return intermediateResults.poll();
 	}
 
 	public ParameterHandler getParameterHandler() {
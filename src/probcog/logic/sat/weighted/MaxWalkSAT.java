@@ -20,7 +20,6 @@ package probcog.logic.sat.weighted;
 
 import java.util.Vector;
 
-import probcog.logic.GroundAtom;
 import probcog.logic.PossibleWorld;
 import probcog.logic.WorldVariables;
 import probcog.logic.sat.SampleSAT;
@@ -40,36 +39,16 @@ public class MaxWalkSAT extends SampleSAT implements IMaxSAT {
 	}
 	
 	@Override
-	protected Constraint makeConstraint(probcog.logic.sat.Clause c) {
-		return new WeightedClause((probcog.logic.sat.weighted.WeightedClause)c);
+	protected double getClauseWeight(probcog.logic.sat.Clause c) {
+		return ((WeightedClause)c).weight;
 	}
 	
-	protected class WeightedClause extends Clause {
-		boolean isHard;
-		double weight;
-
-		public WeightedClause(probcog.logic.sat.weighted.WeightedClause wc) {
-			super(wc.lits);
-			weight = wc.weight;
-			isHard = wc.isHard;
-		}
-	}
-	
-	@Override
-	protected double deltaCost(GroundAtom gndAtom) {
-		double delta = 0;
-		// consider newly unsatisfied constraints (negative)
-		Vector<Constraint> bn = this.bottlenecks.get(gndAtom.index);
-		if(bn != null)
-			for(Constraint c : bn)
-				delta -= ((WeightedClause)c).weight;
-		// consider newly satisfied constraints (positive)
-		Vector<Constraint> occs = this.GAOccurrences.get(gndAtom.index);
-		if(occs != null)
-			for(Constraint c : occs)
-				if(c.flipSatisfies(gndAtom))
-					delta += ((WeightedClause)c).weight; 
-		return delta;
+	/**
+	 * @param c the index of a clause
+	 * @return true if the clause is a hard constraint
+	 */
+	protected boolean isHard(int c) {
+		return ((WeightedClause)clauses[c]).isHard;
 	}
 	
 	@Override
@@ -82,24 +61,23 @@ public class MaxWalkSAT extends SampleSAT implements IMaxSAT {
 		// pick an unsatisfied constraint
 		// with probability p, satisfy the constraint randomly		
 		if(rand.nextDouble() < this.pWalkSAT) {
-			Constraint c = unsatisfiedConstraints.get(rand.nextInt(unsatisfiedConstraints.size()));
-			c.satisfyRandomly();
+			int c = unsatisfied[rand.nextInt(numUnsatisfied)];
+			satisfyRandomly(c);
 		}			 
 		// with probability 1-p, satisfy it greedily
 		else {
-			Vector<Constraint> hardUnsat = new Vector<Constraint>();
-			for(Constraint c : unsatisfiedConstraints) {
-				WeightedClause wc = (WeightedClause)c;
-				if(wc.isHard)
-					hardUnsat.add(c);
+			Vector<Integer> hardUnsat = new Vector<Integer>();
+			for(int i = 0; i < numUnsatisfied; i++) {
+				if(isHard(unsatisfied[i]))
+					hardUnsat.add(unsatisfied[i]);
 			}
 			if(!hardUnsat.isEmpty()) {
-				Constraint c = hardUnsat.get(rand.nextInt(hardUnsat.size()));
-				c.satisfyGreedily();
+				int c = hardUnsat.get(rand.nextInt(hardUnsat.size()));
+				pickAndFlipVar(clauseLits[c]);
 			}
 			else {
-				Constraint c = unsatisfiedConstraints.get(rand.nextInt(unsatisfiedConstraints.size()));
-				c.satisfyGreedily();
+				int c = unsatisfied[rand.nextInt(numUnsatisfied)];
+				pickAndFlipVar(clauseLits[c]);
 			}
 		}
 	}
@@ -119,10 +97,10 @@ public class MaxWalkSAT extends SampleSAT implements IMaxSAT {
 			
 			double unsatisfiedSum = 0.0;
 			int hardMissing = 0;
-			for(Constraint c : unsatisfiedConstraints) {
-				WeightedClause wc = (WeightedClause)c;
-				unsatisfiedSum += wc.weight;
-				if(wc.isHard)
+			for(int i = 0; i < numUnsatisfied; i++) {
+				int c = unsatisfied[i];
+				unsatisfiedSum += clauseWeights[c];
+				if(isHard(c))
 					hardMissing++;
 			}
 			
@@ -146,11 +124,10 @@ public class MaxWalkSAT extends SampleSAT implements IMaxSAT {
 		System.out.printf("solution quality: sum of unsatisfied constraints: %f, hard constraints unsatisfied: %d\n", bestSum, bestHardMissing);
 		
 		PossibleWorld bestState = this.getBestState();
-		for(Constraint c : this.constraints) {
-			WeightedClause wc = (WeightedClause)c;
-			if(wc.isHard) {
-				if(!wc.isTrue(bestState))
-					System.out.println(wc);
+		for(int c = 0; c < clauses.length; c++) {
+			if(isHard(c)) {
+				if(!isSatisfied(c, bestState))
+					System.out.println(clauses[c]);
 			}
 		}
 	}
@@ -27,6 +27,9 @@ import java.util.Vector;
 import java.util.Map.Entry;
 
 import probcog.logic.parser.ParseException;
+import probcog.service.GroundModelCache.StructuralEvidence;
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.Database;
 import probcog.srl.Signature;
 import probcog.srl.Variable;
@@ -45,9 +48,8 @@ import edu.tum.cs.util.datastruct.Pair;
 public class BLNModel extends Model {
 
 	protected BayesianLogicNetwork bln;
-	protected GroundBLN gbln;
-	protected Database db;
 	protected String filenames;
+	protected GroundModelCache<GroundBLN> groundModelCache = new GroundModelCache<GroundBLN>();
 	
 	public BLNModel(String modelName, String blogFile, String networkFile, String logicFile) throws IOException, ParseException, Exception {
 		super(modelName);
@@ -55,79 +57,151 @@ public class BLNModel extends Model {
 		this.bln = new BayesianLogicNetwork(blogFile, networkFile, logicFile);		
 	}
 	
-	@Override
-	public void instantiate() throws Exception {
-		gbln = bln.ground(db);
-		paramHandler.addSubhandler(gbln);
-		gbln.instantiateGroundNetwork();
+	/**
+	 * loads the model from a binary model file
+	 * @param modelName
+	 * @param in
+	 * @throws Exception
+	 */
+	public BLNModel(String modelName, BinaryModelReader in) throws Exception {
+		super(modelName);
+		this.filenames = in.getFile().getPath();
+		this.bln = new BayesianLogicNetwork(in);
 	}
 	
 	@Override
-	public void beginSession(Map<String, Object> params) throws Exception {
-		super.beginSession(params);
-		db = new Database(bln.rbn);
-		paramHandler.addSubhandler(db);
+	public void writeBinary(BinaryModelWriter out) throws Exception {
+		bln.writeBinary(out);
 	}
-
+	
 	@Override
-	protected Vector<InferenceResult> _infer(Iterable<String> queries) throws Exception {		
-		BLNinfer inference = new BLNinfer(actualParams);
-		paramHandler.addSubhandler(inference);		
-		inference.setGroundBLN(gbln);
-		inference.setQueries(queries);
-		Collection<probcog.srl.directed.inference.InferenceResult> results = inference.run();
+	public boolean supportsBinaryFormat() {
+		return bln.supportsBinaryFormat();
+	}
+	
+	public class Session extends Model.Session {
+		protected GroundBLN gbln;
+		protected Database db;
+		/**
+		 * the key of the ground model in the cache (null if the model is not to be cached)
+		 */
+		protected String cacheKey = null;
 		
-		// store results in common InferenceResult format
-		Vector<InferenceResult> ret = new Vector<InferenceResult>();
-		for(probcog.srl.directed.inference.InferenceResult res : results) {
-			 Pair<String, String[]> var = RelationalNode.parse(res.varName);
-			 Signature sig = bln.rbn.getSignature(var.first);
-			 String[] params = var.second;
-			 boolean isBool = sig.isBoolean();
-			 if(!isBool) {
-				 String[] fullParams = new String[params.length+1];
-				 for(int i = 0; i < params.length; i++)
-					 fullParams[i] = params[i];
-				 params = fullParams;
-			 }
-			 for(int i = 0; i < res.domainElements.length; i++) {
-				 if(!isBool) 
-					 params[params.length-1] = res.domainElements[i];					 
-				 else
-					 if(!res.domainElements[i].equalsIgnoreCase("True"))
-						 continue;
-				 ret.add(new InferenceResult(var.first, params.clone(), res.probabilities[i]));
-			 }
+		public Session(Map<String, Object> params) throws Exception {
+			super(params);
+			db = new Database(bln.rbn);
+			paramHandler.addSubhandler(db);
+		}
+		
+		@Override
+		public void instantiate() throws Exception {
+			// if we have a ground network for the same objects and structural evidence, just apply the new evidence
+			if(groundModelCache.isEnabled()) {
+				// the structure of the ground network depends on the evidence on evidence functions and, if ground formulas are simplified, on all the evidence
+				Object simplify = actualParams.get("simplifyFormulas");
+				boolean allEvidence = simplify != null && Boolean.parseBoolean(simplify.toString());
+				cacheKey = GroundModelCache.getKey(db, bln.rbn.getSignatures(), allEvidence ? StructuralEvidence.All : StructuralEvidence.EvidenceFunctions);
+				gbln = groundModelCache.acquire(cacheKey);
+				if(gbln != null) {
+					gbln.setDatabase(db);
+					paramHandler.addSubhandler(gbln);
+					return;
+				}
+			}
+			gbln = bln.ground(db);
+			// the template does not receive any parameters in the service, and it must not keep the ground model (which may be evicted from the cache) reachable
+			bln.getParameterHandler().removeSubhandler(gbln);
+			paramHandler.addSubhandler(gbln);
+			gbln.instantiateGroundNetwork();
+		}
+		
+		@Override
+		public void close() {
+			// the ground model may outlive the session (in the cache), so it must not reference the session's handler
+			if(gbln != null)
+				paramHandler.removeSubhandler(gbln);
+			if(cacheKey != null && gbln != null)
+				groundModelCache.release(cacheKey, gbln, gbln.getGroundNetwork().bn.getNodes().length);
+			cacheKey = null;
+			gbln = null;
 		}
-		return ret;
-	}
 
-	@Override
-	protected void _setEvidence(Iterable<String[]> evidence) throws Exception {
-		for(String[] tuple : evidence) {
-			String functionName = tuple[0];
-			Signature sig = bln.rbn.getSignature(functionName);
-			if(sig == null)
-				throw new Exception("Function '" + functionName + "' appearing in evidence not found in model " + name);
-			String value;
-			String[] params;
-			if(sig.argTypes.length == tuple.length-1) {
-				params = new String[tuple.length-1];
-				for(int i = 0; i < params.length; i++)
-					params[i] = tuple[i+1];
-				value = "True";
+		@Override
+		protected Vector<InferenceResult> _infer(Iterable<String> queries) throws Exception {		
+			BLNinfer inference = new BLNinfer(actualParams);
+			paramHandler.addSubhandler(inference);		
+			inference.setGroundBLN(gbln);
+			inference.setQueries(queries);
+			inference.setCancellationToken(cancellationToken);
+			Collection<probcog.srl.directed.inference.InferenceResult> results = inference.run();
+			
+			// store results in common InferenceResult format
+			Vector<InferenceResult> ret = new Vector<InferenceResult>();
+			for(probcog.srl.directed.inference.InferenceResult res : results) {
+				 Pair<String, String[]> var = RelationalNode.parse(res.varName);
+				 Signature sig = bln.rbn.getSignature(var.first);
+				 String[] params = var.second;
+				 boolean isBool = sig.isBoolean();
+				 if(!isBool) {
+					 String[] fullParams = new String[params.length+1];
+					 for(int i = 0; i < params.length; i++)
+						 fullParams[i] = params[i];
+					 params = fullParams;
+				 }
+				 for(int i = 0; i < res.domainElements.length; i++) {
+					 if(!isBool) 
+						 params[params.length-1] = res.domainElements[i];					 
+					 else
+						 if(!res.domainElements[i].equalsIgnoreCase("True"))
+							 continue;
+					 ret.add(new InferenceResult(var.first, params.clone(), res.probabilities[i]));
+				 }
 			}
-			else {
-				if(tuple.length < sig.argTypes.length+2)
-					throw new Exception("Evidence entry has too few parameters: " + StringTool.join(", ", tuple));
-				params = new String[sig.argTypes.length];
-				for(int i = 0; i < params.length; i++)
-					params[i] = tuple[i+1];
-				value = tuple[params.length+1];
+			return ret;
+		}
+
+		@Override
+		protected void _setEvidence(Iterable<String[]> evidence) throws Exception {
+			for(String[] tuple : evidence) {
+				String functionName = tuple[0];
+				Signature sig = bln.rbn.getSignature(functionName);
+				if(sig == null)
+					throw new Exception("Function '" + functionName + "' appearing in evidence not found in model " + name);
+				String value;
+				String[] params;
+				if(sig.argTypes.length == tuple.length-1) {
+					params = new String[tuple.length-1];
+					for(int i = 0; i < params.length; i++)
+						params[i] = tuple[i+1];
+					value = "True";
+				}
+				else {
+					if(tuple.length < sig.argTypes.length+2)
+						throw new Exception("Evidence entry has too few parameters: " + StringTool.join(", ", tuple));
+					params = new String[sig.argTypes.length];
+					for(int i = 0; i < params.length; i++)
+						params[i] = tuple[i+1];
+					value = tuple[params.length+1];
+				}
+				db.addVariable(new Variable(functionName, params, value, bln.rbn));
 			}
-			db.addVariable(new Variable(functionName, params, value, this.bln.rbn));
+		}
+
+		@Override
+		protected String _getConstantType(String constant) {
+			return db.getConstantType(constant);
 		}
 	}
+	
+	@Override
+	public Session createSession(Map<String, Object> params) throws Exception {
+		return new Session(params);
+	}
+	
+	@Override
+	protected GroundModelCache<?> getGroundModelCache() {
+		return groundModelCache;
+	}
 
 	@Override
 	public Vector<String[]> getPredicates() {
@@ -151,11 +225,6 @@ public class BLNModel extends Model {
 		return ret;
 	}
 
-	@Override
-	protected String _getConstantType(String constant) {
-		return db.getConstantType(constant);
-	}
-    
     @Override
     public String toString() {
     	return String.format("%s=BLN[%s]", this.name, this.filenames);
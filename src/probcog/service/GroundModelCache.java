@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (C) 2008-2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+
+import probcog.srl.AbstractVariable;
+import probcog.srl.GenericDatabase;
+import probcog.srl.Signature;
+
+import edu.tum.cs.util.StringTool;
+
+/**
+ * A least-recently-used cache of ground models (e.g. ground Bayesian networks or Markov random fields),
+ * which allows queries that concern the same set of objects to reuse a previously instantiated 
+ * ground model, such that only the evidence needs to be applied anew.
+ * Since a ground model is modified when evidence is applied to it, a model that is acquired from
+ * the cache is removed from it until it is released, i.e. it is used by only one session at a time.
+ * Ground models are identified by a key that comprises the domains and the evidence that
+ * affects the structure of the ground model (see {@link #getKey(GenericDatabase, Collection, StructuralEvidence)}).
+ * The cache is limited both in the number of entries and in the total size of the
+ * ground models it holds (as measured by the number of ground elements, e.g. nodes or formulas).
+ * @author Dominik Jain
+ */
+public class GroundModelCache<T> {
+	protected LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	/**
+	 * the maximum number of ground models to keep (0 disables the cache)
+	 */
+	protected int maxEntries = 0;
+	/**
+	 * the maximum total size of all cached ground models
+	 */
+	protected long maxSize = Long.MAX_VALUE;
+	protected long size = 0;
+	protected int hits = 0, misses = 0;
+
+	protected class Entry {
+		public T model;
+		public long size;
+
+		public Entry(T model, long size) {
+			this.model = model;
+			this.size = size;
+		}
+	}
+
+	public synchronized void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		evict();
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	public boolean isEnabled() {
+		return maxEntries > 0;
+	}
+
+	/**
+	 * retrieves a ground model for exclusive use, removing it from the cache
+	 * @param key
+	 * @return the ground model or null if there is no such model in the cache
+	 */
+	public synchronized T acquire(String key) {
+		Entry e = entries.remove(key);
+		if(e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		size -= e.size;
+		return e.model;
+	}
+
+	/**
+	 * adds a ground model to the cache (as the most recently used one), evicting least recently used models as necessary
+	 * @param key
+	 * @param model
+	 * @param size the size of the model (e.g. the number of ground nodes or formulas)
+	 */
+	public synchronized void release(String key, T model, long size) {
+		if(maxEntries <= 0 || size > maxSize)
+			return;
+		Entry old = entries.put(key, new Entry(model, size));
+		if(old != null)
+			this.size -= old.size;
+		this.size += size;
+		evict();
+	}
+
+	protected void evict() {
+		Iterator<Entry> i = entries.values().iterator();
+		while((entries.size() > maxEntries || size > maxSize) && i.hasNext()) {
+			size -= i.next().size;
+			i.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	public synchronized int getNumEntries() {
+		return entries.size();
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * specifies which evidence determines the structure of a ground model
+	 */
+	public enum StructuralEvidence {
+		/**
+		 * the structure depends only on the domains
+		 */
+		None,
+		/**
+		 * the structure depends on the evidence on evidence functions (i.e. logical predicates)
+		 */
+		EvidenceFunctions,
+		/**
+		 * the structure depends on all of the evidence
+		 */
+		All
+	};
+
+	/**
+	 * computes the key that identifies the ground model that is obtained for a database
+	 * @param db the evidence database
+	 * @param sigs the signatures of the model, whose types determine the relevant domains
+	 * @param structuralEvidence the evidence that is to be part of the key
+	 * @return the key
+	 * @throws Exception
+	 */
+	public static String getKey(GenericDatabase<?,?> db, Collection<Signature> sigs, StructuralEvidence structuralEvidence) throws Exception {
+		StringBuffer sb = new StringBuffer();
+		// domains
+		TreeSet<String> types = new TreeSet<String>();
+		for(Signature sig : sigs) {
+			for(String type : sig.argTypes)
+				types.add(type);
+			if(!sig.isBoolean())
+				types.add(sig.returnType);
+		}
+		for(String type : types) {
+			Iterable<String> dom = db.getDomain(type);
+			if(dom == null)
+				continue;
+			TreeSet<String> elements = new TreeSet<String>();
+			for(String elem : dom)
+				elements.add(elem);
+			sb.append(type).append('{').append(StringTool.join(",", elements)).append('}');
+		}
+		// evidence
+		if(structuralEvidence != StructuralEvidence.None) {
+			TreeSet<String> evidence = new TreeSet<String>();
+			for(AbstractVariable<?> var : db.getEntries())
+				if(structuralEvidence == StructuralEvidence.All || var.pertainsToEvidenceFunction())
+					evidence.add(var.toString());
+			sb.append('[').append(StringTool.join(";", evidence)).append(']');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (C) 2008-2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal reader and writer for JSON values as used by the query protocol of the {@link SocketServer}.
+ * Objects are represented as maps, arrays as lists, numbers as doubles.
+ * @author Dominik Jain
+ */
+public class JSON {
+	protected String s;
+	protected int pos;
+	
+	protected JSON(String s) {
+		this.s = s;
+		this.pos = 0;
+	}
+	
+	/**
+	 * parses a JSON value
+	 * @param s the string representation of the value
+	 * @return a Map (for objects), List (for arrays), String, Double, Boolean or null
+	 * @throws Exception if the string is not valid JSON
+	 */
+	public static Object parse(String s) throws Exception {
+		JSON p = new JSON(s);
+		Object ret = p.readValue();
+		p.skipWhitespace();
+		if(p.pos != s.length())
+			throw p.error("Unexpected trailing characters");
+		return ret;
+	}
+	
+	protected Exception error(String msg) {
+		return new Exception(msg + " at position " + pos + " of JSON input");
+	}
+	
+	protected void skipWhitespace() {
+		while(pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+			pos++;
+	}
+	
+	protected char next() throws Exception {
+		skipWhitespace();
+		if(pos >= s.length())
+			throw error("Unexpected end");
+		return s.charAt(pos);
+	}
+	
+	protected void expect(char c) throws Exception {
+		if(next() != c)
+			throw error("Expected '" + c + "'");
+		pos++;
+	}
+	
+	protected Object readValue() throws Exception {
+		char c = next();
+		switch(c) {
+		case '{':
+			pos++;
+			Map<String,Object> obj = new LinkedHashMap<String,Object>();
+			if(next() == '}') {
+				pos++;
+				return obj;
+			}
+			while(true) {
+				if(next() != '"')
+					throw error("Expected string as key");
+				String key = readString();
+				expect(':');
+				obj.put(key, readValue());
+				c = next();
+				pos++;
+				if(c == '}')
+					return obj;
+				if(c != ',')
+					throw error("Expected ',' or '}'");
+			}
+		case '[':
+			pos++;
+			List<Object> list = new ArrayList<Object>();
+			if(next() == ']') {
+				pos++;
+				return list;
+			}
+			while(true) {
+				list.add(readValue());
+				c = next();
+				pos++;
+				if(c == ']')
+					return list;
+				if(c != ',')
+					throw error("Expected ',' or ']'");
+			}
+		case '"':
+			return readString();
+		default:
+			if(s.startsWith("true", pos)) {
+				pos += 4;
+				return Boolean.TRUE;
+			}
+			if(s.startsWith("false", pos)) {
+				pos += 5;
+				return Boolean.FALSE;
+			}
+			if(s.startsWith("null", pos)) {
+				pos += 4;
+				return null;
+			}
+			int start = pos;
+			while(pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) != -1)
+				pos++;
+			if(start == pos)
+				throw error("Unexpected character '" + c + "'");
+			return Double.parseDouble(s.substring(start, pos));
+		}
+	}
+	
+	protected String readString() throws Exception {
+		pos++; // opening quote
+		StringBuffer sb = new StringBuffer();
+		while(true) {
+			if(pos >= s.length())
+				throw error("Unterminated string");
+			char c = s.charAt(pos++);
+			if(c == '"')
+				return sb.toString();
+			if(c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if(pos >= s.length())
+				throw error("Unterminated string");
+			c = s.charAt(pos++);
+			switch(c) {
+			case 'n': sb.append('\n'); break;
+			case 't': sb.append('\t'); break;
+			case 'r': sb.append('\r'); break;
+			case 'b': sb.append('\b'); break;
+			case 'f': sb.append('\f'); break;
+			case 'u':
+				if(pos + 4 > s.length())
+					throw error("Invalid unicode escape");
+				sb.append((char)Integer.parseInt(s.substring(pos, pos+4), 16));
+				pos += 4;
+				break;
+			default: sb.append(c);
+			}
+		}
+	}
+	
+	/**
+	 * @param value a Map, Iterable, array of objects, String, Number, Boolean or null
+	 * @return the JSON representation of the value
+	 */
+	public static String toString(Object value) {
+		StringBuffer sb = new StringBuffer();
+		write(sb, value);
+		return sb.toString();
+	}
+	
+	protected static void write(StringBuffer sb, Object value) {
+		if(value == null)
+			sb.append("null");
+		else if(value instanceof String)
+			writeString(sb, (String)value);
+		else if(value instanceof Double && (Double)value == Math.rint((Double)value) && Math.abs((Double)value) < 1e15)
+			sb.append(((Double)value).longValue()); // integral numbers are written without a fractional part
+		else if(value instanceof Number || value instanceof Boolean)
+			sb.append(value.toString());
+		else if(value instanceof Map<?,?>) {
+			sb.append('{');
+			boolean first = true;
+			for(Map.Entry<?,?> e : ((Map<?,?>)value).entrySet()) {
+				if(!first)
+					sb.append(',');
+				first = false;
+				writeString(sb, e.getKey().toString());
+				sb.append(':');
+				write(sb, e.getValue());
+			}
+			sb.append('}');
+		}
+		else if(value instanceof Iterable<?> || value instanceof Object[]) {
+			Iterable<?> items = value instanceof Object[] ? Arrays.asList((Object[])value) : (Iterable<?>)value;
+			sb.append('[');
+			boolean first = true;
+			for(Object item : items) {
+				if(!first)
+					sb.append(',');
+				first = false;
+				write(sb, item);
+			}
+			sb.append(']');
+		}
+		else
+			writeString(sb, value.toString());
+	}
+	
+	protected static void writeString(StringBuffer sb, String s) {
+		sb.append('"');
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if(c < 0x20)
+					sb.append(String.format("\\u%04x", (int)c));
+				else
+					sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+}
@@ -22,6 +22,9 @@ package probcog.service;
 import java.util.Map;
 import java.util.Vector;
 
+import probcog.service.GroundModelCache.StructuralEvidence;
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.BooleanDomain;
 import probcog.srl.Database;
 import probcog.srl.Signature;
@@ -38,61 +41,119 @@ import probcog.srl.mln.inference.MCSAT;
 public class MLNModel extends Model {
 
 	protected MarkovLogicNetwork mln;
-	protected Database db;
-	protected MarkovRandomField mrf;
+	protected GroundModelCache<MarkovRandomField> groundModelCache = new GroundModelCache<MarkovRandomField>();
 	
 	public MLNModel(String name, String mln) throws Exception {
 		super(name);
 		this.mln = new MarkovLogicNetwork(mln);
 	}
-
-	@Override
-	protected String _getConstantType(String constant) {
-		return db.getConstantType(constant);
+	
+	/**
+	 * loads the model from a binary model file
+	 * @param name
+	 * @param in
+	 * @throws Exception
+	 */
+	public MLNModel(String name, BinaryModelReader in) throws Exception {
+		super(name);
+		this.mln = new MarkovLogicNetwork(in);
 	}
 	
 	@Override
-	public void beginSession(Map<String, Object> params) throws Exception {
-		super.beginSession(params);
-		db = new Database(mln);
+	public void writeBinary(BinaryModelWriter out) throws Exception {
+		mln.writeBinary(out);
 	}
+	
+	public class Session extends Model.Session {
+		protected Database db;
+		protected MarkovRandomField mrf;
+		/**
+		 * the key of the ground model in the cache (null if the model is not to be cached)
+		 */
+		protected String cacheKey = null;
+		
+		public Session(Map<String, Object> params) throws Exception {
+			super(params);
+			db = new Database(mln);
+		}
 
-	@Override
-	protected Vector<InferenceResult> _infer(Iterable<String> queries) throws Exception {
-		InferenceAlgorithm ia = new MCSAT(mrf);
-		paramHandler.addSubhandler(ia);
-		Vector<InferenceResult> res = new Vector<InferenceResult>();
-		for(probcog.srl.mln.inference.InferenceResult r : ia.infer(queries)) {
-			InferenceResult r2 = new InferenceResult(r.ga.predicate, r.ga.args, r.value);
-			res.add(r2);
+		@Override
+		protected String _getConstantType(String constant) {
+			return db.getConstantType(constant);
 		}
-		return res;
-	}
 
-	@Override
-	protected void _setEvidence(Iterable<String[]> evidence) throws Exception {
-		for(String[] tuple : evidence) {
-			String functionName = tuple[0];
-			Signature sig = mln.getSignature(functionName);
-			if(sig == null)
-				throw new Exception("Function '" + functionName + "' appearing in evidence not found in model " + name);
-			String value;
-			String[] params;
-			if(sig.argTypes.length == tuple.length-1) {
-				params = new String[tuple.length-1];
-				for(int i = 0; i < params.length; i++)
-					params[i] = tuple[i+1];
-				value = BooleanDomain.True;
+		@Override
+		protected Vector<InferenceResult> _infer(Iterable<String> queries) throws Exception {
+			InferenceAlgorithm ia = new MCSAT(mrf);
+			ia.setCancellationToken(cancellationToken);
+			paramHandler.addSubhandler(ia);
+			Vector<InferenceResult> res = new Vector<InferenceResult>();
+			for(probcog.srl.mln.inference.InferenceResult r : ia.infer(queries)) {
+				InferenceResult r2 = new InferenceResult(r.ga.predicate, r.ga.args, r.value);
+				res.add(r2);
+			}
+			return res;
+		}
+
+		@Override
+		protected void _setEvidence(Iterable<String[]> evidence) throws Exception {
+			for(String[] tuple : evidence) {
+				String functionName = tuple[0];
+				Signature sig = mln.getSignature(functionName);
+				if(sig == null)
+					throw new Exception("Function '" + functionName + "' appearing in evidence not found in model " + name);
+				String value;
+				String[] params;
+				if(sig.argTypes.length == tuple.length-1) {
+					params = new String[tuple.length-1];
+					for(int i = 0; i < params.length; i++)
+						params[i] = tuple[i+1];
+					value = BooleanDomain.True;
+				}
+				else {
+					params = new String[tuple.length-2];
+					for(int i = 0; i < params.length; i++)
+						params[i] = tuple[i+1];
+					value = BooleanDomain.getStandardValue(tuple[tuple.length-1]);				
+				}
+				db.addVariable(new Variable(functionName, params, value, mln));
 			}
-			else {
-				params = new String[tuple.length-2];
-				for(int i = 0; i < params.length; i++)
-					params[i] = tuple[i+1];
-				value = BooleanDomain.getStandardValue(tuple[tuple.length-1]);				
+		}
+
+		@Override
+		public void instantiate() throws Exception {
+			if(!groundModelCache.isEnabled()) {
+				mrf = mln.ground(db);
+				return;
 			}
-			db.addVariable(new Variable(functionName, params, value, mln));
+			// when caching, ground formulas are not simplified using the evidence, such that the
+			// MRF depends only on the set of objects and can be reused with any evidence
+			cacheKey = GroundModelCache.getKey(db, mln.getSignatures(), StructuralEvidence.None);
+			mrf = groundModelCache.acquire(cacheKey);
+			if(mrf != null)
+				mrf.setDatabase(db);
+			else
+				mrf = new MarkovRandomField(mln, db, true, null, false);
+		}
+		
+		@Override
+		public void close() {
+			if(cacheKey != null && mrf != null)
+				groundModelCache.release(cacheKey, mrf, mrf.getWorldVariables().size() + mrf.getNumFormulas());
+			cacheKey = null;
+			mrf = null;
 		}
 	}
+	
+	@Override
+	public Session createSession(Map<String, Object> params) throws Exception {
+		return new Session(params);
+	}
+	
+	@Override
+	protected GroundModelCache<?> getGroundModelCache() {
+		return groundModelCache;
+	}
 
 	@Override
 	public Vector<String[]> getDomains() {
@@ -103,9 +164,4 @@ public class MLNModel extends Model {
 	public Vector<String[]> getPredicates() {		
 		return getPredicatesFromSignatures(mln.getSignatures());
 	}
-
-	@Override
-	public void instantiate() throws Exception {
-		mrf = mln.ground(db);		
-	}
 }
@@ -24,12 +24,19 @@ import java.util.Map;
 import java.util.Vector;
 import java.util.Map.Entry;
 
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.Signature;
 
 /**
  * Abstract base class for models that can be used in the ProbCog service.
+ * A model is shared by all the queries that concern it and is not modified by them;
+ * all the state that pertains to a single query (parameters, evidence and ground model) 
+ * is held by a {@link Session}, such that several queries can be processed concurrently.
+ * Parameters that concern the model itself (e.g. the configuration of the ground model cache)
+ * can only be set as default parameters of the model, not for individual sessions.
  * @author Dominik Jain
  */
 public abstract class Model implements IParameterHandler {
@@ -50,26 +57,178 @@ public abstract class Model implements IParameterHandler {
 	 */
 	protected String name;
 	protected ParameterHandler paramHandler;
-	protected HashMap<String, Object> actualParams;
-	protected boolean haveSession = false;
+	/**
+	 * the session that is used by the sequential interface of the model 
+	 * (i.e. {@link #setEvidence(Iterable)}, {@link #instantiate()} and {@link #infer(Iterable)})
+	 */
+	protected Session session = null;
 	
 	public Model(String name) throws Exception {
 		defaultParameters = new HashMap<String,Object>();
 		this.name = name;
 		constantMapFromProbCog = null;
 		paramHandler = new ParameterHandler(this);
+		paramHandler.add("groundModelCacheSize", "setGroundModelCacheSize");
+		paramHandler.add("groundModelCacheMaxElements", "setGroundModelCacheMaxElements");
 	}
 	
-	protected abstract void _setEvidence(Iterable<String[]> evidence) throws Exception;
-	public abstract void instantiate() throws Exception;
+	/**
+	 * A session in which a single query is processed: it holds the parameters, the evidence 
+	 * and the ground model that was instantiated for the evidence.
+	 */
+	public abstract class Session implements IParameterHandler {
+		protected HashMap<String, Object> actualParams;
+		protected ParameterHandler paramHandler;
+		protected boolean haveEvidence = false;
+		/**
+		 * the token via which the session's inference method can be cancelled
+		 */
+		protected CancellationToken cancellationToken = new CancellationToken();
+		
+		public Session(Map<String, Object> params) throws Exception {
+			paramHandler = new ParameterHandler(this);
+			synchronized(Model.this) {
+				actualParams = new HashMap<String, Object>(defaultParameters);
+			}
+			if(params != null) {
+				// parameters that concern the model itself would affect all other sessions
+				Vector<String> modelParams = Model.this.paramHandler.getHandledParameters();
+				for(String param : params.keySet())
+					if(modelParams.contains(param))
+						throw new Exception("Parameter '" + param + "' concerns the model " + name + " as a whole and cannot be set for an individual query; set it as a default parameter of the model instead");
+				actualParams.putAll(params);
+			}
+			paramHandler.handle(actualParams, false);
+		}
+		
+		protected abstract void _setEvidence(Iterable<String[]> evidence) throws Exception;
+		public abstract void instantiate() throws Exception;
+		
+		/**
+		 * runs the actual inference method, without mapping constants  
+		 * @param queries
+		 * @return
+		 * @throws Exception
+		 */
+		protected abstract Vector<InferenceResult> _infer(Iterable<String> queries) throws Exception;
+		
+		protected abstract String _getConstantType(String constant);
+		
+		/**
+		 * ends the session, releasing the ground model (if any) such that it can be reused by later sessions
+		 */
+		public abstract void close();
+		
+		/**
+		 * requests that the inference method that is currently being run in this session stop as soon as possible
+		 * (and return the results obtained thus far); the cancellation also applies to any later inference in this session
+		 */
+		public void cancel() {
+			cancellationToken.cancel();
+		}
+		
+		public void setCancellationToken(CancellationToken token) {
+			cancellationToken = token;
+		}
+		
+		public void setEvidence(Iterable<String[]> evidence) throws Exception {
+			// map constants, filtering evidence where constants are mapped to null
+			Vector<String[]> newEvidence = new Vector<String[]>();
+			for(String[] s : evidence) {
+				boolean keep = true;
+				for(int i = 1; i < s.length; i++) {
+					s[i] = mapConstantToProbCog(s[i]);
+					if(s[i] == null) {
+						keep = false;
+						break;
+					}
+				}
+				if(keep)
+					newEvidence.add(s);
+			}
+			// actually set the evidence
+			_setEvidence(newEvidence);
+			haveEvidence = true;
+		}
+		
+		public Vector<InferenceResult> infer(Iterable<String> queries) throws Exception {
+			// run inference
+			Vector<InferenceResult> actualResults = _infer(queries);
+			// map results and return
+			Vector<InferenceResult> mappedResults = new Vector<InferenceResult>(); 
+			for(InferenceResult r : actualResults) {
+				if(!r.mapConstants(Model.this))
+					continue;
+				mappedResults.add(r);
+			}
+			return mappedResults;
+		}
+		
+		/**
+		 * gets the type of a given constant
+		 * @param constant
+		 * @return the type name of the constant or null if the constant is unknown (or mapped to nothing in ProbCog)
+		 */
+		public String getConstantType(String constant) {
+			constant = mapConstantToProbCog(constant);
+			if(constant == null)
+				return null;
+			return _getConstantType(constant);
+		}
+		
+		public Model getModel() {
+			return Model.this;
+		}
+		
+		public ParameterHandler getParameterHandler() {
+			return paramHandler;
+		}
+	}
 	
 	/**
-	 * runs the actual inference method, without mapping constants  
-	 * @param queries
-	 * @return
+	 * creates a new session for this model
+	 * @param params parameters that override the model's default parameters (may be null)
+	 * @return the session
 	 * @throws Exception
 	 */
-	protected abstract java.util.Vector<InferenceResult> _infer(Iterable<String> queries) throws Exception;
+	public abstract Session createSession(Map<String, Object> params) throws Exception;
+	
+	/**
+	 * @return the cache of ground models that were instantiated for this model
+	 */
+	protected abstract GroundModelCache<?> getGroundModelCache();
+	
+	/**
+	 * writes the parsed model to a binary model file, from which it can be loaded much faster than from the original files
+	 * @param out
+	 * @throws Exception
+	 */
+	public abstract void writeBinary(BinaryModelWriter out) throws Exception;
+	
+	/**
+	 * @return whether the model can be written to a binary model file (see {@link #writeBinary(BinaryModelWriter)})
+	 */
+	public boolean supportsBinaryFormat() {
+		return true;
+	}
+	
+	/**
+	 * sets the number of ground models to keep in the cache, such that queries for the same set of objects
+	 * can reuse the ground model (0 disables caching)
+	 * @param n
+	 */
+	public void setGroundModelCacheSize(int n) {
+		getGroundModelCache().setMaxEntries(n);
+	}
+	
+	/**
+	 * sets the maximum total number of ground elements (nodes or formulas) of all the ground models in the cache
+	 * @param n
+	 */
+	public void setGroundModelCacheMaxElements(int n) {
+		getGroundModelCache().setMaxSize(n);
+	}
+	
 	public abstract Vector<String[]> getDomains();
 
 	public abstract Vector<String[]> getPredicates();
@@ -94,61 +253,57 @@ public abstract class Model implements IParameterHandler {
 	}
 	
 	public void beginSession(Map<String, Object> params) throws Exception {
-		actualParams = new HashMap<String, Object>(defaultParameters);
-		if(params != null)
-			actualParams.putAll(params);
-		paramHandler.handle(actualParams, false);
+		if(session != null)
+			session.close();
+		session = createSession(params);
 	}
 	
 	public void beginSession() throws Exception {
 		beginSession(null);
 	}
 	
+	/**
+	 * sets the evidence for a query; if evidence was already set in the current session, a new session is begun
+	 * @param evidence
+	 * @throws Exception
+	 */
 	public void setEvidence(Iterable<String[]> evidence) throws Exception {
-		if(haveSession == false)
+		if(session == null || session.haveEvidence)
 			beginSession();
-		// map constants, filtering evidence where constants are mapped to null
-		Vector<String[]> newEvidence = new Vector<String[]>();
-		for(String[] s : evidence) {
-			boolean keep = true;
-			for(int i = 1; i < s.length; i++) {
-				s[i] = this.mapConstantToProbCog(s[i]);
-				if(s[i] == null) {
-					keep = false;
-					break;
-				}
-			}
-			if(keep)
-				newEvidence.add(s);
-		}
-		// actually set the evidence
-		_setEvidence(newEvidence);
+		session.setEvidence(evidence);
+	}
+	
+	public void instantiate() throws Exception {
+		if(session == null)
+			beginSession();
+		session.instantiate();
 	}
 	
 	public java.util.Vector<InferenceResult> infer(Iterable<String> queries) throws Exception {
-		// run inference
-		Vector<InferenceResult> actualResults = _infer(queries);
-		// map results and return
-		Vector<InferenceResult> mappedResults = new Vector<InferenceResult>(); 
-		for(InferenceResult r : actualResults) {
-			if(!r.mapConstants(this))
-				continue;
-			mappedResults.add(r);
-		}
-		return mappedResults;
+		return session.infer(queries);
 	}
 	
 	/**
-	 * sets a default parameter for this model
+	 * sets a default parameter for this model; a parameter that concerns the model itself is applied to the model immediately
 	 * @param key
 	 * @param value
+	 * @throws Exception 
 	 */
-	public void setDefaultParameter(String key, Object value) {
+	public synchronized void setDefaultParameter(String key, Object value) throws Exception {
 		defaultParameters.put(key, value);
+		HashMap<String,Object> param = new HashMap<String,Object>();
+		param.put(key, value);
+		paramHandler.handle(param, false);
 	}
 	
-	public void setDefaultParameters(Map<String,Object> params) {
-		this.defaultParameters = params;
+	/**
+	 * sets the default parameters for this model; parameters that concern the model itself are applied to the model immediately
+	 * @param params
+	 * @throws Exception 
+	 */
+	public synchronized void setDefaultParameters(Map<String,Object> params) throws Exception {
+		this.defaultParameters = new HashMap<String,Object>(params);
+		paramHandler.handle(params, false);
 	}
 	
 	/**
@@ -196,19 +351,16 @@ public abstract class Model implements IParameterHandler {
 	}
 	
 	/**
-	 * gets the type of a given constant
+	 * gets the type of a given constant (with respect to the current session)
 	 * @param constant
 	 * @return the type name of the constant or null if the constant is unknown (or mapped to nothing in ProbCog)
 	 */
-	public String getConstantType(String constant) {
-		constant = mapConstantToProbCog(constant);
-		if(constant == null)
-			return null;
-		return _getConstantType(constant);
+	public String getConstantType(String constant) throws Exception {
+		if(session == null)
+			beginSession();
+		return session.getConstantType(constant);
 	}
 	
-	protected abstract String _getConstantType(String constant);
-	
 	public String getName() {
 		return name;
 	}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (C) 2008-2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+/**
+ * Tool that writes binary model files for all the models in a model pool, such that the 
+ * pool can subsequently be loaded without parsing the models' original files.
+ * @author Dominik Jain
+ */
+public class ModelCompiler {
+	public static void main(String[] args) {
+		if(args.length != 1) {
+			System.out.println("usage: ModelCompiler <model pool file>");
+			System.out.println("  writes a binary model file for each model in the pool (to the file of type 'image' that is declared for the model or, if there is none, to <model name>.pcm in the model's path)");
+			return;
+		}
+		try {
+			new ModelPool(args[0], true).writeBinaryModels();
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -20,7 +20,9 @@ package probcog.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import javax.xml.parsers.SAXParserFactory;
 
@@ -30,18 +32,40 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import probcog.inference.Metrics;
 import probcog.logic.parser.ParseException;
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 
 /**
  * Represents a pool of models.
+ * A model for which a binary model file (file type "image") is declared is loaded from that file
+ * (unless it is older than any of the model's original files), which avoids parsing the original files.
  * @author Dominik Jain
  */
 public class ModelPool {
-	protected HashMap<String, Model> pool;
+	/**
+	 * the models in the pool (including the ones that have not yet been loaded)
+	 */
+	protected HashMap<String, ModelData> models;
 	protected File poolPath;
+	/**
+	 * whether models are loaded only when they are first requested (rather than when the pool is read)
+	 */
+	protected boolean lazyLoading;
 	
 	public ModelPool(String poolFilename) throws IOException, ParseException, Exception {
-		pool = new HashMap<String, Model>();
+		this(poolFilename, false);
+	}
+	
+	/**
+	 * @param poolFilename
+	 * @param lazyLoading  whether to load models only when they are first requested (rather than when the pool is read)
+	 * @throws Exception
+	 */
+	public ModelPool(String poolFilename, boolean lazyLoading) throws IOException, ParseException, Exception {
+		models = new LinkedHashMap<String, ModelData>();
+		this.lazyLoading = lazyLoading;
 		
 		File poolFile = new File(poolFilename);
 		poolPath = poolFile.getParentFile();
@@ -51,62 +75,191 @@ public class ModelPool {
 		factory.newSAXParser().parse(poolFile, new PoolReader());
 	}
 	
+	/**
+	 * gets the model with the given name, loading it if it has not yet been loaded
+	 * @param name
+	 * @return the model or null if the pool does not contain a model with the given name
+	 */
 	public Model getModel(String name) {
-		return pool.get(name);
+		ModelData md = models.get(name);
+		if(md == null)
+			return null;
+		try {
+			return md.getModel();
+		}
+		catch(Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
 	}
 	
 	/**
-	 * Reader for XML-based format for pools of models 
+	 * writes, for each model in the pool, a binary model file (to the location declared in the pool or, if no 
+	 * such file is declared, to &lt;model name&gt;.pcm in the model's path); the models are loaded from their original files
+	 * @throws Exception
 	 */
-	protected class PoolReader extends DefaultHandler implements ErrorHandler {
-		protected class ModelData {
-			String name, type, path;
-			HashMap<String, String> files;
-			HashMap<String, String> params;
-			HashMap<String, String> constantMap;
-			
-			public ModelData() {
-				files = new HashMap<String,String>();
-				params = new HashMap<String,String>();
-				constantMap = new HashMap<String,String>();
+	public void writeBinaryModels() throws Exception {
+		for(ModelData md : models.values()) {
+			Model m = md.instantiateFromFiles();
+			if(!m.supportsBinaryFormat()) {
+				System.out.println("Skipping model " + md.name + ": The binary model format is not supported for models of this kind (e.g. Python-based BLNs)");
+				continue;
 			}
-			
-			private void checkFileTypes(String[] requiredTypes) throws Exception {
-				for(String t : requiredTypes) {
-					if(!files.containsKey(t))
-						throw new Exception(String.format("Missing file of type '%s' for model '%s'", t, name));
-				}
+			File image = md.getImageFile();
+			if(image == null) {
+				image = new File(md.getPath(), md.name + ".pcm");
+				System.out.printf("Notice: Model %s does not declare a binary model file; add <file type=\"image\" name=\"%s\" /> to use %s\n", md.name, image.getName(), image);
+			}
+			BinaryModelWriter out = new BinaryModelWriter(image, md.type);
+			try {
+				m.writeBinary(out);
+			}
+			finally {
+				out.close();
+			}
+			System.out.println("Wrote " + image);
+		}
+	}
+	
+	/**
+	 * @return the names of the models in the pool
+	 */
+	public Collection<String> getModelNames() {
+		return models.keySet();
+	}
+	
+	/**
+	 * the declaration of a model in the pool
+	 */
+	protected class ModelData {
+		String name, type, path;
+		HashMap<String, String> files;
+		HashMap<String, String> params;
+		HashMap<String, String> constantMap;
+		/**
+		 * the model (null if it has not yet been loaded)
+		 */
+		Model model = null;
+		
+		public ModelData() {
+			files = new HashMap<String,String>();
+			params = new HashMap<String,String>();
+			constantMap = new HashMap<String,String>();
+		}
+		
+		private void checkFileTypes(String[] requiredTypes) throws Exception {
+			for(String t : requiredTypes) {
+				if(!files.containsKey(t))
+					throw new Exception(String.format("Missing file of type '%s' for model '%s'", t, name));
 			}
-			
-			public Model instantiate() throws Exception {
-				Model m; 
-				if(name == null)
-					throw new Exception("Model has no 'name' attribute.");
-				System.out.println("Loading model " + name + "...");
-				// get model path
-				File fPath;
-				if(path == null)
-					fPath = poolPath;
-				else
-					fPath = new File(path);
-				if(!fPath.isAbsolute())
-					fPath = new File(poolPath, path);
-				// instantiate
-				if(type.equals("BLN")) {
-					checkFileTypes(new String[]{"network", "decls", "logic"});
-					m = new BLNModel(name, new File(fPath, files.get("decls")).getPath(), new File(fPath, files.get("network")).getPath(), new File(fPath, files.get("logic")).getPath());
+		}
+		
+		/**
+		 * @return the directory containing the model's files
+		 */
+		public File getPath() {
+			File fPath;
+			if(path == null)
+				fPath = poolPath;
+			else
+				fPath = new File(path);
+			if(!fPath.isAbsolute())
+				fPath = new File(poolPath, path);
+			return fPath;
+		}
+		
+		/**
+		 * @param type  the type of file
+		 * @return the file of the given type (relative to the model's path unless it is absolute) or null if there is none
+		 */
+		public File getFile(String type) {
+			String filename = files.get(type);
+			if(filename == null)
+				return null;
+			File f = new File(filename);
+			if(f.isAbsolute())
+				return f;
+			return new File(getPath(), filename);
+		}
+		
+		/**
+		 * @return the binary model file declared for the model or null if there is none
+		 */
+		public File getImageFile() {
+			return getFile("image");
+		}
+		
+		/**
+		 * gets the model, loading it if necessary
+		 * @return
+		 * @throws Exception
+		 */
+		public synchronized Model getModel() throws Exception {
+			if(model == null) {
+				String prevScope = Metrics.setScope(name);
+				try {
+					long startTime = System.nanoTime();
+					model = instantiate();
+					Metrics.record("loading.time", (System.nanoTime() - startTime) / 1e9);
 				}
-				else if(type.equals("MLN")) {
-					checkFileTypes(new String[]{"network"});
-					m = new MLNModel(name, new File(fPath, files.get("network")).getPath());
+				finally {
+					Metrics.setScope(prevScope);
 				}
-				else
-					throw new Exception(String.format("Unknown model type '%s'", type));
-				m.setConstantMap(constantMap);
-				return m;
 			}
+			return model;
 		}
-
+		
+		protected Model instantiate() throws Exception {
+			File image = getImageFile();
+			if(image != null && image.exists()) {
+				boolean upToDate = true;
+				for(String t : files.keySet())
+					if(!t.equals("image") && getFile(t).lastModified() > image.lastModified())
+						upToDate = false;
+				if(upToDate)
+					return instantiateFromImage(image);
+				System.err.println("Warning: Binary model file " + image + " is older than the model's original files, which are used instead.");
+			}
+			return instantiateFromFiles();
+		}
+		
+		protected Model instantiateFromImage(File image) throws Exception {
+			System.out.println("Loading model " + name + " from " + image + "...");
+			BinaryModelReader in = new BinaryModelReader(image);
+			if(!in.getModelType().equals(type))
+				throw new Exception(String.format("Binary model file %s contains a model of type '%s' but model '%s' is of type '%s'", image, in.getModelType(), name, type));
+			Model m;
+			if(type.equals("BLN"))
+				m = new BLNModel(name, in);
+			else if(type.equals("MLN"))
+				m = new MLNModel(name, in);
+			else
+				throw new Exception(String.format("Unknown model type '%s'", type));
+			m.setConstantMap(constantMap);
+			return m;
+		}
+		
+		protected Model instantiateFromFiles() throws Exception {
+			Model m; 
+			System.out.println("Loading model " + name + "...");
+			if(type.equals("BLN")) {
+				checkFileTypes(new String[]{"network", "decls", "logic"});
+				m = new BLNModel(name, getFile("decls").getPath(), getFile("network").getPath(), getFile("logic").getPath());
+			}
+			else if(type.equals("MLN")) {
+				checkFileTypes(new String[]{"network"});
+				m = new MLNModel(name, getFile("network").getPath());
+			}
+			else
+				throw new Exception(String.format("Unknown model type '%s'", type));
+			m.setConstantMap(constantMap);
+			return m;
+		}
+	}
+	
+	/**
+	 * Reader for XML-based format for pools of models 
+	 */
+	protected class PoolReader extends DefaultHandler implements ErrorHandler {
 		ModelData currentModel;
 		
 		public void startElement(String uri, String name, String qName, Attributes attrs) {
@@ -138,8 +291,13 @@ public class ModelPool {
 	
 		public void endElement(String uri, String name, String qName) {
 			try {
-				if(qName.equals("model"))
-					pool.put(currentModel.name, currentModel.instantiate());				
+				if(qName.equals("model")) {
+					if(currentModel.name == null)
+						throw new Exception("Model has no 'name' attribute.");
+					models.put(currentModel.name, currentModel);
+					if(!lazyLoading)
+						currentModel.getModel();
+				}
 			}
 			catch (Exception e) {
 				throw new RuntimeException(e.getMessage());					
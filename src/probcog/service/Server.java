@@ -25,10 +25,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import probcog.inference.CancellationToken;
+import probcog.inference.Metrics;
 import probcog.logic.parser.ParseException;
 
 
@@ -41,7 +44,17 @@ public class Server {
 	ModelPool modelPool; 
 	
 	public Server(String modelPoolFile) throws IOException, ParseException, Exception {
-		modelPool = new ModelPool(modelPoolFile);
+		this(modelPoolFile, false);
+	}
+	
+	/**
+	 * @param modelPoolFile the model pool file
+	 * @param lazyLoading whether to load models only when they are first queried
+	 */
+	public Server(String modelPoolFile, boolean lazyLoading) throws IOException, ParseException, Exception {
+		// publish the runtime metrics (which are recorded separately for each model) via JMX
+		Metrics.setJMXEnabled(true);
+		modelPool = new ModelPool(modelPoolFile, lazyLoading);
 	}
 	
 	protected static Vector<String[]> readListOfLispTuples(String s) {
@@ -124,14 +137,8 @@ public class Server {
 	 * @throws Exception
 	 */
 	public Vector<InferenceResult> query(String modelName, Collection<String> queries, Collection<String[]> evidence) throws Exception {
-		// get model
-		Model model = modelPool.getModel(modelName);		
-		// set evidence		
-		model.setEvidence(evidence);
-		// instantiate model and perform inference
-		System.out.printf("instantiating model from %s\n", model.toString());
-		model.instantiate();
-		Vector<InferenceResult> results = model.infer(queries);
+		System.out.printf("instantiating model %s\n", modelName);
+		Vector<InferenceResult> results = query(modelName, queries, evidence, null);
 		// output evidence and results
 		boolean verbose = true;
 		if(verbose) {
@@ -148,6 +155,56 @@ public class Server {
 		return results;
 	}
 	
+	/**
+	 * processes a query in a session of its own, such that it is isolated from any other queries
+	 * that are concurrently being processed on the same model (this method is thread-safe and does not produce any output)
+	 * @param modelName the model to use
+	 * @param queries a collection of queries (see above)
+	 * @param evidence a collection of evidence arrays (see above)
+	 * @param params parameters for the session, which override the model's default parameters; may be null
+	 * @return a vector of inference results with constants already mapped
+	 * @throws Exception
+	 */
+	public Vector<InferenceResult> query(String modelName, Collection<String> queries, Collection<String[]> evidence, Map<String,Object> params) throws Exception {
+		return query(modelName, queries, evidence, params, null);
+	}
+	
+	/**
+	 * processes a query in a session of its own (see above), which can be cancelled via the given token
+	 * @param token  the token via which the query can be cancelled, in which case the results obtained thus far are returned; may be null
+	 */
+	public Vector<InferenceResult> query(String modelName, Collection<String> queries, Collection<String[]> evidence, Map<String,Object> params, CancellationToken token) throws Exception {
+		Model model = modelPool.getModel(modelName);
+		if(model == null)
+			throw new Exception("Unknown model '" + modelName + "'");
+		// record all metrics of the query in the scope of the model
+		String prevScope = Metrics.setScope(modelName);
+		long startTime = System.nanoTime();
+		boolean success = false;
+		Model.Session session = null;
+		try {
+			session = model.createSession(params);
+			if(token != null)
+				session.setCancellationToken(token);
+			session.setEvidence(evidence);
+			long instantiationStartTime = System.nanoTime();
+			session.instantiate();
+			Metrics.record("service.instantiation.time", (System.nanoTime() - instantiationStartTime) / 1e9);
+			long inferenceStartTime = System.nanoTime();
+			Vector<InferenceResult> results = session.infer(queries);
+			Metrics.record("service.inference.time", (System.nanoTime() - inferenceStartTime) / 1e9);
+			success = true;
+			return results;
+		}
+		finally {
+			if(session != null)
+				session.close();
+			Metrics.record("service.query.time", (System.nanoTime() - startTime) / 1e9);
+			Metrics.increment(success ? "service.queries" : "service.failedQueries", 1);
+			Metrics.setScope(prevScope);
+		}
+	}
+	
 	/**
 	 * processes a query by setting the evidence, instantiating the model and running the inference procedure 
 	 * @param modelName
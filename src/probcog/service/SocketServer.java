@@ -0,0 +1,389 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import probcog.inference.CancellationToken;
+
+/**
+ * Serves a pool of models via a line-based JSON protocol on a TCP socket, processing
+ * queries concurrently. Each query is processed in a model session of its own (see
+ * {@link Server#query(String, Collection, Collection, Map)}), so queries are isolated from
+ * each other even if they concern the same model.
+ * 
+ * Queries are processed by a fixed number of worker threads. Pending queries are kept in a
+ * bounded queue; a query that arrives while the queue is full is rejected immediately with
+ * status "busy" (admission control), and a query for which no result is available within its
+ * time limit is answered with status "timeout" (and the inference method that is processing it, if any, is cancelled).
+ * 
+ * Each request is a single line containing a JSON object, e.g.
+ * <pre>
+ * {"id": 1, "model": "meals", "queries": ["usesAnyIn"], "evidence": [["takesPartIn", "P1", "M"]], "params": {"maxSteps": 1000}, "timeout": 10}
+ * </pre>
+ * where "params" (session parameters) and "timeout" (in seconds) are optional. Each request is answered with a single line, e.g.
+ * <pre>
+ * {"id": 1, "status": "ok", "results": [{"function": "usesAnyIn", "params": ["P1", "Plate", "M"], "probability": 0.98}]}
+ * </pre>
+ * or, if the query could not be processed, {"id": 1, "status": "error", "message": "..."}, where status is one of "error", "busy" or "timeout".
+ * Requests on the same connection are answered in order; clients can open several connections to submit queries concurrently.
+ * 
+ * @author Dominik Jain
+ */
+public class SocketServer extends Server {
+	protected int port;
+	protected ArrayBlockingQueue<Job> queue;
+	protected Vector<Worker> workers = new Vector<Worker>();
+	protected ServerSocket serverSocket;
+	/**
+	 * the default time limit for a query in milliseconds (0 = unlimited)
+	 */
+	protected long defaultTimeout;
+	protected volatile boolean running = false;
+	
+	/**
+	 * @param modelPoolFile the model pool file
+	 * @param port the port to listen on
+	 * @param numWorkers the number of queries that are processed concurrently
+	 * @param maxQueueLength the maximum number of pending queries that have not yet been picked up by a worker
+	 * @param defaultTimeout the default time limit for a query in seconds (0 = unlimited)
+	 */
+	public SocketServer(String modelPoolFile, int port, int numWorkers, int maxQueueLength, double defaultTimeout) throws Exception {
+		this(modelPoolFile, port, numWorkers, maxQueueLength, defaultTimeout, false);
+	}
+	
+	/**
+	 * @param modelPoolFile the model pool file
+	 * @param port the port to listen on
+	 * @param numWorkers the number of queries that are processed concurrently
+	 * @param maxQueueLength the maximum number of pending queries that have not yet been picked up by a worker
+	 * @param defaultTimeout the default time limit for a query in seconds (0 = unlimited)
+	 * @param lazyLoading whether to load models only when they are first queried
+	 */
+	public SocketServer(String modelPoolFile, int port, int numWorkers, int maxQueueLength, double defaultTimeout, boolean lazyLoading) throws Exception {
+		super(modelPoolFile, lazyLoading);
+		this.port = port;
+		this.queue = new ArrayBlockingQueue<Job>(maxQueueLength);
+		this.defaultTimeout = (long)(defaultTimeout * 1000);
+		for(int i = 0; i < numWorkers; i++)
+			workers.add(new Worker(i));
+	}
+	
+	/**
+	 * a query that has been submitted to the server
+	 */
+	protected class Job {
+		public String modelName;
+		public Collection<String> queries;
+		public Collection<String[]> evidence;
+		public Map<String,Object> params;
+		/**
+		 * the time (in ms since the epoch) after which the job's result is no longer of interest (0 = never)
+		 */
+		public long deadline;
+		public CancellationToken cancellationToken = new CancellationToken();
+		protected Vector<InferenceResult> results = null;
+		protected Exception error = null;
+		protected boolean done = false;
+		protected boolean abandoned = false;
+		
+		public synchronized void complete(Vector<InferenceResult> results, Exception error) {
+			this.results = results;
+			this.error = error;
+			this.done = true;
+			notifyAll();
+		}
+		
+		/**
+		 * waits for the job to be completed (until the deadline, if any)
+		 * @return true if the job was completed, false if it timed out (in which case it is abandoned and cancelled)
+		 */
+		public synchronized boolean await() throws InterruptedException {
+			while(!done) {
+				if(deadline == 0)
+					wait();
+				else {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						abandoned = true;
+						cancellationToken.cancel();
+						return false;
+					}
+					wait(remaining);
+				}
+			}
+			return true;
+		}
+		
+		public synchronized boolean isAbandoned() {
+			return abandoned;
+		}
+	}
+	
+	/**
+	 * a worker thread, which processes the jobs in the queue
+	 */
+	protected class Worker extends Thread {
+		public Worker(int i) {
+			super("ProbCog worker " + i);
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			while(running) {
+				Job job;
+				try {
+					job = queue.take();
+				}
+				catch(InterruptedException e) {
+					break;
+				}
+				// jobs whose client has stopped waiting are not started in the first place
+				if(job.isAbandoned())
+					continue;
+				try {
+					job.complete(query(job.modelName, job.queries, job.evidence, job.params, job.cancellationToken), null);
+				}
+				catch(Exception e) {
+					job.complete(null, e);
+				}
+				catch(OutOfMemoryError e) {
+					job.complete(null, new Exception("Out of memory"));
+				}
+				catch(Throwable e) {
+					// the client must always receive a response, and the worker must survive for later jobs
+					job.complete(null, new Exception(e.toString()));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * a thread which reads the requests from a client connection and writes the responses
+	 */
+	protected class Connection extends Thread {
+		protected Socket socket;
+		
+		public Connection(Socket socket) {
+			super("ProbCog connection " + socket.getRemoteSocketAddress());
+			this.socket = socket;
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+				String line;
+				while((line = in.readLine()) != null) {
+					if(line.trim().length() == 0)
+						continue;
+					out.println(JSON.toString(handleRequest(line)));
+					out.flush();
+				}
+			}
+			catch(IOException e) {
+			}
+			catch(InterruptedException e) {
+			}
+			finally {
+				try {
+					socket.close();
+				}
+				catch(IOException e) {
+				}
+			}
+		}
+	}
+	
+	protected static Map<String,Object> makeResponse(Object id, String status, String message) {
+		Map<String,Object> response = new LinkedHashMap<String,Object>();
+		response.put("id", id);
+		response.put("status", status);
+		if(message != null)
+			response.put("message", message);
+		return response;
+	}
+	
+	/**
+	 * processes a single request, blocking until the result is available or the request has timed out
+	 * @param request the JSON representation of the request
+	 * @return the response object
+	 */
+	@SuppressWarnings("unchecked")
+	protected Map<String,Object> handleRequest(String request) throws InterruptedException {
+		Object id = null;
+		Job job = new Job();
+		// parse request
+		try {
+			Object o = JSON.parse(request);
+			if(!(o instanceof Map<?,?>))
+				throw new Exception("Request must be a JSON object");
+			Map<String,Object> req = (Map<String,Object>)o;
+			id = req.get("id");
+			job.modelName = (String)req.get("model");
+			if(job.modelName == null)
+				throw new Exception("No model given");
+			if(getModel(job.modelName) == null)
+				throw new Exception("Unknown model '" + job.modelName + "'");
+			job.queries = new Vector<String>();
+			for(Object q : (List<Object>)req.get("queries"))
+				job.queries.add((String)q);
+			job.evidence = new Vector<String[]>();
+			if(req.containsKey("evidence")) {
+				for(Object e : (List<Object>)req.get("evidence")) {
+					List<Object> tuple = (List<Object>)e;
+					String[] a = new String[tuple.size()];
+					for(int i = 0; i < a.length; i++)
+						a[i] = paramValue(tuple.get(i));
+					job.evidence.add(a);
+				}
+			}
+			if(req.containsKey("params")) {
+				job.params = new HashMap<String,Object>();
+				for(Map.Entry<String,Object> e : ((Map<String,Object>)req.get("params")).entrySet())
+					job.params.put(e.getKey(), paramValue(e.getValue()));
+			}
+			long timeout = defaultTimeout;
+			if(req.containsKey("timeout"))
+				timeout = (long)(((Number)req.get("timeout")).doubleValue() * 1000);
+			job.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		}
+		catch(Exception e) {
+			return makeResponse(id, "error", "Invalid request: " + e.getMessage());
+		}
+		// submit job
+		if(!queue.offer(job))
+			return makeResponse(id, "busy", "Too many pending queries");
+		if(!job.await())
+			return makeResponse(id, "timeout", "No result within the time limit");
+		if(job.error != null)
+			return makeResponse(id, "error", job.error.toString());
+		// build response
+		Map<String,Object> response = makeResponse(id, "ok", null);
+		Vector<Object> results = new Vector<Object>();
+		for(InferenceResult r : job.results) {
+			Map<String,Object> res = new LinkedHashMap<String,Object>();
+			res.put("function", r.functionName);
+			res.put("params", r.params);
+			res.put("probability", r.probability);
+			results.add(res);
+		}
+		response.put("results", results);
+		return response;
+	}
+	
+	/**
+	 * converts a JSON value to the string representation expected by the parameter handlers and the evidence
+	 * (in particular, integral numbers are represented without a fractional part)
+	 */
+	protected static String paramValue(Object value) {
+		if(value instanceof Double) {
+			double d = (Double)value;
+			if(d == Math.rint(d) && !Double.isInfinite(d))
+				return Long.toString((long)d);
+		}
+		return String.valueOf(value);
+	}
+	
+	/**
+	 * starts the worker threads and accepts connections until the server is shut down
+	 */
+	public void run() throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+		running = true;
+		for(Worker w : workers)
+			w.start();
+		System.err.printf("ProbCog socket server listening on port %d with %d workers\n", serverSocket.getLocalPort(), workers.size());
+		try {
+			while(running) {
+				Socket socket = serverSocket.accept();
+				new Connection(socket).start();
+			}
+		}
+		catch(IOException e) {
+			if(running)
+				throw e;
+		}
+	}
+	
+	/**
+	 * stops accepting connections and terminates the (idle) worker threads
+	 */
+	public void shutdown() throws IOException {
+		running = false;
+		for(Worker w : workers)
+			w.interrupt();
+		if(serverSocket != null)
+			serverSocket.close();
+	}
+	
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("usage: SocketServer <model pool file> [options]");
+			System.out.println("  options: -port <n>       the port to listen on (default: 5050)");
+			System.out.println("           -workers <n>    the number of queries to process concurrently (default: number of processors)");
+			System.out.println("           -queue <n>      the maximum number of pending queries (default: 100)");
+			System.out.println("           -timeout <s>    the default time limit for queries in seconds (default: 0 = unlimited)");
+			System.out.println("           -lazy           load models only when they are first queried");
+			return;
+		}
+		int port = 5050, numWorkers = Runtime.getRuntime().availableProcessors(), maxQueueLength = 100;
+		double timeout = 0;
+		boolean lazyLoading = false;
+		for(int i = 1; i < args.length; i++) {
+			if(args[i].equals("-port"))
+				port = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-workers"))
+				numWorkers = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-queue"))
+				maxQueueLength = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-timeout"))
+				timeout = Double.parseDouble(args[++i]);
+			else if(args[i].equals("-lazy"))
+				lazyLoading = true;
+			else {
+				System.err.println("unknown option " + args[i]);
+				return;
+			}
+		}
+		try {
+			new SocketServer(args[0], port, numWorkers, maxQueueLength, timeout, lazyLoading).run();
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.srl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Vector;
+
+import probcog.logic.Atom;
+import probcog.logic.Biimplication;
+import probcog.logic.Conjunction;
+import probcog.logic.Disjunction;
+import probcog.logic.Equality;
+import probcog.logic.Exist;
+import probcog.logic.ForAll;
+import probcog.logic.Formula;
+import probcog.logic.Implication;
+import probcog.logic.Literal;
+import probcog.logic.Negation;
+import probcog.logic.TrueFalse;
+
+import edu.ksu.cis.bnj.ver3.core.BeliefNetwork;
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPT;
+import edu.ksu.cis.bnj.ver3.core.Discrete;
+import edu.ksu.cis.bnj.ver3.core.Value;
+import edu.ksu.cis.bnj.ver3.core.values.ValueDouble;
+
+/**
+ * Reads models that were written by {@link BinaryModelWriter}. The file is memory-mapped, 
+ * so only the parts that are actually read are loaded from disk.
+ * @author Dominik Jain
+ */
+public class BinaryModelReader {
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	protected File file;
+	protected ByteBuffer in;
+	protected ArrayList<String> strings = new ArrayList<String>();
+	protected String modelType;
+	
+	public BinaryModelReader(File f) throws IOException {
+		file = f;
+		FileChannel channel = new RandomAccessFile(f, "r").getChannel();
+		try {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			channel.close();
+		}
+		if(in.getInt() != BinaryModelWriter.MAGIC)
+			throw new IOException(f + " is not a binary model file");
+		int version = in.getInt();
+		if(version != BinaryModelWriter.VERSION)
+			throw new IOException(String.format("%s has format version %d, expected %d", f, version, BinaryModelWriter.VERSION));
+		modelType = readString();
+	}
+	
+	/**
+	 * @return the type of the model contained in the file (e.g. "BLN" or "MLN")
+	 */
+	public String getModelType() {
+		return modelType;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public int readInt() {
+		return in.getInt();
+	}
+	
+	public double readDouble() {
+		return in.getDouble();
+	}
+	
+	public boolean readBoolean() {
+		return in.get() != 0;
+	}
+	
+	public String readString() {
+		int idx = in.getInt();
+		if(idx == -1)
+			return null;
+		if(idx >= 0)
+			return strings.get(idx);
+		byte[] b = new byte[in.getInt()];
+		in.get(b);
+		String s = new String(b, UTF8);
+		strings.add(s);
+		return s;
+	}
+	
+	public String[] readStrings() {
+		String[] a = new String[in.getInt()];
+		for(int i = 0; i < a.length; i++)
+			a[i] = readString();
+		return a;
+	}
+	
+	public Vector<String> readStringVector() {
+		int n = in.getInt();
+		Vector<String> v = new Vector<String>(n);
+		for(int i = 0; i < n; i++)
+			v.add(readString());
+		return v;
+	}
+	
+	public Signature readSignature() {
+		String functionName = readString();
+		String returnType = readString();
+		String[] argTypes = readStrings();
+		boolean isLogical = readBoolean();
+		boolean isUtility = readBoolean();
+		return new Signature(functionName, returnType, argTypes, isLogical, isUtility);
+	}
+	
+	public RelationKey readRelationKey() {
+		String relation = readString();
+		return new RelationKey(relation, readStrings());
+	}
+	
+	public Formula readFormula() throws IOException {
+		byte type = in.get();
+		switch(type) {
+		case BinaryModelWriter.ATOM: {
+			String predName = readString();
+			return new Atom(predName, readStringVector());
+		}
+		case BinaryModelWriter.LITERAL: {
+			boolean isPositive = readBoolean();
+			String predName = readString();
+			return new Literal(isPositive, new Atom(predName, readStringVector()));
+		}
+		case BinaryModelWriter.EXIST: {
+			Vector<String> vars = readStringVector();
+			return new Exist(vars, readFormula());
+		}
+		case BinaryModelWriter.FORALL: {
+			Vector<String> vars = readStringVector();
+			return new ForAll(vars, readFormula());
+		}
+		case BinaryModelWriter.EQUALITY: {
+			String left = readString();
+			return new Equality(left, readString());
+		}
+		case BinaryModelWriter.TRUEFALSE:
+			return TrueFalse.getInstance(readBoolean());
+		}
+		Vector<Formula> children = new Vector<Formula>();
+		int n = in.getInt();
+		for(int i = 0; i < n; i++)
+			children.add(readFormula());
+		switch(type) {
+		case BinaryModelWriter.NEGATION:
+			return new Negation(children.get(0));
+		case BinaryModelWriter.CONJUNCTION:
+			return new Conjunction(children);
+		case BinaryModelWriter.DISJUNCTION:
+			return new Disjunction(children);
+		case BinaryModelWriter.IMPLICATION:
+			return new Implication(children.get(0), children.get(1));
+		case BinaryModelWriter.BIIMPLICATION:
+			return new Biimplication(children.get(0), children.get(1));
+		}
+		throw new IOException("Unknown formula type " + type + " in " + file);
+	}
+	
+	/**
+	 * reads a Bayesian network, creating its nodes, edges and CPTs directly
+	 * @return
+	 */
+	public BeliefNetwork readNetwork() {
+		BeliefNetwork bn = new BeliefNetwork(readString());
+		BeliefNode[] nodes = new BeliefNode[in.getInt()];
+		for(int i = 0; i < nodes.length; i++) {
+			String name = readString();
+			int type = in.getInt();
+			nodes[i] = new BeliefNode(name, new Discrete(readStrings()));
+			nodes[i].setType(type);
+			bn.addBeliefNode(nodes[i]);
+		}
+		for(BeliefNode node : nodes) {
+			BeliefNode[] domProd = new BeliefNode[in.getInt()+1];
+			domProd[0] = node;
+			for(int j = 1; j < domProd.length; j++) {
+				domProd[j] = nodes[in.getInt()];
+				bn.getGraph().addDirectedEdge(domProd[j].getOwner(), node.getOwner());
+			}
+			Value[] values = new Value[in.getInt()];
+			for(int j = 0; j < values.length; j++)
+				values[j] = new ValueDouble(in.getDouble());
+			CPT cpt = new CPT();
+			cpt.build(domProd, values);
+			node.setCPF(cpt);
+		}
+		return bn;
+	}
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.srl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+
+import probcog.logic.Atom;
+import probcog.logic.Biimplication;
+import probcog.logic.ComplexFormula;
+import probcog.logic.Conjunction;
+import probcog.logic.Disjunction;
+import probcog.logic.Equality;
+import probcog.logic.Exist;
+import probcog.logic.ForAll;
+import probcog.logic.Formula;
+import probcog.logic.Implication;
+import probcog.logic.Literal;
+import probcog.logic.Negation;
+import probcog.logic.TrueFalse;
+
+import edu.ksu.cis.bnj.ver3.core.BeliefNetwork;
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPF;
+import edu.ksu.cis.bnj.ver3.core.Discrete;
+import edu.ksu.cis.bnj.ver3.core.Domain;
+
+/**
+ * Writes fully parsed models (declarations, fragment networks including their CPTs, formulas) 
+ * in a compact binary format that can be read back by {@link BinaryModelReader} without 
+ * invoking any of the parsers for the textual model formats.
+ * Strings are written only once; every further occurrence is a reference to the first one.  
+ * @author Dominik Jain
+ */
+public class BinaryModelWriter {
+	public static final int MAGIC = 0x50434d49; // "PCMI"
+	public static final int VERSION = 1;
+	
+	public static final byte ATOM = 1, LITERAL = 2, NEGATION = 3, CONJUNCTION = 4, DISJUNCTION = 5, IMPLICATION = 6, BIIMPLICATION = 7, EXIST = 8, FORALL = 9, EQUALITY = 10, TRUEFALSE = 11;
+	
+	protected DataOutputStream out;
+	protected HashMap<String,Integer> strings = new HashMap<String,Integer>();
+	
+	/**
+	 * @param f  the file to write to
+	 * @param modelType  the type of model that is written (e.g. "BLN" or "MLN")
+	 * @throws IOException
+	 */
+	public BinaryModelWriter(File f, String modelType) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeString(modelType);
+	}
+	
+	public void writeInt(int i) throws IOException {
+		out.writeInt(i);
+	}
+	
+	public void writeDouble(double d) throws IOException {
+		out.writeDouble(d);
+	}
+	
+	public void writeBoolean(boolean b) throws IOException {
+		out.writeBoolean(b);
+	}
+	
+	/**
+	 * writes a string (which may be null); a string that was written before is replaced by a reference
+	 * @param s
+	 * @throws IOException
+	 */
+	public void writeString(String s) throws IOException {
+		if(s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		Integer idx = strings.get(s);
+		if(idx != null) {
+			out.writeInt(idx);
+			return;
+		}
+		strings.put(s, strings.size());
+		byte[] b = s.getBytes("UTF-8");
+		out.writeInt(-2);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+	public void writeStrings(String[] a) throws IOException {
+		out.writeInt(a.length);
+		for(String s : a)
+			writeString(s);
+	}
+	
+	public void writeStrings(Collection<String> c) throws IOException {
+		out.writeInt(c.size());
+		for(String s : c)
+			writeString(s);
+	}
+	
+	public void writeSignature(Signature sig) throws IOException {
+		writeString(sig.functionName);
+		writeString(sig.returnType);
+		writeStrings(sig.argTypes);
+		out.writeBoolean(sig.isLogical);
+		out.writeBoolean(sig.isUtility);
+	}
+	
+	public void writeRelationKey(RelationKey k) throws IOException {
+		writeString(k.relation);
+		writeStrings(k.arguments);
+	}
+	
+	/**
+	 * writes the abstract syntax tree of a formula
+	 * @param f
+	 * @throws Exception if the formula contains a construct that cannot be written
+	 */
+	public void writeFormula(Formula f) throws Exception {
+		if(f instanceof Atom) {
+			Atom a = (Atom)f;
+			out.writeByte(ATOM);
+			writeString(a.predName);
+			writeStrings(a.params);
+		}
+		else if(f instanceof Literal) {
+			Literal l = (Literal)f;
+			out.writeByte(LITERAL);
+			out.writeBoolean(l.isPositive);
+			writeString(l.atom.predName);
+			writeStrings(l.atom.params);
+		}
+		else if(f instanceof Exist) {
+			out.writeByte(EXIST);
+			writeStrings(((Exist)f).vars);
+			writeFormula(((Exist)f).f);
+		}
+		else if(f instanceof ForAll) {
+			out.writeByte(FORALL);
+			writeStrings(((ForAll)f).vars);
+			writeFormula(((ForAll)f).f);
+		}
+		else if(f instanceof Equality) {
+			out.writeByte(EQUALITY);
+			writeString(((Equality)f).left);
+			writeString(((Equality)f).right);
+		}
+		else if(f instanceof TrueFalse) {
+			out.writeByte(TRUEFALSE);
+			out.writeBoolean(((TrueFalse)f).isTrue());
+		}
+		else if(f instanceof ComplexFormula) {
+			if(f instanceof Negation)
+				out.writeByte(NEGATION);
+			else if(f instanceof Conjunction)
+				out.writeByte(CONJUNCTION);
+			else if(f instanceof Disjunction)
+				out.writeByte(DISJUNCTION);
+			else if(f instanceof Implication)
+				out.writeByte(IMPLICATION);
+			else if(f instanceof Biimplication)
+				out.writeByte(BIIMPLICATION);
+			else
+				throw new Exception("Cannot write formulas of type " + f.getClass().getSimpleName());
+			Formula[] children = ((ComplexFormula)f).children;
+			out.writeInt(children.length);
+			for(Formula c : children)
+				writeFormula(c);
+		}
+		else
+			throw new Exception("Cannot write formulas of type " + f.getClass().getSimpleName());
+	}
+	
+	/**
+	 * writes the structure and the conditional probability tables of a Bayesian network 
+	 * @param bn
+	 * @throws Exception if a node does not have a discrete domain
+	 */
+	public void writeNetwork(BeliefNetwork bn) throws Exception {
+		writeString(bn.getName());
+		BeliefNode[] nodes = bn.getNodes();
+		HashMap<BeliefNode,Integer> indices = new HashMap<BeliefNode,Integer>();
+		out.writeInt(nodes.length);
+		for(int i = 0; i < nodes.length; i++) {
+			BeliefNode node = nodes[i];
+			indices.put(node, i);
+			writeString(node.getName());
+			out.writeInt(node.getType());
+			Domain dom = node.getDomain();
+			if(!(dom instanceof Discrete))
+				throw new Exception("Cannot write node " + node.getName() + " with non-discrete domain");
+			out.writeInt(dom.getOrder());
+			for(int j = 0; j < dom.getOrder(); j++)
+				writeString(dom.getName(j));
+		}
+		for(BeliefNode node : nodes) {
+			CPF cpf = node.getCPF();
+			BeliefNode[] domProd = cpf.getDomainProduct();
+			out.writeInt(domProd.length-1);
+			for(int j = 1; j < domProd.length; j++)
+				out.writeInt(indices.get(domProd[j]));
+			int size = cpf.size();
+			out.writeInt(size);
+			for(int j = 0; j < size; j++)
+				out.writeDouble(cpf.getDouble(j));
+		}
+	}
+	
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -18,14 +18,9 @@
  ******************************************************************************/
 package probcog.srl;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.PrintStream;
-import java.io.StringReader;
 import java.util.Collection;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import edu.tum.cs.util.FileUtil;
 
 /**
  * Represents a standard relational database (that can be used as training or evidence data)
@@ -76,74 +71,80 @@ public class Database extends GenericDatabase<Variable, String> {
 		return null;
 	}
 
+	/**
+	 * parses a variable assignment of the form "func(A, B) = Value;" (where the semicolon is optional)
+	 * @param line  the line to parse
+	 * @param in  the reader whose pool to use for interning
+	 * @return the variable or null if the line is not a variable assignment
+	 */
 	@Override
-	protected Variable readEntry(String line) {
-		Pattern re_entry = Pattern.compile("(\\w+)\\(([^\\)]+)\\)\\s*=\\s*([^;]*);?");
-		Matcher matcher = re_entry.matcher(line);
-		if(matcher.matches()) {
-			// String key = matcher.group(1) + "(" +
-			// matcher.group(2).replaceAll("\\s*", "") + ")";
-			Variable var = makeVar(matcher.group(1), matcher.group(2).split("\\s*,\\s*"), matcher.group(3)); // new Variable(matcher.group(1), matcher.group(2).split("\\s*,\\s*"), matcher.group(3), model);
-			// System.out.println(var.toString());
-			return var;
-		}
-		return null;
+	protected Variable readEntry(String line, TextFileScanner in) {
+		int i = TextFileScanner.skipIdentifier(line, 0);
+		if(i == 0 || i == line.length() || line.charAt(i) != '(')
+			return null;
+		int close = line.indexOf(')', i+1);
+		if(close == -1 || close == i+1)
+			return null;
+		int j = TextFileScanner.skipWhitespace(line, close+1);
+		if(j == line.length() || line.charAt(j) != '=')
+			return null;
+		int end = line.indexOf(';', j+1);
+		if(end == -1)
+			end = line.length();
+		else if(end != line.length()-1)
+			return null;
+		return makeVar(in.intern(line.substring(0, i)), in.splitList(line, i+1, close), in.internTrimmed(line, j+1, end));
 	}
 	
 	/**
      * 
      * */
 	public void readMLNDB(String databaseFilename, boolean ignoreUndefinedNodes) throws Exception {
-		boolean verbose = false;
-
-		// read file content
-		if(verbose)
-			System.out.printf("reading contents of %s...\n", databaseFilename);
-		String dbContent = FileUtil.readTextFile(databaseFilename);
-
-		// remove comments
-		// if (verbose) System.out.println("  removing comments...");
-		Pattern comments = Pattern.compile("//.*?$|/\\*.*?\\*/", Pattern.MULTILINE | Pattern.DOTALL);
-		Matcher matcher = comments.matcher(dbContent);
-		dbContent = matcher.replaceAll("");
-
-		// read lines
-		// if (verbose) System.out.println("  reading items...");
-		String arg = "\\w+";
-		String argList = "\\s*" + arg + "\\s*(?:,\\s*" + arg + "\\s*)*";
-		Pattern re_entry = Pattern.compile("(!?\\w+)\\((" + argList + ")\\)");
-		Pattern re_domDecl = Pattern.compile("(\\w+)\\s*=\\s*\\{(" + argList + ")\\}");
-		BufferedReader br = new BufferedReader(new StringReader(dbContent));
-		String line;
-		Variable var;
-		while((line = br.readLine()) != null) {
-			line = line.trim();
-			// parse variable assignment
-			matcher = re_entry.matcher(line);
-			if(matcher.matches()) {
-				if(matcher.group(1).startsWith("!"))
-					var = new Variable(matcher.group(1).substring(1), matcher.group(2).trim().split("\\s*,\\s*"), "False", model);
-				else
-					var = new Variable(matcher.group(1), matcher.group(2).trim().split("\\s*,\\s*"), "True", model);
-
-				addVariable(var, ignoreUndefinedNodes, true);
-				// if (++numVars % 100 == 0 && verbose)
-				// System.out.println("    " + numVars + " vars read\r");
-				continue;
-			}
-
-			// parse domain extension
-			matcher = re_domDecl.matcher(line);
-			if(matcher.matches()) { // parse
-				String domNam = matcher.group(1);
-				String[] constants = matcher.group(2).trim().split("\\s*,\\s*");
-				for(String c : constants)
-					fillDomain(domNam, c);
-				continue;
-			}
-			// something else
-			if(line.length() != 0)
+		TextFileScanner in = new TextFileScanner(new File(databaseFilename), memoryMappedReading);
+		try {
+			String line;
+			while((line = in.nextLine()) != null) {
+				// parse variable assignment
+				boolean negated = line.charAt(0) == '!';
+				int start = negated ? 1 : 0;
+				int i = TextFileScanner.skipIdentifier(line, start);
+				if(i > start && i < line.length() && line.charAt(i) == '(' && line.charAt(line.length()-1) == ')' && isArgList(line, i+1, line.length()-1)) {
+					Variable var = new Variable(in.intern(line.substring(start, i)), in.splitList(line, i+1, line.length()-1), negated ? "False" : "True", model);
+					addVariable(var, ignoreUndefinedNodes, true);
+					continue;
+				}
+				// parse domain extension
+				String[] domDecl = readDomainDeclaration(line, in);
+				if(domDecl != null && isArgList(line, line.indexOf('{')+1, line.length()-1)) {
+					for(int j = 1; j < domDecl.length; j++)
+						fillDomain(domDecl[0], domDecl[j]);
+					continue;
+				}
+				// something else
 				System.err.println("Line could not be read: " + line);
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * @return true if the given range of the string is a non-empty, comma-separated list of identifiers
+	 */
+	protected static boolean isArgList(String s, int start, int end) {
+		int i = start;
+		while(true) {
+			i = TextFileScanner.skipWhitespace(s, i);
+			int j = TextFileScanner.skipIdentifier(s, i);
+			if(j == i || j > end)
+				return false;
+			i = TextFileScanner.skipWhitespace(s, j);
+			if(i >= end)
+				return i == end;
+			if(s.charAt(i) != ',')
+				return false;
+			i++;
 		}
 	}
 
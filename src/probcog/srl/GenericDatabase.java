@@ -18,16 +18,13 @@
  ******************************************************************************/
 package probcog.srl;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.PrintStream;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
@@ -36,7 +33,6 @@ import probcog.srl.directed.ABLModel;
 import probcog.srl.taxonomy.Concept;
 import probcog.srl.taxonomy.Taxonomy;
 
-import edu.tum.cs.util.FileUtil;
 import edu.tum.cs.util.StringTool;
 import edu.tum.cs.util.datastruct.MultiIterator;
 
@@ -75,6 +71,10 @@ public abstract class GenericDatabase<VariableType extends AbstractVariable<?>,
 
 	protected boolean debug = false;
 	protected boolean verbose = false;
+	/**
+	 * whether database files are memory-mapped when read (rather than read in chunks)
+	 */
+	protected boolean memoryMappedReading = false;
 	protected ParameterHandler paramHandler;
 
 	/**
@@ -92,6 +92,7 @@ public abstract class GenericDatabase<VariableType extends AbstractVariable<?>,
 		paramHandler = new ParameterHandler(this);
 		paramHandler.add("debug", "setDebug");
 		paramHandler.add("debug", "setVerbose");
+		paramHandler.add("memoryMappedReading", "setMemoryMappedReading");
 		
 		// initialize domains
 		if(taxonomy != null) {
@@ -128,6 +129,13 @@ public abstract class GenericDatabase<VariableType extends AbstractVariable<?>,
 	public void setDebug(boolean debug) {
 		this.debug = debug;
 	}
+	
+	/**
+	 * @param enabled whether database files are to be memory-mapped when read (rather than read in chunks)
+	 */
+	public void setMemoryMappedReading(boolean enabled) {
+		this.memoryMappedReading = enabled;
+	}
 
 	/**
 	 * gets a variable's value as stored in the database
@@ -279,54 +287,78 @@ public abstract class GenericDatabase<VariableType extends AbstractVariable<?>,
 		readBLOGDB(databaseFilename, false);
 	}
 	
+	/**
+	 * reads a database in BLOG format, where each line contains either a domain declaration (e.g. "domName = {A, B, C}")
+	 * or a variable assignment (e.g. "func(A, B) = Value;"); the file is streamed, i.e. it is never held in memory as a whole
+	 * @param databaseFilename
+	 * @param ignoreUndefinedNodes whether to ignore entries for functions that are not declared in the model (rather than raising an exception)
+	 * @throws Exception
+	 */
 	public void readBLOGDB(String databaseFilename, boolean ignoreUndefinedNodes) throws Exception {
-		// read file content
 		if(verbose)
 			System.out.printf("  reading contents of %s...\n", databaseFilename);
-		String dbContent = FileUtil.readTextFile(databaseFilename);
-
-		// remove comments
-		if(verbose)
-			System.out.println("  removing comments");
-		Pattern comments = Pattern.compile("//.*?$|/\\*.*?\\*/", Pattern.MULTILINE | Pattern.DOTALL);
-		Matcher matcher = comments.matcher(dbContent);
-		dbContent = matcher.replaceAll("");
-
-		// read lines
-		if(verbose)
-			System.out.println("  reading items");		
-		Pattern re_domDecl = Pattern.compile("(\\w+)\\s*=\\s*\\{(.*?)\\}");
-		BufferedReader br = new BufferedReader(new StringReader(dbContent));
-		String line;
-		int numVars = 0;
-		while((line = br.readLine()) != null) {
-			line = line.trim();
-			// parse domain decls
-			matcher = re_domDecl.matcher(line);
-			if(matcher.matches()) { // parse domain decls
-				String domName = matcher.group(1);
-				String[] constants = matcher.group(2).split("\\s*,\\s*");
-				constants = ABLModel.makeDomainElements(constants);
-				for(String c : constants)
-					fillDomain(domName, c);
-				continue;
-			}
-			// parse variable assignment
-			VariableType var = readEntry(line);
-			if(var != null) {
-				addVariable(var, ignoreUndefinedNodes, true);
-				if(++numVars % 100 == 0 && verbose)
-					System.out.print("    " + numVars + " vars read\r");
-				continue;
-			}
-			// something else
-			if(line.length() != 0) {
-				throw new Exception("Database entry could not be read: " + line);
+		TextFileScanner in = new TextFileScanner(new File(databaseFilename), memoryMappedReading);
+		try {
+			String line;
+			int numVars = 0;
+			while((line = in.nextLine()) != null) {
+				// parse domain decls
+				String[] domDecl = readDomainDeclaration(line, in);
+				if(domDecl != null) {
+					String[] constants = new String[domDecl.length-1];
+					System.arraycopy(domDecl, 1, constants, 0, constants.length);
+					constants = ABLModel.makeDomainElements(constants);
+					for(String c : constants)
+						fillDomain(domDecl[0], c);
+					continue;
+				}
+				// parse variable assignment
+				VariableType var = readEntry(line, in);
+				if(var != null) {
+					addVariable(var, ignoreUndefinedNodes, true);
+					if(++numVars % 100 == 0 && verbose)
+						System.out.print("    " + numVars + " vars read\r");
+					continue;
+				}
+				// something else
+				throw new Exception("Database entry could not be read (line " + in.getLineNumber() + "): " + line);
 			}
 		}
+		finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * parses a domain declaration of the form "domName = {A, B, C}"
+	 * @param line  the line to parse
+	 * @param in  the reader whose pool to use for interning
+	 * @return an array containing the name of the domain followed by the (unprocessed) elements or null if the line is not a domain declaration
+	 */
+	protected static String[] readDomainDeclaration(String line, TextFileScanner in) {
+		int i = TextFileScanner.skipIdentifier(line, 0);
+		if(i == 0)
+			return null;
+		int j = TextFileScanner.skipWhitespace(line, i);
+		if(j == line.length() || line.charAt(j) != '=')
+			return null;
+		j = TextFileScanner.skipWhitespace(line, j+1);
+		if(j == line.length() || line.charAt(j) != '{' || line.charAt(line.length()-1) != '}')
+			return null;
+		String[] elems = in.splitList(line, j+1, line.length()-1);
+		String[] ret = new String[elems.length+1];
+		ret[0] = in.intern(line.substring(0, i));
+		System.arraycopy(elems, 0, ret, 1, elems.length);
+		return ret;
 	}
 	
-	protected abstract VariableType readEntry(String line) throws Exception;
+	/**
+	 * parses a line containing a variable assignment
+	 * @param line  the (trimmed, comment-free) line to parse
+	 * @param in  the reader from which the line was obtained (and whose pool is to be used for interning)
+	 * @return the variable or null if the line is not a variable assignment
+	 */
+	protected abstract VariableType readEntry(String line, TextFileScanner in) throws Exception;
 
 
 	/**
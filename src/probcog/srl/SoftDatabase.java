@@ -50,7 +50,7 @@ public class SoftDatabase extends GenericDatabase<SoftVariable, ValueDistributio
 	}
 
 	@Override
-	protected SoftVariable readEntry(String line) throws Exception {
+	protected SoftVariable readEntry(String line, TextFileScanner in) throws Exception {
 		throw new RuntimeException("not implemented");
 	}
 
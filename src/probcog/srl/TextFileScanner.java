@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.srl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+
+/**
+ * Streaming reader for the line-based text formats of databases and models (e.g. BLOG databases, MLN files), 
+ * which returns the lines of a file one by one with comments (// ... and /* ... *&#47;) removed.
+ * The file is read via NIO in chunks (or, optionally, memory-mapped), so its content is never held in
+ * memory as a whole. Additionally, the reader provides methods for the scanning of lines and an 
+ * interning pool, such that the many occurrences of the same constant in a large database share a single string.
+ * @author Dominik Jain
+ */
+public class TextFileScanner {
+	protected static final int BUFFER_SIZE = 1 << 16;
+	
+	protected FileChannel channel = null;
+	protected ByteBuffer bytes;
+	protected CharsetDecoder decoder;
+	protected CharBuffer chars;
+	/**
+	 * whether all bytes of the file have been read
+	 */
+	protected boolean endOfFile = false;
+	/**
+	 * whether all characters have been decoded
+	 */
+	protected boolean endOfInput = false;
+	protected boolean inBlockComment = false;
+	protected StringBuilder line = new StringBuilder();
+	protected int lineNo = 0;
+	protected HashMap<String,String> internPool = new HashMap<String,String>();
+
+	/**
+	 * @param file  the file to read
+	 * @param memoryMapped  whether to map the file into memory rather than reading it in chunks
+	 * @throws IOException
+	 */
+	public TextFileScanner(File file, boolean memoryMapped) throws IOException {
+		channel = new RandomAccessFile(file, "r").getChannel();
+		if(memoryMapped && channel.size() <= Integer.MAX_VALUE) {
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			channel.close();
+			channel = null;
+		}
+		else {
+			bytes = ByteBuffer.allocate(BUFFER_SIZE);
+			bytes.flip();
+		}
+		decoder = Charset.forName("UTF-8").newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		chars = CharBuffer.allocate(BUFFER_SIZE);
+		chars.flip();
+	}
+	
+	/**
+	 * constructs a reader for text that is already in memory
+	 * @param content
+	 */
+	public TextFileScanner(CharSequence content) {
+		chars = CharBuffer.wrap(content);
+		endOfInput = true;
+	}
+	
+	/**
+	 * makes further characters available in the character buffer
+	 * @return false if the end of the input has been reached
+	 */
+	protected boolean fill() throws IOException {
+		if(endOfInput)
+			return false;
+		chars.compact();
+		while(chars.position() == 0) {
+			if(channel == null)
+				endOfFile = true;
+			else if(!endOfFile) {
+				bytes.compact();
+				endOfFile = channel.read(bytes) == -1;
+				bytes.flip();
+			}
+			CoderResult res = decoder.decode(bytes, chars, endOfFile);
+			if(res.isError())
+				res.throwException();
+			if(endOfFile && res.isUnderflow()) { // all bytes have been decoded
+				decoder.flush(chars);
+				endOfInput = true;
+				close();
+				break;
+			}
+		}
+		chars.flip();
+		return chars.hasRemaining();
+	}
+	
+	/**
+	 * @return the next character or -1 if the end of the input has been reached
+	 */
+	protected int read() throws IOException {
+		if(!chars.hasRemaining() && !fill())
+			return -1;
+		return chars.get();
+	}
+	
+	/**
+	 * @return the next character without consuming it, or -1 if the end of the input has been reached
+	 */
+	protected int peek() throws IOException {
+		if(!chars.hasRemaining() && !fill())
+			return -1;
+		return chars.get(chars.position());
+	}
+	
+	/**
+	 * reads the next line that is not empty after the removal of comments
+	 * @return the line (with leading and trailing whitespace removed) or null if there are no more lines
+	 * @throws IOException
+	 */
+	public String nextLine() throws IOException {
+		while(true) {
+			line.setLength(0);
+			int c;
+			while((c = read()) != -1 && c != '\n') {
+				if(inBlockComment) {
+					if(c == '*' && peek() == '/') {
+						read();
+						inBlockComment = false;
+					}
+				}
+				else if(c == '/' && peek() == '/') {
+					while((c = peek()) != -1 && c != '\n')
+						read();
+				}
+				else if(c == '/' && peek() == '*') {
+					read();
+					inBlockComment = true;
+				}
+				else
+					line.append((char)c);
+			}
+			if(c == -1 && line.length() == 0)
+				return null;
+			lineNo++;
+			String s = trim(line);
+			if(s.length() > 0)
+				return s;
+		}
+	}
+	
+	protected static String trim(StringBuilder sb) {
+		int start = 0, end = sb.length();
+		while(start < end && Character.isWhitespace(sb.charAt(start)))
+			start++;
+		while(end > start && Character.isWhitespace(sb.charAt(end-1)))
+			end--;
+		return sb.substring(start, end);
+	}
+	
+	/**
+	 * @return the number of the line that was last returned by {@link #nextLine()}
+	 */
+	public int getLineNumber() {
+		return lineNo;
+	}
+	
+	/**
+	 * @param s
+	 * @return the string from this reader's pool that is equal to s (s itself if there was no such string)
+	 */
+	public String intern(String s) {
+		String ret = internPool.get(s);
+		if(ret == null) {
+			internPool.put(s, s);
+			ret = s;
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return the substring of s between the given indices with whitespace removed from both ends, interned
+	 */
+	public String internTrimmed(String s, int start, int end) {
+		while(start < end && Character.isWhitespace(s.charAt(start)))
+			start++;
+		while(end > start && Character.isWhitespace(s.charAt(end-1)))
+			end--;
+		return intern(s.substring(start, end));
+	}
+	
+	/**
+	 * splits the given region of a string at commas, trimming and interning the resulting elements
+	 * @return the elements
+	 */
+	public String[] splitList(String s, int start, int end) {
+		int n = 1;
+		for(int i = start; i < end; i++)
+			if(s.charAt(i) == ',')
+				n++;
+		String[] ret = new String[n];
+		int j = 0;
+		for(int i = start; i <= end; i++) {
+			if(i == end || s.charAt(i) == ',') {
+				ret[j++] = internTrimmed(s, start, i);
+				start = i+1;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return the index of the first character at or after pos that is not part of an identifier (i.e. not a word character)
+	 */
+	public static int skipIdentifier(String s, int pos) {
+		while(pos < s.length()) {
+			char c = s.charAt(pos);
+			if(!(Character.isLetterOrDigit(c) || c == '_'))
+				break;
+			pos++;
+		}
+		return pos;
+	}
+	
+	/**
+	 * @return the index of the first character at or after pos that is not whitespace
+	 */
+	public static int skipWhitespace(String s, int pos) {
+		while(pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+			pos++;
+		return pos;
+	}
+	
+	/**
+	 * closes the underlying file (which happens automatically once the end of the file has been reached)
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if(channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
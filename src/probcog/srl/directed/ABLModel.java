@@ -30,6 +30,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.BooleanDomain;
 import probcog.srl.Database;
 import probcog.srl.RealDomain;
@@ -98,6 +100,16 @@ public class ABLModel extends RelationalBeliefNetwork {
 		init(new String[]{ declarationsFile }, null);
 	}
 	
+	/**
+	 * constructs a model from a binary model file that was written using {@link #writeBinary(BinaryModelWriter)}
+	 * @param in
+	 * @throws Exception
+	 */
+	public ABLModel(BinaryModelReader in) throws Exception {
+		readBinary(in);
+		checkSignatures();
+	}
+	
 	public static boolean isValidEntityName(String s) {
 		return regexEntity.matcher(s).matches();
 	}
@@ -150,6 +162,33 @@ public class ABLModel extends RelationalBeliefNetwork {
 		}
 	}
 
+	@Override
+	public void writeBinary(BinaryModelWriter out) throws Exception {
+		super.writeBinary(out);
+		out.writeString(networkFile == null ? null : networkFile.getPath());
+		if(declsFiles == null)
+			out.writeInt(-1);
+		else {
+			out.writeInt(declsFiles.length);
+			for(File f : declsFiles)
+				out.writeString(f.getPath());
+		}
+	}
+	
+	@Override
+	protected void readBinary(BinaryModelReader in) throws Exception {
+		super.readBinary(in);
+		String networkFilename = in.readString();
+		if(networkFilename != null)
+			networkFile = new File(networkFilename);
+		int numDeclsFiles = in.readInt();
+		if(numDeclsFiles >= 0) {
+			declsFiles = new File[numDeclsFiles];
+			for(int i = 0; i < numDeclsFiles; i++)
+				declsFiles[i] = new File(in.readString());
+		}
+	}
+
 	protected boolean readDeclaration(String line) throws Exception {
 		// function signature
 		// TODO: logical Boolean required - split this into random / logical w/o Boolean / utility?
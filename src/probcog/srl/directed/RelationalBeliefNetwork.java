@@ -32,11 +32,14 @@ import java.util.Vector;
 import probcog.bayesnets.core.BeliefNetworkEx;
 import probcog.logic.Formula;
 import probcog.logic.GroundAtom;
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.RelationKey;
 import probcog.srl.RelationalModel;
 import probcog.srl.Signature;
 import probcog.srl.directed.RelationalNode.Aggregator;
 import probcog.srl.mln.MLNWriter;
+import probcog.srl.taxonomy.Concept;
 import probcog.srl.taxonomy.Taxonomy;
 import probcog.srldb.Database;
 
@@ -112,6 +115,14 @@ public class RelationalBeliefNetwork extends BeliefNetworkEx implements Relation
 	
 	protected void initNetwork(File networkFile) throws Exception {
 		super.initNetwork(networkFile.toString());
+		initExtendedNodes();
+	}
+	
+	/**
+	 * creates the extended nodes for all the nodes of the underlying network
+	 * @throws Exception
+	 */
+	protected void initExtendedNodes() throws Exception {
 		BeliefNode[] nodes = bn.getNodes();
 		for(int i = 0; i < nodes.length; i++) {
 			ExtendedNode n = createNode(nodes[i]);			
@@ -119,6 +130,99 @@ public class RelationalBeliefNetwork extends BeliefNetworkEx implements Relation
 		}		
 	}
 	
+	/**
+	 * writes the declarations (types, signatures, guaranteed domain elements, etc.) and the fragment network in binary form
+	 * @param out
+	 * @throws Exception
+	 */
+	public void writeBinary(BinaryModelWriter out) throws Exception {
+		// taxonomy
+		if(taxonomy == null)
+			out.writeInt(-1);
+		else {
+			Collection<Concept> concepts = taxonomy.getConcepts();
+			out.writeInt(concepts.size());
+			for(Concept c : concepts)
+				out.writeString(c.name);
+			for(Concept c : concepts)
+				out.writeString(c.parent == null ? null : c.parent.name);
+		}
+		// signatures
+		out.writeInt(signatures.size());
+		for(Signature sig : signatures.values())
+			out.writeSignature(sig);
+		// guaranteed domain elements
+		out.writeInt(guaranteedDomElements.size());
+		for(Map.Entry<String, List<String>> e : guaranteedDomElements.entrySet()) {
+			out.writeString(e.getKey());
+			out.writeStrings(e.getValue());
+		}
+		// relation keys
+		int numKeys = 0;
+		for(Collection<RelationKey> keys : relationKeys.values())
+			numKeys += keys.size();
+		out.writeInt(numKeys);
+		for(Collection<RelationKey> keys : relationKeys.values())
+			for(RelationKey k : keys)
+				out.writeRelationKey(k);
+		// combining rules
+		out.writeInt(combiningRules.size());
+		for(Map.Entry<String, CombiningRule> e : combiningRules.entrySet()) {
+			out.writeString(e.getKey());
+			out.writeString(e.getValue().name());
+		}
+		// uniform default functions and prolog rules
+		out.writeStrings(uniformDefaultFunctions);
+		out.writeStrings(prologRules);
+		// fragment network
+		out.writeString(filename);
+		out.writeNetwork(bn);
+	}
+	
+	/**
+	 * reads the data written by {@link #writeBinary(BinaryModelWriter)}
+	 * @param in
+	 * @throws Exception
+	 */
+	protected void readBinary(BinaryModelReader in) throws Exception {
+		// taxonomy
+		int numConcepts = in.readInt();
+		if(numConcepts >= 0) {
+			taxonomy = new Taxonomy();
+			Concept[] concepts = new Concept[numConcepts];
+			for(int i = 0; i < numConcepts; i++)
+				taxonomy.addConcept(concepts[i] = new Concept(in.readString()));
+			for(int i = 0; i < numConcepts; i++) {
+				String parent = in.readString();
+				if(parent != null)
+					concepts[i].setParent(taxonomy.getConcept(parent));
+			}
+		}
+		// signatures
+		for(int n = in.readInt(); n > 0; n--)
+			addSignature(in.readSignature());
+		// guaranteed domain elements
+		for(int n = in.readInt(); n > 0; n--) {
+			String domName = in.readString();
+			setGuaranteedDomainElements(domName, in.readStrings());
+		}
+		// relation keys
+		for(int n = in.readInt(); n > 0; n--)
+			addRelationKey(in.readRelationKey());
+		// combining rules
+		for(int n = in.readInt(); n > 0; n--) {
+			String function = in.readString();
+			combiningRules.put(function, CombiningRule.valueOf(in.readString()));
+		}
+		// uniform default functions and prolog rules
+		uniformDefaultFunctions.addAll(in.readStringVector());
+		prologRules.addAll(in.readStringVector());
+		// fragment network
+		String filename = in.readString();
+		initNetwork(in.readNetwork(), filename);
+		initExtendedNodes();
+	}
+	
 	/**
 	 * creates a relational node from the given belief node
 	 * @param node
@@ -26,6 +26,8 @@ import java.util.regex.Pattern;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
 import probcog.logic.parser.ParseException;
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.Database;
 import probcog.srl.directed.ABLModel;
 import probcog.srl.directed.RelationalBeliefNetwork;
@@ -65,12 +67,57 @@ public abstract class AbstractBayesianLogicNetwork extends ABLModel implements I
 		initKB();
 	}
 	
+	/**
+	 * constructs a BLN from a binary model file that was written using {@link #writeBinary(BinaryModelWriter)}
+	 * @param in
+	 * @throws Exception
+	 */
+	public AbstractBayesianLogicNetwork(BinaryModelReader in) throws Exception {
+		super(in); // reads declarations and fragments
+		String logicFilename = in.readString();
+		if(logicFilename != null)
+			logicFile = new File(logicFilename);
+		this.paramHandler = new ParameterHandler(this);
+		this.rbn = this;
+		readKB(in);
+	}
+	
 	public void setAllowPartialInstantiation(boolean allow) {
 		this.allowPartialInstantiation = allow;
 	}
 
 	protected abstract void initKB() throws Exception;
 	
+	/**
+	 * reads the logical knowledge base from a binary model file (instead of using {@link #initKB()})
+	 * @param in
+	 * @throws Exception
+	 */
+	protected abstract void readKB(BinaryModelReader in) throws Exception;
+	
+	/**
+	 * writes the logical knowledge base in binary form
+	 * @param out
+	 * @throws Exception
+	 */
+	protected abstract void writeKB(BinaryModelWriter out) throws Exception;
+	
+	/**
+	 * @return whether the model can be written to (and read from) a binary model file
+	 */
+	public boolean supportsBinaryFormat() {
+		return true;
+	}
+	
+	@Override
+	public void writeBinary(BinaryModelWriter out) throws Exception {
+		if(!supportsBinaryFormat())
+			throw new UnsupportedOperationException("The binary model format is not supported for models of type " + getClass().getSimpleName());
+		super.writeBinary(out);
+		out.writeString(logicFile == null ? null : logicFile.getPath());
+		writeKB(out);
+	}
+	
 	public abstract AbstractGroundBLN ground(Database db) throws Exception;
 	
 	protected void setConstraintsFile(File f) {
@@ -23,14 +23,19 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.Map.Entry;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
 import probcog.bayesnets.core.Discretized;
+import probcog.bayesnets.core.FunctionalCPT;
+import probcog.bayesnets.core.SharedCPT;
 import probcog.inference.IParameterHandler;
+import probcog.inference.Metrics;
 import probcog.inference.ParameterHandler;
 import probcog.srl.BooleanDomain;
 import probcog.srl.Database;
@@ -87,7 +92,10 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 	 * temporary storage of names of instantiated variables (to avoid duplicate instantiation during grounding)
 	 */
 	protected HashSet<String> instantiatedVariables;
-	protected HashMap<String, Value[]> cpfCache;
+	/**
+	 * shared CPT tables, indexed by CPF ID (used only during grounding; see {@link SharedCPT})
+	 */
+	protected HashMap<String, double[]> cpfCache;
 	protected boolean verbose = true;
 	protected boolean debug = false;	
 	protected ParameterHandler paramHandler;
@@ -99,6 +107,20 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 	 * maps a ground node (in the ground network) to the template node in the fragment network it was instantiated from 
 	 */
 	protected HashMap<BeliefNode, RelationalNode> groundNode2TemplateNode;
+	/**
+	 * the queries for which the network is to be instantiated (null if all variables are to be instantiated)
+	 */
+	protected Vector<Pair<String, String[]>> queries = null;
+	/**
+	 * whether to instantiate only the variables that are relevant to the queries (see {@link #setQueries(Iterable)})
+	 */
+	protected boolean queryDrivenGrounding = false;
+	/**
+	 * the maximum number of parents of a node whose CPF is a deterministic or causally independent (noisy-or/noisy-and) 
+	 * combination of its parents' values; combinations involving more parents are decomposed using auxiliary nodes 
+	 * (see {@link #instantiateCombinationChain(BeliefNode, List, int, boolean)})
+	 */
+	protected int maxCombinationParents = 12;
 	
 	public AbstractGroundBLN(AbstractBayesianLogicNetwork bln, Database db) throws Exception {
 		init(bln, db);
@@ -115,6 +137,8 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		paramHandler = new ParameterHandler(this);
 		paramHandler.add("verbose", "setVerbose");
 		paramHandler.add("debug", "setDebugMode");
+		paramHandler.add("queryDrivenGrounding", "setQueryDrivenGrounding");
+		paramHandler.add("maxCombinationParents", "setMaxCombinationParents");
 		this.bln = bln;
 		db.finalize(); // before we start grounding with the DB, make sure it's really finalized
 		this.db = db;		
@@ -125,6 +149,37 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 	public AbstractBayesianLogicNetwork getBLN() {
 		return this.bln;
 	}
+	
+	/**
+	 * sets the queries for which the ground network is to be instantiated; they are considered only if 
+	 * query-driven grounding is enabled
+	 * @param queries  queries as passed to inference methods, i.e. function names or terms whose 
+	 *                 arguments are constants or (lower-case) variables, e.g. "foo" or "foo(x,Bar)" 
+	 */
+	public void setQueries(Iterable<String> queries) {
+		this.queries = new Vector<Pair<String, String[]>>();
+		for(String query : queries) {
+			Pair<String, String[]> q = RelationalNode.parse(query);
+			if(q == null)
+				q = new Pair<String, String[]>(query.trim(), null);
+			this.queries.add(q);
+		}
+	}
+	
+	/**
+	 * enables or disables query-driven grounding: If enabled (and queries were set), only the variables that are 
+	 * relevant to the queries are instantiated, i.e. the query variables, the variables with evidence and the 
+	 * variables appearing in hard formulas along with all of their ancestors. All other variables are barren 
+	 * (no evidence is given for them or their descendants) and thus have no influence on the queries' posteriors.
+	 * @param enabled
+	 */
+	public void setQueryDrivenGrounding(boolean enabled) {
+		queryDrivenGrounding = enabled;
+	}
+	
+	public void setMaxCombinationParents(int maxParents) {
+		maxCombinationParents = maxParents;
+	}
 
 	/**
 	 * instantiates the auxiliary Bayesian network for this model
@@ -171,15 +226,32 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 			v.add(relNode);
 		}
 		
-		// go through all function names and generate all groundings for each of them
+		// go through all function names and generate all (relevant) groundings for each of them
 		instantiatedVariables = new HashSet<String>();
-		cpfCache = new HashMap<String, Value[]>();
+		cpfCache = new HashMap<String, double[]>();
+		Collection<String> formulaFunctions = queryDrivenGrounding && queries != null ? getFormulaFunctions() : null;
+		boolean queryDriven = formulaFunctions != null;
 		Iterable<String> functionNames = this.bln.rbn.getFunctionNames(); // functionTemplates.keySet(); 
 		for(String functionName : functionNames) {
+			// in query-driven mode, all variables are required only for evidence functions (which do not yield nodes) and functions appearing in formulas 
+			boolean all = !queryDriven || bln.rbn.isEvidenceFunction(functionName) || formulaFunctions.contains(functionName);
+			if(!all && !isQueryFunction(functionName))
+				continue;
 			if(verbose) System.out.println("    " + functionName);
+			long startTime = System.nanoTime();
 			Collection<String[]> parameterSets = ParameterGrounder.generateGroundings(bln.rbn, functionName, db);
 			for(String[] params : parameterSets) 
-				instantiateVariable(functionName, params);
+				if(all || isQueryVariable(functionName, params))
+					instantiateVariable(functionName, params);
+			// note: includes the time taken to instantiate any parents (of other functions) that were not yet instantiated 
+			Metrics.record("grounding.function." + functionName + ".time", (System.nanoTime() - startTime) / 1e9);
+		}
+		// in query-driven mode, instantiate the variables for which there is evidence (along with their ancestors)
+		if(queryDriven) {
+			if(verbose) System.out.println("    evidence variables");
+			for(probcog.srl.Variable var : db.getEntries())
+				if(!bln.rbn.isEvidenceFunction(var.functionName))
+					instantiateVariable(var.functionName, var.params);
 		}
 		
 		// clean up
@@ -191,15 +263,84 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		if(addAuxiliaryVars) {
 			if(verbose) System.out.println("  formulaic nodes");
 			hardFormulaNodes = new Vector<BeliefNode>();
+			long startTime = System.nanoTime();
 			groundFormulaicNodes();
+			Metrics.record("grounding.formulas.time", (System.nanoTime() - startTime) / 1e9);
 		}
 		
+		recordGroundNetworkMetrics(sw.getElapsedTimeSecs());
 		if(verbose) {
 			System.out.println("network size: " + getGroundNetwork().bn.getNodes().length + " nodes");
 			System.out.println(String.format("construction time: %.4fs", sw.getElapsedTimeSecs()));
 		}
 	}
 	
+	/**
+	 * @param functionName
+	 * @return true if one of the queries refers to the given function
+	 */
+	protected boolean isQueryFunction(String functionName) {
+		for(Pair<String, String[]> query : queries)
+			if(query.first.equals(functionName))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * @param functionName
+	 * @param params
+	 * @return true if the variable with the given function name and parameters matches one of the queries
+	 */
+	protected boolean isQueryVariable(String functionName, String[] params) {
+		for(Pair<String, String[]> query : queries) {
+			if(!query.first.equals(functionName))
+				continue;
+			if(query.second == null)
+				return true;
+			if(query.second.length != params.length)
+				continue;
+			boolean matches = true;
+			for(int i = 0; i < params.length && matches; i++)
+				matches = RelationalNode.isVariable(query.second[i]) || query.second[i].equals(params[i]);
+			if(matches)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * gets the names of the functions appearing in the model's hard logical constraints, all groundings of which 
+	 * are required for query-driven grounding
+	 * @return the collection of function names or null if they cannot be determined (in which case query-driven grounding is not possible)
+	 * @throws Exception 
+	 */
+	protected Collection<String> getFormulaFunctions() throws Exception {
+		return null;
+	}
+	
+	/**
+	 * records the metrics describing the instantiation and size of the ground network (see {@link Metrics})
+	 * @param time  the time taken to instantiate the network in seconds
+	 */
+	protected void recordGroundNetworkMetrics(double time) {
+		BeliefNode[] nodes = groundBN.bn.getNodes();
+		long cptEntries = 0, storedCPTEntries = 0;
+		IdentityHashMap<double[], Boolean> sharedTables = new IdentityHashMap<double[], Boolean>();
+		for(BeliefNode node : nodes) {
+			CPF cpf = node.getCPF();
+			if(cpf == null || cpf instanceof FunctionalCPT) // functional CPTs store no entries
+				continue;
+			cptEntries += cpf.size();
+			// shared tables are stored only once
+			if(!(cpf instanceof SharedCPT) || sharedTables.put(((SharedCPT)cpf).getTable(), true) == null)
+				storedCPTEntries += cpf.size();
+		}
+		Metrics.record("grounding.time", time);
+		Metrics.record("grounding.nodes", nodes.length);
+		Metrics.record("grounding.cptEntries", cptEntries);
+		Metrics.record("grounding.storedCPTEntries", storedCPTEntries);
+	}
+	
 	/**
 	 * instantiates the variable that corresponds to the given function name and actual parameters
 	 * by looking for a template and applying it, or simply returns the variable if it was previously instantiated
@@ -426,6 +567,12 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 				// check if the domain is really boolean
 				if(!RelationalBeliefNetwork.isBooleanDomain(mainNode.getDomain()))
 					throw new Exception("Cannot use OR aggregator on non-Boolean node " + relNode.toString());
+				// if there are too many parents for a single CPF, decompose the combination using auxiliary nodes
+				if(domprod.size()-1 > maxCombinationParents) {
+					int groupSize = combFunc == Aggregator.FunctionalOr ? groundings.firstElement().nodeArgs.size()-1 : 1;
+					instantiateCombinationChain(mainNode, domprod.subList(1, domprod.size()), groupSize, combFunc != Aggregator.FunctionalAnd);
+					return;
+				}
 				// determine CPF-id
 				String cpfid = combFunc.getFunctionSyntax();
 				switch(combFunc) {
@@ -443,11 +590,8 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 				CPT cpf = (CPT)mainNode.getCPF();
 				BeliefNode[] domprod_arr = domprod.toArray(new BeliefNode[domprod.size()]);
 				// - check if we have a cached CPF that we can reuse
-				Value[] values = cpfCache.get(cpfid);
-				if(values != null)
-					cpf.build(domprod_arr, values);
 				// - otherwise set and apply the filler
-				else {
+				if(!setSharedCPF(mainNode, domprod_arr, cpfid)) {
 					cpf.buildZero(domprod_arr, false);
 					CPFFiller filler = null;
 					switch(combFunc) {
@@ -463,7 +607,7 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 					}
 					filler.fill();
 					// store the newly built CPF in the cache	
-					cpfCache.put(cpfid, cpf.getValues());
+					shareCPF(mainNode, cpfid);
 				}
 				// set the CPF-id
 				cpfIDs.put(mainNode, cpfid); 
@@ -477,16 +621,13 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 				String cpfid = combFunc.getFunctionSyntax() + String.format("-%d", groundings.size());
 				BeliefNode[] domprod_arr = domprod.toArray(new BeliefNode[domprod.size()]);
 				// - check if we have a cached CPF that we can reuse
-				Value[] values = cpfCache.get(cpfid);
-				if(values != null)
-					cpf.build(domprod_arr, values);
 				// - otherwise set and apply the filler
-				else {
+				if(!setSharedCPF(mainNode, domprod_arr, cpfid)) {
 					cpf.buildZero(domprod_arr, false);
 					CPFFiller filler = new CPFFiller_SUM(mainNode);
 					filler.fill();
 					// store the newly built CPF in the cache	
-					cpfCache.put(cpfid, cpf.getValues());
+					shareCPF(mainNode, cpfid);
 				}
 				// set the CPF-id
 				cpfIDs.put(mainNode, cpfid); 
@@ -537,6 +678,11 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 			}
 		}
 		
+		// noisy-or and noisy-and are causally independent, so if there are too many parents for a single CPF, 
+		// we decompose the node using auxiliary nodes
+		if(parentIndices.size() > maxCombinationParents && (r == CombiningRule.NoisyOr || r == CombiningRule.NoisyAnd))
+			return instantiateVariableWithCausalIndependence(mainNode, suitableTemplates, r == CombiningRule.NoisyOr);
+		
 		// initialize CPF & connect parents
 		CPT cpf = (CPT)mainNode.getCPF();
 		BeliefNode[] domprod = new BeliefNode[1 + parentIndices.size()];
@@ -554,6 +700,95 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		return mainNode;
 	}
 	
+	/**
+	 * instantiates a variable whose distribution is given by a causally independent combining rule (noisy-or or noisy-and): 
+	 * For each grounding of each template, an auxiliary node is added, which carries the template's CPF, and the 
+	 * variable is the deterministic disjunction/conjunction of the auxiliary nodes, such that the size of the CPFs 
+	 * is linear rather than exponential in the number of parents
+	 * @param mainNode  the node to instantiate
+	 * @param suitableTemplates  the templates and their groundings
+	 * @param disjunction  whether to combine the auxiliary nodes disjunctively (noisy-or) rather than conjunctively (noisy-and)
+	 * @return the main node
+	 * @throws Exception
+	 */
+	protected BeliefNode instantiateVariableWithCausalIndependence(BeliefNode mainNode, Vector<Pair<RelationalNode, Vector<ParentGrounding>>> suitableTemplates, boolean disjunction) throws Exception {
+		if(!RelationalBeliefNetwork.isBooleanDomain(mainNode.getDomain()))
+			throw new Exception("Cannot apply causally independent combining rule to non-Boolean node " + mainNode);
+		Vector<BeliefNode> auxNodes = new Vector<BeliefNode>();
+		int k = 0;
+		for(Pair<RelationalNode, Vector<ParentGrounding>> template : suitableTemplates) {
+			RelationalNode relNode = template.first;
+			for(ParentGrounding grounding : template.second) {
+				String auxNodeName = String.format("AUX%d_%s", k++, mainNode.getName());
+				BeliefNode auxNode = groundBN.addNode(auxNodeName, mainNode.getDomain(), mainNode.getType());
+				Pair<String,String[]> p = RelationalNode.parse(auxNodeName);
+				this.onAddAuxiliaryNode(auxNode, true, p.first, p.second);
+				instantiateCPF(grounding.nodeArgs, relNode, auxNode);
+				auxNodes.add(auxNode);
+			}
+		}
+		instantiateCombinationChain(mainNode, auxNodes, 1, disjunction);
+		return mainNode;
+	}
+	
+	/**
+	 * instantiates the CPF of a Boolean node that is the deterministic combination of its (Boolean) parents, i.e. either 
+	 * the disjunction of conjunctions of groups of parents or the conjunction of all parents. The combination is
+	 * decomposed into a chain of auxiliary nodes, each of which combines the previous node in the chain with further 
+	 * groups of parents (at most {@link #maxCombinationParents} parents in total, unless a single group is larger),
+	 * the last node in the chain being the node itself.
+	 * @param mainNode  the node whose CPF is to be instantiated
+	 * @param parents  the parents, ordered by group; edges from the parents to the main node that were already added are removed
+	 * @param groupSize  the number of consecutive parents making up a conjunction
+	 * @param disjunction  whether to combine the groups disjunctively (otherwise conjunctively)
+	 * @throws Exception
+	 */
+	protected void instantiateCombinationChain(BeliefNode mainNode, List<BeliefNode> parents, int groupSize, boolean disjunction) throws Exception {
+		parents = new ArrayList<BeliefNode>(parents);
+		for(BeliefNode parent : parents)
+			groundBN.bn.getGraph().removeEdge(parent.getOwner(), mainNode.getOwner());
+		int numGroups = parents.size() / groupSize;
+		int maxGroups = Math.max(1, (maxCombinationParents-1) / groupSize); // leaves room for the previous node in the chain
+		BeliefNode prev = null;
+		int k = 0;
+		for(int g = 0; g < numGroups;) {
+			int n = Math.min(maxGroups, numGroups - g);
+			// create the node in the chain (or use the main node if it is the last)
+			BeliefNode node;
+			if(g + n == numGroups)
+				node = mainNode;
+			else {
+				String chainNodeName = String.format("CHAIN%d_%s", k++, mainNode.getName());
+				node = groundBN.addNode(chainNodeName, mainNode.getDomain(), mainNode.getType());
+				Pair<String,String[]> p = RelationalNode.parse(chainNodeName);
+				this.onAddAuxiliaryNode(node, true, p.first, p.second);
+			}
+			// connect the previous node and the next groups of parents
+			Vector<BeliefNode> domprod = new Vector<BeliefNode>();
+			domprod.add(node);
+			if(prev != null) {
+				groundBN.connect(prev, node, false);
+				domprod.add(prev);
+			}
+			for(BeliefNode parent : parents.subList(g * groupSize, (g + n) * groupSize)) {
+				groundBN.connect(parent, node, false);
+				domprod.add(parent);
+			}
+			// build the CPF
+			String cpfid = String.format("%s-CHAIN(%d-%d%s)", disjunction ? "OR" : "AND", n, groupSize, prev != null ? "-chained" : "");
+			CPT cpf = (CPT)node.getCPF();
+			BeliefNode[] domprod_arr = domprod.toArray(new BeliefNode[domprod.size()]);
+			if(!setSharedCPF(node, domprod_arr, cpfid)) {
+				cpf.buildZero(domprod_arr, false);
+				new CPFFiller_Combination(node, prev != null, groupSize, disjunction).fill();
+				shareCPF(node, cpfid);
+			}
+			cpfIDs.put(node, cpfid);
+			prev = node;
+			g += n;
+		}
+	}
+	
 	protected void fillCPFCombiningRule(CPF cpf, int i, int[] addr, Vector<Pair<RelationalNode, Map<BeliefNode,Integer>>> templateDomprodMap, CombiningRule r) throws Exception {		
 		BeliefNode[] domprod = cpf.getDomainProduct();
 		if(i == domprod.length) {
@@ -623,6 +858,19 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 	
 	protected void onAddAuxiliaryNode(BeliefNode var, boolean isBoolean, String functionName, String[] params) {}
 
+	/**
+	 * replaces the evidence database of this ground model (without re-instantiating the ground network);
+	 * the database must agree with the one the model was instantiated for in all aspects that
+	 * determine the structure of the ground network, i.e. the domains and the evidence on evidence functions
+	 * (and, if ground formulas were simplified, all the evidence)
+	 * @param db
+	 * @throws Exception
+	 */
+	public void setDatabase(Database db) throws Exception {
+		db.finalize();
+		this.db = db;
+	}
+	
 	public Database getDatabase() {
 		return db;
 	}
@@ -691,7 +939,6 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		}
 		
 		// get the correct domain product order (which must reflect the order in the source node)
-		CPT targetCPF = (CPT)targetNode.getCPF();
 		BeliefNode[] targetDomainProd = vDomProd.toArray(new BeliefNode[vDomProd.size()]);
 		int j = 1;
 		HashSet<BeliefNode> handledParents = new HashSet<BeliefNode>();
@@ -710,26 +957,22 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		if(j != targetDomainProd.length)
 			throw new Exception("CPF domain product not fully filled: handled " + j + ", needed " + targetDomainProd.length);		
 		
-		// transfer the CPF values
+		// transfer the CPF values (using the table shared by all instances with the same CPF ID)
 		String cpfID = Integer.toString(srcRelNode.index);
-		// - if the original relational node had exactly the same number of parents as the instance, 
-		//   we can safely transfer its CPT to the instantiated node
-		if(srcDomainProd.length == targetDomainProd.length) {			
-			targetCPF.build(targetDomainProd, ((CPT)srcRelNode.node.getCPF()).getValues());
-		}
-		// - otherwise we must extract the relevant columns that apply to the constant setting
-		else {
-			Value[] subCPF;						
-			// get the subpart from the cache if possible
-			cpfID += constantSettings.toString(); 
-			subCPF = cpfCache.get(cpfID);
-			if(subCPF == null) {
-				subCPF = getSubCPFValues(srcRelNode.node.getCPF(), constantSettings);
-				cpfCache.put(cpfID, subCPF);
-			}
-			
-			targetCPF.build(targetDomainProd, subCPF);
+		if(srcDomainProd.length != targetDomainProd.length)
+			cpfID += constantSettings.toString();
+		double[] table = cpfCache.get(cpfID);
+		if(table == null) {
+			// - if the original relational node had exactly the same number of parents as the instance, 
+			//   we can safely transfer its CPT to the instantiated node
+			if(srcDomainProd.length == targetDomainProd.length)
+				table = SharedCPT.createTable(srcRelNode.node.getCPF());
+			// - otherwise we must extract the relevant columns that apply to the constant setting
+			else
+				table = SharedCPT.createTable(getSubCPFValues(srcRelNode.node.getCPF(), constantSettings));
+			cpfCache.put(cpfID, table);
 		}
+		targetNode.setCPF(new SharedCPT(targetDomainProd, table));
 		cpfIDs.put(targetNode, cpfID);
 		
 		/*
@@ -750,6 +993,34 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		*/
 	}
 	
+	/**
+	 * sets the CPF of the given node to a CPT that references the shared table that is stored for the given CPF ID (if any)
+	 * @param node  the node
+	 * @param domProd  the domain product of the node's CPF
+	 * @param cpfID  the CPF ID
+	 * @return true if the CPF was set, false if there is no table for the CPF ID yet
+	 */
+	protected boolean setSharedCPF(BeliefNode node, BeliefNode[] domProd, String cpfID) {
+		double[] table = cpfCache.get(cpfID);
+		if(table == null)
+			return false;
+		node.setCPF(new SharedCPT(domProd, table));
+		return true;
+	}
+	
+	/**
+	 * replaces the (filled) CPF of the given node with an equivalent CPT that references a shared table, 
+	 * which is stored for the given CPF ID such that it can be used for further nodes (see {@link #setSharedCPF(BeliefNode, BeliefNode[], String)})
+	 * @param node  the node
+	 * @param cpfID  the CPF ID
+	 */
+	protected void shareCPF(BeliefNode node, String cpfID) {
+		CPF cpf = node.getCPF();
+		double[] table = SharedCPT.createTable(cpf);
+		cpfCache.put(cpfID, table);
+		node.setCPF(new SharedCPT(cpf.getDomainProduct(), table));
+	}
+	
 	/**
 	 * gets the values of the sub-CPF that one obtains if some of the parents have fixed values
 	 * @param cpf the CPF to extract from
@@ -903,6 +1174,45 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		}
 	}
 	
+	/**
+	 * CPF filler for a node in a chain of combination nodes (see {@link AbstractGroundBLN#instantiateCombinationChain(BeliefNode, List, int, boolean)}),
+	 * which combines the value of the previous node in the chain (if any) with the conjunctions of groups of parents
+	 * @author Dominik Jain
+	 */
+	public class CPFFiller_Combination extends CPFFiller {
+		boolean chained, disjunction;
+		int groupSize;
+		
+		/**
+		 * @param node  node whose CPF to fill
+		 * @param chained  whether the first parent is the previous node in the chain
+		 * @param groupSize  number of consecutive parents (after the previous node) that make up a group representing a conjunction
+		 * @param disjunction  whether to combine disjunctively (otherwise conjunctively)
+		 */
+		public CPFFiller_Combination(BeliefNode node, boolean chained, int groupSize, boolean disjunction) {
+			super(node);
+			this.chained = chained;
+			this.groupSize = groupSize;
+			this.disjunction = disjunction;
+		}
+
+		@Override
+		protected double getValue(int[] addr) {
+			// order in boolean domains is 0=True, 1=False
+			boolean isTrue = !disjunction;
+			int i = 1;
+			if(chained)
+				isTrue = addr[i++] == 0;
+			for(; i < addr.length; i += groupSize) {
+				boolean groupTrue = true;
+				for(int j = i; j < i + groupSize; j++)
+					groupTrue = groupTrue && addr[j] == 0;
+				isTrue = disjunction ? isTrue || groupTrue : isTrue && groupTrue;
+			}
+			return (addr[0] == 0 && isTrue) || (addr[0] == 1 && !isTrue) ? 1.0 : 0.0;
+		}
+	}
+	
 	/**
 	 * CPF filler for simple SUM of real nodes
 	 * @author meyerphi
@@ -22,6 +22,8 @@ import probcog.logic.Formula;
 import probcog.logic.KnowledgeBase;
 import probcog.logic.parser.FormulaParser;
 import probcog.logic.parser.ParseException;
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.Database;
 import probcog.srl.directed.MLNConverter;
 import probcog.srl.mln.MarkovLogicNetwork;
@@ -46,6 +48,10 @@ public class BayesianLogicNetwork extends AbstractBayesianLogicNetwork {
 		super(declsFile);				
 	}
 	
+	public BayesianLogicNetwork(BinaryModelReader in) throws Exception {
+		super(in);
+	}
+	
 	public MarkovLogicNetwork toMLN() throws Exception {
 		MLNConverter.MLNObjectWriter converter = new MLNConverter.MLNObjectWriter();
 		this.rbn.toMLN(converter, false, false);
@@ -69,6 +75,20 @@ public class BayesianLogicNetwork extends AbstractBayesianLogicNetwork {
 			kb.readFile(logicFile.toString());
 	}
 	
+	@Override
+	protected void readKB(BinaryModelReader in) throws Exception {
+		kb = new KnowledgeBase();
+		for(int n = in.readInt(); n > 0; n--)
+			kb.addFormula(in.readFormula());
+	}
+	
+	@Override
+	protected void writeKB(BinaryModelWriter out) throws Exception {
+		out.writeInt(kb.getFormulas().size());
+		for(Formula f : kb)
+			out.writeFormula(f);
+	}
+	
 	@Override
 	public void addLogicalConstraint(String s) throws ParseException {
 		kb.addFormula(FormulaParser.parse(s));
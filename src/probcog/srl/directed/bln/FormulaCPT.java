@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.srl.directed.bln;
+
+import java.util.HashMap;
+
+import probcog.bayesnets.core.FunctionalCPT;
+import probcog.logic.Formula;
+import probcog.logic.GroundAtom;
+import probcog.logic.GroundLiteral;
+import probcog.logic.IPossibleWorld;
+import probcog.srl.directed.bln.coupling.VariableLogicCoupling;
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+
+/**
+ * The implicit CPT of a node representing a ground formula (hard constraint), which evaluates
+ * the formula whenever an entry is requested instead of storing the truth table.
+ * As for explicit formula CPTs, the first domain element corresponds to the formula being true.
+ * @author Dominik Jain
+ */
+public class FormulaCPT extends FunctionalCPT {
+	protected Formula gf;
+	/**
+	 * maps each ground atom appearing in the formula to the position of the corresponding parent
+	 * in the domain product and the value of the parent for which the atom is true
+	 */
+	protected HashMap<GroundAtom, int[]> atomValues = new HashMap<GroundAtom, int[]>();
+
+	/**
+	 * @param domProd  the domain product, i.e. the formula node followed by the nodes of the ground atoms appearing in the formula
+	 * @param gf  the ground formula
+	 * @param coupling  the coupling of the nodes to the ground atoms
+	 */
+	public FormulaCPT(BeliefNode[] domProd, Formula gf, VariableLogicCoupling coupling) {
+		super(domProd);
+		this.gf = gf;
+		for(int i = 1; i < domProd.length; i++) {
+			int domSize = domProd[i].getDomain().getOrder();
+			for(int d = 0; d < domSize; d++) {
+				GroundLiteral lit = coupling.getGroundLiteral(domProd[i], d);
+				if(lit.isPositive)
+					atomValues.put(lit.gndAtom, new int[]{i, d});
+			}
+		}
+	}
+
+	@Override
+	public int getValue(int[] values, int[] indices) {
+		return gf.isTrue(new ParentWorld(values, indices)) ? 0 : 1;
+	}
+
+	/**
+	 * the (partial) possible world defined by a setting of the parents
+	 */
+	protected class ParentWorld implements IPossibleWorld {
+		protected int[] values, indices;
+
+		public ParentWorld(int[] values, int[] indices) {
+			this.values = values;
+			this.indices = indices;
+		}
+
+		public boolean isTrue(GroundAtom ga) {
+			int[] v = atomValues.get(ga);
+			if(v == null)
+				throw new RuntimeException("Ground atom " + ga + " is not coupled to a parent of " + _DomainProduct[0].getName());
+			return values[indices[v[0]]] == v[1];
+		}
+	}
+}
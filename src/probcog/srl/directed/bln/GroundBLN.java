@@ -18,14 +18,25 @@
  ******************************************************************************/
 package probcog.srl.directed.bln;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.Vector;
 
+import probcog.bayesnets.core.SharedCPT;
+import probcog.inference.Metrics;
+import probcog.logic.Atom;
+import probcog.logic.ComplexFormula;
+import probcog.logic.Exist;
+import probcog.logic.ForAll;
 import probcog.logic.Formula;
 import probcog.logic.GroundAtom;
 import probcog.logic.GroundLiteral;
 import probcog.logic.KnowledgeBase;
+import probcog.logic.Literal;
 import probcog.logic.PossibleWorld;
 import probcog.logic.WorldVariables;
 import probcog.logic.Formula.FormulaSimplification;
@@ -37,7 +48,6 @@ import edu.ksu.cis.bnj.ver3.core.BeliefNode;
 import edu.ksu.cis.bnj.ver3.core.CPF;
 import edu.ksu.cis.bnj.ver3.core.CPT;
 import edu.ksu.cis.bnj.ver3.core.Discrete;
-import edu.ksu.cis.bnj.ver3.core.Value;
 import edu.ksu.cis.bnj.ver3.core.values.ValueDouble;
 import edu.tum.cs.util.StringTool;
 import edu.tum.cs.util.datastruct.OrderedSet;
@@ -62,6 +72,11 @@ public class GroundBLN extends AbstractGroundBLN {
 	 * TODO: maybe simplification should depend on the algorithm that is used
 	 */
 	protected boolean useFormulaSimplification = false;
+	/**
+	 * the maximum number of parents of a formulaic node for which the CPF is represented explicitly;
+	 * the CPFs of nodes with more parents are represented implicitly by the ground formula (see {@link FormulaCPT})
+	 */
+	protected int maxExplicitFormulaParents = 10;
 	
 	public GroundBLN(AbstractBayesianLogicNetwork bln, Database db) throws Exception {
 		super(bln, db);
@@ -76,12 +91,17 @@ public class GroundBLN extends AbstractGroundBLN {
 		super.init(bln, db);
 		coupling = new VariableLogicCoupling();
 		this.paramHandler.add("simplifyFormulas", "setFormulaSimplification");
+		this.paramHandler.add("maxExplicitFormulaParents", "setMaxExplicitFormulaParents");
 	}
 	
 	public void setFormulaSimplification(boolean enabled) {
 		useFormulaSimplification = enabled;
 	}
 	
+	public void setMaxExplicitFormulaParents(int maxParents) {
+		maxExplicitFormulaParents = maxParents;
+	}
+	
 	@Override
 	protected void onAddGroundAtomNode(BeliefNode var, String[] params, Signature sig) {
 		if(sig.isBoolean()) {			
@@ -109,6 +129,33 @@ public class GroundBLN extends AbstractGroundBLN {
 		coupling.addEvidenceVariable(functionName, params);
 	}
 	
+	@Override
+	protected Collection<String> getFormulaFunctions() throws Exception {
+		HashSet<String> ret = new HashSet<String>();
+		for(Formula f : ((BayesianLogicNetwork)bln).kb)
+			collectFunctions(f, ret);
+		return ret;
+	}
+	
+	/**
+	 * collects the names of the functions/predicates appearing in the given formula
+	 * @param f
+	 * @param ret  the set to which to add the function names
+	 */
+	protected static void collectFunctions(Formula f, Set<String> ret) {
+		if(f instanceof Atom)
+			ret.add(((Atom)f).predName);
+		else if(f instanceof Literal)
+			ret.add(((Literal)f).atom.predName);
+		else if(f instanceof ComplexFormula)
+			for(Formula child : ((ComplexFormula)f).children)
+				collectFunctions(child, ret);
+		else if(f instanceof ForAll)
+			collectFunctions(((ForAll)f).f, ret);
+		else if(f instanceof Exist)
+			collectFunctions(((Exist)f).f, ret);
+	}
+	
 	public GroundLiteral getGroundLiteral(BeliefNode var, int domIdx) {
 		return coupling.getGroundLiteral(var, domIdx);
 	}
@@ -120,9 +167,12 @@ public class GroundBLN extends AbstractGroundBLN {
 		BayesianLogicNetwork bln = (BayesianLogicNetwork)this.bln;
 		gkb = bln.kb.ground(this.db, worldVars, useFormulaSimplification ? FormulaSimplification.OnDisallowFalse : FormulaSimplification.None); 
 		if(verbose) System.out.printf("    %d formulas resulted in %s ground formulas\n", bln.kb.size(), gkb.size());
-		HashMap<String, Value[]> cpfCache = new HashMap<String, Value[]>();
-		int i = 0;
+		Metrics.record("grounding.groundFormulas", gkb.size());
+		HashMap<String, Vector<double[]>> cpfTables = new HashMap<String, Vector<double[]>>();
+		HashMap<Integer, Long> templateTimes = new HashMap<Integer, Long>(); // nanoseconds spent on the instances of each formula template
+		int i = 0, numImplicit = 0;
 		for(Formula gf : gkb) {			
+			long startTime = System.nanoTime();
 			// get the template from which the ground formula was instantiated (after simplification, we can't retrieve it)		
 			Integer templateID = gkb.getTemplateID(gf);
 			assert templateID != null : "Ground formula " + gf + " has no template ID";
@@ -156,7 +206,8 @@ public class GroundBLN extends AbstractGroundBLN {
 				}				
 				parents.add(parent);
 			}
-			BeliefNode node = addHardFormulaNode(nodeName, parents); // this establishes connections and initialises the CPF
+			boolean implicit = parents.size() > maxExplicitFormulaParents;
+			BeliefNode node = addHardFormulaNode(nodeName, parents, implicit ? gf : null); // this establishes connections and initialises the CPF
 			
 			// set CPF id (i.e. equivalence class id)
 			// TODO try string transform: Two formulas are equivalent if they are the same except for the universally quantified variables
@@ -170,19 +221,26 @@ public class GroundBLN extends AbstractGroundBLN {
 			this.cpfIDs.put(node, cpfid);
 
 			// set CPF
-			Value[] values = cpfCache.get(cpfid);
-			if(values != null) {
-				// Note: A value from the cache can only be used if formula simplification is not applied,
-				//		 because the CPF ids are never equal otherwise.
-				// TODO Is this really 100% safe? What about the case where constants appear in the formula, e.g. in "(x=Const)"? The above-mentioned string transform might be safer. 
-				((CPT)node.getCPF()).setValues(values);
+			if(implicit) {
+				// the formula is evaluated on demand
+				++numImplicit;
 			}
 			else {
 				fillFormulaCPF(gf, node.getCPF());
+				// share the table with the other instances of the formula template that have the same truth table
+				// Note: The tables are compared, because instances of the same template need not be equivalent (e.g. if constants appear in the formula, as in "(x=Const)")
+				CPF cpf = node.getCPF();
+				node.setCPF(new SharedCPT(cpf.getDomainProduct(), getSharedTable(cpfTables, cpfid, SharedCPT.createTable(cpf))));
 			}
 			
+			Long time = templateTimes.get(templateID);
+			templateTimes.put(templateID, (time == null ? 0 : time) + System.nanoTime() - startTime);
 			++i;
 		}
+		if(verbose && numImplicit > 0) System.out.printf("    %d formulaic nodes with implicit CPFs\n", numImplicit);
+		Metrics.record("grounding.implicitFormulaNodes", numImplicit);
+		for(Map.Entry<Integer, Long> e : templateTimes.entrySet())
+			Metrics.record("grounding.formula.F" + e.getKey() + ".time", e.getValue() / 1e9);
 		// clean up
 		state = null;
 	}
@@ -195,6 +253,19 @@ public class GroundBLN extends AbstractGroundBLN {
 	 * @throws Exception
 	 */
 	public BeliefNode addHardFormulaNode(String nodeName, Collection<BeliefNode> parents) throws Exception {
+		return addHardFormulaNode(nodeName, parents, null);
+	}
+	
+	/**
+	 * adds a node corresponding to a hard constraint to the network - along with the necessary edges
+	 * @param nodeName  	name of the node to add for the constraint
+	 * @param parents		the parent nodes (corresponding to the ground atoms appearing in the formula) 
+	 * @param gf			the ground formula if the node's CPF is to be represented implicitly (see {@link FormulaCPT}); 
+	 * 						null if an explicit CPF (which is yet to be filled) is to be created
+	 * @return the node that was added
+	 * @throws Exception
+	 */
+	public BeliefNode addHardFormulaNode(String nodeName, Collection<BeliefNode> parents, Formula gf) throws Exception {
 		BeliefNode[] domprod = new BeliefNode[1+parents.size()];
 		BeliefNode node = groundBN.addNode(nodeName);
 		domprod[0] = node;
@@ -204,10 +275,31 @@ public class GroundBLN extends AbstractGroundBLN {
 			domprod[i++] = parent;
 			groundBN.connect(parent, node, false);
 		}
-		((CPT)node.getCPF()).buildZero(domprod, false); // ensure correct ordering in CPF
+		if(gf != null)
+			node.setCPF(new FormulaCPT(domprod, gf, coupling));
+		else
+			((CPT)node.getCPF()).buildZero(domprod, false); // ensure correct ordering in CPF
 		return node;
 	}
 	
+	/**
+	 * gets a table for sharing among CPFs
+	 * @param tables  the tables that are available for sharing, indexed by CPF ID
+	 * @param cpfID  the CPF ID
+	 * @param table  the table to share
+	 * @return an equal table that was previously stored for the CPF ID or, if there is none, the given table (which is then stored)
+	 */
+	protected static double[] getSharedTable(HashMap<String, Vector<double[]>> tables, String cpfID, double[] table) {
+		Vector<double[]> v = tables.get(cpfID);
+		if(v == null)
+			tables.put(cpfID, v = new Vector<double[]>());
+		for(double[] t : v)
+			if(Arrays.equals(t, table))
+				return t;
+		v.add(table);
+		return table;
+	}
+	
 	/**
 	 * fills the CPF of a formulaic node
 	 * @param gf	the ground formula to evaluate for all possible settings
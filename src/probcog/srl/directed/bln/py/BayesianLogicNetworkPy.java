@@ -23,6 +23,8 @@ import java.util.Properties;
 import org.python.core.PyObject.ConversionException;
 import org.python.util.PythonInterpreter;
 
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.Database;
 import probcog.srl.directed.RelationalBeliefNetwork;
 import probcog.srl.directed.bln.AbstractBayesianLogicNetwork;
@@ -80,8 +82,26 @@ public class BayesianLogicNetworkPy extends AbstractBayesianLogicNetwork {
 		jython.exec("mln = MLN('%s')", logicFile);
 	}
 	
+	/**
+	 * the knowledge base is held by the Python interpreter and can therefore not be written to binary model files
+	 */
+	@Override
+	public boolean supportsBinaryFormat() {
+		return false;
+	}
+	
+	@Override
+	protected void readKB(BinaryModelReader in) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("The binary model format is not supported for Python-based BLNs");
+	}
+	
+	@Override
+	protected void writeKB(BinaryModelWriter out) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("The binary model format is not supported for Python-based BLNs");
+	}
+	
 	@Override
 	protected void addLogicalConstraint(String s) throws UnsupportedOperationException {
-		throw new UnsupportedOperationException();
+		throw new UnsupportedOperationException("Constraints declared in the declarations file are not supported for Python-based BLNs; use a constraints file instead");
 	}
 }
@@ -41,6 +41,7 @@ public enum Algorithm {
 	  	// NOTE: Algorithms that may not exist in some distributions are specified using the string constructor
 		LikelihoodWeighting("likelihood weighting", null, LikelihoodWeighting.class), 
 		GibbsSampling("Gibbs sampling (MCMC)", null, probcog.bayesnets.inference.GibbsSampling.class), 
+		ChromaticGibbsSampling("chromatic Gibbs sampling (MCMC, parallelizable)", null, probcog.bayesnets.inference.ChromaticGibbsSampling.class),
 		EPIS("importance sampling based on evidence prepropagation [SMILE]", "probcog.inference.SmileEPIS"), 
 		BackwardSampling("backward simulation", null, BackwardSampling.class),			 
 		BackwardSamplingPriors("backward simulation with prior bias", null, BackwardSamplingWithPriors.class), 
@@ -59,6 +60,7 @@ public enum Algorithm {
 		Pearl("Pearl's algorithm for polytrees (exact)", null, BNJPearl.class),
 		SmilePearl("Pearl's algorithm for polytrees (exact) [SMILE]", "probcog.bayesnets.inference.SmilePearl"),
 		VarElim("variable elimination (exact)", null, VariableElimination.class),		
+		JunctionTree("junction tree propagation (exact)", null, probcog.bayesnets.inference.JunctionTree.class),
 		SampleSearchBJ("SampleSearch with backjumping", null, probcog.bayesnets.inference.SampleSearchBJ.class),
 		SampleSearchBJLearning("SampleSearch with backjumping and constraint learning", null, probcog.bayesnets.inference.SampleSearchBJLearning.class),
 		Experimental2("an experimental algorithm (usually beta)", "dev.SampleSearchIBLearning"),
@@ -110,6 +112,13 @@ public enum Algorithm {
 			return description;
 		}
 		
+		/**
+		 * @return whether the implementation of the algorithm is available in this distribution
+		 */
+		public boolean isAvailable() {
+			return bnClass != null || blnClass != null;
+		}
+		
 		public Sampler createSampler(AbstractGroundBLN gbln) throws Exception {
 			Sampler sampler = null;
 			if(bnClass != null) {
@@ -34,6 +34,7 @@ import probcog.bayesnets.core.BNDatabase;
 import probcog.bayesnets.inference.ITimeLimitedInference;
 import probcog.bayesnets.inference.SampledDistribution;
 import probcog.inference.BasicSampledDistribution;
+import probcog.inference.CancellationToken;
 import probcog.inference.GeneralSampledDistribution;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
@@ -82,6 +83,7 @@ public class BLNinfer implements IParameterHandler {
 	ParameterHandler paramHandler;
 	Sampler sampler;
 	TimeLimitedInference tli;
+	CancellationToken cancellationToken = new CancellationToken();
 
 	enum SortOrder implements Comparator<InferenceResult> {
 		Atom {
@@ -282,6 +284,14 @@ public class BLNinfer implements IParameterHandler {
 	public void setQueries(Iterable<String> queries) {
 		this.queries = queries;
 	}
+	
+	/**
+	 * sets the token via which the inference method can be cancelled, in which case the results obtained thus far are returned
+	 * @param token
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+	}
 
 	public void setGroundBLN(AbstractGroundBLN gbln) {
 		this.gbln = gbln;
@@ -308,6 +318,7 @@ public class BLNinfer implements IParameterHandler {
 		paramHandler.handle(params, false);
 
 		// load relational model
+		boolean externalModel = bln != null;
 		if(bln == null) {
 			if(!usePython)
 				bln = new BayesianLogicNetwork(declsFile, networkFile, logicFile);
@@ -318,6 +329,9 @@ public class BLNinfer implements IParameterHandler {
 
 		// (on request) remove deterministic dependencies in CPTs
 		if(removeDeterministicCPTEntries) {
+			// the removal modifies the CPTs, so it must not be applied to a model that may be shared (e.g. by the sessions of the ProbCog service)
+			if(externalModel)
+				throw new Exception("Deterministic CPT entries can only be removed from models that are loaded by BLNinfer itself");
 			final double lowProb = 0.001;
 			for(BeliefNode node : blog.bn.getNodes()) {
 				CPT cpf = (CPT) node.getCPF();
@@ -346,6 +360,7 @@ public class BLNinfer implements IParameterHandler {
 			bln.setAllowPartialInstantiation(allowPartialInst);
 			gbln = bln.ground(db);
 			paramHandler.addSubhandler(gbln);
+			gbln.setQueries(queries);
 			gbln.instantiateGroundNetwork();
 			this.groundingTime = sw.getElapsedTimeSecs();
 		}
@@ -380,6 +395,7 @@ public class BLNinfer implements IParameterHandler {
 		sw.start();
 		// - create sampler and pass on parameters
 		sampler = algo.createSampler(gbln);
+		sampler.setCancellationToken(cancellationToken);
 		sampler.setQueries(queries);
 		// - set options
 		paramHandler.addSubhandler(sampler);
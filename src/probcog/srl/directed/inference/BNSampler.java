@@ -20,6 +20,7 @@ package probcog.srl.directed.inference;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
 import probcog.bayesnets.inference.ITimeLimitedInference;
+import probcog.bayesnets.inference.PrunedSampler;
 import probcog.bayesnets.inference.SampledDistribution;
 import probcog.srl.directed.bln.AbstractGroundBLN;
 
@@ -34,6 +35,10 @@ public class BNSampler extends Sampler implements ITimeLimitedInference {
 	 * whether steps that exceed the max number of trials should just be skipped rather than raising an exception
 	 */
 	protected boolean skipFailedSteps;
+	/**
+	 * whether to prune the ground network given the evidence and queries prior to inference (see {@link PrunedSampler})
+	 */
+	protected boolean pruneNetwork = false;
 	protected Class<? extends probcog.bayesnets.inference.Sampler> samplerClass;
 	protected probcog.bayesnets.inference.Sampler sampler;
 	/**
@@ -46,6 +51,7 @@ public class BNSampler extends Sampler implements ITimeLimitedInference {
 		maxTrials = 5000;
 		this.paramHandler.add("maxTrials", "setMaxTrials");
 		this.paramHandler.add("skipFailedSteps", "setSkipFailedSteps");
+		this.paramHandler.add("pruneNetwork", "setPruneNetwork");
 		this.samplerClass = samplerClass;
 	}
 	
@@ -57,6 +63,10 @@ public class BNSampler extends Sampler implements ITimeLimitedInference {
 		this.skipFailedSteps = canSkip;
 	}
 	
+	public void setPruneNetwork(boolean prune) {
+		this.pruneNetwork = prune;
+	}
+	
 	@Override
 	protected void _initialize() throws Exception {
 		// create full evidence
@@ -73,6 +83,8 @@ public class BNSampler extends Sampler implements ITimeLimitedInference {
 		sampler.setInfoInterval(infoInterval);
 		sampler.setMaxTrials(maxTrials);
 		sampler.setSkipFailedSteps(skipFailedSteps);
+		sampler.setCancellationToken(cancellationToken);
+		sampler.setIntermediateResults(intermediateResults);
 		sampler.initialize();
 	}
 	
@@ -85,6 +97,8 @@ public class BNSampler extends Sampler implements ITimeLimitedInference {
 	}
 	
 	protected probcog.bayesnets.inference.Sampler getSampler() throws Exception {
+		if(pruneNetwork)
+			return new PrunedSampler(gbln.getGroundNetwork(), samplerClass);
 		return samplerClass.getConstructor(BeliefNetworkEx.class).newInstance(gbln.getGroundNetwork());	
 	}
 
@@ -94,8 +108,6 @@ public class BNSampler extends Sampler implements ITimeLimitedInference {
 	}
 	
 	public SampledDistribution pollResults() throws Exception {
-		if(sampler == null)
-			return null;
-		return sampler.pollResults();
+		return intermediateResults.poll();
 	}
 }
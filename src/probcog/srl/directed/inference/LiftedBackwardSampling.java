@@ -96,6 +96,8 @@ public class LiftedBackwardSampling extends Sampler {
 		sampler.setNumSamples(numSamples);
 		sampler.setInfoInterval(infoInterval);
 		sampler.setEvidence(evidenceDomainIndices);
+		sampler.setCancellationToken(cancellationToken);
+		sampler.setIntermediateResults(intermediateResults);
 		//sampler.setMaxTrials(maxTrials);
 		//sampler.setSkipFailedSteps(skipFailedSteps);
 		SampledDistribution dist = sampler.infer();
@@ -23,6 +23,7 @@ import java.util.Vector;
 import probcog.bayesnets.core.BeliefNetworkEx;
 import probcog.bayesnets.inference.ITimeLimitedInference;
 import probcog.bayesnets.inference.SampledDistribution;
+import probcog.inference.IntermediateResults;
 import probcog.logic.Disjunction;
 import probcog.logic.Formula;
 import probcog.logic.GroundLiteral;
@@ -77,6 +78,19 @@ public class MCSAT extends Sampler implements ITimeLimitedInference {
 		sampler = new probcog.logic.sat.weighted.MCSAT(kb, gbln.getWorldVars(), gbln.getDatabase());
 		// pass on parameter handling
 		paramHandler.addSubhandler(sampler.getParameterHandler());
+		// pass on cancellation and forward intermediate results, converting them to distributions over the ground network
+		sampler.setCancellationToken(cancellationToken);
+		sampler.setIntermediateResults(new IntermediateResults<GroundAtomDistribution>() {
+			@Override
+			public boolean isDue() {
+				return intermediateResults.isDue();
+			}
+			
+			@Override
+			public void publish(GroundAtomDistribution results) throws Exception {
+				intermediateResults.publish(getSampledDistribution(results));
+			}
+		});
 	}
 	
 	protected void walkCPT4ClauseCollection(CPF cpf, BeliefNode[] domProd, int[] domainIndices, int i) throws Exception {
@@ -141,6 +155,6 @@ public class MCSAT extends Sampler implements ITimeLimitedInference {
 	}
 
 	public SampledDistribution pollResults() throws Exception {		
-		return getSampledDistribution(sampler.pollResults());
+		return intermediateResults.poll();
 	}
 }
@@ -34,21 +34,29 @@ import edu.ksu.cis.bnj.ver3.core.BeliefNode;
 /**
  * SAT-IS Extended (with hard constraints from CPDs) which, for every SAT-IS step, 
  * adds a number of Gibbs steps to explore the subspace given by the sample;
- * the samples are weighted the same as the original SAT-IS sample 
+ * the samples are weighted the same as the original SAT-IS sample.
+ * If Rao-Blackwellization is enabled (parameter "raoBlackwellize"), the Gibbs steps contribute the
+ * full conditional distributions of the nodes rather than the sampled values.
  * @author Dominik Jain
  */
 public class SATISExGibbs extends SATISEx {
 	protected int gibbsSteps = 9;
+	protected boolean raoBlackwellize = false;
 
 	public SATISExGibbs(GroundBLN bln) throws Exception {
 		super(bln);
 		this.paramHandler.add("gibbsSteps", "setNumGibbsSteps");
+		this.paramHandler.add("raoBlackwellize", "setRaoBlackwellize");
 	}
 	
 	public void setNumGibbsSteps(int n) {
 		gibbsSteps = n;
 	}
 	
+	public void setRaoBlackwellize(boolean enabled) {
+		raoBlackwellize = enabled;
+	}
+	
 	@Override
 	protected Sampler getSampler() throws Exception {
 		initSATSampler();
@@ -58,6 +66,10 @@ public class SATISExGibbs extends SATISEx {
 	public class SATIS_BSampler_Gibbs extends SATIS_BSampler {
 
 		public GibbsSampling gibbsSampler;
+		/**
+		 * buffers for the full conditionals computed in the Gibbs steps (if Rao-Blackwellization is enabled)
+		 */
+		protected double[][] conditionals = null;
 		
 		public SATIS_BSampler_Gibbs(BeliefNetworkEx bn, SampleSAT sat, VariableLogicCoupling coupling, Collection<BeliefNode> determinedVars) throws Exception {
 			super(bn, sat, coupling, determinedVars);
@@ -65,13 +77,18 @@ public class SATISExGibbs extends SATISEx {
 		}
 		
 		public void onAddedSample(WeightedSample s) throws Exception {
+			if(raoBlackwellize) {
+				if(conditionals == null)
+					conditionals = gibbsSampler.createConditionals(this.evidenceDomainIndices);
+				s.conditionals = conditionals;
+			}
 			for(int i = 0; i < gibbsSteps; i++) {
-				System.out.println(s.weight);
 				double p = gibbsSampler.gibbsStep(this.evidenceDomainIndices, s);
 				s.weight = this.bn.getWorldProbability(s.nodeDomainIndices) / p;				
 				addSample(s);
 				currentStep++;
 			}
+			s.conditionals = null;
 		}
 	}
 
@@ -24,7 +24,9 @@ import java.util.Vector;
 import java.util.regex.Pattern;
 
 import probcog.bayesnets.inference.SampledDistribution;
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
+import probcog.inference.IntermediateResults;
 import probcog.inference.ParameterHandler;
 import probcog.srl.directed.bln.AbstractGroundBLN;
 
@@ -46,6 +48,14 @@ public abstract class Sampler implements IParameterHandler {
 	protected AbstractGroundBLN gbln;
 	double inferenceTime, initTime;
 	protected boolean initialized = false;
+	/**
+	 * the token via which inference can be cancelled (to be passed on to or checked by the actual inference procedure)
+	 */
+	protected CancellationToken cancellationToken = new CancellationToken();
+	/**
+	 * snapshots of the intermediate results (to be published by the actual inference procedure)
+	 */
+	protected IntermediateResults<SampledDistribution> intermediateResults = new IntermediateResults<SampledDistribution>();
 	
 	public Sampler(AbstractGroundBLN gbln) throws Exception {
 		this.gbln = gbln;
@@ -101,6 +111,29 @@ public abstract class Sampler implements IParameterHandler {
 		infoInterval = n;
 	}
 	
+	/**
+	 * sets the token via which inference can be cancelled
+	 * @param token
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		cancellationToken = token;
+	}
+	
+	/**
+	 * requests that inference be stopped as soon as possible; {@link #infer()} then returns the results obtained thus far
+	 */
+	public void cancel() {
+		cancellationToken.cancel();
+	}
+	
+	public boolean isCancelled() {
+		return cancellationToken.isCancelled();
+	}
+	
+	public IntermediateResults<SampledDistribution> getIntermediateResults() {
+		return intermediateResults;
+	}
+	
 	public final void initialize() throws Exception {
 		if(verbose) 
 			System.out.println("initializing...");
@@ -121,8 +154,11 @@ public abstract class Sampler implements IParameterHandler {
 		// actual inference
 		Stopwatch sw = new Stopwatch();
 		sw.start();
+		intermediateResults.reset();
 		SampledDistribution ret = _infer();
 		inferenceTime = sw.getElapsedTimeSecs();
+		if(ret != null)
+			intermediateResults.publish(ret);
 		return ret;
 	}
 	
@@ -18,11 +18,9 @@
  ******************************************************************************/
 package probcog.srl.mln;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -35,14 +33,16 @@ import java.util.regex.Pattern;
 import probcog.logic.Formula;
 import probcog.logic.parser.ParseException;
 import probcog.logic.sat.weighted.WeightedFormula;
+import probcog.srl.BinaryModelReader;
+import probcog.srl.BinaryModelWriter;
 import probcog.srl.Database;
 import probcog.srl.RelationKey;
 import probcog.srl.RelationalModel;
 import probcog.srl.Signature;
+import probcog.srl.TextFileScanner;
 import probcog.srl.taxonomy.Taxonomy;
 import probcog.tools.JythonInterpreter;
 
-import edu.tum.cs.util.FileUtil;
 
 /**
  * represents a Markov logic network
@@ -67,6 +67,17 @@ public class MarkovLogicNetwork implements RelationalModel {
      */
     protected HashMap<String, Integer> functionalPreds;
     double sumAbsWeights = 0;
+    
+    protected static final String identifier = "\\w+";
+    protected static final String constant = "(?:[A-Z]\\w*|[0-9]+)";
+    /**
+     * pattern for predicate declarations
+     */
+    protected static final Pattern predDecl = Pattern.compile(String.format("(%s)\\(\\s*(%s!?(?:\\s*,\\s*%s!?)*)\\s*\\)", identifier, identifier, identifier));
+    /**
+     * pattern for domain declarations
+     */
+    protected static final Pattern domDecl = Pattern.compile(String.format("(%s)\\s*=\\s*\\{\\s*(%s(?:\\s*,\\s*%s)*)\\s*\\}", identifier, constant, constant));
 
     /**
      * constructs a Markov logic network from an MLN file
@@ -74,22 +85,87 @@ public class MarkovLogicNetwork implements RelationalModel {
      * @throws Exception 
      */
     public MarkovLogicNetwork(String mlnFileLoc) throws Exception {
-    	this();
-        // read the complete MLN-File and save it in a String
-    	mlnFile = new File(mlnFileLoc);
-        String content = FileUtil.readTextFile(mlnFile);
-        read(content);
+    	this(new String[]{mlnFileLoc});
     }
     
+    /**
+     * constructs a Markov logic network from several MLN files, which are read one after the other
+     * (hard formulas are added only after all files have been read)
+     * @param mlnFiles locations of the MLN files
+     * @throws Exception
+     */
     public MarkovLogicNetwork(String[] mlnFiles) throws Exception {
     	this();
     	mlnFile = new File(mlnFiles[0]);
-    	StringBuffer content = new StringBuffer();
+    	ArrayList<Formula> hardFormulas = new ArrayList<Formula>();
     	for(String filename : mlnFiles) {
-    		content.append(FileUtil.readTextFile(filename));
-    		content.append("\n");
+    		TextFileScanner in = new TextFileScanner(new File(filename), false);
+    		try {
+    			read(in, hardFormulas);
+    		}
+    		finally {
+    			in.close();
+    		}
+    	}
+    	for(Formula f : hardFormulas)
+    		addHardFormula(f);
+    }
+    
+    /**
+     * constructs a Markov logic network from a binary model file that was written using {@link #writeBinary(BinaryModelWriter)}
+     * @param in
+     * @throws Exception
+     */
+    public MarkovLogicNetwork(BinaryModelReader in) throws Exception {
+    	this();
+    	String filename = in.readString();
+    	if(filename != null)
+    		mlnFile = new File(filename);
+    	for(int n = in.readInt(); n > 0; n--)
+    		addSignature(in.readSignature());
+    	for(int n = in.readInt(); n > 0; n--) {
+    		String predName = in.readString();
+    		addFunctionalDependency(predName, in.readInt());
+    	}
+    	for(int n = in.readInt(); n > 0; n--) {
+    		String domName = in.readString();
+    		addGuaranteedDomainElements(domName, in.readStrings());
+    	}
+    	for(int n = in.readInt(); n > 0; n--) {
+    		Formula f = in.readFormula();
+    		double weight = in.readDouble();
+    		formulas.add(new WeightedFormula(f, weight, in.readBoolean()));
     	}
-    	read(content.toString());
+    	sumAbsWeights = in.readDouble();
+    }
+    
+    /**
+     * writes this MLN (with all formulas in parsed form) to a binary model file
+     * @param out
+     * @throws Exception
+     */
+    public void writeBinary(BinaryModelWriter out) throws Exception {
+    	out.writeString(mlnFile == null ? null : mlnFile.getPath());
+    	out.writeInt(signatures.size());
+    	for(Signature sig : signatures.values())
+    		out.writeSignature(sig);
+    	out.writeInt(functionalPreds.size());
+    	for(java.util.Map.Entry<String, Integer> e : functionalPreds.entrySet()) {
+    		out.writeString(e.getKey());
+    		out.writeInt(e.getValue());
+    	}
+    	out.writeInt(guaranteedDomainElements.size());
+    	for(java.util.Map.Entry<String, HashSet<String>> e : guaranteedDomainElements.entrySet()) {
+    		out.writeString(e.getKey());
+    		out.writeStrings(e.getValue());
+    	}
+    	out.writeInt(formulas.size());
+    	for(WeightedFormula wf : formulas) {
+    		out.writeFormula(wf.formula);
+    		out.writeDouble(wf.weight);
+    		out.writeBoolean(wf.isHard);
+    	}
+    	out.writeDouble(sumAbsWeights);
     }
     
     /**
@@ -177,29 +253,24 @@ public class MarkovLogicNetwork implements RelationalModel {
      * @throws Exception 
      */
     public void read(String content) throws Exception {
-        String actLine;
         ArrayList<Formula> hardFormulas = new ArrayList<Formula>();
-    	
-        // remove all comments
-        Pattern comments = Pattern.compile("//.*?$|/\\*.*?\\*/", Pattern.MULTILINE | Pattern.DOTALL);
-        Matcher matcher = comments.matcher(content);
-        content = matcher.replaceAll("");
-        BufferedReader breader = new BufferedReader(new StringReader(content));
-
-        String identifier = "\\w+";
-        String constant = "(?:[A-Z]\\w*|[0-9]+)";
-        // predicate declaration
-        Pattern predDecl = Pattern.compile(String.format("(%s)\\(\\s*(%s!?(?:\\s*,\\s*%s!?)*)\\s*\\)", identifier, identifier, identifier));
-        // domain declaration
-        Pattern domDecl = Pattern.compile(String.format("(%s)\\s*=\\s*\\{\\s*(%s(?:\\s*,\\s*%s)*)\\s*\\}", identifier, constant, constant));
-        
+        read(new TextFileScanner(content), hardFormulas);
+        for (Formula f : hardFormulas)
+            addHardFormula(f);
+    }
+    
+    /**
+     * reads the declarations and formulas of an MLN file line by line
+     * @param in  the reader from which to obtain the (comment-free) lines
+     * @param hardFormulas  the collection to which hard formulas are added (rather than adding them to the model immediately)
+     * @throws Exception
+     */
+    protected void read(TextFileScanner in, Collection<Formula> hardFormulas) throws Exception {
         JythonInterpreter jython = null;
         
         // parse line by line         
-        for(actLine = breader.readLine(); breader != null && actLine != null; actLine = breader.readLine()) {
-        	String line = actLine.trim();
-        	if(line.length() == 0)
-            	continue;            
+        String line;
+        while((line = in.nextLine()) != null) {
 
             // hard constraint
             if(line.endsWith(".")) {
@@ -218,7 +289,7 @@ public class MarkovLogicNetwork implements RelationalModel {
             // predicate declaration
             Matcher m = predDecl.matcher(line);
             if(m.matches()) {                 
-                String predName = m.group(1);
+                String predName = in.intern(m.group(1));
                 Signature sig = getSignature(predName);
                 if(sig != null) {
                 	throw new Exception(String.format("Signature declared in line '%s' was previously declared as '%s'", line, sig.toString()));
@@ -232,6 +303,7 @@ public class MarkovLogicNetwork implements RelationalModel {
                         if(oldValue != null)
                         	throw new Exception(String.format("Predicate '%s' was declared to have more than one functionally determined parameter", predName));
                     }
+                    argTypes[c] = in.intern(argTypes[c]);
                 }
                 sig = new Signature(predName, "boolean", argTypes);
                 addSignature(sig);
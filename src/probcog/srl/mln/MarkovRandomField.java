@@ -23,10 +23,13 @@ import java.io.PrintStream;
 import java.util.Iterator;
 import java.util.Vector;
 
+import probcog.inference.Metrics;
 import probcog.logic.Formula;
+import probcog.logic.FormulaGrounder;
 import probcog.logic.GroundAtom;
 import probcog.logic.IPossibleWorld;
 import probcog.logic.WorldVariables;
+import probcog.logic.WorldVariables.Block;
 import probcog.logic.Formula.FormulaSimplification;
 import probcog.logic.sat.weighted.WeightedFormula;
 import probcog.srl.Database;
@@ -47,22 +50,31 @@ public class MarkovRandomField implements Iterable<WeightedFormula> {
     /**
      * whether to simplify grounded formulas based on evidence
      */
-    protected final boolean simplifyGroundedFormulas = true;
+    protected boolean simplifyGroundedFormulas;
     
     /**
      * @param mln a Markov logic network
      * @param db an evidence database containing the set of objects for which to ground the MLN  
      * @param storeFormula whether to store the grounded formulas that are generated
      * @param gc an optional callback (which is called for each grounded formula), may be null
-     * @throws Exception 
+     * @param simplify whether to simplify ground formulas based on the evidence; if false, the ground formulas depend only on the set of objects, such that the MRF can be reused for other evidence (see {@link #setDatabase(Database)}) 
      * @throws Exception 
      */
-    public MarkovRandomField(MarkovLogicNetwork mln, Database db, boolean storeFormulas, GroundingCallback gc) throws Exception {
+    public MarkovRandomField(MarkovLogicNetwork mln, Database db, boolean storeFormulas, GroundingCallback gc, boolean simplify) throws Exception {
         this.db = db;
         this.vars = new WorldVariables();
         this.mln = mln;        
+        this.simplifyGroundedFormulas = simplify;
+        long startTime = System.nanoTime();
         groundVariables();
+        Metrics.record("grounding.variables.time", (System.nanoTime() - startTime) / 1e9);
         groundFormulas(storeFormulas, gc);
+        Metrics.record("grounding.time", (System.nanoTime() - startTime) / 1e9);
+        Metrics.record("grounding.groundAtoms", vars.size());
+    }
+    
+    public MarkovRandomField(MarkovLogicNetwork mln, Database db, boolean storeFormulas, GroundingCallback gc) throws Exception {
+    	this(mln, db, storeFormulas, gc, true);
     }
     
     public MarkovRandomField(MarkovLogicNetwork mln, Database db) throws Exception {
@@ -90,31 +102,18 @@ public class MarkovRandomField implements Iterable<WeightedFormula> {
     protected void groundVariables(Signature sig, String[] args, int i, Integer functionallyDeterminedArg) throws Exception {
     	if(i == args.length) {
     		if(functionallyDeterminedArg != null) {
-    			// build the block of variables and check if we have positive evidence for one of them
+    			// build the block of variables
     			Vector<GroundAtom> block = new Vector<GroundAtom>();
         		Iterable<String> dom = db.getDomain(sig.argTypes[functionallyDeterminedArg]);
         		if(dom == null)
         			throw new Exception("Domain " + sig.argTypes[functionallyDeterminedArg] + " not in database");
-        		GroundAtom trueOne = null;
         		for(String value : dom) {
         			args[functionallyDeterminedArg] = value;
-        			GroundAtom ga = new GroundAtom(sig.functionName, args.clone()); 
-        			block.add(ga);
-        			Variable var = db.getVariable(ga.toString());
-        			if(var != null && var.isTrue()) {
-        				if(trueOne != null)
-        					throw new Exception(String.format("The block the variable '%s' is in contains more than one true ground atom", ga.toString()));
-        				trueOne = ga; 
-        			}
+        			block.add(new GroundAtom(sig.functionName, args.clone()));
         		}
-        		// if we have positive evidence, explicitly set the others to false in the database (to make full use of the evidence when grounding the formulas later on)
-        		if(trueOne != null) {
-        			for(GroundAtom ga : block)
-        				if(ga != trueOne && !db.contains(ga.toString()))
-        					db.addVariable(new Variable(ga.predicate, ga.args, "False", mln));
-        		}
-        		// add the block to the set of vars
-    			vars.addBlock(block);
+        		// add the block to the set of vars and check if we have positive evidence for one of its atoms
+    			Block b = vars.addBlock(block);
+    			applyBlockEvidence(b);
     			//System.out.println("Block: " + block);
     		}
     		else {
@@ -144,13 +143,16 @@ public class MarkovRandomField implements Iterable<WeightedFormula> {
      */
     protected void groundFormulas(boolean makelist, GroundingCallback gc) throws Exception {
         weightedFormulas = new Vector<WeightedFormula>();
+        FormulaGrounder grounder = new FormulaGrounder(db, vars);
+        int i = 0, numGroundFormulas = 0;
         for(WeightedFormula wf : mln.getFormulas()) {
+        	long startTime = System.nanoTime();
         	double weight = wf.weight;
         	boolean isHard = wf.isHard;
         	FormulaSimplification simplification = simplifyGroundedFormulas ? (isHard ? FormulaSimplification.OnDisallowFalse : FormulaSimplification.On) : FormulaSimplification.None;
         	Vector<Formula> groundings;
         	try {
-        		groundings = wf.formula.getAllGroundings(db, vars, simplification);
+        		groundings = grounder.getAllGroundings(wf.formula, simplification);
         	}
         	catch(Exception e) {
         		throw new Exception("Error while grounding formula '" + wf.formula.toString() + "'", e);
@@ -163,7 +165,48 @@ public class MarkovRandomField implements Iterable<WeightedFormula> {
                 if(gc != null)
                     gc.onGroundedFormula(gwf, this);
             }
+            numGroundFormulas += groundings.size();
+            Metrics.record("grounding.formula.F" + (i++) + ".time", (System.nanoTime() - startTime) / 1e9);
         }
+        Metrics.record("grounding.groundFormulas", numGroundFormulas);
+    }
+    
+    /**
+     * checks if we have positive evidence for one of the atoms in a block, and, if so, explicitly sets 
+     * the others to false in the database (to make full use of the evidence when grounding the formulas later on)
+     * @param block
+     * @throws Exception
+     */
+    protected void applyBlockEvidence(Block block) throws Exception {
+    	GroundAtom trueOne = null;
+    	for(GroundAtom ga : block) {
+    		Variable var = db.getVariable(ga.toString());
+    		if(var != null && var.isTrue()) {
+    			if(trueOne != null)
+    				throw new Exception(String.format("The block the variable '%s' is in contains more than one true ground atom", ga.toString()));
+    			trueOne = ga; 
+    		}
+    	}
+    	if(trueOne != null) {
+    		for(GroundAtom ga : block)
+    			if(ga != trueOne && !db.contains(ga.toString()))
+    				db.addVariable(new Variable(ga.predicate, ga.args, "False", mln));
+    	}
+    }
+    
+    /**
+     * replaces the evidence database of this MRF, which is possible only if the ground formulas
+     * were not simplified based on the evidence; the database must contain the same set of objects 
+     * as the one the MRF was grounded for
+     * @param db
+     * @throws Exception
+     */
+    public void setDatabase(Database db) throws Exception {
+    	if(simplifyGroundedFormulas)
+    		throw new Exception("Cannot replace the database of an MRF whose ground formulas were simplified based on the evidence");
+    	this.db = db;
+    	for(Block b : vars.getBlocks())
+    		applyBlockEvidence(b);
     }
     
     /**
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Vector;
 import java.util.regex.Pattern;
 
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
 import probcog.logic.GroundAtom;
@@ -39,6 +40,10 @@ public abstract class InferenceAlgorithm implements IParameterHandler {
 	protected boolean debug = false;	
 	protected boolean verbose = true;
 	protected int maxSteps = 5000;
+	/**
+	 * the token via which inference can be cancelled (to be checked by or passed on to the actual inference procedure)
+	 */
+	protected CancellationToken cancellationToken = new CancellationToken();
 	
 	public InferenceAlgorithm(MarkovRandomField mrf) throws Exception {
 		this.mrf = mrf;
@@ -60,6 +65,14 @@ public abstract class InferenceAlgorithm implements IParameterHandler {
 		this.maxSteps = maxSteps;
 	}
 	
+	/**
+	 * sets the token via which inference can be cancelled, in which case the results obtained thus far are returned
+	 * @param token
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+	}
+	
 	public abstract double getResult(GroundAtom ga);	
 	
 	public ArrayList<InferenceResult> getResults(Iterable<String> queries) {
@@ -47,6 +47,7 @@ public class MCSAT extends InferenceAlgorithm {
 	@Override
 	public ArrayList<InferenceResult> infer(Iterable<String> queries) throws Exception {
 		sampler.setDebugMode(debug);
+		sampler.setCancellationToken(cancellationToken);
 		sampler.run(maxSteps);
 		return getResults(queries);
 	}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ * 
+ * This file is part of ProbCog.
+ * 
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.logic.sat.weighted;
+
+import java.io.File;
+
+import probcog.logic.GroundAtom;
+import probcog.logic.sat.weighted.MCSAT.GroundAtomDistribution;
+import probcog.srl.Database;
+import probcog.srl.mln.MarkovLogicNetwork;
+import probcog.srl.mln.MarkovRandomField;
+
+/**
+ * checks the R-hat based stopping criterion of multi-chain MC-SAT with Rao-Blackwellization, 
+ * where the samples are probabilities rather than truth values;
+ * run from the repository root with the compiled classes on the class path (exits with status 1 on failure)
+ * @author Dominik Jain
+ */
+public class MCSATRHatTest {
+	
+	static int failures = 0;
+	
+	static void check(boolean condition, String message) {
+		System.out.println((condition ? "OK:     " : "FAILED: ") + message);
+		if(!condition)
+			failures++;
+	}
+	
+	/**
+	 * creates a chain over a single variable whose Rao-Blackwellized samples alternate between the two given values
+	 */
+	static GroundAtomDistribution alternatingChain(MarkovRandomField mrf, double p1, double p2, int n) {
+		GroundAtomDistribution d = new GroundAtomDistribution(mrf.getWorldVariables());
+		double[] s1 = new double[d.sums.length], s2 = new double[d.sums.length];
+		s1[0] = p1;
+		s2[0] = p2;
+		for(int i = 0; i < n; i++)
+			d.addSample(i % 2 == 0 ? s1 : s2, 1.0);
+		return d;
+	}
+	
+	/**
+	 * two chains that have settled in clearly different regions (means 0.3 and 0.5) with little spread within each chain
+	 * must not be considered converged; the variance of a Bernoulli variable with the same mean (which is much larger
+	 * than the actual within-chain variance) would have hidden the disagreement (R-hat approx. 1.04)
+	 */
+	static void testDispersedChains(MarkovRandomField mrf) {
+		GroundAtomDistribution[] chains = new GroundAtomDistribution[] {
+			alternatingChain(mrf, 0.29, 0.31, 100), 
+			alternatingChain(mrf, 0.49, 0.51, 100)
+		};
+		double rHat = MCSAT.computeMaxRHat(chains);
+		check(rHat > 2.0, String.format("dispersed Rao-Blackwellized chains are not converged (R-hat = %f)", rHat));
+		
+		chains = new GroundAtomDistribution[] {
+			alternatingChain(mrf, 0.29, 0.31, 100), 
+			alternatingChain(mrf, 0.31, 0.29, 100)
+		};
+		rHat = MCSAT.computeMaxRHat(chains);
+		check(rHat < 1.05, String.format("agreeing Rao-Blackwellized chains are converged (R-hat = %f)", rHat));
+	}
+	
+	/**
+	 * for truth values, the empirical variance coincides with the variance of a Bernoulli variable
+	 */
+	static void testIndicatorChains(MarkovRandomField mrf) {
+		double n = 40;
+		GroundAtomDistribution[] chains = new GroundAtomDistribution[] {
+			alternatingChain(mrf, 1.0, 0.0, (int)n), 
+			alternatingChain(mrf, 1.0, 1.0, (int)n / 2)
+		};
+		chains[1].addDistribution(alternatingChain(mrf, 1.0, 0.0, (int)n / 2));
+		double mean1 = 0.5, mean2 = 0.75, mean = (mean1 + mean2) / 2;
+		double W = (mean1 * (1 - mean1) + mean2 * (1 - mean2)) / 2 * n / (n - 1);
+		double B = n * ((mean1 - mean) * (mean1 - mean) + (mean2 - mean) * (mean2 - mean));
+		double expected = Math.sqrt(((n - 1) / n * W + B / n) / W);
+		double rHat = MCSAT.computeMaxRHat(chains);
+		check(Math.abs(rHat - expected) < 1e-9, String.format("R-hat of indicator chains matches the Bernoulli variance (R-hat = %f, expected %f)", rHat, expected));
+	}
+	
+	/**
+	 * runs Rao-Blackwellized multi-chain MC-SAT with early stopping on the smokers model and compares the results 
+	 * to those of a long single-chain run
+	 */
+	static void testEarlyStopping(MarkovRandomField mrf) throws Exception {
+		final int steps = 20000;
+		final double maxRHat = 1.01;
+		
+		MCSAT reference = new MCSAT(new WeightedClausalKB(mrf, true), mrf.getWorldVariables(), mrf.getDb());
+		reference.setVerbose(false);
+		reference.setRaoBlackwellize(true);
+		reference.run(steps);
+		
+		MCSAT sampler = new MCSAT(new WeightedClausalKB(mrf, true), mrf.getWorldVariables(), mrf.getDb());
+		sampler.setVerbose(false);
+		sampler.setRaoBlackwellize(true);
+		sampler.setNumChains(4);
+		sampler.setInfoInterval(100);
+		sampler.setMaxRHat(maxRHat);
+		sampler.run(steps);
+		
+		check(sampler.getLastMaxRHat() < maxRHat, String.format("chains stopped after convergence (R-hat = %f)", sampler.getLastMaxRHat()));
+		double maxDev = 0.0;
+		for(GroundAtom ga : mrf.getWorldVariables()) {
+			if(mrf.getDb().getVariableValue(ga.toString(), false) != null)
+				continue;
+			maxDev = Math.max(maxDev, Math.abs(sampler.getResult(ga) - reference.getResult(ga)));
+		}
+		check(maxDev < 0.04, String.format("results of the stopped chains agree with the reference (max. deviation %f)", maxDev));
+	}
+	
+	public static void main(String[] args) throws Exception {
+		String dir = args.length > 0 ? args[0] : "test/models/smokers";
+		MarkovLogicNetwork mln = new MarkovLogicNetwork(new File(dir, "wts.smoking.mln").getPath());
+		Database db = new Database(mln);
+		db.readMLNDB(new File(dir, "smoking-test.db").getPath());
+		MarkovRandomField mrf = mln.ground(db);
+		
+		testDispersedChains(mrf);
+		testIndicatorChains(mrf);
+		testEarlyStopping(mrf);
+		
+		if(failures > 0) {
+			System.out.println(failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+}